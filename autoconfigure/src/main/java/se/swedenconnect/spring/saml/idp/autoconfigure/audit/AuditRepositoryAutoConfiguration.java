@@ -26,7 +26,9 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import se.swedenconnect.spring.saml.idp.audit.repository.AsyncAuditEventRepository;
 import se.swedenconnect.spring.saml.idp.audit.repository.AuditEventMapper;
+import se.swedenconnect.spring.saml.idp.audit.repository.AuditFileWriter;
 import se.swedenconnect.spring.saml.idp.audit.repository.DelegatingAuditEventRepository;
 import se.swedenconnect.spring.saml.idp.audit.repository.FileBasedAuditEventRepository;
 import se.swedenconnect.spring.saml.idp.audit.repository.FilteringAuditEventRepository;
@@ -97,8 +99,10 @@ public class AuditRepositoryAutoConfiguration {
         this.properties.getIncludeEvents(), this.properties.getExcludeEvents());
 
     if (this.properties.getFile() != null) {
-      repositories
-          .add(new FileBasedAuditEventRepository(this.properties.getFile().getLogFile(), auditEventMapper, filter));
+      final AuditRepositoryConfigurationProperties.FileRepository file = this.properties.getFile();
+      final AuditFileWriter writer = new AuditFileWriter(file.getLogFile(), file.toFsyncPolicy(),
+          file.getFsyncInterval(), AuditFileWriter.DEFAULT_QUEUE_CAPACITY, AuditFileWriter.DEFAULT_BUFFER_SIZE);
+      repositories.add(new FileBasedAuditEventRepository(writer, auditEventMapper, filter));
     }
     if (this.properties.getLogSystem() != null) {
       repositories.add(new LoggerAuditEventRepository(this.properties.getLogSystem().getLoggerName(),
@@ -127,7 +131,20 @@ public class AuditRepositoryAutoConfiguration {
       repositories.add(new MemoryBasedAuditEventRepository(filter));
     }
 
-    return repositories.size() == 1 ? repositories.get(0) : new DelegatingAuditEventRepository(repositories);
+    final AuditEventRepository repository =
+        repositories.size() == 1 ? repositories.get(0) : new DelegatingAuditEventRepository(repositories);
+
+    // If configured, write events off the request thread ...
+    //
+    final AuditRepositoryConfigurationProperties.AsyncConfiguration async = this.properties.getAsync();
+    if (async != null && async.isEnabled()) {
+      final AsyncAuditEventRepository asyncRepository = new AsyncAuditEventRepository(repository,
+          async.getCapacity(), async.toOverflowPolicy(), async.getDrainThreads(), async.getBatchSize());
+      asyncRepository.setShutdownTimeout(async.getShutdownTimeout());
+      asyncRepository.setFlushInterval(async.getFlushInterval());
+      return asyncRepository;
+    }
+    return repository;
   }
 
   /**
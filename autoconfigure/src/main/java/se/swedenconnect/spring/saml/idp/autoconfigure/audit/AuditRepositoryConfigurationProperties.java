@@ -23,10 +23,14 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
+import se.swedenconnect.spring.saml.idp.audit.repository.AsyncAuditEventRepository;
+import se.swedenconnect.spring.saml.idp.audit.repository.AuditFileWriter;
 import se.swedenconnect.spring.saml.idp.audit.repository.MemoryBasedAuditEventRepository;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Configuration properties for auditing.
@@ -79,6 +83,13 @@ public class AuditRepositoryConfigurationProperties implements InitializingBean
   @Getter
   private final List<String> excludeEvents = new ArrayList<>();
 
+  /**
+   * Settings for writing audit events asynchronously, i.e., off the request thread.
+   */
+  @Getter
+  @Setter
+  private AsyncConfiguration async;
+
   /** {@inheritDoc} */
   @Override
   public void afterPropertiesSet() throws Exception {
@@ -94,6 +105,9 @@ public class AuditRepositoryConfigurationProperties implements InitializingBean
     if (this.redis != null) {
       this.redis.afterPropertiesSet();
     }
+    if (this.async != null) {
+      this.async.afterPropertiesSet();
+    }
 
     // We need at least one repository
     if (this.file == null && this.inMemory == null && this.logSystem == null && this.redis != null) {
@@ -114,10 +128,49 @@ public class AuditRepositoryConfigurationProperties implements InitializingBean
     @Setter
     private String logFile;
 
+    /**
+     * Tells when written events are forced to disk - "event" (after each event), "batch" (after each batch of events
+     * written by the writer thread) or "interval" (see fsync-interval). The default is "batch".
+     */
+    @Getter
+    @Setter
+    private String fsyncPolicy;
+
+    /**
+     * The interval at which written events are forced to disk when fsync-policy is "interval". The default is 1
+     * second.
+     */
+    @Getter
+    @Setter
+    private Duration fsyncInterval;
+
+    /**
+     * Gets the fsync policy as an {@link AuditFileWriter.FsyncPolicy}.
+     *
+     * @return the fsync policy
+     */
+    public AuditFileWriter.FsyncPolicy toFsyncPolicy() {
+      return AuditFileWriter.FsyncPolicy.valueOf(this.fsyncPolicy.toUpperCase(Locale.ROOT));
+    }
+
     /** {@inheritDoc} */
     @Override
     public void afterPropertiesSet() {
       Assert.hasText(this.logFile, "saml.idp.audit.file.log-file must be assigned");
+      if (this.fsyncPolicy == null) {
+        this.fsyncPolicy = "batch";
+      }
+      try {
+        this.toFsyncPolicy();
+      }
+      catch (final IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "Invalid value for saml.idp.audit.file.fsync-policy - expected 'event', 'batch' or 'interval'");
+      }
+      if (this.fsyncInterval == null) {
+        this.fsyncInterval = AuditFileWriter.DEFAULT_FSYNC_INTERVAL;
+      }
+      Assert.isTrue(this.fsyncInterval.isPositive(), "saml.idp.audit.file.fsync-interval must be positive");
     }
 
   }
@@ -213,6 +266,23 @@ public class AuditRepositoryConfigurationProperties implements InitializingBean
     @Setter
     private String type;
 
+    /**
+     * The maximum number of events to keep in the Redis list. When the list grows beyond this length the oldest events
+     * are removed. Only applicable for the "list" type. If not set, the list is not trimmed.
+     */
+    @Getter
+    @Setter
+    private Long maxLength;
+
+    /**
+     * If set, secondary indexes (per principal and per event type) are maintained so that searches do not have to read
+     * the entire list/time series. Index entries older than the given period are removed. Paged searches of a Redis
+     * list require indexing.
+     */
+    @Getter
+    @Setter
+    private Duration indexRetention;
+
     /** {@inheritDoc} */
     @Override
     public void afterPropertiesSet() {
@@ -232,6 +302,13 @@ public class AuditRepositoryConfigurationProperties implements InitializingBean
               "Invalid value for saml.idp.audit.redis.type - expected 'list' or 'timeseries'");
         }
       }
+      if (this.maxLength != null) {
+        Assert.isTrue(this.maxLength > 0, "saml.idp.audit.redis.max-length must be positive");
+      }
+      if (this.indexRetention != null) {
+        Assert.isTrue(this.indexRetention.toSeconds() >= 1,
+            "saml.idp.audit.redis.index-retention must be at least one second");
+      }
       if (!StringUtils.hasText(this.name)) {
         if ("list".equals(this.type)) {
           this.name = "audit:list";
@@ -245,4 +322,106 @@ public class AuditRepositoryConfigurationProperties implements InitializingBean
 
   }
 
+  /**
+   * Settings for writing audit events asynchronously.
+   */
+  public static class AsyncConfiguration implements InitializingBean {
+
+    /**
+     * Whether audit events should be buffered and written to the repositories by background threads. The default is
+     * {@code false}.
+     */
+    @Getter
+    @Setter
+    private boolean enabled = false;
+
+    /**
+     * The maximum number of events that may be buffered.
+     */
+    @Getter
+    @Setter
+    private Integer capacity;
+
+    /**
+     * What to do when the buffer is full - "block", "drop-oldest" or "drop-newest". The default is "block".
+     */
+    @Getter
+    @Setter
+    private String overflowPolicy;
+
+    /**
+     * The number of threads that write buffered events to the repositories. The default is 1.
+     */
+    @Getter
+    @Setter
+    private Integer drainThreads;
+
+    /**
+     * The maximum number of events written in one batch.
+     */
+    @Getter
+    @Setter
+    private Integer batchSize;
+
+    /**
+     * The maximum time to wait for a batch to fill up before it is written. Setting this gives fewer, and larger,
+     * writes to the repositories. The default is 0, meaning that events are written as soon as they are available.
+     */
+    @Getter
+    @Setter
+    private Duration flushInterval;
+
+    /**
+     * The maximum time to wait for buffered events to be written when the application is shut down.
+     */
+    @Getter
+    @Setter
+    private Duration shutdownTimeout;
+
+    /**
+     * Gets the overflow policy as an {@link AsyncAuditEventRepository.OverflowPolicy}.
+     *
+     * @return the overflow policy
+     */
+    public AsyncAuditEventRepository.OverflowPolicy toOverflowPolicy() {
+      return AsyncAuditEventRepository.OverflowPolicy.valueOf(
+          this.overflowPolicy.toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void afterPropertiesSet() {
+      if (this.capacity == null) {
+        this.capacity = AsyncAuditEventRepository.DEFAULT_CAPACITY;
+      }
+      Assert.isTrue(this.capacity > 0, "saml.idp.audit.async.capacity must be positive");
+      if (this.overflowPolicy == null) {
+        this.overflowPolicy = "block";
+      }
+      try {
+        this.toOverflowPolicy();
+      }
+      catch (final IllegalArgumentException e) {
+        throw new IllegalArgumentException("Invalid value for saml.idp.audit.async.overflow-policy"
+            + " - expected 'block', 'drop-oldest' or 'drop-newest'");
+      }
+      if (this.drainThreads == null) {
+        this.drainThreads = 1;
+      }
+      Assert.isTrue(this.drainThreads > 0, "saml.idp.audit.async.drain-threads must be positive");
+      if (this.batchSize == null) {
+        this.batchSize = AsyncAuditEventRepository.DEFAULT_BATCH_SIZE;
+      }
+      Assert.isTrue(this.batchSize > 0, "saml.idp.audit.async.batch-size must be positive");
+      if (this.flushInterval == null) {
+        this.flushInterval = Duration.ZERO;
+      }
+      Assert.isTrue(!this.flushInterval.isNegative(), "saml.idp.audit.async.flush-interval must not be negative");
+      if (this.shutdownTimeout == null) {
+        this.shutdownTimeout = AsyncAuditEventRepository.DEFAULT_SHUTDOWN_TIMEOUT;
+      }
+    }
+
+  }
+
 }
@@ -20,6 +20,7 @@ import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
@@ -34,17 +35,28 @@ import se.swedenconnect.spring.saml.idp.audit.repository.RedisListAuditEventRepo
 @ConditionalOnMissingBean(AuditEventRepository.class)
 @ConditionalOnBean(StringRedisTemplate.class)
 @AutoConfiguration(before = AuditRepositoryAutoConfiguration.class)
+@EnableConfigurationProperties(AuditRepositoryConfigurationProperties.class)
 public class RedisAuditRepositoryAutoConfiguration {
 
   /**
    * Creates an {@link AuditEventRepositoryFactory} that creates a {@link RedisListAuditEventRepository} bean.
    *
    * @param redisTemplate the Redis template
+   * @param properties the audit properties
    * @return an {@link AuditEventRepositoryFactory}
    */
   @Bean
-  AuditEventRepositoryFactory redisListRepository(final StringRedisTemplate redisTemplate) {
-    return (name, mapper, filter) -> new RedisListAuditEventRepository(redisTemplate, name, mapper, filter);
+  AuditEventRepositoryFactory redisListRepository(final StringRedisTemplate redisTemplate,
+      final AuditRepositoryConfigurationProperties properties) {
+    return (name, mapper, filter) -> {
+      final RedisListAuditEventRepository repository =
+          new RedisListAuditEventRepository(redisTemplate, name, mapper, filter);
+      if (properties.getRedis() != null) {
+        repository.setMaxLength(properties.getRedis().getMaxLength());
+        repository.setIndexRetention(properties.getRedis().getIndexRetention());
+      }
+      return repository;
+    };
   }
 
 }
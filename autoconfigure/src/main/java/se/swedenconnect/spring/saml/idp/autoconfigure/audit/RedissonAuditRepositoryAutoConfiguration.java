@@ -40,11 +40,20 @@ public class RedissonAuditRepositoryAutoConfiguration {
    * Creates an {@link AuditEventRepositoryFactory} that creates a {@link RedissonTimeSeriesAuditEventRepository} bean.
    *
    * @param redissonClient the Redisson client bean
+   * @param properties the audit properties
    * @return an {@link AuditEventRepositoryFactory}
    */
   @Bean
-  AuditEventRepositoryFactory redisTimeseriesRepository(final RedissonClient redissonClient) {
-    return (name, mapper, filter) -> new RedissonTimeSeriesAuditEventRepository(redissonClient, name, mapper, filter);
+  AuditEventRepositoryFactory redisTimeseriesRepository(final RedissonClient redissonClient,
+      final AuditRepositoryConfigurationProperties properties) {
+    return (name, mapper, filter) -> {
+      final RedissonTimeSeriesAuditEventRepository repository =
+          new RedissonTimeSeriesAuditEventRepository(redissonClient, name, mapper, filter);
+      if (properties.getRedis() != null) {
+        repository.setIndexRetention(properties.getRedis().getIndexRetention());
+      }
+      return repository;
+    };
   }
 
 }
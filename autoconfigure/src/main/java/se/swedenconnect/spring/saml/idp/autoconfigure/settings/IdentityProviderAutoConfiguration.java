@@ -122,6 +122,11 @@ public class IdentityProviderAutoConfiguration {
         .maxMessageAge(this.properties.getMaxMessageAge())
         .ssoDurationLimit(this.properties.getSsoDurationLimit())
         .supportsUserMessage(this.properties.getSupportsUserMessage())
+        .fastRequestDecoding(this.properties.getFastRequestDecoding())
+        .maxInflatedRequestSize(this.properties.getMaxInflatedRequestSize())
+        .stripedMessageIdGenerator(this.properties.getStripedMessageIdGenerator())
+        .lowCardinalitySpTag(this.properties.getLowCardinalitySpTag())
+        .compactPeerMetadata(this.properties.getSession().getCompactPeerMetadata())
         .authnContextResolver(authnContextResolver)
         .credentials(CredentialSettings.builder()
             .defaultCredential(this.defaultCredential)
@@ -130,6 +135,9 @@ public class IdentityProviderAutoConfiguration {
             .encryptCredential(this.encryptCredential)
             .previousEncryptCredential(this.previousEncryptCredential)
             .metadataSignCredential(this.metadataSignCredential)
+            .maxSigningSessions(Optional.ofNullable(this.properties.getCredentials())
+                .map(IdentityProviderConfigurationProperties.CredentialConfigurationProperties::getMaxSigningSessions)
+                .orElse(null))
             .build());
 
     if (this.properties.getEndpoints() != null) {
@@ -148,6 +156,9 @@ public class IdentityProviderAutoConfiguration {
               .encryptAssertions(this.properties.getAssertions().getEncrypt())
               .notBeforeDuration(this.properties.getAssertions().getNotBefore())
               .notOnOrAfterDuration(this.properties.getAssertions().getNotAfter())
+              .signingPolicy(this.properties.getAssertions().getSigningPolicy())
+              .entityCategorySigningPolicies(this.properties.getAssertions().getEntityCategorySigningPolicies())
+              .spSigningPolicies(this.properties.getAssertions().getSpSigningPolicies())
               .build());
     }
     if (this.properties.getMetadata() != null) {
@@ -155,6 +166,7 @@ public class IdentityProviderAutoConfiguration {
           .template(this.properties.getMetadata().getTemplate())
           .cacheDuration(this.properties.getMetadata().getCacheDuration())
           .validityPeriod(this.properties.getMetadata().getValidityPeriod())
+          .refreshInterval(this.properties.getMetadata().getRefreshInterval())
           .digestMethods(this.properties.getMetadata().getDigestMethods())
           .digestMethodsUnderRole(this.properties.getMetadata().isIncludeDigestMethodsUnderRole())
           .signingMethods(Optional.ofNullable(this.properties.getMetadata().getSigningMethods())
@@ -26,6 +26,7 @@ import org.springframework.core.io.Resource;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 import se.swedenconnect.security.credential.factory.PkiCredentialConfigurationProperties;
+import se.swedenconnect.spring.saml.idp.response.SigningPolicy;
 import se.swedenconnect.spring.saml.idp.settings.MetadataSettings;
 
 import java.io.File;
@@ -106,6 +107,41 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
   @Setter
   private Boolean supportsUserMessage;
 
+  /**
+   * Whether received authentication requests should be decoded using the fast path, where the SAMLRequest parameter is
+   * decoded and inflated into a reusable buffer instead of using an OpenSAML message decoder. The default is
+   * {@code false}.
+   */
+  @Getter
+  @Setter
+  private Boolean fastRequestDecoding;
+
+  /**
+   * The maximum size (in bytes) of an inflated HTTP-Redirect authentication request when fast request decoding is
+   * used. The default is 1 MiB.
+   */
+  @Getter
+  @Setter
+  private Integer maxInflatedRequestSize;
+
+  /**
+   * Whether the IDs of responses and assertions should be generated by a striped generator, where each thread uses one
+   * of a number of random generators, instead of by a single random generator. This reduces contention for IdP:s
+   * serving many concurrent requests. The default is {@code false}.
+   */
+  @Getter
+  @Setter
+  private Boolean stripedMessageIdGenerator;
+
+  /**
+   * Whether the SP entityID should be a low cardinality key value of the AuthnRequest validation observations, giving
+   * one timer per SP and validation stage. Should only be enabled for a bounded set of SP:s, for example the SP:s of
+   * a federation. The default is {@code false}.
+   */
+  @Getter
+  @Setter
+  private Boolean lowCardinalitySpTag;
+
   /**
    * Configuration for how to process RequestedAuthnContext values when the comparison method is other than exact.
    */
@@ -264,6 +300,15 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
     @NestedConfigurationProperty
     private PkiCredentialConfigurationProperties metadataSign;
 
+    /**
+     * The maximum number of concurrent signature operations using the signing credential. Only applies to credentials
+     * residing on a hardware device (PKCS#11), and should be set to the number of sessions the device allows. If not
+     * set, there is no limit.
+     */
+    @Setter
+    @Getter
+    private Integer maxSigningSessions;
+
   }
 
   /**
@@ -323,6 +368,15 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
     @Setter
     private String module;
 
+    /**
+     * Whether the SP metadata should be stored as a compact reference (entityID and metadata version) in the objects
+     * that are saved in the session. This makes the session payloads smaller, which is useful when sessions are stored
+     * in Redis. The default is {@code false}.
+     */
+    @Getter
+    @Setter
+    private Boolean compactPeerMetadata;
+
     /** {@inheritDoc} */
     @Override
     public void afterPropertiesSet() {
@@ -341,8 +395,14 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
     /** The default context name to use for storing the cache. */
     public static final String DEFAULT_CONTEXT_NAME = "idp-replay-checker";
 
+    /** Redis mode where all entries are stored in one sorted set. */
+    public static final String REDIS_MODE_ZSET = "zset";
+
+    /** Redis mode where each entry is stored under its own key with a TTL. */
+    public static final String REDIS_MODE_KEY = "key";
+
     /**
-     * The type of replay checker. Supported values are "memory" and "redis".
+     * The type of replay checker. Supported values are "memory", "redis" and "redisson".
      */
     @Getter
     @Setter
@@ -362,6 +422,23 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
     @Setter
     private String context;
 
+    /**
+     * The maximum number of entries held by the in-memory replay cache. When the maximum is reached, and no expired
+     * entries can be removed, new IDs are rejected (as replays). Applies only when the type is "memory".
+     */
+    @Getter
+    @Setter
+    private Integer maxSize;
+
+    /**
+     * How entries are stored in Redis. Supported values are "zset" (all entries in one sorted set, named by the context)
+     * and "key" (each entry under its own key, with the check made in one atomic round trip and expiry handled by Redis).
+     * Applies only when the type is "redis". The default is "zset".
+     */
+    @Getter
+    @Setter
+    private String redisMode;
+
     /** {@inheritDoc} */
     @Override
     public void afterPropertiesSet() {
@@ -371,6 +448,12 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
       if (!StringUtils.hasText(this.context)) {
         this.context = DEFAULT_CONTEXT_NAME;
       }
+      if (!StringUtils.hasText(this.redisMode)) {
+        this.redisMode = REDIS_MODE_ZSET;
+      }
+      else if (!REDIS_MODE_ZSET.equals(this.redisMode) && !REDIS_MODE_KEY.equals(this.redisMode)) {
+        throw new IllegalArgumentException("Invalid value for saml.idp.replay.redis-mode - " + this.redisMode);
+      }
     }
 
   }
@@ -401,6 +484,28 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
     @Setter
     private Duration notBefore;
 
+    /**
+     * The default signing policy, i.e., whether both the response and the assertion are signed, or only one of them.
+     */
+    @Getter
+    @Setter
+    private SigningPolicy signingPolicy;
+
+    /**
+     * Signing policies for Service Providers declaring a given entity category in their metadata. The keys are entity
+     * category URIs.
+     */
+    @Getter
+    @Setter
+    private Map<String, SigningPolicy> entityCategorySigningPolicies;
+
+    /**
+     * Signing policies for specific Service Providers. The keys are SP entityID:s.
+     */
+    @Getter
+    @Setter
+    private Map<String, SigningPolicy> spSigningPolicies;
+
   }
 
   /**
@@ -429,6 +534,15 @@ public class IdentityProviderConfigurationProperties implements InitializingBean
     @Getter
     private Duration validityPeriod;
 
+    /**
+     * If set, the published metadata is updated (and re-signed) in the background, and the setting tells how often it
+     * should be checked whether an update is required. If not set, the metadata is updated when a request finds that an
+     * update is required.
+     */
+    @Setter
+    @Getter
+    private Duration refreshInterval;
+
     /**
      * The {@code alg:DigestMethod} elements to include in the metadata.
      */
@@ -16,8 +16,10 @@
 package se.swedenconnect.spring.saml.idp.autoconfigure.settings;
 
 import org.opensaml.storage.ReplayCache;
+import org.redisson.api.RedissonClient;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -28,7 +30,11 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import se.swedenconnect.opensaml.saml2.response.replay.MessageReplayChecker;
 import se.swedenconnect.opensaml.saml2.response.replay.MessageReplayCheckerImpl;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.replay.InMemoryReplayCache;
+import se.swedenconnect.spring.saml.idp.authnrequest.validation.replay.RedisKeyReplayCache;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.replay.RedisReplayCache;
+import se.swedenconnect.spring.saml.idp.authnrequest.validation.replay.RedissonReplayCache;
+
+import java.util.Optional;
 
 /**
  * Autoconfiguration for setting up a {@link MessageReplayChecker} bean.
@@ -38,7 +44,8 @@ import se.swedenconnect.spring.saml.idp.authnrequest.validation.replay.RedisRepl
 @ConditionalOnMissingBean(MessageReplayChecker.class)
 @AutoConfiguration(before = IdentityProviderAutoConfiguration.class)
 @EnableConfigurationProperties(IdentityProviderConfigurationProperties.class)
-@Import(MessageReplayCheckerAutoConfiguration.RedisMessageReplayCheckerConfiguration.class)
+@Import({ MessageReplayCheckerAutoConfiguration.RedisMessageReplayCheckerConfiguration.class,
+    MessageReplayCheckerAutoConfiguration.RedissonMessageReplayCheckerConfiguration.class })
 public class MessageReplayCheckerAutoConfiguration {
 
   /** The configuration properties. */
@@ -62,7 +69,9 @@ public class MessageReplayCheckerAutoConfiguration {
   @ConditionalOnProperty(value = "saml.idp.replay.type", havingValue = "memory", matchIfMissing = true)
   @Bean
   ReplayCache inMemoryReplayCache() {
-    return new InMemoryReplayCache();
+    return Optional.ofNullable(this.properties.getReplay().getMaxSize())
+        .map(InMemoryReplayCache::new)
+        .orElseGet(InMemoryReplayCache::new);
   }
 
   /**
@@ -88,17 +97,47 @@ public class MessageReplayCheckerAutoConfiguration {
   public static class RedisMessageReplayCheckerConfiguration {
 
     /**
-     * If we are using Redis, we create a {@link RedisReplayCache}
+     * If we are using Redis, we create a {@link RedisReplayCache}, or a {@link RedisKeyReplayCache} if the Redis mode
+     * is "key".
      *
      * @param redisTemplate the Redis template
-     * @return a {@link RedisReplayCache}
+     * @param properties the configuration properties
+     * @return a {@link ReplayCache}
      */
     @ConditionalOnMissingBean
     @Bean
-    ReplayCache redisReplayCache(final StringRedisTemplate redisTemplate) {
+    ReplayCache redisReplayCache(
+        final StringRedisTemplate redisTemplate, final IdentityProviderConfigurationProperties properties) {
+      if (IdentityProviderConfigurationProperties.ReplayCheckerConfigurationProperties.REDIS_MODE_KEY.equals(
+          properties.getReplay().getRedisMode())) {
+        return new RedisKeyReplayCache(redisTemplate);
+      }
       return new RedisReplayCache(redisTemplate);
     }
 
   }
 
+  /**
+   * For configuration of a {@link RedissonReplayCache} bean.
+   */
+  @ConditionalOnProperty(value = "saml.idp.replay.type", havingValue = "redisson")
+  @ConditionalOnClass(name = "org.redisson.api.RedissonClient")
+  @ConditionalOnBean(type = "org.redisson.api.RedissonClient")
+  @Configuration
+  public static class RedissonMessageReplayCheckerConfiguration {
+
+    /**
+     * If we are using Redisson, we create a {@link RedissonReplayCache}.
+     *
+     * @param redissonClient the Redisson client
+     * @return a {@link RedissonReplayCache}
+     */
+    @ConditionalOnMissingBean
+    @Bean
+    ReplayCache redissonReplayCache(final RedissonClient redissonClient) {
+      return new RedissonReplayCache(redissonClient);
+    }
+
+  }
+
 }
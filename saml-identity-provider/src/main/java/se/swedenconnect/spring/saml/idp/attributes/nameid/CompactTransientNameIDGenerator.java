@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.attributes.nameid;
+
+import org.opensaml.saml.saml2.core.NameID;
+import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
+import se.swedenconnect.spring.saml.idp.authentication.Saml2UserAuthentication;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+
+import java.io.Serial;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A {@link NameIDGenerator} for generating compact transient {@code NameID}s.
+ * <p>
+ * Where {@link TransientNameIDGenerator} encodes the text form of a random UUID, this generator Base64url-encodes (no
+ * padding) raw random bytes. With the default entropy of 16 bytes (128 bits) this gives a 22 character identifier. The
+ * random bytes are drawn from a per-thread DRBG, so threads do not contend on a shared {@link SecureRandom}.
+ * </p>
+ * <p>
+ * If an {@link EncryptedTransientIdentifierCodec} is assigned, the identifier is instead the encryption of the user ID,
+ * making it possible for the IdP to map an identifier back to the user, for example in back-channel requests.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public class CompactTransientNameIDGenerator extends AbstractNameIDGenerator {
+
+  @Serial
+  private static final long serialVersionUID = Saml2IdentityProviderVersion.SERIAL_VERSION_UID;
+
+  /** The default number of random bytes. */
+  public static final int DEFAULT_ENTROPY_BYTES = 16;
+
+  /** The minimum number of random bytes. */
+  public static final int MIN_ENTROPY_BYTES = 16;
+
+  /** The per-thread random source. */
+  private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(
+      CompactTransientNameIDGenerator::createRandom);
+
+  /** The number of random bytes. */
+  private int entropyBytes = DEFAULT_ENTROPY_BYTES;
+
+  /** Optional codec for reversible identifiers. Never serialized, see {@link #codecKeyId}. */
+  private transient EncryptedTransientIdentifierCodec codec;
+
+  /** The key ID of the codec, used to look up the codec after deserialization. */
+  private String codecKeyId;
+
+  /**
+   * Constructor.
+   *
+   * @param nameQualifier the name qualifier, usually the IdP entityID
+   */
+  public CompactTransientNameIDGenerator(final String nameQualifier) {
+    super(nameQualifier);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param nameQualifier the name qualifier, usually the IdP entityID
+   * @param spNameQualifier the SP name qualifier
+   */
+  public CompactTransientNameIDGenerator(final String nameQualifier, final String spNameQualifier) {
+    super(nameQualifier, spNameQualifier);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  protected String getIdentifier(final Saml2UserAuthentication authentication) {
+    if (this.codec == null && this.codecKeyId != null) {
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL,
+          "Failed to compute NameID - transient identifier codec is not available", authentication);
+    }
+    if (this.codec != null) {
+      final String userId = authentication.getName();
+      if (userId == null) {
+        throw new UnrecoverableSaml2IdpException(
+            UnrecoverableSaml2IdpError.INTERNAL, "Failed to compute NameID - missing user ID", authentication);
+      }
+      try {
+        return this.codec.encode(userId, this.getSpNameQualifier());
+      }
+      catch (final IllegalStateException e) {
+        throw new UnrecoverableSaml2IdpException(
+            UnrecoverableSaml2IdpError.INTERNAL, "Failed to compute NameID", e, authentication);
+      }
+    }
+    final byte[] bytes = new byte[this.entropyBytes];
+    RANDOM.get().nextBytes(bytes);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * After deserialization, the codec is resolved using the serialized key ID.
+   */
+  @Override
+  public void resolveKeys(final NameIDKeyResolver keyResolver) {
+    if (this.codec == null && this.codecKeyId != null && keyResolver != null) {
+      this.codec = keyResolver.resolveTransientIdCodec(this.codecKeyId);
+    }
+  }
+
+  /**
+   * Returns {@code urn:oasis:names:tc:SAML:2.0:nameid-format:transient}.
+   */
+  @Override
+  protected String getFormat() {
+    return NameID.TRANSIENT;
+  }
+
+  /**
+   * Assigns the number of random bytes for each identifier. The default is {@value #DEFAULT_ENTROPY_BYTES} and the
+   * minimum is {@value #MIN_ENTROPY_BYTES}. Not used if a codec has been assigned.
+   *
+   * @param entropyBytes the number of random bytes
+   */
+  public void setEntropyBytes(final int entropyBytes) {
+    if (entropyBytes < MIN_ENTROPY_BYTES) {
+      throw new IllegalArgumentException("entropyBytes must be at least " + MIN_ENTROPY_BYTES);
+    }
+    this.entropyBytes = entropyBytes;
+  }
+
+  /**
+   * Assigns a codec that makes the identifiers reversible.
+   * <p>
+   * The codec is not serialized along with the generator. A deserialized generator resolves the codec with the same
+   * key ID, see {@link #resolveKeys(NameIDKeyResolver)}.
+   * </p>
+   *
+   * @param codec the codec, or {@code null} for random identifiers
+   */
+  public void setCodec(final EncryptedTransientIdentifierCodec codec) {
+    this.codec = codec;
+    this.codecKeyId = codec != null ? codec.getKeyId() : null;
+  }
+
+  /**
+   * Gets the random source for the current thread.
+   *
+   * @return a {@link SecureRandom}
+   */
+  static SecureRandom getRandom() {
+    return RANDOM.get();
+  }
+
+  /**
+   * Creates a DRBG, or if not available, the default {@link SecureRandom}.
+   *
+   * @return a {@link SecureRandom}
+   */
+  private static SecureRandom createRandom() {
+    try {
+      return SecureRandom.getInstance("DRBG");
+    }
+    catch (final NoSuchAlgorithmException e) {
+      return new SecureRandom();
+    }
+  }
+
+}
@@ -18,6 +18,8 @@ package se.swedenconnect.spring.saml.idp.attributes.nameid;
 import java.util.List;
 import java.util.Optional;
 
+import javax.crypto.SecretKey;
+
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.NameID;
@@ -36,10 +38,14 @@ import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
  * A {@link NameIDGeneratorFactory} that implements the requirements regarding {@code NameID}'s put by the
  * <a href="https://docs.swedenconnect.se/technical-framework/">Technical Specifications for the Swedish eID
  * Framework</a>.
+ * <p>
+ * The factory is also a {@link NameIDKeyResolver} for the keys that it has been configured with, so that generators
+ * that have been deserialized can resolve their keys.
+ * </p>
  *
  * @author Martin Lindström
  */
-public class DefaultNameIDGeneratorFactory implements NameIDGeneratorFactory {
+public class DefaultNameIDGeneratorFactory implements NameIDGeneratorFactory, NameIDKeyResolver {
 
   /** The IdP entityID. */
   private final String idpEntityId;
@@ -50,6 +56,21 @@ public class DefaultNameIDGeneratorFactory implements NameIDGeneratorFactory {
    */
   private String defaultFormat;
 
+  /** The HMAC key for persistent identifiers. If not set, a plain hash is used. */
+  private SecretKey persistentIdHmacKey;
+
+  /** The ID of the HMAC key for persistent identifiers. */
+  private String persistentIdHmacKeyId;
+
+  /** Whether to use compact transient identifiers. */
+  private boolean compactTransientIds = false;
+
+  /** The number of random bytes for compact transient identifiers. */
+  private int transientIdEntropyBytes = CompactTransientNameIDGenerator.DEFAULT_ENTROPY_BYTES;
+
+  /** Optional codec for reversible transient identifiers. */
+  private EncryptedTransientIdentifierCodec transientIdCodec;
+
   /**
    * Constructor.
    *
@@ -92,6 +113,20 @@ public class DefaultNameIDGeneratorFactory implements NameIDGeneratorFactory {
     return this.createNameIDGenerator(nameFormat, this.idpEntityId, peerMetadata.getEntityID());
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public SecretKey resolvePersistentIdHmacKey(final String keyId) {
+    return keyId != null && keyId.equals(this.persistentIdHmacKeyId) ? this.persistentIdHmacKey : null;
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public EncryptedTransientIdentifierCodec resolveTransientIdCodec(final String keyId) {
+    return this.transientIdCodec != null && this.transientIdCodec.getKeyId().equals(keyId)
+        ? this.transientIdCodec
+        : null;
+  }
+
   /** {@inheritDoc} */
   @Override
   public List<String> getSupportedFormats() {
@@ -114,6 +149,53 @@ public class DefaultNameIDGeneratorFactory implements NameIDGeneratorFactory {
     this.defaultFormat = format;
   }
 
+  /**
+   * Assigns a secret key that makes persistent identifiers be calculated as a keyed HMAC instead of a plain hash. See
+   * {@link PersistentNameIDGenerator#setHmacKey(SecretKey)}.
+   *
+   * @param persistentIdHmacKey the HMAC key, or {@code null} to use a plain hash
+   * @throws IllegalArgumentException if the key does not support encoding
+   */
+  public void setPersistentIdHmacKey(final SecretKey persistentIdHmacKey) throws IllegalArgumentException {
+    this.persistentIdHmacKeyId =
+        persistentIdHmacKey != null ? PersistentNameIDGenerator.calculateKeyId(persistentIdHmacKey) : null;
+    this.persistentIdHmacKey = persistentIdHmacKey;
+  }
+
+  /**
+   * Tells whether transient identifiers should be generated using {@link CompactTransientNameIDGenerator} instead of
+   * {@link TransientNameIDGenerator}. The default is {@code false}.
+   *
+   * @param compactTransientIds whether to use compact transient identifiers
+   */
+  public void setCompactTransientIds(final boolean compactTransientIds) {
+    this.compactTransientIds = compactTransientIds;
+  }
+
+  /**
+   * Assigns the number of random bytes for compact transient identifiers. See
+   * {@link CompactTransientNameIDGenerator#setEntropyBytes(int)}.
+   *
+   * @param transientIdEntropyBytes the number of random bytes
+   */
+  public void setTransientIdEntropyBytes(final int transientIdEntropyBytes) {
+    if (transientIdEntropyBytes < CompactTransientNameIDGenerator.MIN_ENTROPY_BYTES) {
+      throw new IllegalArgumentException(
+          "transientIdEntropyBytes must be at least " + CompactTransientNameIDGenerator.MIN_ENTROPY_BYTES);
+    }
+    this.transientIdEntropyBytes = transientIdEntropyBytes;
+  }
+
+  /**
+   * Assigns a codec that makes transient identifiers reversible. Setting a codec implies compact transient
+   * identifiers.
+   *
+   * @param transientIdCodec the codec, or {@code null} for random identifiers
+   */
+  public void setTransientIdCodec(final EncryptedTransientIdentifierCodec transientIdCodec) {
+    this.transientIdCodec = transientIdCodec;
+  }
+
   /**
    * Creates a {@link NameIDGenerator} based on the supplied format.
    *
@@ -131,9 +213,18 @@ public class DefaultNameIDGeneratorFactory implements NameIDGeneratorFactory {
         : format;
 
     if (NameID.PERSISTENT.equals(nameIDFormat)) {
-      return new PersistentNameIDGenerator(nameQualifier, spNameQualifier);
+      final PersistentNameIDGenerator generator = new PersistentNameIDGenerator(nameQualifier, spNameQualifier);
+      generator.setHmacKey(this.persistentIdHmacKey);
+      return generator;
     }
     else if (NameID.TRANSIENT.equals(nameIDFormat)) {
+      if (this.compactTransientIds || this.transientIdCodec != null) {
+        final CompactTransientNameIDGenerator generator =
+            new CompactTransientNameIDGenerator(nameQualifier, spNameQualifier);
+        generator.setEntropyBytes(this.transientIdEntropyBytes);
+        generator.setCodec(this.transientIdCodec);
+        return generator;
+      }
       return new TransientNameIDGenerator(nameQualifier, spNameQualifier);
     }
     else {
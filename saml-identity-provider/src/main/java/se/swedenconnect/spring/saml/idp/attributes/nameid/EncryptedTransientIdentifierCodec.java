@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.attributes.nameid;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Encodes a user ID into a reversible transient identifier, and decodes it back.
+ * <p>
+ * The identifier is the Base64url-encoding (no padding) of a random 12 byte nonce followed by the AES-GCM encryption
+ * of the user ID. The SP name qualifier is used as additional authenticated data, so an identifier issued to one
+ * Service Provider can not be decoded in the context of another. Since the nonce is random, the same user gets a new
+ * identifier each time.
+ * </p>
+ * <p>
+ * The codec is not serializable, since that would expose the key. A {@link CompactTransientNameIDGenerator} serializes
+ * the key ID of its codec, and resolves the codec using a {@link NameIDKeyResolver} after deserialization.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public class EncryptedTransientIdentifierCodec {
+
+  /** The cipher transformation. */
+  private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+  /** The nonce length. */
+  private static final int NONCE_LENGTH = 12;
+
+  /** The authentication tag length in bits. */
+  private static final int TAG_LENGTH = 128;
+
+  /** The AES key. */
+  private final SecretKey key;
+
+  /** The key ID. */
+  private final String keyId;
+
+  /**
+   * Constructor. The key ID is a truncated hash of the key.
+   *
+   * @param key the AES key
+   * @throws IllegalArgumentException if the key is not an AES key or does not support encoding
+   */
+  public EncryptedTransientIdentifierCodec(final SecretKey key) throws IllegalArgumentException {
+    this(null, key);
+  }
+
+  /**
+   * Constructor taking an explicit key ID. This is useful for keys that do not support encoding, for example keys
+   * residing on a hardware device.
+   * <p>
+   * All nodes of a cluster must use the same key under the same key ID.
+   * </p>
+   *
+   * @param keyId the key ID (if {@code null}, a truncated hash of the key is used)
+   * @param key the AES key
+   * @throws IllegalArgumentException if the key is not an AES key, or if no key ID is given and the key does not
+   *     support encoding
+   */
+  public EncryptedTransientIdentifierCodec(final String keyId, final SecretKey key) throws IllegalArgumentException {
+    this.key = Objects.requireNonNull(key, "key must not be null");
+    if (!"AES".equalsIgnoreCase(key.getAlgorithm())) {
+      throw new IllegalArgumentException("key must be an AES key");
+    }
+    this.keyId = keyId != null ? keyId : NameIDKeyUtils.calculateKeyId(TRANSFORMATION, key);
+  }
+
+  /**
+   * Gets the key ID.
+   *
+   * @return the key ID
+   */
+  public String getKeyId() {
+    return this.keyId;
+  }
+
+  /**
+   * Encodes the user ID into a transient identifier.
+   *
+   * @param userId the user ID
+   * @param spNameQualifier the SP name qualifier (may be {@code null})
+   * @return the identifier
+   * @throws IllegalStateException for encryption errors
+   */
+  public String encode(final String userId, final String spNameQualifier) {
+    Objects.requireNonNull(userId, "userId must not be null");
+    try {
+      final byte[] nonce = new byte[NONCE_LENGTH];
+      CompactTransientNameIDGenerator.getRandom().nextBytes(nonce);
+
+      final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH, nonce));
+      cipher.updateAAD(aad(spNameQualifier));
+      final byte[] encrypted = cipher.doFinal(userId.getBytes(StandardCharsets.UTF_8));
+
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(
+          ByteBuffer.allocate(NONCE_LENGTH + encrypted.length).put(nonce).put(encrypted).array());
+    }
+    catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("Failed to encode transient identifier", e);
+    }
+  }
+
+  /**
+   * Decodes the transient identifier into the user ID.
+   *
+   * @param identifier the transient identifier
+   * @param spNameQualifier the SP name qualifier used when the identifier was encoded (may be {@code null})
+   * @return the user ID
+   * @throws IllegalArgumentException if the identifier is not valid for the given SP name qualifier
+   */
+  public String decode(final String identifier, final String spNameQualifier) {
+    Objects.requireNonNull(identifier, "identifier must not be null");
+    final byte[] bytes;
+    try {
+      bytes = Base64.getUrlDecoder().decode(identifier);
+    }
+    catch (final IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid transient identifier", e);
+    }
+    if (bytes.length <= NONCE_LENGTH + TAG_LENGTH / 8) {
+      throw new IllegalArgumentException("Invalid transient identifier");
+    }
+    try {
+      final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+      cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH, bytes, 0, NONCE_LENGTH));
+      cipher.updateAAD(aad(spNameQualifier));
+      return new String(cipher.doFinal(bytes, NONCE_LENGTH, bytes.length - NONCE_LENGTH), StandardCharsets.UTF_8);
+    }
+    catch (final GeneralSecurityException e) {
+      throw new IllegalArgumentException("Invalid transient identifier", e);
+    }
+  }
+
+  /**
+   * Gets the additional authenticated data for the SP name qualifier.
+   *
+   * @param spNameQualifier the SP name qualifier (may be {@code null})
+   * @return the AAD
+   */
+  private static byte[] aad(final String spNameQualifier) {
+    return spNameQualifier != null ? spNameQualifier.getBytes(StandardCharsets.UTF_8) : new byte[0];
+  }
+
+}
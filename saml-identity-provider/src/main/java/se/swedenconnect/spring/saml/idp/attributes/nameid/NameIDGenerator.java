@@ -35,4 +35,13 @@ public interface NameIDGenerator extends Serializable {
    */
   NameID getNameID(final Saml2UserAuthentication authentication);
 
+  /**
+   * Generators that use secret keys never serialize them. This method is invoked before a generator is used, so that a
+   * deserialized generator can resolve its keys. The default implementation does nothing.
+   *
+   * @param keyResolver the key resolver
+   */
+  default void resolveKeys(final NameIDKeyResolver keyResolver) {
+  }
+
 }
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.attributes.nameid;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Resolves the secret keys used by {@link NameIDGenerator}s. Keys are never serialized along with the generators, so a
+ * generator that has been deserialized, for example when it is read from the session, gets its key from the resolver,
+ * see {@link NameIDGenerator#resolveKeys(NameIDKeyResolver)}.
+ * <p>
+ * The {@link DefaultNameIDGeneratorFactory} is a resolver for the keys it has been configured with.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public interface NameIDKeyResolver {
+
+  /**
+   * Resolves the HMAC key for persistent identifiers having the given key ID.
+   *
+   * @param keyId the key ID
+   * @return the HMAC key, or {@code null} if no key with the given ID is known
+   */
+  SecretKey resolvePersistentIdHmacKey(final String keyId);
+
+  /**
+   * Resolves the codec for reversible transient identifiers having the given key ID.
+   *
+   * @param keyId the key ID
+   * @return the codec, or {@code null} if no codec with the given key ID is known
+   */
+  EncryptedTransientIdentifierCodec resolveTransientIdCodec(final String keyId);
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.attributes.nameid;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Utility methods for the secret keys used by {@link NameIDGenerator}s.
+ *
+ * @author Martin Lindström
+ */
+final class NameIDKeyUtils {
+
+  private NameIDKeyUtils() {
+  }
+
+  /**
+   * Calculates a key ID as a truncated hash of the key. The hash is calculated over the given context, for example
+   * the algorithm that the key is used with, followed by the encoded key. The key ID is the Base64url-encoding (no
+   * padding) of the first 16 bytes of the SHA-256 hash.
+   *
+   * @param context the context
+   * @param key the key
+   * @return the key ID
+   * @throws IllegalArgumentException if the key does not support encoding
+   */
+  static String calculateKeyId(final String context, final SecretKey key) throws IllegalArgumentException {
+    final byte[] encoded = key.getEncoded();
+    if (encoded == null) {
+      throw new IllegalArgumentException("key must support encoding");
+    }
+    try {
+      final MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(context.getBytes(StandardCharsets.UTF_8));
+      md.update((byte) 0);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(md.digest(encoded), 16));
+    }
+    catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("SHA-256 is not supported", e);
+    }
+    finally {
+      Arrays.fill(encoded, (byte) 0);
+    }
+  }
+
+}
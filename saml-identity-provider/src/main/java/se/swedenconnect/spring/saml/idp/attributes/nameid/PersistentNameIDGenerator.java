@@ -21,14 +21,34 @@ import se.swedenconnect.spring.saml.idp.authentication.Saml2UserAuthentication;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
 import java.io.Serial;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 
 /**
  * A {@link NameIDGenerator} for generaring persistent {@code NameID}s.
+ * <p>
+ * The identifier is the Base64-encoding of the hash of {@code <SPNameQualifier>!<NameQualifier>!<user-id>}, where the
+ * qualifiers are left out if not set. If an HMAC key has been assigned, see {@link #setHmacKey(SecretKey)}, a keyed
+ * HMAC is used instead of a plain hash.
+ * </p>
+ * <p>
+ * Since generators are stored in the session, the HMAC key is never serialized. Only a key ID is serialized, and a
+ * deserialized generator gets the key from a {@link NameIDKeyResolver}, see {@link #resolveKeys(NameIDKeyResolver)}.
+ * </p>
+ * <p>
+ * Each thread keeps the digest (or MAC) state after the qualifier prefix has been processed, and this state is cloned
+ * for each identifier. This way provider lookups and the hashing of the prefix are only made once per thread and
+ * Service Provider.
+ * </p>
  *
  * @author Martin Lindström
  */
@@ -37,9 +57,34 @@ public class PersistentNameIDGenerator extends AbstractNameIDGenerator {
   @Serial
   private static final long serialVersionUID = Saml2IdentityProviderVersion.SERIAL_VERSION_UID;
 
+  /** The maximum number of prefix states kept by each thread. */
+  private static final int MAX_PREFIX_STATES = 64;
+
+  /** Per-thread digest (or MAC) states after the qualifier prefix has been processed. */
+  private static final ThreadLocal<Map<PrefixKey, Object>> PREFIX_STATES =
+      ThreadLocal.withInitial(() -> new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Serial
+        private static final long serialVersionUID = Saml2IdentityProviderVersion.SERIAL_VERSION_UID;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<PrefixKey, Object> eldest) {
+          return this.size() > MAX_PREFIX_STATES;
+        }
+      });
+
   /** The JCE hash-algorithm to use. The default is {@code SHA-256}. */
   private String hashAlgorithm;
 
+  /** The key to use for HMAC mode. Never serialized, see {@link #hmacKeyId}. */
+  private transient SecretKey hmacKey;
+
+  /** The ID of the HMAC key, used to look up the key after deserialization. */
+  private String hmacKeyId;
+
+  /** The prefix, {@code <SPNameQualifier>!<NameQualifier>!}, that is hashed before the user ID. Derived lazily. */
+  private transient String prefix;
+
   /**
    * Constructor.
    *
@@ -71,24 +116,121 @@ public class PersistentNameIDGenerator extends AbstractNameIDGenerator {
     }
 
     try {
-      final MessageDigest md = MessageDigest.getInstance(this.hashAlgorithm);
-      if (this.getSpNameQualifier() != null) {
-        md.update(this.getSpNameQualifier().getBytes());
-        md.update((byte) '!');
+      final byte[] userIdBytes = userId.getBytes(StandardCharsets.UTF_8);
+      final SecretKey key = this.getHmacKey(authentication);
+      if (key != null) {
+        final Mac mac = (Mac) this.getPrefixState(key.getAlgorithm(), key);
+        return Base64.getEncoder().encodeToString(mac.doFinal(userIdBytes));
       }
-      if (this.getNameQualifier() != null) {
-        md.update(this.getNameQualifier().getBytes());
-        md.update((byte) '!');
+      else {
+        final MessageDigest md = (MessageDigest) this.getPrefixState(this.hashAlgorithm, null);
+        return Base64.getEncoder().encodeToString(md.digest(userIdBytes));
       }
-      md.update(userId.getBytes());
-      return Base64.getEncoder().encodeToString(md.digest());
     }
-    catch (final NoSuchAlgorithmException e) {
+    catch (final GeneralSecurityException e) {
       throw new UnrecoverableSaml2IdpException(
           UnrecoverableSaml2IdpError.INTERNAL, "Failed to compute NameID", e, authentication);
     }
   }
 
+  /**
+   * After deserialization, the HMAC key is resolved using the serialized key ID.
+   */
+  @Override
+  public void resolveKeys(final NameIDKeyResolver keyResolver) {
+    if (this.hmacKey == null && this.hmacKeyId != null && keyResolver != null) {
+      this.hmacKey = keyResolver.resolvePersistentIdHmacKey(this.hmacKeyId);
+    }
+  }
+
+  /**
+   * Gets the HMAC key.
+   *
+   * @param authentication the user authentication (for error reporting)
+   * @return the HMAC key, or {@code null} if HMAC mode is not used
+   */
+  private SecretKey getHmacKey(final Saml2UserAuthentication authentication) {
+    if (this.hmacKey == null && this.hmacKeyId != null) {
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL,
+          "Failed to compute NameID - HMAC key is not available", authentication);
+    }
+    return this.hmacKey;
+  }
+
+  /**
+   * Gets the prefix, {@code <SPNameQualifier>!<NameQualifier>!}, that is hashed before the user ID.
+   *
+   * @return the prefix
+   */
+  private String getPrefix() {
+    if (this.prefix == null) {
+      final StringBuilder sb = new StringBuilder();
+      if (this.getSpNameQualifier() != null) {
+        sb.append(this.getSpNameQualifier()).append('!');
+      }
+      if (this.getNameQualifier() != null) {
+        sb.append(this.getNameQualifier()).append('!');
+      }
+      this.prefix = sb.toString();
+    }
+    return this.prefix;
+  }
+
+  /**
+   * Gets a {@link MessageDigest}, or {@link Mac} if a key is given, that has processed the prefix. The returned object
+   * is a clone of the state kept by the current thread and may be used freely by the caller.
+   *
+   * @param algorithm the JCE algorithm name
+   * @param key the HMAC key, or {@code null} for a plain digest
+   * @return a {@link MessageDigest} or {@link Mac}
+   * @throws GeneralSecurityException for unknown algorithms or invalid keys
+   */
+  private Object getPrefixState(final String algorithm, final Key key) throws GeneralSecurityException {
+    final Map<PrefixKey, Object> states = PREFIX_STATES.get();
+    final PrefixKey prefixKey = new PrefixKey(algorithm, key, this.getPrefix());
+    final Object state = states.get(prefixKey);
+    if (state != null) {
+      try {
+        return state instanceof final Mac mac ? mac.clone() : ((MessageDigest) state).clone();
+      }
+      catch (final CloneNotSupportedException e) {
+        // The provider does not support cloning. Process the prefix every time ...
+        return this.createPrefixState(algorithm, key);
+      }
+    }
+    final Object newState = this.createPrefixState(algorithm, key);
+    try {
+      states.put(prefixKey, newState instanceof final Mac mac ? mac.clone() : ((MessageDigest) newState).clone());
+    }
+    catch (final CloneNotSupportedException ignored) {
+      // Not cached, the prefix will be processed for every identifier ...
+    }
+    return newState;
+  }
+
+  /**
+   * Creates a {@link MessageDigest}, or {@link Mac} if a key is given, and processes the prefix.
+   *
+   * @param algorithm the JCE algorithm name
+   * @param key the HMAC key, or {@code null} for a plain digest
+   * @return a {@link MessageDigest} or {@link Mac}
+   * @throws GeneralSecurityException for unknown algorithms or invalid keys
+   */
+  private Object createPrefixState(final String algorithm, final Key key) throws GeneralSecurityException {
+    final byte[] prefixBytes = this.getPrefix().getBytes(StandardCharsets.UTF_8);
+    if (key != null) {
+      final Mac mac = Mac.getInstance(algorithm);
+      mac.init(key);
+      mac.update(prefixBytes);
+      return mac;
+    }
+    else {
+      final MessageDigest md = MessageDigest.getInstance(algorithm);
+      md.update(prefixBytes);
+      return md;
+    }
+  }
+
   /**
    * Returns {@code urn:oasis:names:tc:SAML:2.0:nameid-format:persistent}.
    */
@@ -106,4 +248,45 @@ public class PersistentNameIDGenerator extends AbstractNameIDGenerator {
     this.hashAlgorithm = Objects.requireNonNull(hashAlgorithm, "hashAlgorithm must not be null");
   }
 
+  /**
+   * Assigns a secret key that turns on HMAC mode. In this mode the identifier is calculated as an HMAC using the key,
+   * and the hash algorithm is not used. The algorithm of the key must be a JCE MAC algorithm, for example
+   * {@code HmacSHA256}.
+   * <p>
+   * Note that changing to, or from, HMAC mode changes all persistent identifiers.
+   * </p>
+   * <p>
+   * The key is not serialized along with the generator. A deserialized generator resolves the key with the same key ID,
+   * see {@link #resolveKeys(NameIDKeyResolver)}, so all nodes of a cluster must be configured with the same key.
+   * </p>
+   *
+   * @param hmacKey the HMAC key, or {@code null} to use a plain hash
+   * @throws IllegalArgumentException if the key does not support encoding
+   */
+  public void setHmacKey(final SecretKey hmacKey) throws IllegalArgumentException {
+    this.hmacKeyId = hmacKey != null ? calculateKeyId(hmacKey) : null;
+    this.hmacKey = hmacKey;
+  }
+
+  /**
+   * Calculates the ID of an HMAC key as a truncated hash of the key.
+   *
+   * @param hmacKey the HMAC key
+   * @return the key ID
+   * @throws IllegalArgumentException if the key does not support encoding
+   */
+  static String calculateKeyId(final SecretKey hmacKey) throws IllegalArgumentException {
+    return NameIDKeyUtils.calculateKeyId(hmacKey.getAlgorithm(), hmacKey);
+  }
+
+  /**
+   * Key for the per-thread prefix states.
+   *
+   * @param algorithm the JCE algorithm name
+   * @param key the HMAC key (may be {@code null})
+   * @param prefix the prefix
+   */
+  private record PrefixKey(String algorithm, Key key, String prefix) {
+  }
+
 }
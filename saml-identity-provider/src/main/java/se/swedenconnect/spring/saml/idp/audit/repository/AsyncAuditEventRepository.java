@@ -0,0 +1,418 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An {@link AuditEventRepository} that takes audit I/O off the calling thread.
+ * <p>
+ * Added events are put in a bounded buffer and one or more drain threads hand them over, in batches, to the underlying
+ * repository. If the underlying repository is a {@link BatchAuditEventRepository}, each batch is written in one call.
+ * What happens when the buffer is full is controlled by the {@link OverflowPolicy}. Dropped events are counted, see
+ * {@link #getDropped()}, and a summary is logged at most every 10 seconds.
+ * </p>
+ * <p>
+ * By default, a drain thread writes whatever is buffered as soon as there is something to write. By assigning a flush
+ * interval, see {@link #setFlushInterval(Duration)}, a drain thread will wait up to the given interval for a batch to
+ * fill up, which means fewer, and larger, writes to the underlying repository.
+ * </p>
+ * <p>
+ * Note that an added event is not visible to {@link #find(String, Instant, String)} until it has been drained. Also
+ * note that if more than one drain thread is used, events may be written in a different order than they were added.
+ * </p>
+ * <p>
+ * When the repository is closed, see {@link #close()}, all buffered events are written before the method returns.
+ * When used as a Spring bean, this is handled automatically.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class AsyncAuditEventRepository implements AuditEventRepository, AutoCloseable {
+
+  /** The default buffer capacity. */
+  public static final int DEFAULT_CAPACITY = 10_000;
+
+  /** The default maximum number of events in a batch. */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /** The default time to wait for the drain threads when closing. */
+  public static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Interval for drain threads to check whether the repository has been closed. */
+  private static final long POLL_INTERVAL_MILLIS = 200;
+
+  /** The minimum interval between log entries about dropped events. */
+  private static final long DROPPED_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * Tells what to do when an event is added and the buffer is full.
+   */
+  public enum OverflowPolicy {
+
+    /** The calling thread waits until there is room in the buffer. */
+    BLOCK,
+
+    /** The oldest buffered event is dropped to make room for the new event. */
+    DROP_OLDEST,
+
+    /** The new event is dropped. */
+    DROP_NEWEST
+  }
+
+  /** The underlying repository. */
+  private final AuditEventRepository repository;
+
+  /** The event buffer. */
+  private final BlockingQueue<AuditEvent> buffer;
+
+  /** The overflow policy. */
+  private final OverflowPolicy overflowPolicy;
+
+  /** The maximum number of events in a batch. */
+  private final int batchSize;
+
+  /** The drain threads. */
+  private final ExecutorService drainExecutor;
+
+  /** Whether the repository is accepting events. */
+  private volatile boolean running = true;
+
+  /** The time to wait for the drain threads when closing. */
+  private Duration shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+  /** The maximum time (in nanoseconds) to wait for a batch to fill up. */
+  private volatile long flushIntervalNanos = 0;
+
+  /** The number of dropped events. */
+  private final LongAdder dropped = new LongAdder();
+
+  /** The number of dropped events that have not been logged yet. */
+  private final AtomicLong unloggedDropped = new AtomicLong();
+
+  /** When dropped events were last logged (see {@link System#nanoTime()}). */
+  private final AtomicLong droppedLoggedAt = new AtomicLong(System.nanoTime() - DROPPED_LOG_INTERVAL_NANOS);
+
+  /**
+   * Constructor using one drain thread and default settings.
+   *
+   * @param repository the underlying repository
+   */
+  public AsyncAuditEventRepository(final AuditEventRepository repository) {
+    this(repository, DEFAULT_CAPACITY, OverflowPolicy.BLOCK, 1, DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param repository the underlying repository
+   * @param capacity the buffer capacity
+   * @param overflowPolicy what to do when the buffer is full
+   * @param drainThreads the number of drain threads
+   * @param batchSize the maximum number of events in a batch
+   */
+  public AsyncAuditEventRepository(final AuditEventRepository repository, final int capacity,
+      final OverflowPolicy overflowPolicy, final int drainThreads, final int batchSize) {
+    this.repository = Objects.requireNonNull(repository, "repository must not be null");
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    if (drainThreads <= 0) {
+      throw new IllegalArgumentException("drainThreads must be positive");
+    }
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.buffer = new ArrayBlockingQueue<>(capacity);
+    this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "overflowPolicy must not be null");
+    this.batchSize = batchSize;
+
+    final AtomicInteger threadNumber = new AtomicInteger();
+    this.drainExecutor = Executors.newFixedThreadPool(drainThreads, r -> {
+      final Thread thread = new Thread(r, "audit-drain-" + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    for (int i = 0; i < drainThreads; i++) {
+      this.drainExecutor.execute(this::drain);
+    }
+  }
+
+  /**
+   * Buffers the event for writing to the underlying repository.
+   */
+  @Override
+  public void add(final AuditEvent event) {
+    if (event == null) {
+      return;
+    }
+    if (!this.running) {
+      // We are shutting down, write the event directly ...
+      this.write(List.of(event));
+      return;
+    }
+    switch (this.overflowPolicy) {
+      case BLOCK -> {
+        try {
+          this.buffer.put(event);
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          this.dropped(event);
+        }
+      }
+      case DROP_OLDEST -> {
+        while (!this.buffer.offer(event)) {
+          final AuditEvent oldest = this.buffer.poll();
+          if (oldest != null) {
+            this.dropped(oldest);
+          }
+        }
+      }
+      case DROP_NEWEST -> {
+        if (!this.buffer.offer(event)) {
+          this.dropped(event);
+        }
+      }
+    }
+
+    // If we were closed while adding the event, make sure it is written ...
+    //
+    if (!this.running) {
+      this.flush();
+    }
+  }
+
+  /**
+   * Finds events in the underlying repository. Events that are still buffered are not included.
+   */
+  @Override
+  public List<AuditEvent> find(final String principal, final Instant after, final String type) {
+    return this.repository.find(principal, after, type);
+  }
+
+  /**
+   * Gets the number of events that have been dropped because the buffer was full.
+   *
+   * @return the number of dropped events
+   */
+  public long getDropped() {
+    return this.dropped.sum();
+  }
+
+  /**
+   * Gets the number of events currently buffered.
+   *
+   * @return the number of buffered events
+   */
+  public int getBuffered() {
+    return this.buffer.size();
+  }
+
+  /**
+   * Assigns the time to wait for the drain threads when closing. The default is {@link #DEFAULT_SHUTDOWN_TIMEOUT}.
+   *
+   * @param shutdownTimeout the timeout
+   */
+  public void setShutdownTimeout(final Duration shutdownTimeout) {
+    this.shutdownTimeout = Objects.requireNonNull(shutdownTimeout, "shutdownTimeout must not be null");
+  }
+
+  /**
+   * Assigns the maximum time a drain thread waits for a batch to fill up before writing it. The default is
+   * {@link Duration#ZERO}, meaning that events are written as soon as they are available.
+   *
+   * @param flushInterval the flush interval
+   */
+  public void setFlushInterval(final Duration flushInterval) {
+    Objects.requireNonNull(flushInterval, "flushInterval must not be null");
+    if (flushInterval.isNegative()) {
+      throw new IllegalArgumentException("flushInterval must not be negative");
+    }
+    this.flushIntervalNanos = flushInterval.toNanos();
+  }
+
+  /**
+   * Stops the drain threads and writes all buffered events to the underlying repository. If the underlying repository
+   * implements {@link AutoCloseable}, it is closed as well.
+   */
+  @Override
+  public void close() {
+    if (!this.running) {
+      return;
+    }
+    this.running = false;
+    this.drainExecutor.shutdown();
+    try {
+      if (!this.drainExecutor.awaitTermination(this.shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        log.warn("Audit drain threads did not terminate within {}", this.shutdownTimeout);
+      }
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    this.flush();
+    this.logDropped(true);
+    log.debug("Audit event buffer flushed");
+
+    if (this.repository instanceof final AutoCloseable closeable) {
+      try {
+        closeable.close();
+      }
+      catch (final Exception e) {
+        log.error("Failed to close {}", this.repository.getClass().getSimpleName(), e);
+      }
+    }
+  }
+
+  /**
+   * Writes all buffered events to the underlying repository using the calling thread.
+   */
+  private void flush() {
+    final List<AuditEvent> batch = new ArrayList<>(this.batchSize);
+    while (this.buffer.drainTo(batch, this.batchSize) > 0) {
+      this.write(batch);
+      batch.clear();
+    }
+  }
+
+  /**
+   * The drain loop executed by each drain thread.
+   */
+  private void drain() {
+    final List<AuditEvent> batch = new ArrayList<>(this.batchSize);
+    while (this.running || !this.buffer.isEmpty()) {
+      try {
+        this.logDropped(false);
+        final AuditEvent first = this.buffer.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        this.buffer.drainTo(batch, this.batchSize - 1);
+        this.fill(batch);
+        this.write(batch);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * If a flush interval has been assigned, waits for the batch to fill up until the interval has passed.
+   *
+   * @param batch the batch to fill
+   * @throws InterruptedException if the thread is interrupted
+   */
+  private void fill(final List<AuditEvent> batch) throws InterruptedException {
+    if (this.flushIntervalNanos <= 0) {
+      return;
+    }
+    final long deadline = System.nanoTime() + this.flushIntervalNanos;
+    while (this.running && batch.size() < this.batchSize) {
+      final long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return;
+      }
+      final AuditEvent next = this.buffer.poll(remaining, TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      batch.add(next);
+      this.buffer.drainTo(batch, this.batchSize - batch.size());
+    }
+  }
+
+  /**
+   * Writes a batch of events to the underlying repository.
+   *
+   * @param batch the events
+   */
+  private void write(final List<AuditEvent> batch) {
+    try {
+      if (this.repository instanceof final BatchAuditEventRepository batchRepository) {
+        batchRepository.addAll(List.copyOf(batch));
+      }
+      else {
+        batch.forEach(this.repository::add);
+      }
+    }
+    catch (final Exception e) {
+      log.error("Failed to write {} audit event(s) to {}", batch.size(), this.repository.getClass().getSimpleName(),
+          e);
+    }
+  }
+
+  /**
+   * Records a dropped event.
+   *
+   * @param event the event that was dropped
+   */
+  private void dropped(final AuditEvent event) {
+    this.dropped.increment();
+    this.unloggedDropped.incrementAndGet();
+    log.debug("Audit event buffer is full - dropped event '{}' for principal '{}'", event.getType(),
+        event.getPrincipal());
+    this.logDropped(false);
+  }
+
+  /**
+   * Logs a summary of the events dropped since the last summary. Unless {@code force} is set, this is done at most once
+   * per {@link #DROPPED_LOG_INTERVAL_NANOS}.
+   *
+   * @param force whether to log regardless of when the last summary was logged
+   */
+  private void logDropped(final boolean force) {
+    if (this.unloggedDropped.get() == 0) {
+      return;
+    }
+    final long now = System.nanoTime();
+    final long last = this.droppedLoggedAt.get();
+    if (!force && (now - last < DROPPED_LOG_INTERVAL_NANOS || !this.droppedLoggedAt.compareAndSet(last, now))) {
+      return;
+    }
+    final long count = this.unloggedDropped.getAndSet(0);
+    if (count > 0) {
+      log.warn("Audit event buffer is full - {} event(s) dropped since last report ({} in total)",
+          count, this.dropped.sum());
+    }
+  }
+
+}
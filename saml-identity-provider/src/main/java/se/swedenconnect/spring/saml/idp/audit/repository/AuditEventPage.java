@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+/**
+ * A page of audit events returned by a {@link PageableAuditEventRepository}.
+ * <p>
+ * Note that a page may hold fewer events than the requested limit, even if there are more events to read. Whether there
+ * are more events is given by the {@code nextCursor}.
+ * </p>
+ *
+ * @param events the audit events
+ * @param nextCursor the cursor to use for obtaining the next page, or {@code null} if there are no more events
+ * @author Martin Lindström
+ */
+public record AuditEventPage(List<AuditEvent> events, String nextCursor) {
+
+  /**
+   * Constructor.
+   *
+   * @param events the audit events
+   * @param nextCursor the cursor to use for obtaining the next page, or {@code null} if there are no more events
+   */
+  public AuditEventPage {
+    events = List.copyOf(Objects.requireNonNull(events, "events must not be null"));
+  }
+
+  /**
+   * Tells whether there are more events to read.
+   *
+   * @return {@code true} if there are more events and {@code false} otherwise
+   */
+  public boolean hasNext() {
+    return this.nextCursor != null;
+  }
+
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FilenameUtils;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A writer for audit log files that is designed to be used by many threads concurrently.
+ * <p>
+ * The calling threads only encode the lines and put them in a queue. One writer thread takes the lines from the queue
+ * and writes them to a {@link FileChannel} using a direct buffer. When data is forced to disk is controlled by the
+ * {@link FsyncPolicy}.
+ * </p>
+ * <p>
+ * Since {@link #write(String)} returns as soon as the line has been queued, no fsync policy guarantees that a line is
+ * on disk when {@code write} returns. A caller that needs that guarantee should invoke {@link #sync(Duration)}.
+ * </p>
+ * <p>
+ * A failure to write an entry is logged and does not affect the handling of the following entries.
+ * </p>
+ * <p>
+ * The log file is rolled each day (UTC). At midnight, the current file is moved to
+ * {@code <log-file-name>-<yyyyMMdd>.<ext>} and a new file is created. This is driven by a scheduled task and not
+ * checked per written line.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class AuditFileWriter implements AutoCloseable {
+
+  /** The default queue capacity. */
+  public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+  /** The default size of the write buffer. */
+  public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  /** The default interval for {@link FsyncPolicy#INTERVAL}. */
+  public static final Duration DEFAULT_FSYNC_INTERVAL = Duration.ofSeconds(1);
+
+  /** The maximum time to wait for the writer thread when closing. */
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Interval for the writer thread to check whether the writer has been closed. */
+  private static final long POLL_INTERVAL_MILLIS = 200;
+
+  /** The maximum number of queue entries handled in one batch. */
+  private static final int MAX_BATCH_SIZE = 1000;
+
+  /** Formatter for backup file names. */
+  private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+  /**
+   * Tells when written data is forced to disk.
+   */
+  public enum FsyncPolicy {
+
+    /**
+     * Data is forced to disk by the writer thread after each written line. This is the most durable, and the slowest,
+     * option. Note that the line is forced to disk after {@link #write(String)} has returned. Use
+     * {@link #sync(Duration)} to wait for the data to reach the disk.
+     */
+    EVENT,
+
+    /** Data is forced to disk after each batch of lines taken from the queue. */
+    BATCH,
+
+    /** Data is forced to disk at a fixed interval. */
+    INTERVAL
+  }
+
+  /** The log file. */
+  private final Path logFile;
+
+  /** The fsync policy. */
+  private final FsyncPolicy fsyncPolicy;
+
+  /** The queue of entries to be handled by the writer thread. */
+  private final BlockingQueue<Entry> queue;
+
+  /** The write buffer. Only used by the writer thread. */
+  private final ByteBuffer buffer;
+
+  /** The writer thread. */
+  private final Thread writerThread;
+
+  /** Scheduler for date rolling and interval fsync. */
+  private final ScheduledExecutorService scheduler;
+
+  /** The file channel. Only used by the writer thread after construction. */
+  private FileChannel channel;
+
+  /** The date of the contents of the current log file. */
+  private LocalDate currentDate;
+
+  /** Whether the writer is accepting lines. */
+  private volatile boolean running = true;
+
+  /**
+   * Constructor using the default settings and {@link FsyncPolicy#BATCH}.
+   *
+   * @param logFile the log file (including the path)
+   * @throws IOException for file errors
+   */
+  public AuditFileWriter(final String logFile) throws IOException {
+    this(logFile, FsyncPolicy.BATCH, DEFAULT_FSYNC_INTERVAL, DEFAULT_QUEUE_CAPACITY, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param logFile the log file (including the path)
+   * @param fsyncPolicy the fsync policy
+   * @param fsyncInterval the fsync interval (only used for {@link FsyncPolicy#INTERVAL})
+   * @param queueCapacity the capacity of the queue holding lines waiting to be written
+   * @param bufferSize the size of the write buffer
+   * @throws IOException for file errors
+   */
+  public AuditFileWriter(final String logFile, final FsyncPolicy fsyncPolicy, final Duration fsyncInterval,
+      final int queueCapacity, final int bufferSize) throws IOException {
+    this.logFile = Path.of(Objects.requireNonNull(logFile, "logFile must not be null"));
+    this.fsyncPolicy = Objects.requireNonNull(fsyncPolicy, "fsyncPolicy must not be null");
+    Objects.requireNonNull(fsyncInterval, "fsyncInterval must not be null");
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("queueCapacity must be positive");
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize must be positive");
+    }
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+
+    final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    if (Files.exists(this.logFile)) {
+      if (Files.isDirectory(this.logFile)) {
+        throw new IOException("Given logFile points to a directory and not a file");
+      }
+      if (!Files.isWritable(this.logFile)) {
+        throw new IOException("Given logFile is not writable");
+      }
+      this.currentDate = LocalDate.ofInstant(Files.getLastModifiedTime(this.logFile).toInstant(), ZoneOffset.UTC);
+    }
+    else {
+      final Path parent = this.logFile.getParent();
+      if (parent != null && !Files.exists(parent)) {
+        Files.createDirectories(parent);
+      }
+      this.currentDate = today;
+    }
+    this.channel = this.openChannel();
+
+    // If the existing file was written to an earlier day, roll it directly ...
+    //
+    if (today.isAfter(this.currentDate)) {
+      this.roll(today);
+    }
+
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "audit-file-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduleRoll();
+    if (this.fsyncPolicy == FsyncPolicy.INTERVAL) {
+      final long interval = Math.max(1, fsyncInterval.toMillis());
+      this.scheduler.scheduleWithFixedDelay(
+          () -> this.queue.offer(Entry.SYNC), interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    this.writerThread = new Thread(this::run, "audit-file-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * Puts a line in the queue for writing. If the queue is full, the calling thread waits until there is room.
+   *
+   * @param line the line to write (a line separator is added)
+   * @throws IllegalStateException if the writer has been closed
+   */
+  public void write(final String line) {
+    if (!this.running) {
+      throw new IllegalStateException("Audit file writer has been closed");
+    }
+    final Entry entry =
+        new Entry(Kind.DATA, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8), null);
+    try {
+      this.queue.put(entry);
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while writing audit line", e);
+    }
+  }
+
+  /**
+   * Waits until all lines that were put in the queue before this call have been written and forced to disk.
+   *
+   * @param timeout the maximum time to wait
+   * @return {@code true} if the lines were forced to disk within the given time, and {@code false} otherwise
+   * @throws IOException if the lines could not be written or forced to disk
+   * @throws IllegalStateException if the writer has been closed
+   */
+  public boolean sync(final Duration timeout) throws IOException {
+    Objects.requireNonNull(timeout, "timeout must not be null");
+    if (!this.running) {
+      throw new IllegalStateException("Audit file writer has been closed");
+    }
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+    try {
+      this.queue.put(new Entry(Kind.SYNC, null, completion));
+      completion.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      return true;
+    }
+    catch (final TimeoutException e) {
+      return false;
+    }
+    catch (final ExecutionException e) {
+      throw e.getCause() instanceof final IOException ioe ? ioe : new IOException(e.getCause());
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Gets the path of the log file.
+   *
+   * @return the log file path
+   */
+  public Path getLogFile() {
+    return this.logFile;
+  }
+
+  /**
+   * Writes all queued lines, forces them to disk and closes the file.
+   */
+  @Override
+  public void close() {
+    if (!this.running) {
+      return;
+    }
+    this.running = false;
+    this.scheduler.shutdownNow();
+    try {
+      this.writerThread.join(CLOSE_TIMEOUT.toMillis());
+      if (this.writerThread.isAlive()) {
+        log.warn("Audit file writer for {} did not terminate within {}", this.logFile, CLOSE_TIMEOUT);
+      }
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Requests that the log file is rolled. The file is only rolled if the date has changed since the file was created.
+   */
+  void requestRoll() {
+    try {
+      this.queue.put(Entry.ROLL);
+    }
+    catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Schedules a roll request at the next midnight (UTC).
+   */
+  private void scheduleRoll() {
+    if (!this.running || this.scheduler == null || this.scheduler.isShutdown()) {
+      return;
+    }
+    final ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+    final ZonedDateTime midnight = now.toLocalDate().plusDays(1).atStartOfDay(ZoneOffset.UTC);
+    try {
+      this.scheduler.schedule(this::requestRoll, Duration.between(now, midnight).toMillis(), TimeUnit.MILLISECONDS);
+    }
+    catch (final RuntimeException e) {
+      log.debug("Could not schedule roll of {} - {}", this.logFile, e.getMessage());
+    }
+  }
+
+  /**
+   * The writer loop.
+   */
+  private void run() {
+    final List<Entry> batch = new ArrayList<>();
+    while (this.running || !this.queue.isEmpty()) {
+      try {
+        final Entry first = this.queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        this.queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+        this.process(batch);
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      finally {
+        batch.clear();
+      }
+    }
+    try {
+      this.flushBuffer();
+      this.channel.force(true);
+      this.channel.close();
+    }
+    catch (final IOException e) {
+      log.error("Failed to close audit log file {} - {}", this.logFile, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Handles a batch of entries. A failing entry is logged, and the remaining entries are handled.
+   *
+   * @param batch the entries
+   */
+  private void process(final List<Entry> batch) {
+    for (final Entry entry : batch) {
+      try {
+        this.process(entry);
+      }
+      catch (final IOException | RuntimeException e) {
+        log.error("Failed to write audit log file {} - {}", this.logFile, e.getMessage(), e);
+        if (entry.completion() != null) {
+          entry.completion().completeExceptionally(e);
+        }
+      }
+    }
+    try {
+      this.flushBuffer();
+      if (this.fsyncPolicy == FsyncPolicy.BATCH) {
+        this.channel.force(false);
+      }
+    }
+    catch (final IOException | RuntimeException e) {
+      log.error("Failed to write audit log file {} - {}", this.logFile, e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Handles one entry.
+   *
+   * @param entry the entry
+   * @throws IOException for write errors
+   */
+  private void process(final Entry entry) throws IOException {
+    switch (entry.kind()) {
+      case DATA -> {
+        this.append(entry.data());
+        if (this.fsyncPolicy == FsyncPolicy.EVENT) {
+          this.flushBuffer();
+          this.channel.force(false);
+        }
+      }
+      case SYNC -> {
+        this.flushBuffer();
+        this.channel.force(false);
+        if (entry.completion() != null) {
+          entry.completion().complete(null);
+        }
+      }
+      case ROLL -> {
+        // The next roll is always scheduled, also if this one fails ...
+        //
+        try {
+          this.flushBuffer();
+          final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+          if (today.isAfter(this.currentDate)) {
+            this.roll(today);
+          }
+        }
+        finally {
+          this.scheduleRoll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends data to the write buffer, and writes the buffer if it is full.
+   *
+   * @param data the data to append
+   * @throws IOException for write errors
+   */
+  private void append(final byte[] data) throws IOException {
+    if (data.length > this.buffer.remaining()) {
+      this.flushBuffer();
+      if (data.length > this.buffer.capacity()) {
+        this.writeFully(ByteBuffer.wrap(data));
+        return;
+      }
+    }
+    this.buffer.put(data);
+  }
+
+  /**
+   * Writes the contents of the write buffer to the file.
+   *
+   * @throws IOException for write errors
+   */
+  private void flushBuffer() throws IOException {
+    if (this.buffer.position() > 0) {
+      this.buffer.flip();
+      try {
+        this.writeFully(this.buffer);
+      }
+      finally {
+        // Keeps any data that was not written for the next attempt ...
+        this.buffer.compact();
+      }
+    }
+  }
+
+  /**
+   * Writes all remaining bytes of the supplied buffer to the file.
+   *
+   * @param data the data
+   * @throws IOException for write errors
+   */
+  private void writeFully(final ByteBuffer data) throws IOException {
+    while (data.hasRemaining()) {
+      this.channel.write(data);
+    }
+  }
+
+  /**
+   * Moves the current log file to {@code <log-file-name>-<date>.<ext>} and opens a new log file. If the current file is
+   * empty, it is kept. If the file can not be moved, writing continues to the current file, and the roll is retried at
+   * the next roll request.
+   *
+   * @param today the current date
+   * @throws IOException for file errors
+   */
+  private void roll(final LocalDate today) throws IOException {
+    if (this.channel.size() > 0) {
+      this.channel.force(true);
+      this.channel.close();
+      try {
+        Files.move(this.logFile, this.backupPath(this.currentDate), StandardCopyOption.REPLACE_EXISTING);
+      }
+      finally {
+        this.channel = this.openChannel();
+      }
+      log.debug("Audit log file {} rolled", this.logFile);
+    }
+    this.currentDate = today;
+  }
+
+  /**
+   * Gets the path for the backup of a log file with contents for the given date.
+   *
+   * @param date the date
+   * @return the backup path
+   */
+  private Path backupPath(final LocalDate date) {
+    final String dateString = dateFormatter.format(date);
+    final String path = this.logFile.toString();
+    final String extension = FilenameUtils.getExtension(path);
+    return Path.of(StringUtils.hasText(extension)
+        ? String.format("%s-%s.%s", path.substring(0, path.length() - extension.length() - 1), dateString, extension)
+        : String.format("%s-%s", path, dateString));
+  }
+
+  /**
+   * Opens the log file for appending.
+   *
+   * @return the file channel
+   * @throws IOException for file errors
+   */
+  private FileChannel openChannel() throws IOException {
+    return FileChannel.open(this.logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+  }
+
+  /**
+   * The kind of queue entry.
+   */
+  private enum Kind {
+    DATA, SYNC, ROLL
+  }
+
+  /**
+   * A queue entry.
+   *
+   * @param kind the entry kind
+   * @param data the data to write (for {@link Kind#DATA})
+   * @param completion completed when the entry has been handled (may be {@code null})
+   */
+  private record Entry(Kind kind, byte[] data, CompletableFuture<Void> completion) {
+
+    /** Request to force data to disk. */
+    static final Entry SYNC = new Entry(Kind.SYNC, null, null);
+
+    /** Request to roll the log file. */
+    static final Entry ROLL = new Entry(Kind.ROLL, null, null);
+  }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import java.util.List;
+
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+
+/**
+ * An {@link AuditEventRepository} that can add several events in one operation, for example using one round trip to a
+ * remote store or one write to a file.
+ *
+ * @author Martin Lindström
+ */
+public interface BatchAuditEventRepository extends AuditEventRepository {
+
+  /**
+   * Adds the supplied events to the repository. The events are added in the order given.
+   *
+   * @param events the events to add
+   */
+  void addAll(final List<AuditEvent> events);
+
+}
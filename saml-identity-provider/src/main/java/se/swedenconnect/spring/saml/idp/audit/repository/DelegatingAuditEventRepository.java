@@ -36,7 +36,7 @@ import lombok.extern.slf4j.Slf4j;
  * @author Martin Lindström
  */
 @Slf4j
-public class DelegatingAuditEventRepository implements AuditEventRepository {
+public class DelegatingAuditEventRepository implements BatchAuditEventRepository, AutoCloseable {
 
   /** The underlying {@link AuditEventRepository} instances. */
   private final List<AuditEventRepository> repositories;
@@ -65,6 +65,30 @@ public class DelegatingAuditEventRepository implements AuditEventRepository {
     });
   }
 
+  /**
+   * Adds the events to all installed repositories. Repositories that implement {@link BatchAuditEventRepository} are
+   * given all events in one call.
+   */
+  @Override
+  public void addAll(final List<AuditEvent> events) {
+    if (events == null || events.isEmpty()) {
+      return;
+    }
+    this.repositories.forEach(r -> {
+      try {
+        if (r instanceof final BatchAuditEventRepository batchRepository) {
+          batchRepository.addAll(events);
+        }
+        else {
+          events.forEach(r::add);
+        }
+      }
+      catch (final Exception e) {
+        log.error("Failed to add events to {}", r.getClass().getSimpleName(), e);
+      }
+    });
+  }
+
   /**
    * The first installed repository will be tried, and if that repository returns an empty list, the next repository
    * will be tried, and so on.
@@ -80,4 +104,21 @@ public class DelegatingAuditEventRepository implements AuditEventRepository {
     return Collections.emptyList();
   }
 
+  /**
+   * Closes all installed repositories that implement {@link AutoCloseable}.
+   */
+  @Override
+  public void close() {
+    this.repositories.forEach(r -> {
+      if (r instanceof final AutoCloseable closeable) {
+        try {
+          closeable.close();
+        }
+        catch (final Exception e) {
+          log.error("Failed to close {}", r.getClass().getSimpleName(), e);
+        }
+      }
+    });
+  }
+
 }
@@ -20,25 +20,26 @@ import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.boot.actuate.audit.AuditEventRepository;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Predicate;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 
 /**
  * A write-only {@link AuditEventRepository} that writes audit events to a file.
+ * <p>
+ * The events are written using an {@link AuditFileWriter}, meaning that the calling thread does not perform any file
+ * I/O, and that the file is rolled each day.
+ * </p>
  *
  * @author Martin Lindström
  */
 @Slf4j
-public class FileBasedAuditEventRepository extends FilteringAuditEventRepository {
+public class FileBasedAuditEventRepository extends FilteringAuditEventRepository implements AutoCloseable {
 
-  /** The audit logger (Java Util Logging logger). */
-  private final java.util.logging.Logger auditLogger;
+  /** The audit file writer. */
+  private final AuditFileWriter writer;
 
   /** For mapping events to strings. */
   private final AuditEventMapper eventMapper;
@@ -66,18 +67,21 @@ public class FileBasedAuditEventRepository extends FilteringAuditEventRepository
   public FileBasedAuditEventRepository(
       final String logFile, final AuditEventMapper eventMapper, final Predicate<AuditEvent> filter)
       throws IOException {
+    this(new AuditFileWriter(logFile), eventMapper, filter);
+  }
+
+  /**
+   * Constructor accepting a configured {@link AuditFileWriter}.
+   *
+   * @param writer the audit file writer
+   * @param eventMapper the event mapper used to map events to strings
+   * @param filter filter for determining which events to log
+   */
+  public FileBasedAuditEventRepository(
+      final AuditFileWriter writer, final AuditEventMapper eventMapper, final Predicate<AuditEvent> filter) {
     super(filter);
+    this.writer = Objects.requireNonNull(writer, "writer must not be null");
     this.eventMapper = Objects.requireNonNull(eventMapper, "eventMapper must not be null");
-
-    final DateRollingFileHandler handler = new DateRollingFileHandler(logFile);
-
-    // Build the logger name based on the log file name ...
-    final String loggerName = Path.of(logFile).toAbsolutePath().toString();
-
-    this.auditLogger = Logger.getLogger(loggerName);
-    this.auditLogger.setLevel(Level.INFO);
-    this.auditLogger.addHandler(handler);
-    this.auditLogger.setUseParentHandlers(false);
   }
 
   /** {@inheritDoc} */
@@ -85,7 +89,7 @@ public class FileBasedAuditEventRepository extends FilteringAuditEventRepository
   public void addEvent(final AuditEvent event) {
     try {
       log.debug("Audit logging event '{}' for principal '{}' ...", event.getType(), event.getPrincipal());
-      this.auditLogger.log(Level.INFO, this.eventMapper.write(event));
+      this.writer.write(this.eventMapper.write(event));
     }
     catch (final Throwable e) {
       log.error("Failed to audit log to file - {}", e.getMessage(), e);
@@ -98,4 +102,12 @@ public class FileBasedAuditEventRepository extends FilteringAuditEventRepository
     return Collections.emptyList();
   }
 
+  /**
+   * Writes all pending events and closes the log file.
+   */
+  @Override
+  public void close() {
+    this.writer.close();
+  }
+
 }
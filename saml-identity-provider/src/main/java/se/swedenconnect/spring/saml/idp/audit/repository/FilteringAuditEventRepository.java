@@ -31,7 +31,7 @@ import lombok.extern.slf4j.Slf4j;
  * @author Martin Lindström
  */
 @Slf4j
-public abstract class FilteringAuditEventRepository implements AuditEventRepository {
+public abstract class FilteringAuditEventRepository implements BatchAuditEventRepository {
 
   /** The filter. */
   private final Predicate<AuditEvent> filter;
@@ -65,6 +65,20 @@ public abstract class FilteringAuditEventRepository implements AuditEventReposit
     }
   }
 
+  /** {@inheritDoc} */
+  @Override
+  public final void addAll(final List<AuditEvent> events) {
+    if (events == null || events.isEmpty()) {
+      return;
+    }
+    final List<AuditEvent> filtered = events.stream()
+        .filter(e -> e != null && this.filter.test(e))
+        .toList();
+    if (!filtered.isEmpty()) {
+      this.addEvents(filtered);
+    }
+  }
+
   /**
    * Logs an event.
    *
@@ -72,6 +86,16 @@ public abstract class FilteringAuditEventRepository implements AuditEventReposit
    */
   protected abstract void addEvent(final AuditEvent event);
 
+  /**
+   * Logs several events. The default implementation invokes {@link #addEvent(AuditEvent)} for each event. Subclasses
+   * that can write several events in one operation should override this method.
+   *
+   * @param events the audit events to log (all have passed the filter)
+   */
+  protected void addEvents(final List<AuditEvent> events) {
+    events.forEach(this::addEvent);
+  }
+
   /**
    * Returns an audit event filter that accepts a list of event types that are accepted.
    * <p>
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import java.time.Instant;
+
+import org.springframework.boot.actuate.audit.AuditEventRepository;
+
+/**
+ * An {@link AuditEventRepository} that supports cursor based pagination of search results. This is useful for
+ * repositories backed by remote stores where it is not feasible to fetch all matching events in one call.
+ *
+ * @author Martin Lindström
+ */
+public interface PageableAuditEventRepository extends AuditEventRepository {
+
+  /**
+   * Finds audit events matching the supplied criteria. The events are returned in timestamp order, oldest first.
+   * <p>
+   * The first page is obtained by passing {@code null} as the cursor. The following pages are obtained by passing the
+   * cursor returned in {@link AuditEventPage#nextCursor()} from the previous page.
+   * </p>
+   *
+   * @param principal the principal name to search for (or {@code null} if unrestricted)
+   * @param after timestamp of earliest result required (or {@code null} if unrestricted)
+   * @param type the event type to search for (or {@code null} if unrestricted)
+   * @param cursor the cursor from the previous page (or {@code null} for the first page)
+   * @param limit the maximum number of events to return
+   * @return a page of audit events
+   */
+  AuditEventPage find(final String principal, final Instant after, final String type, final String cursor,
+      final int limit);
+
+}
@@ -15,28 +15,61 @@
  */
 package se.swedenconnect.spring.saml.idp.audit.repository;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.function.Predicate;
 
 import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.util.StringUtils;
 
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * An implementation of the {@link AuditEventRepository} that uses Redis lists to store the events.
+ * <p>
+ * When several events are added in one call, see {@link #addAll(List)}, they are written using one multi-value
+ * {@code RPUSH}. If a maximum length is assigned, see {@link #setMaxLength(Long)}, the list is trimmed using
+ * {@code LTRIM} in the same pipeline as the write.
+ * </p>
+ * <p>
+ * Searching the list means that all events need to be read and deserialized. To avoid this, secondary indexes may be
+ * enabled by assigning an index retention period, see {@link #setIndexRetention(Duration)}. Each event is then also
+ * stored under its own key ({@code <name>:event:<id>}), and the event ID is added to sorted sets ordered by timestamp,
+ * one for all events ({@code <name>:idx:all}), one per principal ({@code <name>:idx:principal:<principal>}) and one per
+ * event type ({@code <name>:idx:type:<type>}). Searches then only read the events that may match. Entries older than
+ * the retention period are removed from the indexes.
+ * </p>
+ * <p>
+ * Cursor based pagination, see {@link #find(String, Instant, String, String, int)}, requires indexing. A list offset
+ * is not a stable cursor since trimming the list shifts the positions of all remaining events.
+ * </p>
  *
  * @author Martin Lindström
  * @author Felix Hellman
  */
 @Slf4j
-public class RedisListAuditEventRepository extends FilteringAuditEventRepository {
+public class RedisListAuditEventRepository extends FilteringAuditEventRepository
+    implements PageableAuditEventRepository {
+
+  /** The number of index entries read per round trip when all matching events are read. */
+  static final int FIND_PAGE_SIZE = 1000;
+
+  /** The Redis template. */
+  private final StringRedisTemplate redisTemplate;
 
   /** The Redis list operations. */
   private final ListOperations<String, String> listOps;
@@ -44,9 +77,18 @@ public class RedisListAuditEventRepository extends FilteringAuditEventRepository
   /** The name of the Redis key holding the audit event list. */
   private final String keyName;
 
+  /** The prefix for the index and event keys. */
+  private final String indexPrefix;
+
   /** The audit event mapper. */
   private final AuditEventMapper eventMapper;
 
+  /** The maximum number of events to keep in the list. */
+  private Long maxLength;
+
+  /** The index retention period. If {@code null}, no indexes are maintained. */
+  private Duration indexRetention;
+
   /**
    * Constructor setting up the repository to log all events.
    *
@@ -70,14 +112,50 @@ public class RedisListAuditEventRepository extends FilteringAuditEventRepository
   public RedisListAuditEventRepository(final StringRedisTemplate redisTemplate, final String keyName,
       final AuditEventMapper mapper, final Predicate<AuditEvent> filter) {
     super(filter);
-    this.listOps = Objects.requireNonNull(redisTemplate, "redisTemplate must not be null").opsForList();
+    this.redisTemplate = Objects.requireNonNull(redisTemplate, "redisTemplate must not be null");
+    this.listOps = redisTemplate.opsForList();
     this.keyName = "%s:%s".formatted(Objects.requireNonNull(keyName, "keyName must not be null"), "list");
+    this.indexPrefix = keyName;
     this.eventMapper = Objects.requireNonNull(mapper, "mapper must not be null");
   }
 
+  /**
+   * Assigns the maximum number of events to keep in the list. When the list grows beyond this length, the oldest
+   * events are removed. The default is {@code null}, meaning that the list is not trimmed.
+   *
+   * @param maxLength the maximum list length, or {@code null}
+   */
+  public void setMaxLength(final Long maxLength) {
+    if (maxLength != null && maxLength <= 0) {
+      throw new IllegalArgumentException("maxLength must be positive");
+    }
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Assigns the retention period for the secondary indexes. Setting this enables indexing of events. The default is
+   * {@code null}, meaning that no indexes are maintained and that searches read the entire list.
+   * <p>
+   * Note that only events added after indexing has been enabled are indexed, and that searches using the indexes only
+   * find events within the retention period.
+   * </p>
+   *
+   * @param indexRetention the index retention period, or {@code null}
+   */
+  public void setIndexRetention(final Duration indexRetention) {
+    if (indexRetention != null && indexRetention.toSeconds() < 1) {
+      throw new IllegalArgumentException("indexRetention must be at least one second");
+    }
+    this.indexRetention = indexRetention;
+  }
+
   /** {@inheritDoc} */
   @Override
   protected void addEvent(final AuditEvent event) {
+    if (this.maxLength != null || this.indexRetention != null) {
+      this.addEvents(List.of(event));
+      return;
+    }
     try {
       log.debug("Audit logging event '{}' for principal '{}' ...", event.getType(), event.getPrincipal());
       this.listOps.rightPush(this.keyName, this.eventMapper.write(event));
@@ -87,9 +165,90 @@ public class RedisListAuditEventRepository extends FilteringAuditEventRepository
     }
   }
 
-  /** {@inheritDoc} */
+  /**
+   * Writes all events using one {@code RPUSH}, followed by a {@code LTRIM} if a maximum length has been assigned, and
+   * the index updates if indexing is enabled.
+   */
+  @Override
+  protected void addEvents(final List<AuditEvent> events) {
+    try {
+      log.debug("Audit logging {} event(s) ...", events.size());
+      final String[] values = events.stream()
+          .map(this.eventMapper::write)
+          .toArray(String[]::new);
+
+      if (this.maxLength == null && this.indexRetention == null) {
+        this.listOps.rightPushAll(this.keyName, values);
+      }
+      else {
+        final Long maxLength = this.maxLength;
+        final Duration indexRetention = this.indexRetention;
+        this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+          final StringRedisConnection stringConnection = (StringRedisConnection) connection;
+          stringConnection.rPush(this.keyName, values);
+          if (maxLength != null) {
+            stringConnection.lTrim(this.keyName, -maxLength, -1);
+          }
+          if (indexRetention != null) {
+            this.index(stringConnection, indexRetention, events, values);
+          }
+          return null;
+        });
+      }
+    }
+    catch (final Throwable e) {
+      log.error("Failed to write {} event(s) to Redis list {}", events.size(), this.keyName, e);
+    }
+  }
+
+  /**
+   * Adds the events to the indexes.
+   *
+   * @param connection the (pipelined) Redis connection
+   * @param retention the index retention period
+   * @param events the events
+   * @param values the serialized events
+   */
+  private void index(final StringRedisConnection connection, final Duration retention, final List<AuditEvent> events,
+      final String[] values) {
+    final long ttl = retention.toSeconds();
+    final Set<String> indexKeys = new HashSet<>();
+    for (int i = 0; i < events.size(); i++) {
+      final AuditEvent event = events.get(i);
+      final String id = UUID.randomUUID().toString();
+      final double score = event.getTimestamp().toEpochMilli();
+      connection.setEx(this.eventKey(id), ttl, values[i]);
+      for (final String indexKey : this.indexKeys(event)) {
+        connection.zAdd(indexKey, score, id);
+        indexKeys.add(indexKey);
+      }
+    }
+    // Remove expired entries from the indexes that we touched. Indexes that are not updated within the retention
+    // period expire.
+    //
+    final double expired = System.currentTimeMillis() - retention.toMillis();
+    for (final String indexKey : indexKeys) {
+      connection.zRemRangeByScore(indexKey, 0, expired);
+      connection.expire(indexKey, ttl);
+    }
+  }
+
+  /**
+   * Finds audit events. If indexing is enabled, the most selective index is used and it is read in pages of
+   * {@value #FIND_PAGE_SIZE} entries, otherwise the entire list is read.
+   */
   @Override
   public List<AuditEvent> find(final String principal, final Instant after, final String type) {
+    if (this.indexRetention != null) {
+      final List<AuditEvent> events = new ArrayList<>();
+      TimestampCursor cursor = TimestampCursor.FIRST;
+      while (cursor != null) {
+        final AuditEventPage page = this.findIndexed(principal, after, type, cursor, FIND_PAGE_SIZE);
+        events.addAll(page.events());
+        cursor = page.hasNext() ? TimestampCursor.parse(page.nextCursor()) : null;
+      }
+      return events;
+    }
     final long size = Optional.ofNullable(this.listOps.size(this.keyName)).orElse(0L);
     final List<String> list = this.listOps.range(this.keyName, 0, size);
     if (list == null) {
@@ -97,9 +256,126 @@ public class RedisListAuditEventRepository extends FilteringAuditEventRepository
     }
     return list.stream()
         .map(this.eventMapper::read)
-        .filter(e -> type == null || type.equals(e.getType()))
-        .filter(e -> principal == null || principal.equals(e.getPrincipal()))
-        .filter(e -> after == null || after.isBefore(e.getTimestamp()))
+        .filter(e -> matches(e, principal, after, type))
+        .toList();
+  }
+
+  /**
+   * Finds audit events using the most selective index. The cursor is based on the event timestamps.
+   *
+   * @throws UnsupportedOperationException if indexing is not enabled
+   */
+  @Override
+  public AuditEventPage find(final String principal, final Instant after, final String type, final String cursor,
+      final int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive");
+    }
+    if (this.indexRetention == null) {
+      throw new UnsupportedOperationException("Paged search requires indexing - assign an index retention period");
+    }
+    return this.findIndexed(principal, after, type, TimestampCursor.parse(cursor), limit);
+  }
+
+  /**
+   * Finds audit events using the indexes.
+   *
+   * @param principal the principal name to search for (or {@code null} if unrestricted)
+   * @param after timestamp of earliest result required (or {@code null} if unrestricted)
+   * @param type the event type to search for (or {@code null} if unrestricted)
+   * @param cursor the cursor
+   * @param limit the maximum number of index entries to read
+   * @return a page of audit events
+   */
+  private AuditEventPage findIndexed(final String principal, final Instant after, final String type,
+      final TimestampCursor cursor, final int limit) {
+
+    final String indexKey = principal != null
+        ? this.principalIndexKey(principal)
+        : type != null ? this.typeIndexKey(type) : this.allIndexKey();
+    final long min = after != null ? after.toEpochMilli() : 0;
+    final long start = cursor.start(min);
+
+    final ZSetOperations<String, String> zSetOps = this.redisTemplate.opsForZSet();
+    final Set<ZSetOperations.TypedTuple<String>> ids =
+        zSetOps.rangeByScoreWithScores(indexKey, start, Double.POSITIVE_INFINITY, cursor.skip(min), limit);
+    if (ids == null || ids.isEmpty()) {
+      return new AuditEventPage(Collections.emptyList(), null);
+    }
+
+    final List<String> eventKeys = new ArrayList<>(ids.size());
+    final List<Long> timestamps = new ArrayList<>(ids.size());
+    for (final ZSetOperations.TypedTuple<String> id : ids) {
+      eventKeys.add(this.eventKey(id.getValue()));
+      timestamps.add(Optional.ofNullable(id.getScore()).map(Double::longValue).orElse(start));
+    }
+
+    // Events that have expired are returned as null ...
+    //
+    final List<String> values = Optional.ofNullable(this.redisTemplate.opsForValue().multiGet(eventKeys))
+        .orElseGet(Collections::emptyList);
+    final List<AuditEvent> events = values.stream()
+        .filter(Objects::nonNull)
+        .map(this.eventMapper::read)
+        .filter(e -> matches(e, principal, after, type))
         .toList();
+
+    final String nextCursor = ids.size() == limit ? cursor.next(start, timestamps).toString() : null;
+    return new AuditEventPage(events, nextCursor);
   }
+
+  /**
+   * Predicate that tells whether an event matches the search criteria.
+   *
+   * @param event the event
+   * @param principal the principal name to search for (or {@code null} if unrestricted)
+   * @param after timestamp of earliest result required (or {@code null} if unrestricted)
+   * @param type the event type to search for (or {@code null} if unrestricted)
+   * @return {@code true} if the event matches and {@code false} otherwise
+   */
+  private static boolean matches(final AuditEvent event, final String principal, final Instant after,
+      final String type) {
+    return (type == null || type.equals(event.getType()))
+        && (principal == null || principal.equals(event.getPrincipal()))
+        && (after == null || after.isBefore(event.getTimestamp()));
+  }
+
+  /**
+   * Gets the keys of the indexes that the event should be added to.
+   *
+   * @param event the event
+   * @return a list of index keys
+   */
+  private List<String> indexKeys(final AuditEvent event) {
+    final List<String> keys = new ArrayList<>(3);
+    keys.add(this.allIndexKey());
+    if (StringUtils.hasText(event.getPrincipal())) {
+      keys.add(this.principalIndexKey(event.getPrincipal()));
+    }
+    if (StringUtils.hasText(event.getType())) {
+      keys.add(this.typeIndexKey(event.getType()));
+    }
+    return keys;
+  }
+
+  /** Gets the key for the event with the given ID. */
+  private String eventKey(final String id) {
+    return "%s:event:%s".formatted(this.indexPrefix, id);
+  }
+
+  /** Gets the key for the index holding all events. */
+  private String allIndexKey() {
+    return "%s:idx:all".formatted(this.indexPrefix);
+  }
+
+  /** Gets the key for the index holding the events for the given principal. */
+  private String principalIndexKey(final String principal) {
+    return "%s:idx:principal:%s".formatted(this.indexPrefix, principal);
+  }
+
+  /** Gets the key for the index holding the events of the given type. */
+  private String typeIndexKey(final String type) {
+    return "%s:idx:type:%s".formatted(this.indexPrefix, type);
+  }
+
 }
@@ -15,9 +15,11 @@
  */
 package se.swedenconnect.spring.saml.idp.audit.repository;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -27,17 +29,29 @@ import org.redisson.api.RedissonClient;
 import org.redisson.api.TimeSeriesEntry;
 import org.springframework.boot.actuate.audit.AuditEvent;
 import org.springframework.boot.actuate.audit.AuditEventRepository;
+import org.springframework.util.StringUtils;
 
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * An {@link AuditEventRepository} implementation that uses Redis time series to store events.
+ * <p>
+ * The time series is ordered by timestamp, so a search is limited to the events after the given timestamp. Use
+ * {@link #find(String, Instant, String, String, int)} to read the events page by page.
+ * </p>
+ * <p>
+ * Secondary indexes may be enabled by assigning an index retention period, see {@link #setIndexRetention(Duration)}.
+ * Each event is then also added to one time series per principal ({@code <name>:timeseries:principal:<principal>})
+ * and one per event type ({@code <name>:timeseries:type:<type>}). The index entries expire after the retention period.
+ * Searches for a principal or an event type then only read the events that may match.
+ * </p>
  *
  * @author Martin Lindström
  * @author Felix Hellman
  */
 @Slf4j
-public class RedissonTimeSeriesAuditEventRepository extends FilteringAuditEventRepository {
+public class RedissonTimeSeriesAuditEventRepository extends FilteringAuditEventRepository
+    implements PageableAuditEventRepository {
 
   /** The Redis client. */
   private final RedissonClient client;
@@ -48,6 +62,9 @@ public class RedissonTimeSeriesAuditEventRepository extends FilteringAuditEventR
   /** The audit event mapper. */
   private final AuditEventMapper eventMapper;
 
+  /** The index retention period. If {@code null}, no indexes are maintained. */
+  private Duration indexRetention;
+
   /**
    * Constructor setting up the repository to log all events.
    *
@@ -76,24 +93,56 @@ public class RedissonTimeSeriesAuditEventRepository extends FilteringAuditEventR
     this.eventMapper = Objects.requireNonNull(mapper, "mapper must not be null");
   }
 
+  /**
+   * Assigns the retention period for the secondary indexes. Setting this enables indexing of events. The default is
+   * {@code null}, meaning that no indexes are maintained and that searches read the entire time series (from the given
+   * timestamp).
+   * <p>
+   * Note that only events added after indexing has been enabled are indexed, and that searches for a principal or an
+   * event type only find events within the retention period.
+   * </p>
+   *
+   * @param indexRetention the index retention period, or {@code null}
+   */
+  public void setIndexRetention(final Duration indexRetention) {
+    if (indexRetention != null && indexRetention.toSeconds() < 1) {
+      throw new IllegalArgumentException("indexRetention must be at least one second");
+    }
+    this.indexRetention = indexRetention;
+  }
+
   /** {@inheritDoc} */
   @Override
   protected void addEvent(final AuditEvent event) {
     try {
       log.debug("Audit logging event '{}' for principal '{}' ...", event.getType(), event.getPrincipal());
-      this.client.getTimeSeries(this.tsName)
-          .add(event.getTimestamp().toEpochMilli(), this.eventMapper.write(event));
+      final long timestamp = event.getTimestamp().toEpochMilli();
+      final String value = this.eventMapper.write(event);
+      this.client.getTimeSeries(this.tsName).add(timestamp, value);
+
+      final Duration indexRetention = this.indexRetention;
+      if (indexRetention != null) {
+        if (StringUtils.hasText(event.getPrincipal())) {
+          this.client.getTimeSeries(this.principalIndexName(event.getPrincipal()))
+              .add(timestamp, value, indexRetention);
+        }
+        if (StringUtils.hasText(event.getType())) {
+          this.client.getTimeSeries(this.typeIndexName(event.getType())).add(timestamp, value, indexRetention);
+        }
+      }
     }
     catch (final Throwable e) {
       log.error("Failed to write event '{}' to Redis timeseries {}", event.getType(), this.tsName, e);
     }
   }
 
-  /** {@inheritDoc} */
+  /**
+   * Finds audit events. If indexing is enabled, the most selective time series is read.
+   */
   @Override
   public List<AuditEvent> find(final String principal, final Instant after, final String type) {
     final Collection<TimeSeriesEntry<Object, Object>> timeSeries =
-        this.client.getTimeSeries(this.tsName).entryRange(
+        this.client.getTimeSeries(this.timeSeriesName(principal, type)).entryRange(
             Optional.ofNullable(after)
                 .orElse(Instant.EPOCH)
                 .toEpochMilli(),
@@ -106,4 +155,66 @@ public class RedissonTimeSeriesAuditEventRepository extends FilteringAuditEventR
         .toList();
   }
 
+  /**
+   * Finds audit events by reading at most {@code limit} entries from the time series. If indexing is enabled, the most
+   * selective time series is read. The cursor is based on the timestamps of the events.
+   */
+  @Override
+  public AuditEventPage find(final String principal, final Instant after, final String type, final String cursor,
+      final int limit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("limit must be positive");
+    }
+    final TimestampCursor timestampCursor = TimestampCursor.parse(cursor);
+    final long min = Optional.ofNullable(after).orElse(Instant.EPOCH).toEpochMilli();
+    final long start = timestampCursor.start(min);
+    final int skip = timestampCursor.skip(min);
+
+    final Collection<TimeSeriesEntry<Object, Object>> timeSeries =
+        this.client.getTimeSeries(this.timeSeriesName(principal, type))
+            .entryRange(start, Instant.now().plus(1, ChronoUnit.MINUTES).toEpochMilli(), skip + limit);
+    if (timeSeries.size() <= skip) {
+      return new AuditEventPage(Collections.emptyList(), null);
+    }
+    final List<TimeSeriesEntry<Object, Object>> entries = timeSeries.stream().skip(skip).toList();
+
+    final List<AuditEvent> events = entries.stream()
+        .map(e -> this.eventMapper.read((String) e.getValue()))
+        .filter(e -> type == null || type.equals(e.getType()))
+        .filter(e -> principal == null || principal.equals(e.getPrincipal()))
+        .filter(e -> after == null || after.isBefore(e.getTimestamp()))
+        .toList();
+
+    final String nextCursor = entries.size() == limit
+        ? timestampCursor.next(start, entries.stream().map(TimeSeriesEntry::getTimestamp).toList()).toString()
+        : null;
+    return new AuditEventPage(events, nextCursor);
+  }
+
+  /**
+   * Gets the name of the most selective time series to read for the given search criteria.
+   *
+   * @param principal the principal name to search for (or {@code null} if unrestricted)
+   * @param type the event type to search for (or {@code null} if unrestricted)
+   * @return the time series name
+   */
+  private String timeSeriesName(final String principal, final String type) {
+    if (this.indexRetention == null) {
+      return this.tsName;
+    }
+    return principal != null
+        ? this.principalIndexName(principal)
+        : type != null ? this.typeIndexName(type) : this.tsName;
+  }
+
+  /** Gets the name of the time series holding the events for the given principal. */
+  private String principalIndexName(final String principal) {
+    return "%s:principal:%s".formatted(this.tsName, principal);
+  }
+
+  /** Gets the name of the time series holding the events of the given type. */
+  private String typeIndexName(final String type) {
+    return "%s:type:%s".formatted(this.tsName, type);
+  }
+
 }
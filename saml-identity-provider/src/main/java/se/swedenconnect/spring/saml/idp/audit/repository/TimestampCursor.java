@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import java.util.List;
+
+/**
+ * A cursor for paging through events ordered by their timestamps. Since several events may have the same timestamp,
+ * the cursor holds the timestamp to continue from along with the number of events having that timestamp that have
+ * already been read.
+ *
+ * @param timestamp the timestamp (millis since epoch) to continue from
+ * @param skip the number of events with the given timestamp to skip
+ * @author Martin Lindström
+ */
+record TimestampCursor(long timestamp, int skip) {
+
+  /** The cursor for the first page. */
+  static final TimestampCursor FIRST = new TimestampCursor(0, 0);
+
+  /**
+   * Parses the string representation of a cursor.
+   *
+   * @param cursor the cursor string (may be {@code null})
+   * @return the cursor ({@link #FIRST} if {@code cursor} is {@code null})
+   * @throws IllegalArgumentException for invalid cursors
+   */
+  static TimestampCursor parse(final String cursor) {
+    if (cursor == null) {
+      return FIRST;
+    }
+    final int pos = cursor.indexOf(':');
+    try {
+      if (pos > 0) {
+        return new TimestampCursor(
+            Long.parseLong(cursor.substring(0, pos)), Integer.parseInt(cursor.substring(pos + 1)));
+      }
+    }
+    catch (final NumberFormatException ignored) {
+    }
+    throw new IllegalArgumentException("Invalid cursor: " + cursor);
+  }
+
+  /**
+   * Given the lower bound for a query, returns the timestamp to start reading from.
+   *
+   * @param min the lower bound (millis since epoch)
+   * @return the timestamp to start reading from
+   */
+  long start(final long min) {
+    return Math.max(min, this.timestamp);
+  }
+
+  /**
+   * Given the lower bound for a query, returns the number of events to skip.
+   *
+   * @param min the lower bound (millis since epoch)
+   * @return the number of events to skip
+   */
+  int skip(final long min) {
+    return this.timestamp >= min ? this.skip : 0;
+  }
+
+  /**
+   * Calculates the cursor for the next page.
+   *
+   * @param start the timestamp the current page was read from
+   * @param timestamps the timestamps of the events read for the current page (in ascending order)
+   * @return the next cursor
+   */
+  TimestampCursor next(final long start, final List<Long> timestamps) {
+    final long last = timestamps.get(timestamps.size() - 1);
+    final int count = (int) timestamps.stream().filter(t -> t == last).count();
+    return new TimestampCursor(last, last == start ? this.skip(start) + count : count);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return this.timestamp + ":" + this.skip;
+  }
+
+}
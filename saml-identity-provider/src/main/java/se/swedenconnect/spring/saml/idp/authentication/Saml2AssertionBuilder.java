@@ -32,24 +32,28 @@ import org.opensaml.saml.saml2.core.Subject;
 import org.opensaml.saml.saml2.core.SubjectConfirmation;
 import org.opensaml.saml.saml2.core.SubjectConfirmationData;
 import org.opensaml.saml.saml2.core.SubjectLocality;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
-import org.opensaml.security.credential.Credential;
-import org.opensaml.xmlsec.SecurityConfigurationSupport;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.springframework.security.config.Customizer;
 import org.springframework.util.Assert;
 import se.swedenconnect.opensaml.common.utils.SamlLog;
-import se.swedenconnect.opensaml.xmlsec.signature.support.SAMLObjectSigner;
 import se.swedenconnect.security.credential.PkiCredential;
-import se.swedenconnect.security.credential.opensaml.OpenSamlCredential;
+import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGenerator;
+import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDKeyResolver;
 import se.swedenconnect.spring.saml.idp.attributes.release.AttributeReleaseManager;
 import se.swedenconnect.spring.saml.idp.authnrequest.Saml2AuthnRequestAuthenticationToken;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+import se.swedenconnect.spring.saml.idp.metadata.PeerMetadataReference;
+import se.swedenconnect.spring.saml.idp.response.DefaultSigningPolicyResolver;
+import se.swedenconnect.spring.saml.idp.response.SigningPolicy;
+import se.swedenconnect.spring.saml.idp.response.SigningPolicyResolver;
 import se.swedenconnect.spring.saml.idp.settings.AssertionSettings;
 import se.swedenconnect.spring.saml.idp.utils.DefaultSaml2MessageIDGenerator;
 import se.swedenconnect.spring.saml.idp.utils.Saml2MessageIDGenerator;
+import se.swedenconnect.spring.saml.idp.utils.Saml2ObjectSigner;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -71,8 +75,8 @@ public class Saml2AssertionBuilder {
   /** Component that decides which attributes from the user token that should be released in the assertion. */
   private final AttributeReleaseManager attributeReleaseManager;
 
-  /** The IdP signature credential. */
-  private final Credential signatureCredential;
+  /** The signer for {@link Assertion} objects. */
+  private Saml2ObjectSigner objectSigner;
 
   /** For customizing the assertions being created. */
   private Customizer<Assertion> assertionCustomizer = Customizer.withDefaults();
@@ -89,9 +93,15 @@ public class Saml2AssertionBuilder {
    */
   private Duration notBeforeDuration = AssertionSettings.NOT_BEFORE_DURATION_DEFAULT;
 
+  /** Resolves the signing policy for an SP - defaults to {@link DefaultSigningPolicyResolver}. */
+  private SigningPolicyResolver signingPolicyResolver = new DefaultSigningPolicyResolver();
+
   /** The ID generator - defaults to {@link DefaultSaml2MessageIDGenerator}. */
   private Saml2MessageIDGenerator idGenerator = new DefaultSaml2MessageIDGenerator();
 
+  /** Resolves the keys of {@code NameID} generators that have been deserialized (may be {@code null}). */
+  private NameIDKeyResolver nameIDKeyResolver;
+
   /**
    * Constructor.
    *
@@ -105,7 +115,7 @@ public class Saml2AssertionBuilder {
     Assert.hasText(idpEntityId, "idpEntityId must be set");
     this.issuer = idpEntityId;
     Assert.notNull(signatureCredential, "signatureCredential must not be null");
-    this.signatureCredential = new OpenSamlCredential(signatureCredential);
+    this.objectSigner = new Saml2ObjectSigner(signatureCredential);
     this.attributeReleaseManager =
         Objects.requireNonNull(attributeReleaseManager, "attributeReleaseManager must not be null");
   }
@@ -143,7 +153,11 @@ public class Saml2AssertionBuilder {
     // Subject
     {
       final Subject subject = (Subject) XMLObjectSupport.buildXMLObject(Subject.DEFAULT_ELEMENT_NAME);
-      subject.setNameID(authnRequestToken.getNameIDGenerator().getNameID(userAuthentication));
+      final NameIDGenerator nameIDGenerator = authnRequestToken.getNameIDGenerator();
+      if (this.nameIDKeyResolver != null) {
+        nameIDGenerator.resolveKeys(this.nameIDKeyResolver);
+      }
+      subject.setNameID(nameIDGenerator.getNameID(userAuthentication));
 
       final SubjectConfirmation subjectConfirmation =
           (SubjectConfirmation) XMLObjectSupport.buildXMLObject(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
@@ -228,13 +242,13 @@ public class Saml2AssertionBuilder {
 
     // Sign
     {
-      final SPSSODescriptor ssoDescriptor =
-          authnRequestToken.getPeerMetadata().getSPSSODescriptor(SAMLConstants.SAML20P_NS);
-      if (Boolean.TRUE.equals(ssoDescriptor.getWantAssertionsSigned())) {
+      final SigningPolicy signingPolicy = this.signingPolicyResolver.resolve(authnRequestToken.getPeerMetadata());
+      if (this.isSignAssertion(signingPolicy, authnRequestToken.getPeerMetadata())) {
         try {
-          SAMLObjectSigner.sign(assertion, this.signatureCredential,
-              SecurityConfigurationSupport.getGlobalSignatureSigningConfiguration(),
-              authnRequestToken.getPeerMetadata());
+          this.objectSigner.sign(assertion, authnRequestToken.getPeerMetadata(),
+              Optional.ofNullable(authnRequestToken.getPeerMetadataReference())
+                  .map(PeerMetadataReference::getVersion)
+                  .orElse(null));
 
           log.debug("Assertion successfully signed [{}]", authnRequestToken.getLogString());
         }
@@ -249,6 +263,24 @@ public class Saml2AssertionBuilder {
     return assertion;
   }
 
+  /**
+   * Tells whether the assertion should be signed, given the signing policy and the SP metadata. If the SP has set
+   * {@code WantAssertionsSigned} in its metadata, the assertion is signed regardless of the policy.
+   *
+   * @param signingPolicy the signing policy
+   * @param peerMetadata the SP metadata
+   * @return {@code true} if the assertion should be signed and {@code false} otherwise
+   */
+  private boolean isSignAssertion(final SigningPolicy signingPolicy, final EntityDescriptor peerMetadata) {
+    return switch (signingPolicy) {
+      case BOTH, ASSERTION_ONLY -> true;
+      case RESPONSE_ONLY -> {
+        final SPSSODescriptor ssoDescriptor = peerMetadata.getSPSSODescriptor(SAMLConstants.SAML20P_NS);
+        yield Boolean.TRUE.equals(ssoDescriptor.getWantAssertionsSigned());
+      }
+    };
+  }
+
   /**
    * By assigning a {@link Customizer} the {@link Assertion} object that is built can be modified. The customizer is
    * invoked when the {@link Assertion} object has been completely built, but before it is signed.
@@ -259,6 +291,39 @@ public class Saml2AssertionBuilder {
     this.assertionCustomizer = Objects.requireNonNull(assertionCustomizer, "assertionCustomizer must not be null");
   }
 
+  /**
+   * Assigns the signer to use for signing {@link Assertion} objects. By default, a {@link Saml2ObjectSigner} for the
+   * signature credential given to the constructor is used.
+   *
+   * @param objectSigner the signer
+   */
+  public void setObjectSigner(final Saml2ObjectSigner objectSigner) {
+    this.objectSigner = Objects.requireNonNull(objectSigner, "objectSigner must not be null");
+  }
+
+  /**
+   * Assigns the resolver for the {@link SigningPolicy} to apply for an SP. The default is a
+   * {@link DefaultSigningPolicyResolver} that always resolves {@link SigningPolicy#RESPONSE_ONLY}, meaning that the
+   * assertion is signed if the SP has set {@code WantAssertionsSigned} in its metadata.
+   *
+   * @param signingPolicyResolver the signing policy resolver
+   */
+  public void setSigningPolicyResolver(final SigningPolicyResolver signingPolicyResolver) {
+    this.signingPolicyResolver =
+        Objects.requireNonNull(signingPolicyResolver, "signingPolicyResolver must not be null");
+  }
+
+  /**
+   * Assigns the resolver that is used to resolve the secret keys of {@link NameIDGenerator}s that have been
+   * deserialized, for example after being read from the session. The keys are never serialized along with the
+   * generators.
+   *
+   * @param nameIDKeyResolver the key resolver
+   */
+  public void setNameIDKeyResolver(final NameIDKeyResolver nameIDKeyResolver) {
+    this.nameIDKeyResolver = Objects.requireNonNull(nameIDKeyResolver, "nameIDKeyResolver must not be null");
+  }
+
   /**
    * Assigns the setting that tells the time restrictions the IdP puts on an Assertion concerning "not on or after".
    * Defaults to {@link AssertionSettings#NOT_ON_OR_AFTER_DURATION_DEFAULT}.
@@ -280,7 +345,11 @@ public class Saml2AssertionBuilder {
   }
 
   /**
-   * Assigns a custom ID generator. The default is {@link DefaultSaml2MessageIDGenerator}.
+   * Assigns a custom ID generator. The default is {@link DefaultSaml2MessageIDGenerator}. For IdP:s serving many
+   * concurrent requests, a {@link se.swedenconnect.spring.saml.idp.utils.StripedSaml2MessageIDGenerator} may be
+   * assigned to avoid contention on a single random generator. When the builder is created by the configurers, this
+   * is controlled by the
+   * {@link se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings#STRIPED_MESSAGE_ID_GENERATOR} setting.
    *
    * @param idGenerator the ID generator
    */
@@ -22,15 +22,11 @@ import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.resolver.CriteriaSet;
 import net.shibboleth.shared.resolver.ResolverException;
 import org.opensaml.core.criterion.EntityIdCriterion;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.MarshallingException;
-import org.opensaml.core.xml.io.UnmarshallingException;
-import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.decoder.MessageDecodingException;
 import org.opensaml.messaging.handler.MessageHandlerException;
 import org.opensaml.saml.common.SAMLVersion;
-import org.opensaml.saml.common.binding.BindingDescriptor;
 import org.opensaml.saml.common.binding.SAMLBindingSupport;
 import org.opensaml.saml.common.binding.decoding.SAMLMessageDecoder;
 import org.opensaml.saml.common.binding.security.impl.MessageLifetimeSecurityHandler;
@@ -42,8 +38,6 @@ import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.criterion.EntityRoleCriterion;
 import org.opensaml.saml.criterion.ProtocolCriterion;
 import org.opensaml.saml.metadata.resolver.MetadataResolver;
-import org.opensaml.saml.saml2.binding.decoding.impl.HTTPPostDecoder;
-import org.opensaml.saml.saml2.binding.decoding.impl.HTTPRedirectDeflateDecoder;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.core.Issuer;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
@@ -53,6 +47,9 @@ import org.springframework.security.web.authentication.AuthenticationConverter;
 import org.springframework.util.StringUtils;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshot;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshotCache;
+import se.swedenconnect.spring.saml.idp.metadata.PeerMetadataReference;
 import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
 import se.swedenconnect.spring.saml.idp.utils.OpenSamlUtils;
 
@@ -68,11 +65,11 @@ import java.util.Optional;
 @Slf4j
 public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationConverter {
 
-  /** Binding descriptor for redirect. */
-  private final BindingDescriptor redirectBindingDescriptor;
+  /** Decodes the received messages. */
+  private final Saml2AuthnRequestMessageDecoder messageDecoder;
 
-  /** Binding descriptor for POST. */
-  private final BindingDescriptor postBindingDescriptor;
+  /** Whether the fast path of the message decoder should be used. */
+  private final boolean fastRequestDecoding;
 
   /**
    * Message handler which checks the validity of the SAML protocol message receiver endpoint against requirements
@@ -88,6 +85,12 @@ public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationC
   /** Resolves peer metadata entries. */
   private final MetadataResolver metadataResolver;
 
+  /** Holds read-only snapshots of the resolved peer metadata. */
+  private final MetadataSnapshotCache metadataSnapshotCache;
+
+  /** Whether the token should hold a compact reference to the peer metadata. */
+  private final boolean compactPeerMetadata;
+
   /**
    * Constructor.
    *
@@ -96,25 +99,25 @@ public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationC
    */
   public Saml2AuthnRequestAuthenticationConverter(final MetadataResolver metadataResolver,
       final IdentityProviderSettings settings) {
-    this.metadataResolver = Objects.requireNonNull(metadataResolver, "metadataResolver must not be null");
+    this(new MetadataSnapshotCache(metadataResolver), settings);
+  }
 
-    // Initialize the binding descriptors ...
-    //
-    try {
-      this.redirectBindingDescriptor = new BindingDescriptor();
-      this.redirectBindingDescriptor.setId(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
-      this.redirectBindingDescriptor.setShortName("Redirect");
-      this.redirectBindingDescriptor.setSignatureCapable(true);
-      this.redirectBindingDescriptor.initialize();
+  /**
+   * Constructor.
+   *
+   * @param metadataSnapshotCache the metadata snapshot cache that we use when finding SP metadata
+   * @param settings the IdP settings
+   */
+  public Saml2AuthnRequestAuthenticationConverter(final MetadataSnapshotCache metadataSnapshotCache,
+      final IdentityProviderSettings settings) {
+    this.metadataSnapshotCache =
+        Objects.requireNonNull(metadataSnapshotCache, "metadataSnapshotCache must not be null");
+    this.metadataResolver = metadataSnapshotCache.getMetadataResolver();
+    this.compactPeerMetadata = Boolean.TRUE.equals(settings.getCompactPeerMetadata());
 
-      this.postBindingDescriptor = new BindingDescriptor();
-      this.postBindingDescriptor.setId(SAMLConstants.SAML2_POST_BINDING_URI);
-      this.postBindingDescriptor.setShortName("POST");
-      this.postBindingDescriptor.initialize();
-    }
-    catch (final ComponentInitializationException e) {
-      throw new IllegalArgumentException("Failed to initialize OpenSAML binding descriptors", e);
-    }
+    this.messageDecoder = new Saml2AuthnRequestMessageDecoder();
+    Optional.ofNullable(settings.getMaxInflatedRequestSize()).ifPresent(this.messageDecoder::setMaxMessageSize);
+    this.fastRequestDecoding = Boolean.TRUE.equals(settings.getFastRequestDecoding());
 
     // Initialize the security handlers.
     //
@@ -142,10 +145,8 @@ public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationC
   @Override
   public Authentication convert(final HttpServletRequest request) {
 
-    final SAMLMessageDecoder decoder = this.getDecoder(request);
     try {
-      decoder.decode();
-      final MessageContext msgContext = decoder.getMessageContext();
+      final MessageContext msgContext = this.decode(request);
       log.debug("Incoming request decoded into a message of type {}", msgContext.getMessage().getClass().getName());
 
       if (!(msgContext.getMessage() instanceof final AuthnRequest authnRequest)) {
@@ -223,11 +224,14 @@ public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationC
           throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.UNKNOWN_PEER, msg, token);
         }
         log.debug("SAML metadata for SP {} successfully found", peerEntityId);
-        // In order to avoid several threads working with the same DOM, we clone the descriptor ...
+        // Instead of cloning the descriptor for each request, all requests share the read-only copy held by the
+        // snapshot. It is created once and kept until the SP metadata is updated ...
+        //
         try {
-          token.setPeerMetadata(XMLObjectSupport.cloneXMLObject(spMetadata));
+          final MetadataSnapshot snapshot = this.metadataSnapshotCache.getSnapshot(spMetadata);
+          token.setPeerMetadataReference(PeerMetadataReference.of(snapshot, this.compactPeerMetadata));
         }
-        catch (final MarshallingException | UnmarshallingException e) {
+        catch (final MarshallingException e) {
           throw new MessageDecodingException("Failed to clone EntityDescriptor", e);
         }
 
@@ -258,6 +262,26 @@ public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationC
     }
   }
 
+  /**
+   * Decodes the received message. If fast request decoding is enabled (see
+   * {@link IdentityProviderSettings#getFastRequestDecoding()}), the message is decoded directly by
+   * {@link Saml2AuthnRequestMessageDecoder#decode(HttpServletRequest)}, otherwise the decoder returned by
+   * {@link #getDecoder(HttpServletRequest)} is used.
+   *
+   * @param request the HTTP servlet request
+   * @return the message context holding the decoded message
+   * @throws MessageDecodingException for decoding errors
+   */
+  @Nonnull
+  protected MessageContext decode(@Nonnull final HttpServletRequest request) throws MessageDecodingException {
+    if (this.fastRequestDecoding) {
+      return this.messageDecoder.decode(request);
+    }
+    final SAMLMessageDecoder decoder = this.getDecoder(request);
+    decoder.decode();
+    return decoder.getMessageContext();
+  }
+
   /**
    * Gets a decoder bean suitable for the given binding.
    *
@@ -265,34 +289,7 @@ public class Saml2AuthnRequestAuthenticationConverter implements AuthenticationC
    */
   @Nonnull
   protected SAMLMessageDecoder getDecoder(@Nonnull final HttpServletRequest request) {
-    final String method = request.getMethod();
-    try {
-      if ("GET".equals(method)) {
-        final HTTPRedirectDeflateDecoder httpRedirectDeflateDecoder = new HTTPRedirectDeflateDecoder();
-        httpRedirectDeflateDecoder.setBindingDescriptor(this.redirectBindingDescriptor);
-        httpRedirectDeflateDecoder.setHttpServletRequestSupplier(OpenSamlUtils.getHttpServletRequestSupplier());
-        httpRedirectDeflateDecoder.setParserPool(
-            Objects.requireNonNull(XMLObjectProviderRegistrySupport.getParserPool()));
-        httpRedirectDeflateDecoder.initialize();
-        return httpRedirectDeflateDecoder;
-      }
-      else if ("POST".equals(method)) {
-        final HTTPPostDecoder httpPostDecoder = new HTTPPostDecoder();
-        httpPostDecoder.setBindingDescriptor(this.postBindingDescriptor);
-        httpPostDecoder.setHttpServletRequestSupplier(OpenSamlUtils.getHttpServletRequestSupplier());
-        httpPostDecoder.setParserPool(XMLObjectProviderRegistrySupport.getParserPool());
-        httpPostDecoder.initialize();
-        return httpPostDecoder;
-      }
-      else {
-        throw new UnrecoverableSaml2IdpException(
-            UnrecoverableSaml2IdpError.INTERNAL, "Illegal HTTP verb - " + method, null);
-      }
-    }
-    catch (final ComponentInitializationException e) {
-      log.error("Failed to initialize decoder", e);
-      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL, "Failed to create decoder", null);
-    }
+    return this.messageDecoder.createDecoder(request);
   }
 
 }
@@ -15,6 +15,8 @@
  */
 package se.swedenconnect.spring.saml.idp.authnrequest;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
@@ -34,11 +36,13 @@ import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGenerator;
 import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGeneratorFactory;
 import se.swedenconnect.spring.saml.idp.authentication.Saml2UserAuthenticationInputToken;
 import se.swedenconnect.spring.saml.idp.authnrequest.authncontext.AuthnContextResolver;
+import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestValidationStage;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestValidator;
 import se.swedenconnect.spring.saml.idp.config.configurers.Saml2AuthnRequestAuthenticationProviderConfigurer;
 import se.swedenconnect.spring.saml.idp.context.Saml2IdpContextHolder;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatus;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
 import se.swedenconnect.spring.saml.idp.events.Saml2IdpEventPublisher;
 import se.swedenconnect.spring.saml.idp.extensions.SadRequestExtension;
@@ -51,11 +55,16 @@ import se.swedenconnect.spring.saml.idp.response.Saml2ResponseAttributes;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * An {@link AuthenticationProvider} that processes a {@link Saml2AuthnRequestAuthenticationToken} and if the processing
@@ -64,26 +73,41 @@ import java.util.Optional;
  * The signature on the authentication request is verified, and the request is checked against the IdP configuration
  * before proceeding with the actual user authentication.
  * </p>
+ * <p>
+ * The checks are made by an ordered chain of {@link AuthnRequestValidationStage}s, see
+ * {@link #setValidationChain(List)}. The default chain consists of the replay check, the AssertionConsumerService
+ * check, the signature validation, the check that the IdP can encrypt for the SP, and the check that the SP is accepted
+ * by the {@link Saml2ServiceProviderFilter}, in that order. See {@link #setSignatureValidationLast(boolean)} for how to
+ * run all cheap checks before the signature validation.
+ * </p>
+ * <p>
+ * If a validation executor is assigned, see {@link #setValidationExecutor(Executor)}, the replay check is run
+ * concurrently with the other checks.
+ * </p>
+ * <p>
+ * If an {@link ObservationRegistry} is assigned, each validation stage is observed, see
+ * {@link #setObservationRegistry(ObservationRegistry)}.
+ * </p>
  *
  * @author Martin Lindström
  */
 @Slf4j
 public class Saml2AuthnRequestAuthenticationProvider implements AuthenticationProvider {
 
-  /** The event publisher. */
-  private final Saml2IdpEventPublisher eventPublisher;
+  /** The name of the observation made for each validation stage. */
+  public static final String VALIDATION_OBSERVATION_NAME = "saml2.idp.authnrequest.validation";
 
-  /** The signature validator to use. */
-  private final AuthnRequestValidator signatureValidator;
+  /** The key for the validation stage name. */
+  public static final String VALIDATOR_KEY = "validator";
 
-  /** The validator checking the AssertionConsumerService. */
-  private final AuthnRequestValidator assertionConsumerServiceValidator;
+  /** The key for the SP entityID (high cardinality, unless {@link #setLowCardinalitySpTag(boolean)} is set). */
+  public static final String SP_KEY = "sp";
 
-  /** Validator for protecting against replay attacks. */
-  private final AuthnRequestValidator replayValidator;
+  /** The event publisher. */
+  private final Saml2IdpEventPublisher eventPublisher;
 
-  /** Validator for asserting that we can encrypt assertions. */
-  private final AuthnRequestValidator encryptCapabilitiesValidator;
+  /** The validation chain. */
+  private List<AuthnRequestValidationStage> validationChain;
 
   /** Extracts the requested attributes. */
   private final List<RequestedAttributeProcessor> requestedAttributesProcessors;
@@ -109,8 +133,20 @@ public class Saml2AuthnRequestAuthenticationProvider implements AuthenticationPr
   /** Resolves authentication context class references based on the requested authentication context. */
   private final AuthnContextResolver authnContextResolver;
 
+  /** Optional executor for running the replay check concurrently with the other checks. */
+  private Executor validationExecutor;
+
+  /** The registry used to observe the validation stages. */
+  private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+  /** Whether the SP entityID should be a low cardinality key value of the observations. */
+  private boolean lowCardinalitySpTag = false;
+
   /**
    * Constructor. See {@link Saml2AuthnRequestAuthenticationProviderConfigurer} for how to configuration and setup.
+   * <p>
+   * The supplied validators make up the default validation chain, see {@link #setValidationChain(List)}.
+   * </p>
    *
    * @param eventPublisher the event publisher
    * @param signatureValidator the signature validator to use
@@ -141,12 +177,17 @@ public class Saml2AuthnRequestAuthenticationProvider implements AuthenticationPr
       @Nullable final PrincipalSelectionProcessor principalSelectionProcessor) {
 
     this.eventPublisher = Objects.requireNonNull(eventPublisher, "eventPublisher must not be null");
-    this.signatureValidator = Objects.requireNonNull(signatureValidator, "signatureValidator must not be null");
-    this.assertionConsumerServiceValidator =
-        Objects.requireNonNull(assertionConsumerServiceValidator, "assertionConsumerServiceValidator must not be null");
-    this.replayValidator = Objects.requireNonNull(replayValidator, "replayValidator must not be null");
-    this.encryptCapabilitiesValidator =
-        Objects.requireNonNull(encryptCapabilitiesValidator, "encryptCapabilitiesValidator must not be null");
+    this.validationChain = List.of(
+        new AuthnRequestValidationStage(AuthnRequestValidationStage.REPLAY,
+            Objects.requireNonNull(replayValidator, "replayValidator must not be null")),
+        new AuthnRequestValidationStage(AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE,
+            Objects.requireNonNull(assertionConsumerServiceValidator,
+                "assertionConsumerServiceValidator must not be null")),
+        new AuthnRequestValidationStage(AuthnRequestValidationStage.SIGNATURE,
+            Objects.requireNonNull(signatureValidator, "signatureValidator must not be null")),
+        new AuthnRequestValidationStage(AuthnRequestValidationStage.ENCRYPT_CAPABILITIES,
+            Objects.requireNonNull(encryptCapabilitiesValidator, "encryptCapabilitiesValidator must not be null")),
+        new AuthnRequestValidationStage(AuthnRequestValidationStage.SP_FILTER, this::checkServiceProvider));
     this.requestedAttributesProcessors = Optional.ofNullable(requestedAttributesProcessors).filter(r -> !r.isEmpty())
         .orElseThrow(() -> new IllegalArgumentException("At least one RequestedAttributeProcessor must be given"));
     this.nameIDGeneratorFactory =
@@ -167,37 +208,14 @@ public class Saml2AuthnRequestAuthenticationProvider implements AuthenticationPr
 
     this.eventPublisher.publishAuthnRequestReceived(token);
 
-    // Check message replay ...
-    //
-    this.replayValidator.validate(token);
-
-    // Assert that the AssertionConsumerService information is valid ...
-    //
-    this.assertionConsumerServiceValidator.validate(token);
-    Assert.notNull(token.getAssertionConsumerServiceUrl(),
-        "ACS validator did not assign assertionConsumerServiceUrl on token");
-
-    // Set up the response attributes - from now on we are ready to post the user back in a response.
-    //
-    final Saml2ResponseAttributes responseAttributes = Saml2IdpContextHolder.getContext().getResponseAttributes();
-    responseAttributes.setRelayState(token.getRelayState());
-    responseAttributes.setInResponseTo(token.getAuthnRequest().getID());
-    responseAttributes.setDestination(token.getAssertionConsumerServiceUrl());
-    responseAttributes.setPeerMetadata(token.getPeerMetadata());
-
-    // Handle the signature on the AuthnRequest ...
-    //
-    this.signatureValidator.validate(token);
-
-    // If encrypted assertions are required. Make sure the peer has such a cert ...
-    //
-    this.encryptCapabilitiesValidator.validate(token);
-
-    // Apply the SP filter to see if this SP is acceptable ...
-    //
-    if (!this.serviceProviderFilter.test(token.getPeerMetadata())) {
-      log.info("SP '{}' is not allowed by configuration [{}]", token.getEntityId(), token.getLogString());
-      throw new Saml2ErrorStatusException(Saml2ErrorStatus.NOT_AUTHORIZED);
+    final List<AuthnRequestValidationStage> chain = this.validationChain;
+    final AuthnRequestValidationStage replayStage = getStage(chain, AuthnRequestValidationStage.REPLAY);
+    final CompletableFuture<Void> replayCheck = this.startReplayCheck(replayStage, token);
+    if (replayCheck == null) {
+      this.validateSequentially(chain, token);
+    }
+    else {
+      this.validateConcurrently(chain, replayStage, token, replayCheck);
     }
 
     // Check the requested NameIDPolicy, and if correct, set up a NameIDGenerator ...
@@ -238,6 +256,143 @@ public class Saml2AuthnRequestAuthenticationProvider implements AuthenticationPr
     this.signatureMessagePreprocessor = signatureMessagePreprocessor;
   }
 
+  /**
+   * Assigns an executor that is used to run the replay check concurrently with the remaining checks of the request.
+   * This is useful if the replay cache is a remote one, since the round trip to the cache then overlaps with the
+   * signature validation. An executor running each task in a virtual thread is a good choice. By default, no executor
+   * is assigned and all checks are run in sequence by the calling thread.
+   * <p>
+   * The error reported for an invalid request is the same as when the checks are run in sequence, i.e., a detected
+   * replay takes precedence over errors from the other checks. However, the other checks may be run even if the request
+   * is a replay.
+   * </p>
+   *
+   * @param validationExecutor the executor, or {@code null} to run all checks in the calling thread
+   */
+  public void setValidationExecutor(@Nullable final Executor validationExecutor) {
+    this.validationExecutor = validationExecutor;
+  }
+
+  /**
+   * Gets the validation chain, i.e., the ordered stages that are applied to a received request.
+   *
+   * @return an unmodifiable list of the validation stages
+   */
+  @Nonnull
+  public List<AuthnRequestValidationStage> getValidationChain() {
+    return this.validationChain;
+  }
+
+  /**
+   * Assigns the validation chain, i.e., the ordered stages that are applied to a received request. The default chain is
+   * made up of the validators given to the constructor, and {@link #getValidationChain()} may be used to add stages
+   * to, or reorder, the default chain.
+   * <p>
+   * The following ordering rules apply:
+   * </p>
+   * <ul>
+   * <li>The stage names must be unique.</li>
+   * <li>The chain must contain an {@value AuthnRequestValidationStage#ASSERTION_CONSUMER_SERVICE} stage, and the
+   * validator of that stage must assign the AssertionConsumerService URL of the token. When this stage has passed, the
+   * response attributes are set up, and errors from the stages that follow are reported back to the SP in a SAML
+   * response.</li>
+   * <li>If the chain contains a {@value AuthnRequestValidationStage#REPLAY} stage, it must come before the
+   * {@value AuthnRequestValidationStage#ASSERTION_CONSUMER_SERVICE} stage. A replayed request is therefore never
+   * answered with a SAML response. This stage is the one that is run concurrently with the other stages if a
+   * validation executor is assigned.</li>
+   * </ul>
+   * <p>
+   * An error from a stage is handled in the same way as an error from a built-in stage.
+   * </p>
+   *
+   * @param validationChain the validation stages
+   * @throws IllegalArgumentException if the ordering rules are not fulfilled
+   */
+  public void setValidationChain(@Nonnull final List<AuthnRequestValidationStage> validationChain) {
+    final List<AuthnRequestValidationStage> chain =
+        List.copyOf(Objects.requireNonNull(validationChain, "validationChain must not be null"));
+    final Set<String> names = new HashSet<>();
+    for (final AuthnRequestValidationStage stage : chain) {
+      if (!names.add(stage.name())) {
+        throw new IllegalArgumentException("Duplicate validation stage: " + stage.name());
+      }
+    }
+    final int acsIndex = indexOf(chain, AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE);
+    if (acsIndex < 0) {
+      throw new IllegalArgumentException("Validation chain must contain a '%s' stage".formatted(
+          AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE));
+    }
+    if (indexOf(chain, AuthnRequestValidationStage.REPLAY) > acsIndex) {
+      throw new IllegalArgumentException("The '%s' stage must come before the '%s' stage".formatted(
+          AuthnRequestValidationStage.REPLAY, AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE));
+    }
+    this.validationChain = chain;
+  }
+
+  /**
+   * Assigns an {@link ObservationRegistry} that is used to observe each validation stage. An observation named
+   * {@value #VALIDATION_OBSERVATION_NAME} is made for each stage, with the stage name ({@value #VALIDATOR_KEY}) as a
+   * low cardinality key value and the SP entityID ({@value #SP_KEY}) as a high cardinality key value. A failing stage
+   * is reported as an error of the observation.
+   * <p>
+   * When used with Spring Boot Actuator, the observations are recorded as timers per stage, so that the latency and
+   * failure rate of each stage can be monitored. The SP entityID is only included in traces, and does not give one
+   * timer per SP, unless {@link #setLowCardinalitySpTag(boolean)} is set.
+   * </p>
+   * <p>
+   * By default, {@link ObservationRegistry#NOOP} is used, and no observations are made.
+   * </p>
+   *
+   * @param observationRegistry the registry
+   */
+  public void setObservationRegistry(@Nullable final ObservationRegistry observationRegistry) {
+    this.observationRegistry = observationRegistry != null ? observationRegistry : ObservationRegistry.NOOP;
+  }
+
+  /**
+   * Assigns whether the SP entityID ({@value #SP_KEY}) should be a low cardinality key value of the validation
+   * observations, instead of a high cardinality key value. This gives one timer per SP and stage, so that the latency
+   * and failure rate may be monitored per SP. Since each SP gives its own set of metrics, this should only be used
+   * when the set of SP:s is bounded, for example, for an IdP that serves the SP:s of a federation.
+   * <p>
+   * The default is {@code false}.
+   * </p>
+   *
+   * @param lowCardinalitySpTag whether the SP entityID should be a low cardinality key value
+   */
+  public void setLowCardinalitySpTag(final boolean lowCardinalitySpTag) {
+    this.lowCardinalitySpTag = lowCardinalitySpTag;
+  }
+
+  /**
+   * Tells whether the signature on the {@code AuthnRequest} should be validated after all other built-in checks of the
+   * request. If set, the {@value AuthnRequestValidationStage#SIGNATURE} stage of the validation chain is moved after
+   * the {@value AuthnRequestValidationStage#ENCRYPT_CAPABILITIES} and {@value AuthnRequestValidationStage#SP_FILTER}
+   * stages, so that requests that will be rejected anyway are rejected without any cryptographic operations. If not
+   * set, the signature stage is placed directly after the
+   * {@value AuthnRequestValidationStage#ASSERTION_CONSUMER_SERVICE} stage, which is the default.
+   * <p>
+   * Note that this means that an SP that is not accepted will receive an error response even if the signature of the
+   * request is not valid. The response is always sent to an AssertionConsumerService registered in the SP metadata.
+   * </p>
+   *
+   * @param signatureValidationLast whether to validate the signature last
+   */
+  public void setSignatureValidationLast(final boolean signatureValidationLast) {
+    final List<AuthnRequestValidationStage> chain = new ArrayList<>(this.validationChain);
+    final int signatureIndex = indexOf(chain, AuthnRequestValidationStage.SIGNATURE);
+    if (signatureIndex < 0) {
+      return;
+    }
+    final AuthnRequestValidationStage signatureStage = chain.remove(signatureIndex);
+    final int index = signatureValidationLast
+        ? Math.max(indexOf(chain, AuthnRequestValidationStage.ENCRYPT_CAPABILITIES),
+            indexOf(chain, AuthnRequestValidationStage.SP_FILTER))
+        : indexOf(chain, AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE);
+    chain.add(index >= 0 ? index + 1 : signatureIndex, signatureStage);
+    this.setValidationChain(chain);
+  }
+
   /**
    * Assigns a {@link UserMessagePreprocessor} for preparing the user messages for display.
    *
@@ -247,6 +402,180 @@ public class Saml2AuthnRequestAuthenticationProvider implements AuthenticationPr
     this.userMessagePreprocessor = userMessagePreprocessor;
   }
 
+  /**
+   * If a validation executor has been assigned, the replay check is started using this executor.
+   *
+   * @param replayStage the replay stage (may be {@code null})
+   * @param token the input token
+   * @return the replay check, or {@code null} if the check should be made by the calling thread
+   */
+  @Nullable
+  private CompletableFuture<Void> startReplayCheck(
+      @Nullable final AuthnRequestValidationStage replayStage, final Saml2AuthnRequestAuthenticationToken token) {
+    if (this.validationExecutor == null || replayStage == null) {
+      return null;
+    }
+    try {
+      return CompletableFuture.runAsync(() -> this.validate(replayStage, token), this.validationExecutor);
+    }
+    catch (final RejectedExecutionException e) {
+      log.warn("Validation executor rejected replay check, running it in calling thread [{}]", token.getLogString());
+      return null;
+    }
+  }
+
+  /**
+   * Applies the stages of the validation chain in order. When the AssertionConsumerService stage has passed, the
+   * response attributes are set up, so that errors from the remaining stages can be posted back in a response.
+   *
+   * @param chain the validation chain
+   * @param token the input token
+   */
+  private void validateSequentially(
+      final List<AuthnRequestValidationStage> chain, final Saml2AuthnRequestAuthenticationToken token) {
+    for (final AuthnRequestValidationStage stage : chain) {
+      this.validate(stage, token);
+      if (AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE.equals(stage.name())) {
+        this.setResponseAttributes(token);
+      }
+    }
+  }
+
+  /**
+   * Applies the stages of the validation chain, except the replay stage, while the replay check is running. The error
+   * precedence is the same as for the sequential checks, i.e., if the replay check fails, its error is reported, and
+   * otherwise the error from the first failing stage.
+   *
+   * @param chain the validation chain
+   * @param replayStage the replay stage that is running
+   * @param token the input token
+   * @param replayCheck the running replay check
+   */
+  private void validateConcurrently(final List<AuthnRequestValidationStage> chain,
+      final AuthnRequestValidationStage replayStage, final Saml2AuthnRequestAuthenticationToken token,
+      final CompletableFuture<Void> replayCheck) {
+
+    RuntimeException error = null;
+    boolean acsValidated = false;
+    try {
+      for (final AuthnRequestValidationStage stage : chain) {
+        if (stage == replayStage) {
+          continue;
+        }
+        this.validate(stage, token);
+        if (AuthnRequestValidationStage.ASSERTION_CONSUMER_SERVICE.equals(stage.name())) {
+          acsValidated = true;
+        }
+      }
+    }
+    catch (final RuntimeException e) {
+      error = e;
+    }
+
+    // The replay check takes precedence. Wait for it to complete ...
+    //
+    try {
+      replayCheck.join();
+    }
+    catch (final CompletionException e) {
+      if (e.getCause() instanceof final RuntimeException replayError) {
+        throw replayError;
+      }
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL, e.getCause(), token);
+    }
+
+    // Set up the response attributes so that errors from the remaining checks can be posted back in a response ...
+    //
+    if (acsValidated) {
+      this.setResponseAttributes(token);
+    }
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  /**
+   * Sets up the response attributes based on the validated request.
+   *
+   * @param token the input token
+   */
+  private void setResponseAttributes(final Saml2AuthnRequestAuthenticationToken token) {
+    Assert.notNull(token.getAssertionConsumerServiceUrl(),
+        "ACS validator did not assign assertionConsumerServiceUrl on token");
+    final Saml2ResponseAttributes responseAttributes = Saml2IdpContextHolder.getContext().getResponseAttributes();
+    responseAttributes.setRelayState(token.getRelayState());
+    responseAttributes.setInResponseTo(token.getAuthnRequest().getID());
+    responseAttributes.setDestination(token.getAssertionConsumerServiceUrl());
+    responseAttributes.setPeerMetadataReference(token.getPeerMetadataReference());
+  }
+
+  /**
+   * Applies a validation stage, and observes the call if an {@link ObservationRegistry} has been assigned.
+   *
+   * @param stage the validation stage
+   * @param token the input token
+   */
+  private void validate(final AuthnRequestValidationStage stage, final Saml2AuthnRequestAuthenticationToken token) {
+    if (this.observationRegistry.isNoop()) {
+      stage.validator().validate(token);
+      return;
+    }
+    final Observation observation = Observation.createNotStarted(VALIDATION_OBSERVATION_NAME, this.observationRegistry)
+        .lowCardinalityKeyValue(VALIDATOR_KEY, stage.name());
+    final String sp = Optional.ofNullable(token.getEntityId()).orElse("unknown");
+    if (this.lowCardinalitySpTag) {
+      observation.lowCardinalityKeyValue(SP_KEY, sp);
+    }
+    else {
+      observation.highCardinalityKeyValue(SP_KEY, sp);
+    }
+    observation.observe(() -> stage.validator().validate(token));
+  }
+
+  /**
+   * Gets the index of the stage with the given name.
+   *
+   * @param chain the validation chain
+   * @param name the stage name
+   * @return the index, or -1 if there is no such stage
+   */
+  private static int indexOf(final List<AuthnRequestValidationStage> chain, final String name) {
+    for (int i = 0; i < chain.size(); i++) {
+      if (name.equals(chain.get(i).name())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Gets the stage with the given name.
+   *
+   * @param chain the validation chain
+   * @param name the stage name
+   * @return the stage, or {@code null} if there is no such stage
+   */
+  @Nullable
+  private static AuthnRequestValidationStage getStage(
+      final List<AuthnRequestValidationStage> chain, final String name) {
+    final int index = indexOf(chain, name);
+    return index >= 0 ? chain.get(index) : null;
+  }
+
+  /**
+   * Applies the {@link Saml2ServiceProviderFilter} to see if the SP is acceptable.
+   *
+   * @param token the input token
+   * @throws Saml2ErrorStatusException if the SP is not accepted
+   */
+  private void checkServiceProvider(final Saml2AuthnRequestAuthenticationToken token)
+      throws Saml2ErrorStatusException {
+    if (!this.serviceProviderFilter.test(token.getPeerMetadata())) {
+      log.info("SP '{}' is not allowed by configuration [{}]", token.getEntityId(), token.getLogString());
+      throw new Saml2ErrorStatusException(Saml2ErrorStatus.NOT_AUTHORIZED);
+    }
+  }
+
   /**
    * Creates an {@link AuthenticationRequirements} object.
    *
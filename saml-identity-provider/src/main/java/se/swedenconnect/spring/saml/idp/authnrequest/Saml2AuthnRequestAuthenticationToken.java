@@ -33,7 +33,10 @@ import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
 import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGenerator;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+import se.swedenconnect.spring.saml.idp.metadata.PeerMetadataReference;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.util.Collections;
 import java.util.Objects;
@@ -51,13 +54,13 @@ public class Saml2AuthnRequestAuthenticationToken extends AbstractAuthentication
   private static final long serialVersionUID = Saml2IdentityProviderVersion.SERIAL_VERSION_UID;
 
   /** The AuthnRequest that was received. */
-  private final SerializableOpenSamlObject<AuthnRequest> authnRequest;
+  private SerializableOpenSamlObject<AuthnRequest> authnRequest;
 
   /** The RelayState. */
-  private final String relayState;
+  private String relayState;
 
   /** The peer (SP) metadata. */
-  private SerializableOpenSamlObject<EntityDescriptor> peerMetadata;
+  private PeerMetadataReference peerMetadata;
 
   /** The assertion consumer servuce URL to use when posting back an assertion. */
   private String assertionConsumerServiceUrl;
@@ -138,7 +141,17 @@ public class Saml2AuthnRequestAuthenticationToken extends AbstractAuthentication
    * @param peerMetadata the peer metadata
    */
   public void setPeerMetadata(final EntityDescriptor peerMetadata) {
-    this.peerMetadata = new SerializableOpenSamlObject<>(peerMetadata);
+    this.peerMetadata = PeerMetadataReference.of(peerMetadata);
+  }
+
+  /**
+   * Assigns the peer (SP) metadata reference. Depending on how the reference was created, it holds the entire
+   * metadata, or only the entityID and metadata version.
+   *
+   * @param peerMetadata the peer metadata reference
+   */
+  public void setPeerMetadataReference(final PeerMetadataReference peerMetadata) {
+    this.peerMetadata = peerMetadata;
   }
 
   /**
@@ -147,7 +160,16 @@ public class Saml2AuthnRequestAuthenticationToken extends AbstractAuthentication
    * @return the peer metadata
    */
   public EntityDescriptor getPeerMetadata() {
-    return Optional.ofNullable(this.peerMetadata).map(SerializableOpenSamlObject::get).orElse(null);
+    return Optional.ofNullable(this.peerMetadata).map(PeerMetadataReference::get).orElse(null);
+  }
+
+  /**
+   * Gets the peer (SP) metadata reference.
+   *
+   * @return the peer metadata reference, or {@code null} if not assigned
+   */
+  public PeerMetadataReference getPeerMetadataReference() {
+    return this.peerMetadata;
   }
 
   /**
@@ -226,8 +248,28 @@ public class Saml2AuthnRequestAuthenticationToken extends AbstractAuthentication
    */
   public String getLogString() {
     return String.format("entity-id: '%s', authn-request: '%s'",
-        Optional.ofNullable(this.getPeerMetadata()).map(EntityDescriptor::getEntityID).orElse("unknown"),
+        Optional.ofNullable(this.peerMetadata).map(PeerMetadataReference::getEntityId).orElse("unknown"),
         Optional.ofNullable(this.getAuthnRequest()).map(AuthnRequest::getID).orElse("unknown"));
   }
 
+  /**
+   * Custom deserialization. Objects serialized by earlier versions stored the peer metadata as a
+   * {@link SerializableOpenSamlObject}, and these are migrated using
+   * {@link PeerMetadataReference#fromSerialized(Object)}.
+   *
+   * @param in the object input stream
+   * @throws IOException for read errors
+   * @throws ClassNotFoundException if a class can not be found
+   */
+  @Serial
+  @SuppressWarnings("unchecked")
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    final ObjectInputStream.GetField fields = in.readFields();
+    this.authnRequest = (SerializableOpenSamlObject<AuthnRequest>) fields.get("authnRequest", null);
+    this.relayState = (String) fields.get("relayState", null);
+    this.peerMetadata = PeerMetadataReference.fromSerialized(fields.get("peerMetadata", null));
+    this.assertionConsumerServiceUrl = (String) fields.get("assertionConsumerServiceUrl", null);
+    this.nameIDGenerator = (NameIDGenerator) fields.get("nameIDGenerator", null);
+  }
+
 }
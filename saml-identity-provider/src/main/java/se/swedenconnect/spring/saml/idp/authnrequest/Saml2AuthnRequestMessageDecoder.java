@@ -0,0 +1,372 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.primitive.NonnullSupplier;
+import net.shibboleth.shared.xml.ParserPool;
+import net.shibboleth.shared.xml.XMLParserException;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.BindingDescriptor;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.binding.decoding.SAMLMessageDecoder;
+import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.binding.decoding.impl.HTTPPostDecoder;
+import org.opensaml.saml.saml2.binding.decoding.impl.HTTPRedirectDeflateDecoder;
+import org.springframework.util.StringUtils;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
+import se.swedenconnect.spring.saml.idp.utils.OpenSamlUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes SAML {@code AuthnRequest} messages received over the HTTP-Redirect and HTTP-POST bindings.
+ * <p>
+ * The OpenSAML message decoders are stateful and can not be shared between threads. This class therefore sets up
+ * everything that is immutable (binding descriptors, parser pool and request supplier) once, and only allocates the
+ * per-request state when a message is decoded.
+ * </p>
+ * <p>
+ * In addition to creating OpenSAML decoders, see {@link #createDecoder(HttpServletRequest)}, this class offers a fast
+ * path, {@link #decode(HttpServletRequest)}, that base64-decodes and inflates the {@code SAMLRequest} parameter into a
+ * reusable buffer and parses the message directly from that buffer. The resulting {@link MessageContext} is populated
+ * in the same way as the OpenSAML decoders do it.
+ * </p>
+ * <p>
+ * The buffers, and their inflaters, are kept in a bounded pool. A buffer that has grown above 64 KiB is shrunk before
+ * it is returned to the pool, and the inflater of a buffer that does not fit in the pool is released.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class Saml2AuthnRequestMessageDecoder {
+
+  /** The default maximum size (in bytes) of an inflated message. */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  /** The name of the request parameter holding the SAML request. */
+  private static final String SAML_REQUEST_PARAMETER = "SAMLRequest";
+
+  /** The initial size of a decoding buffer. */
+  private static final int INITIAL_BUFFER_SIZE = 8192;
+
+  /** The maximum size of a decoding buffer that is kept in the pool. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  /** The maximum number of decoding buffers kept in the pool. */
+  private static final int MAX_POOLED_BUFFERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+  /** Buffers and inflaters used by the fast path. */
+  private final BlockingQueue<DecodingBuffer> decodingBuffers = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  /** Binding descriptor for redirect. */
+  private final BindingDescriptor redirectBindingDescriptor;
+
+  /** Binding descriptor for POST. */
+  private final BindingDescriptor postBindingDescriptor;
+
+  /** The parser pool. If not assigned, the OpenSAML default parser pool is resolved on first use. */
+  private volatile ParserPool parserPool;
+
+  /** Supplies the current HTTP servlet request to the OpenSAML decoders. */
+  private final NonnullSupplier<HttpServletRequest> httpServletRequestSupplier;
+
+  /** The maximum size (in bytes) of an inflated message. */
+  private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+
+  /**
+   * Constructor using the OpenSAML default parser pool.
+   */
+  public Saml2AuthnRequestMessageDecoder() {
+    this(null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param parserPool the parser pool to use (if {@code null}, the OpenSAML default parser pool is used)
+   */
+  public Saml2AuthnRequestMessageDecoder(@Nullable final ParserPool parserPool) {
+    this.parserPool = parserPool;
+    this.httpServletRequestSupplier = OpenSamlUtils.getHttpServletRequestSupplier();
+
+    try {
+      this.redirectBindingDescriptor = new BindingDescriptor();
+      this.redirectBindingDescriptor.setId(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
+      this.redirectBindingDescriptor.setShortName("Redirect");
+      this.redirectBindingDescriptor.setSignatureCapable(true);
+      this.redirectBindingDescriptor.initialize();
+
+      this.postBindingDescriptor = new BindingDescriptor();
+      this.postBindingDescriptor.setId(SAMLConstants.SAML2_POST_BINDING_URI);
+      this.postBindingDescriptor.setShortName("POST");
+      this.postBindingDescriptor.initialize();
+    }
+    catch (final ComponentInitializationException e) {
+      throw new IllegalArgumentException("Failed to initialize OpenSAML binding descriptors", e);
+    }
+  }
+
+  /**
+   * Creates an initialized OpenSAML decoder suitable for the binding used by the supplied request.
+   *
+   * @param request the HTTP servlet request
+   * @return a {@link SAMLMessageDecoder}
+   * @throws UnrecoverableSaml2IdpException for unsupported HTTP methods
+   */
+  @Nonnull
+  public SAMLMessageDecoder createDecoder(@Nonnull final HttpServletRequest request)
+      throws UnrecoverableSaml2IdpException {
+    final String method = request.getMethod();
+    try {
+      if ("GET".equals(method)) {
+        final HTTPRedirectDeflateDecoder httpRedirectDeflateDecoder = new HTTPRedirectDeflateDecoder();
+        httpRedirectDeflateDecoder.setBindingDescriptor(this.redirectBindingDescriptor);
+        httpRedirectDeflateDecoder.setHttpServletRequestSupplier(this.httpServletRequestSupplier);
+        httpRedirectDeflateDecoder.setParserPool(this.getParserPool());
+        httpRedirectDeflateDecoder.initialize();
+        return httpRedirectDeflateDecoder;
+      }
+      else if ("POST".equals(method)) {
+        final HTTPPostDecoder httpPostDecoder = new HTTPPostDecoder();
+        httpPostDecoder.setBindingDescriptor(this.postBindingDescriptor);
+        httpPostDecoder.setHttpServletRequestSupplier(this.httpServletRequestSupplier);
+        httpPostDecoder.setParserPool(this.getParserPool());
+        httpPostDecoder.initialize();
+        return httpPostDecoder;
+      }
+      else {
+        throw new UnrecoverableSaml2IdpException(
+            UnrecoverableSaml2IdpError.INTERNAL, "Illegal HTTP verb - " + method, null);
+      }
+    }
+    catch (final ComponentInitializationException e) {
+      log.error("Failed to initialize decoder", e);
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL, "Failed to create decoder", null);
+    }
+  }
+
+  /**
+   * Decodes the SAML request message using the fast path, i.e., without creating an OpenSAML decoder.
+   *
+   * @param request the HTTP servlet request
+   * @return a {@link MessageContext} holding the decoded message
+   * @throws MessageDecodingException if the message can not be decoded
+   * @throws UnrecoverableSaml2IdpException for unsupported HTTP methods
+   */
+  @Nonnull
+  public MessageContext decode(@Nonnull final HttpServletRequest request)
+      throws MessageDecodingException, UnrecoverableSaml2IdpException {
+
+    final String method = request.getMethod();
+    final boolean redirect;
+    if ("GET".equals(method)) {
+      redirect = true;
+      final String encoding = StringUtils.trimWhitespace(request.getParameter("SAMLEncoding"));
+      if (StringUtils.hasText(encoding) && !SAMLConstants.SAML_DEFLATE_ENCODING.equals(encoding)) {
+        throw new MessageDecodingException("SAMLEncoding " + encoding + " is not supported");
+      }
+    }
+    else if ("POST".equals(method)) {
+      redirect = false;
+    }
+    else {
+      throw new UnrecoverableSaml2IdpException(
+          UnrecoverableSaml2IdpError.INTERNAL, "Illegal HTTP verb - " + method, null);
+    }
+
+    final String encodedMessage = request.getParameter(SAML_REQUEST_PARAMETER);
+    if (!StringUtils.hasText(encodedMessage)) {
+      throw new MessageDecodingException("No SAMLRequest parameter found in request");
+    }
+
+    final byte[] decoded;
+    try {
+      decoded = Base64.getMimeDecoder().decode(encodedMessage);
+    }
+    catch (final IllegalArgumentException e) {
+      throw new MessageDecodingException("Failed to base64-decode SAMLRequest parameter", e);
+    }
+
+    final XMLObject xmlObject;
+    if (redirect) {
+      final DecodingBuffer buffer = this.acquireBuffer();
+      try {
+        final int length = buffer.inflate(decoded, this.maxMessageSize);
+        xmlObject = this.unmarshall(buffer.bytes, length);
+      }
+      finally {
+        this.releaseBuffer(buffer);
+      }
+    }
+    else {
+      xmlObject = this.unmarshall(decoded, decoded.length);
+    }
+    if (!(xmlObject instanceof final SAMLObject samlObject)) {
+      throw new MessageDecodingException("Decoded message is not a SAML object");
+    }
+
+    final MessageContext messageContext = new MessageContext();
+    messageContext.setMessage(samlObject);
+    SAMLBindingSupport.setRelayState(messageContext, request.getParameter("RelayState"));
+
+    final SAMLBindingContext bindingContext = messageContext.ensureSubcontext(SAMLBindingContext.class);
+    final BindingDescriptor bindingDescriptor = redirect ? this.redirectBindingDescriptor : this.postBindingDescriptor;
+    bindingContext.setBindingUri(bindingDescriptor.getId());
+    bindingContext.setBindingDescriptor(bindingDescriptor);
+    bindingContext.setHasBindingSignature(redirect && StringUtils.hasText(request.getParameter("Signature")));
+    bindingContext.setIntendedDestinationEndpointURIRequired(SAMLBindingSupport.isMessageSigned(messageContext));
+
+    return messageContext;
+  }
+
+  /**
+   * Assigns the maximum size (in bytes) of an inflated HTTP-Redirect message. The default is
+   * {@link #DEFAULT_MAX_MESSAGE_SIZE}. See also {@link IdentityProviderSettings#getMaxInflatedRequestSize()}.
+   *
+   * @param maxMessageSize the maximum message size
+   */
+  public void setMaxMessageSize(final int maxMessageSize) {
+    if (maxMessageSize <= 0) {
+      throw new IllegalArgumentException("maxMessageSize must be positive");
+    }
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  /**
+   * Gets the parser pool. The OpenSAML default parser pool is resolved once, on first use, if no parser pool was
+   * assigned.
+   *
+   * @return the {@link ParserPool}
+   */
+  private ParserPool getParserPool() {
+    ParserPool pool = this.parserPool;
+    if (pool == null) {
+      pool = Objects.requireNonNull(XMLObjectProviderRegistrySupport.getParserPool(), "No parser pool available");
+      this.parserPool = pool;
+    }
+    return pool;
+  }
+
+  /**
+   * Gets a decoding buffer from the pool, or creates a new buffer if the pool is empty.
+   *
+   * @return a {@link DecodingBuffer}
+   */
+  private DecodingBuffer acquireBuffer() {
+    final DecodingBuffer buffer = this.decodingBuffers.poll();
+    return buffer != null ? buffer : new DecodingBuffer();
+  }
+
+  /**
+   * Returns a decoding buffer to the pool. Large buffers are shrunk, and if the pool is full, the buffer is released.
+   *
+   * @param buffer the buffer
+   */
+  private void releaseBuffer(final DecodingBuffer buffer) {
+    if (buffer.bytes.length > MAX_RETAINED_BUFFER_SIZE) {
+      buffer.bytes = new byte[INITIAL_BUFFER_SIZE];
+    }
+    if (!this.decodingBuffers.offer(buffer)) {
+      buffer.inflater.end();
+    }
+  }
+
+  /**
+   * Parses and unmarshalls the message held in the supplied buffer.
+   *
+   * @param bytes the buffer
+   * @param length the number of valid bytes in the buffer
+   * @return the unmarshalled object
+   * @throws MessageDecodingException for parsing and unmarshalling errors
+   */
+  private XMLObject unmarshall(final byte[] bytes, final int length) throws MessageDecodingException {
+    try {
+      return XMLObjectSupport.unmarshallFromInputStream(
+          this.getParserPool(), new ByteArrayInputStream(bytes, 0, length));
+    }
+    catch (final XMLParserException | UnmarshallingException e) {
+      throw new MessageDecodingException("Failed to parse SAML message", e);
+    }
+  }
+
+  /**
+   * State for inflating HTTP-Redirect messages. An instance is only used by one thread at a time.
+   */
+  private static final class DecodingBuffer {
+
+    /** Inflater for raw DEFLATE data (no zlib header). */
+    private final Inflater inflater = new Inflater(true);
+
+    /** The output buffer. Grows on demand and is reused between messages (unless it has grown too large). */
+    private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Inflates the supplied data into {@link #bytes}.
+     *
+     * @param deflated the deflated data
+     * @param maxSize the maximum number of inflated bytes
+     * @return the number of inflated bytes
+     * @throws MessageDecodingException if the data can not be inflated or is too large
+     */
+    int inflate(final byte[] deflated, final int maxSize) throws MessageDecodingException {
+      this.inflater.reset();
+      this.inflater.setInput(deflated);
+      int length = 0;
+      try {
+        while (!this.inflater.finished()) {
+          if (length == this.bytes.length) {
+            if (this.bytes.length >= maxSize) {
+              throw new MessageDecodingException("Inflated SAML message exceeds maximum size of " + maxSize);
+            }
+            this.bytes = Arrays.copyOf(this.bytes, Math.min(this.bytes.length * 2, maxSize));
+          }
+          final int n = this.inflater.inflate(this.bytes, length, this.bytes.length - length);
+          if (n == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+            throw new MessageDecodingException("Truncated or invalid DEFLATE data in SAMLRequest parameter");
+          }
+          length += n;
+        }
+        return length;
+      }
+      catch (final DataFormatException e) {
+        throw new MessageDecodingException("Failed to inflate SAMLRequest parameter", e);
+      }
+    }
+  }
+
+}
@@ -22,16 +22,35 @@ import net.shibboleth.shared.net.impl.BasicURLComparator;
 import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.core.AuthnRequest;
 import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
 import se.swedenconnect.spring.saml.idp.authnrequest.Saml2AuthnRequestAuthenticationToken;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataVersionCache;
+import se.swedenconnect.spring.saml.idp.metadata.PeerMetadataReference;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Asserts that the AssertionConsumerService information given in the {@code AuthnRequest} is registered in the SAML
  * metadata. Updates the {@link Saml2AuthnRequestAuthenticationToken} with this information.
+ * <p>
+ * For each Service Provider, the validator keeps a lookup table, built once per metadata version, that maps
+ * {@code AssertionConsumerServiceIndex} values and canonicalized URLs to registered locations. Using the default
+ * {@link BasicURLComparator}, URLs that only differ in the case of scheme and host, or in an explicit default port, map
+ * to the same key. If a URL is not found in the table, or if a custom {@link URIComparator} has been assigned, the
+ * registered locations are compared using the {@link URIComparator}. If the metadata version is not known, the table
+ * is built for each request.
+ * </p>
  *
  * @author Martin Lindström
  */
@@ -41,6 +60,12 @@ public class AssertionConsumerServiceValidator implements AuthnRequestValidator
   /** The URI comparator to use in performing URL comparisons. */
   private URIComparator uriComparator = new BasicURLComparator();
 
+  /** Whether the canonical URL keys may be used (i.e., if the default comparator is used). */
+  private boolean useUrlKeys = true;
+
+  /** Lookup tables for the AssertionConsumerService elements, indexed by SP entityID. */
+  private final MetadataVersionCache<String, AcsTable> tables = new MetadataVersionCache<>();
+
   /**
    * Assigns a custom {@link URIComparator}. The default is {@link BasicURLComparator}.
    *
@@ -48,6 +73,7 @@ public class AssertionConsumerServiceValidator implements AuthnRequestValidator
    */
   public void setUriComparator(final URIComparator uriComparator) {
     this.uriComparator = Objects.requireNonNull(uriComparator, "uriComparator must not be null");
+    this.useUrlKeys = uriComparator instanceof BasicURLComparator;
   }
 
   /**
@@ -78,24 +104,20 @@ public class AssertionConsumerServiceValidator implements AuthnRequestValidator
 
       authnRequestToken.setAssertionConsumerServiceUrl(acs.getLocation());
     }
-    for (final AssertionConsumerService acs : ssoDesc.getAssertionConsumerServices()) {
-      if (acs.getLocation() == null) {
-        continue;
-      }
-      if (assertionConsumerServiceIndex != null && acs.getIndex() != null
-          && assertionConsumerServiceIndex.intValue() == acs.getIndex().intValue()) {
-        authnRequestToken.setAssertionConsumerServiceUrl(acs.getLocation());
-        break;
-      }
-      else if (assertionConsumerServiceUrl != null) {
-        try {
-          if (this.uriComparator.compare(acs.getLocation(), assertionConsumerServiceUrl)) {
-            authnRequestToken.setAssertionConsumerServiceUrl(acs.getLocation());
-            break;
-          }
-        }
-        catch (final URIException ignored) {
-        }
+    else {
+      final AcsTable table = this.getTable(authnRequestToken.getPeerMetadataReference(), ssoDesc);
+
+      // If both an index and a URL are given, the one that matches first (in metadata order) is used ...
+      //
+      final AcsEntry byIndex = assertionConsumerServiceIndex != null
+          ? table.byIndex().get(assertionConsumerServiceIndex)
+          : null;
+      final AcsEntry byUrl = assertionConsumerServiceUrl != null
+          ? this.findByUrl(table, assertionConsumerServiceUrl, byIndex != null ? byIndex.position() : Integer.MAX_VALUE)
+          : null;
+      final AcsEntry entry = byUrl != null ? byUrl : byIndex;
+      if (entry != null) {
+        authnRequestToken.setAssertionConsumerServiceUrl(entry.location());
       }
     }
     if (authnRequestToken.getAssertionConsumerServiceUrl() == null) {
@@ -109,4 +131,138 @@ public class AssertionConsumerServiceValidator implements AuthnRequestValidator
         authnRequestToken.getAssertionConsumerServiceUrl(), authnRequestToken.getLogString());
   }
 
+  /**
+   * Finds the first entry (in metadata order) whose location matches the given URL.
+   *
+   * @param table the lookup table
+   * @param url the URL to find
+   * @param before only entries with a position before this are considered
+   * @return the matching entry, or {@code null}
+   */
+  private AcsEntry findByUrl(final AcsTable table, final String url, final int before) {
+    if (this.useUrlKeys) {
+      final String key = canonicalize(url);
+      final AcsEntry entry = key != null ? table.byUrl().get(key) : null;
+      if (entry != null) {
+        return entry.position() < before ? entry : null;
+      }
+    }
+    for (final AcsEntry entry : table.entries()) {
+      if (entry.position() >= before) {
+        break;
+      }
+      try {
+        if (this.uriComparator.compare(entry.location(), url)) {
+          return entry;
+        }
+      }
+      catch (final URIException ignored) {
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the lookup table for the given Service Provider, and builds it if needed.
+   *
+   * @param peerMetadataReference the reference to the SP metadata
+   * @param ssoDescriptor the SP SSO descriptor
+   * @return the lookup table
+   */
+  private AcsTable getTable(final PeerMetadataReference peerMetadataReference, final SPSSODescriptor ssoDescriptor) {
+    final EntityDescriptor peerMetadata = peerMetadataReference.get();
+    final String version = peerMetadataReference.getVersion();
+    final AcsTable table = this.tables.get(peerMetadata.getEntityID(), version);
+    if (table != null) {
+      return table;
+    }
+    final AcsTable newTable = AcsTable.build(ssoDescriptor);
+    this.tables.put(peerMetadata.getEntityID(), version, newTable);
+    log.debug("Built AssertionConsumerService table for '{}' [entries: {}]",
+        peerMetadata.getEntityID(), newTable.entries().size());
+    return newTable;
+  }
+
+  /**
+   * Gets the canonical key for the supplied URL, where the scheme and host are lower-cased and default ports are
+   * removed.
+   *
+   * @param url the URL
+   * @return the key, or {@code null} if the URL can not be parsed
+   */
+  static String canonicalize(final String url) {
+    try {
+      final URI uri = new URI(url);
+      if (uri.getScheme() == null || uri.getHost() == null) {
+        return null;
+      }
+      final String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+      int port = uri.getPort();
+      if ("http".equals(scheme) && port == 80 || "https".equals(scheme) && port == 443) {
+        port = -1;
+      }
+      final StringBuilder sb = new StringBuilder(url.length()).append(scheme).append("://");
+      if (uri.getRawUserInfo() != null) {
+        sb.append(uri.getRawUserInfo()).append('@');
+      }
+      sb.append(uri.getHost().toLowerCase(Locale.ROOT));
+      if (port != -1) {
+        sb.append(':').append(port);
+      }
+      Optional.ofNullable(uri.getRawPath()).ifPresent(sb::append);
+      Optional.ofNullable(uri.getRawQuery()).ifPresent(q -> sb.append('?').append(q));
+      Optional.ofNullable(uri.getRawFragment()).ifPresent(f -> sb.append('#').append(f));
+      return sb.toString();
+    }
+    catch (final URISyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A registered AssertionConsumerService location.
+   *
+   * @param position the position in the metadata
+   * @param location the location
+   */
+  private record AcsEntry(int position, String location) {
+  }
+
+  /**
+   * Lookup table for the AssertionConsumerService elements of a Service Provider.
+   *
+   * @param entries all entries, in metadata order
+   * @param byIndex entries indexed by their {@code index} attribute
+   * @param byUrl entries indexed by their canonicalized location
+   */
+  private record AcsTable(List<AcsEntry> entries, Map<Integer, AcsEntry> byIndex, Map<String, AcsEntry> byUrl) {
+
+    /**
+     * Builds a lookup table.
+     *
+     * @param ssoDescriptor the SP SSO descriptor
+     * @return the lookup table
+     */
+    static AcsTable build(final SPSSODescriptor ssoDescriptor) {
+      final List<AcsEntry> entries = new ArrayList<>();
+      final Map<Integer, AcsEntry> byIndex = new HashMap<>();
+      final Map<String, AcsEntry> byUrl = new HashMap<>();
+      for (final AssertionConsumerService acs : ssoDescriptor.getAssertionConsumerServices()) {
+        if (acs.getLocation() == null) {
+          continue;
+        }
+        final AcsEntry entry = new AcsEntry(entries.size(), acs.getLocation());
+        entries.add(entry);
+        if (acs.getIndex() != null) {
+          byIndex.putIfAbsent(acs.getIndex(), entry);
+        }
+        final String key = canonicalize(acs.getLocation());
+        if (key != null) {
+          byUrl.putIfAbsent(key, entry);
+        }
+      }
+      return new AcsTable(List.copyOf(entries), Map.copyOf(byIndex), Map.copyOf(byUrl));
+    }
+  }
+
 }
@@ -43,6 +43,10 @@ import java.util.Objects;
 /**
  * Implementation of a {@link AuthnRequestValidator} using OpenSAML mechanisms to verify the signature of the
  * {@code AuthnRequest}.
+ * <p>
+ * The {@link SignatureValidationParameters} are built from the global OpenSAML {@link SignatureValidationConfiguration}
+ * once, and shared between requests. They are rebuilt only if the global configuration is replaced.
+ * </p>
  *
  * @author Martin Lindström
  */
@@ -61,6 +65,9 @@ public class AuthnRequestSignatureValidator implements AuthnRequestValidator {
   /** Access to the current HttpServletRequest. */
   private final NonnullSupplier<HttpServletRequest> httpServletRequest;
 
+  /** The signature validation parameters, and the configuration they were built from. */
+  private volatile ValidationParameters validationParameters;
+
   /**
    * Constructor.
    *
@@ -156,17 +163,43 @@ public class AuthnRequestSignatureValidator implements AuthnRequestValidator {
    * @return a {@link SecurityParametersContext}
    */
   private SecurityParametersContext createSecurityParametersContext() {
+    final SecurityParametersContext securityParametersContext = new SecurityParametersContext();
+    securityParametersContext.setSignatureValidationParameters(this.getSignatureValidationParameters());
+    return securityParametersContext;
+  }
+
+  /**
+   * Gets the {@link SignatureValidationParameters} to use. The parameters are rebuilt if the global OpenSAML
+   * configuration has been replaced since they were built.
+   *
+   * @return a {@link SignatureValidationParameters} object
+   */
+  private SignatureValidationParameters getSignatureValidationParameters() {
     final SignatureValidationConfiguration globalOpenSamlConfig =
         ConfigurationService.get(SignatureValidationConfiguration.class);
 
+    final ValidationParameters current = this.validationParameters;
+    if (current != null && current.configuration() == globalOpenSamlConfig) {
+      return current.parameters();
+    }
+
     final SignatureValidationParameters signatureValidationParameters = new SignatureValidationParameters();
     signatureValidationParameters.setExcludedAlgorithms(globalOpenSamlConfig.getExcludedAlgorithms());
     signatureValidationParameters.setIncludedAlgorithms(globalOpenSamlConfig.getIncludedAlgorithms());
     signatureValidationParameters.setSignatureTrustEngine(this.signatureTrustEngine);
 
-    final SecurityParametersContext securityParametersContext = new SecurityParametersContext();
-    securityParametersContext.setSignatureValidationParameters(signatureValidationParameters);
-    return securityParametersContext;
+    this.validationParameters = new ValidationParameters(globalOpenSamlConfig, signatureValidationParameters);
+    return signatureValidationParameters;
+  }
+
+  /**
+   * Signature validation parameters, and the configuration they were built from.
+   *
+   * @param configuration the global configuration
+   * @param parameters the parameters
+   */
+  private record ValidationParameters(
+      SignatureValidationConfiguration configuration, SignatureValidationParameters parameters) {
   }
 
 }
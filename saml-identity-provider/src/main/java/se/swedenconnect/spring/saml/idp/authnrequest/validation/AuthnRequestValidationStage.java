@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation;
+
+import jakarta.annotation.Nonnull;
+import org.springframework.util.StringUtils;
+
+import java.util.Objects;
+
+/**
+ * A named stage in the chain of validators that are applied to a received {@code AuthnRequest}.
+ * <p>
+ * The name identifies the stage in the chain, and is also used as the stage name in log entries and observations. The
+ * names of the built-in stages are given by the constants of this class.
+ * </p>
+ *
+ * @param name the stage name
+ * @param validator the validator
+ * @author Martin Lindström
+ */
+public record AuthnRequestValidationStage(@Nonnull String name, @Nonnull AuthnRequestValidator validator) {
+
+  /** The name of the stage protecting against replay attacks. */
+  public static final String REPLAY = "replay";
+
+  /** The name of the stage checking the AssertionConsumerService information. */
+  public static final String ASSERTION_CONSUMER_SERVICE = "assertion-consumer-service";
+
+  /** The name of the stage validating the signature of the request. */
+  public static final String SIGNATURE = "signature";
+
+  /** The name of the stage checking that the IdP can encrypt assertions for the SP. */
+  public static final String ENCRYPT_CAPABILITIES = "encrypt-capabilities";
+
+  /** The name of the stage checking that the SP is accepted by the configuration. */
+  public static final String SP_FILTER = "sp-filter";
+
+  /**
+   * Constructor.
+   *
+   * @param name the stage name
+   * @param validator the validator
+   */
+  public AuthnRequestValidationStage {
+    if (!StringUtils.hasText(name)) {
+      throw new IllegalArgumentException("name must be set");
+    }
+    Objects.requireNonNull(validator, "validator must not be null");
+  }
+
+}
@@ -19,46 +19,327 @@ import jakarta.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
 import org.opensaml.storage.ReplayCache;
 
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * An in-memory implementation of the {@link ReplayCache} interface.
+ * <p>
+ * The check-and-insert is atomic, i.e., if two threads check the same key concurrently, only one of them will be told
+ * that the key was not present. Expiry does not require scanning the cache. Instead, each entry is also registered in a
+ * time bucket (by its expiration time), and a background sweeper removes the entries of the buckets that have expired.
+ * This makes both the check and the expiry O(1) amortized.
+ * </p>
+ * <p>
+ * The cache is bounded. If the maximum number of entries is reached, and no expired entries can be removed, new keys
+ * are rejected, i.e., {@link #check(String, String, Instant)} returns {@code false} as if the key was replayed. Entries
+ * that have not expired are never evicted, since that would make it possible to flush legitimate keys and re-open
+ * replays by flooding the cache. See {@link #getRejections()}.
+ * </p>
+ * <p>
+ * The cache should be closed when it is no longer used, see {@link #close()}. When used as a Spring bean, this is
+ * handled automatically.
+ * </p>
  *
  * @author Martin Lindström
  */
 @Slf4j
-public class InMemoryReplayCache implements ReplayCache {
+public class InMemoryReplayCache implements ReplayCache, AutoCloseable {
 
-  /** The cache. */
+  /** The default maximum number of entries in the cache. */
+  public static final int DEFAULT_MAX_SIZE = 100_000;
+
+  /** The default size (time span) of each expiration bucket. */
+  public static final Duration DEFAULT_BUCKET_SIZE = Duration.ofSeconds(1);
+
+  /** The cache, mapping keys to their expiration time (millis since epoch). */
   private final ConcurrentMap<String, Long> cache = new ConcurrentHashMap<>();
 
+  /** The expiration buckets, indexed by bucket number (expiration time divided by the bucket size). */
+  private final ConcurrentNavigableMap<Long, Queue<Expiry>> buckets = new ConcurrentSkipListMap<>();
+
+  /** The maximum number of entries. */
+  private final int maxSize;
+
+  /** The bucket size in millis. */
+  private final long bucketSize;
+
+  /** The clock. */
+  private final Clock clock;
+
+  /** The background sweeper - {@code null} if the cache is swept manually. */
+  private final ScheduledExecutorService sweeper;
+
+  /** Whether we have logged that the cache is full. */
+  private volatile boolean overflowLogged = false;
+
+  /** Number of checks where the key was already present, i.e., replays. */
+  private final LongAdder hits = new LongAdder();
+
+  /** Number of added keys. */
+  private final LongAdder inserts = new LongAdder();
+
+  /** Number of expired keys removed. */
+  private final LongAdder evictions = new LongAdder();
+
+  /** Number of keys rejected because the cache was full. */
+  private final LongAdder rejections = new LongAdder();
+
   /**
-   * Constructor.
+   * Constructor creating a cache with {@value #DEFAULT_MAX_SIZE} as the maximum number of entries.
    */
   public InMemoryReplayCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize the maximum number of entries in the cache
+   */
+  public InMemoryReplayCache(final int maxSize) {
+    this(maxSize, DEFAULT_BUCKET_SIZE, Clock.systemUTC(), true);
     log.warn("{} is used, consider using a distributed cache for production", this.getClass().getSimpleName());
   }
 
+  /**
+   * Constructor.
+   *
+   * @param maxSize the maximum number of entries in the cache
+   * @param bucketSize the time span of each expiration bucket, this is also the interval for the background sweeper
+   * @param clock the clock to use
+   * @param startSweeper whether a background sweeper should be started, if {@code false}, {@link #sweep()} must be
+   *     called by the owner
+   */
+  InMemoryReplayCache(
+      final int maxSize, @Nonnull final Duration bucketSize, @Nonnull final Clock clock, final boolean startSweeper) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+    this.bucketSize = Objects.requireNonNull(bucketSize, "bucketSize must not be null").toMillis();
+    if (this.bucketSize <= 0) {
+      throw new IllegalArgumentException("bucketSize must be positive");
+    }
+    this.clock = Objects.requireNonNull(clock, "clock must not be null");
+
+    if (startSweeper) {
+      this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "replay-cache-sweeper");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.sweeper.scheduleWithFixedDelay(this::sweep, this.bucketSize, this.bucketSize, TimeUnit.MILLISECONDS);
+    }
+    else {
+      this.sweeper = null;
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   public boolean check(@Nonnull final String context, @Nonnull final String key, @Nonnull final Instant expires) {
 
-    // Remove expired entries ...
-    //
-    final long now = Instant.now().getEpochSecond();
-    this.cache.entrySet().removeIf(e -> e.getValue() < now);
+    final String cacheKey = context + "|" + key;
+    final long now = this.clock.millis();
+    final long expiresAt = expires.toEpochMilli();
 
-    if (this.cache.containsKey(key)) {
+    final Long previous = this.cache.putIfAbsent(cacheKey, expiresAt);
+    if (previous != null) {
+      // The key is present. If it has expired, but has not been swept yet, we atomically replace it ...
+      //
+      if (previous <= now && this.cache.replace(cacheKey, previous, expiresAt)) {
+        this.added(cacheKey, expiresAt, now);
+        log.trace("Key '{}' was present in in-memory replay cache, but expired, returning true", key);
+        return true;
+      }
+      this.hits.increment();
       log.debug("Key '{}' was present in in-memory replay cache, returning false", key);
       return false;
     }
-    else {
-      this.cache.put(key, expires.getEpochSecond());
-      log.trace("Key '{}' was not present in in-memory replay cache, adding it and returning true", key);
+
+    if (this.cache.size() > this.maxSize && !this.makeRoom()) {
+      // Fail closed - we can not keep track of the key, so it is rejected ...
+      //
+      this.cache.remove(cacheKey, expiresAt);
+      this.rejections.increment();
+      if (!this.overflowLogged) {
+        log.warn("In-memory replay cache has reached its maximum size ({}), rejecting new keys", this.maxSize);
+        this.overflowLogged = true;
+      }
+      log.debug("In-memory replay cache is full, rejecting key '{}'", key);
+      return false;
+    }
+
+    this.added(cacheKey, expiresAt, now);
+    log.trace("Key '{}' was not present in in-memory replay cache, adding it and returning true", key);
+    return true;
+  }
+
+  /**
+   * Removes all entries that have expired. This method is invoked by the background sweeper.
+   */
+  public void sweep() {
+    try {
+      // The bucket holding entries expiring at the current time is not swept until the next round.
+      //
+      final long currentBucket = this.clock.millis() / this.bucketSize;
+      Map.Entry<Long, Queue<Expiry>> bucket;
+      while ((bucket = this.buckets.firstEntry()) != null && bucket.getKey() < currentBucket) {
+        if (this.buckets.remove(bucket.getKey(), bucket.getValue())) {
+          this.removeAll(bucket.getValue());
+        }
+      }
+    }
+    catch (final RuntimeException e) {
+      log.error("Error during sweep of in-memory replay cache", e);
+    }
+  }
+
+  /**
+   * Gets the number of checks where the key was already present in the cache, i.e., the number of detected replays.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  /**
+   * Gets the number of keys that have been added to the cache.
+   *
+   * @return the number of inserts
+   */
+  public long getInserts() {
+    return this.inserts.sum();
+  }
+
+  /**
+   * Gets the number of expired keys that have been removed from the cache.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  /**
+   * Gets the number of keys that have been rejected because the cache was full.
+   *
+   * @return the number of rejections
+   */
+  public long getRejections() {
+    return this.rejections.sum();
+  }
+
+  /**
+   * Gets the current number of entries in the cache.
+   *
+   * @return the number of entries
+   */
+  public int getSize() {
+    return this.cache.size();
+  }
+
+  /**
+   * Stops the background sweeper.
+   */
+  @Override
+  public void close() {
+    if (this.sweeper != null) {
+      this.sweeper.shutdownNow();
+    }
+  }
+
+  /**
+   * Registers an added entry in its expiration bucket.
+   *
+   * @param cacheKey the cache key
+   * @param expiresAt the expiration time
+   * @param now the current time
+   */
+  private void added(final String cacheKey, final long expiresAt, final long now) {
+    this.inserts.increment();
+    final long bucket = Math.max(expiresAt, now) / this.bucketSize;
+    final Expiry expiry = new Expiry(cacheKey, expiresAt);
+    final Queue<Expiry> queue = this.buckets.computeIfAbsent(bucket, b -> new ConcurrentLinkedQueue<>());
+    queue.add(expiry);
+
+    // If the sweeper processed the bucket while we were adding to it, the entry has already expired and we remove it
+    // ourselves ...
+    //
+    if (this.buckets.get(bucket) != queue) {
+      this.remove(expiry);
+    }
+  }
+
+  /**
+   * Removes expired entries to make room for a new entry.
+   *
+   * @return {@code true} if the cache is within its bounds, and {@code false} otherwise
+   */
+  private boolean makeRoom() {
+    this.sweep();
+    if (this.cache.size() <= this.maxSize) {
       return true;
     }
+    // Entries in the current bucket may also have expired ...
+    //
+    final long now = this.clock.millis();
+    final Queue<Expiry> current = this.buckets.get(now / this.bucketSize);
+    if (current != null) {
+      for (final Expiry expiry : current) {
+        if (expiry.expiresAt() <= now && current.remove(expiry)) {
+          this.remove(expiry);
+        }
+      }
+    }
+    return this.cache.size() <= this.maxSize;
+  }
+
+  /**
+   * Removes all entries in the supplied bucket.
+   *
+   * @param bucket the bucket
+   */
+  private void removeAll(final Queue<Expiry> bucket) {
+    Expiry expiry;
+    while ((expiry = bucket.poll()) != null) {
+      this.remove(expiry);
+    }
+  }
+
+  /**
+   * Removes the cache entry if it has not been replaced since the given expiry was registered.
+   *
+   * @param expiry the expiry
+   */
+  private void remove(final Expiry expiry) {
+    if (this.cache.remove(expiry.key(), expiry.expiresAt())) {
+      this.evictions.increment();
+    }
+  }
+
+  /**
+   * A registered expiration of a cache key.
+   *
+   * @param key the cache key
+   * @param expiresAt the expiration time
+   */
+  private record Expiry(String key, long expiresAt) {
   }
 
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation.replay;
+
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.storage.ReplayCache;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A Redis {@link ReplayCache} implementation where each entry is stored under its own Redis key.
+ * <p>
+ * The check-and-insert is made using one atomic {@code SET key value NX PX ttl} command, i.e., one round trip per
+ * check, and expiry is handled by Redis. Since each entry has its own key, the entries are spread over all slots in a
+ * Redis Cluster, instead of all being stored under one key as with {@link RedisReplayCache}.
+ * </p>
+ * <p>
+ * The Redis key for an entry is {@code <context>:<key>}.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class RedisKeyReplayCache implements ReplayCache {
+
+  /** The minimum time to live for an entry. */
+  private static final Duration MIN_TTL = Duration.ofSeconds(1);
+
+  /** The Redis value operations. */
+  private final ValueOperations<String, String> redisOps;
+
+  /**
+   * Constructor.
+   *
+   * @param redisTemplate the Redis template
+   */
+  public RedisKeyReplayCache(final StringRedisTemplate redisTemplate) {
+    this.redisOps = Objects.requireNonNull(redisTemplate, "redisTemplate must not be null").opsForValue();
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean check(@Nonnull final String context, @Nonnull final String key, @Nonnull final Instant expires) {
+
+    Duration ttl = Duration.between(Instant.now(), expires);
+    if (ttl.compareTo(MIN_TTL) < 0) {
+      ttl = MIN_TTL;
+    }
+
+    final Boolean added =
+        this.redisOps.setIfAbsent(context + ":" + key, String.valueOf(expires.getEpochSecond()), ttl);
+
+    if (Boolean.TRUE.equals(added)) {
+      log.trace("Key '{}' was not present in Redis replay cache ({}), added it and returning true", key, context);
+      return true;
+    }
+    else if (added == null) {
+      // Only happens if the template is used in a pipeline or transaction. We can not tell if the key was present,
+      // so we treat it as a replay.
+      log.warn("Could not determine if key '{}' was present in Redis replay cache ({}), returning false", key, context);
+      return false;
+    }
+    else {
+      log.debug("Key '{}' was present in Redis replay cache ({}), returning false", key, context);
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation.replay;
+
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.opensaml.storage.ReplayCache;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisException;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+
+/**
+ * A {@link ReplayCache} implementation using Redisson. Applications that already use a {@link RedissonClient} may use
+ * this implementation instead of {@link RedisReplayCache} or {@link RedisKeyReplayCache} and avoid a second Redis client
+ * and connection pool.
+ * <p>
+ * Each entry is stored in its own Redis bucket ({@code <context>:<key>}) that is atomically set, if absent, along with
+ * its time to live in one round trip. Expiry is handled by Redis.
+ * </p>
+ * <p>
+ * The synchronous Redisson API is used, so timeouts and retries are governed by the configuration of the
+ * {@link RedissonClient}.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class RedissonReplayCache implements ReplayCache {
+
+  /** The minimum time to live for an entry. */
+  private static final Duration MIN_TTL = Duration.ofSeconds(1);
+
+  /** The Redisson client. */
+  private final RedissonClient client;
+
+  /**
+   * Constructor.
+   *
+   * @param client the Redisson client
+   */
+  public RedissonReplayCache(final RedissonClient client) {
+    this.client = Objects.requireNonNull(client, "client must not be null");
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public boolean check(@Nonnull final String context, @Nonnull final String key, @Nonnull final Instant expires) {
+
+    Duration ttl = Duration.between(Instant.now(), expires);
+    if (ttl.compareTo(MIN_TTL) < 0) {
+      ttl = MIN_TTL;
+    }
+
+    final RBucket<String> bucket = this.client.getBucket(context + ":" + key, StringCodec.INSTANCE);
+    try {
+      if (bucket.setIfAbsent(String.valueOf(expires.getEpochSecond()), ttl)) {
+        log.trace("Key '{}' was not present in Redis replay cache ({}), added it and returning true", key, context);
+        return true;
+      }
+      log.debug("Key '{}' was present in Redis replay cache ({}), returning false", key, context);
+      return false;
+    }
+    catch (final RedisException e) {
+      log.error("Failed to check key '{}' in Redis replay cache ({})", key, context, e);
+      throw new IllegalStateException("Replay check failed", e);
+    }
+  }
+
+}
@@ -15,6 +15,7 @@
  */
 package se.swedenconnect.spring.saml.idp.config.configurers;
 
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
 import org.opensaml.saml.saml2.core.AuthnRequest;
@@ -43,6 +44,7 @@ import se.swedenconnect.spring.saml.idp.authnrequest.validation.AssertionConsume
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestEncryptCapabilitiesValidator;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestReplayValidator;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestSignatureValidator;
+import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestValidationStage;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestValidator;
 import se.swedenconnect.spring.saml.idp.extensions.DefaultSignatureMessageExtensionExtractor;
 import se.swedenconnect.spring.saml.idp.extensions.SignatureMessageExtensionExtractor;
@@ -55,6 +57,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -111,6 +114,21 @@ public class Saml2AuthnRequestAuthenticationProviderConfigurer
   /** Resolves authentication context class references based on the requested authentication context. */
   private AuthnContextResolver authnContextResolver;
 
+  /** Whether the signature validation is made after all other checks. */
+  private boolean signatureValidationLast = false;
+
+  /** Optional executor for running the replay check concurrently with the other checks. */
+  private Executor validationExecutor;
+
+  /** For customizing the validation chain. */
+  private Consumer<List<AuthnRequestValidationStage>> validationChainCustomizer;
+
+  /** The registry used to observe the validation stages. */
+  private ObservationRegistry observationRegistry;
+
+  /** Whether the SP entityID should be a low cardinality key value of the validation observations. */
+  private Boolean lowCardinalitySpTag;
+
   /**
    * Assigns a custom {@link AuthnRequestValidator} for validating the signatures of {@link AuthnRequest} messages.
    *
@@ -279,6 +297,76 @@ public class Saml2AuthnRequestAuthenticationProviderConfigurer
     return this;
   }
 
+  /**
+   * Tells whether the signature on the {@code AuthnRequest} should be validated after all other checks of the request.
+   * See {@link Saml2AuthnRequestAuthenticationProvider#setSignatureValidationLast(boolean)}. The default is
+   * {@code false}.
+   *
+   * @param signatureValidationLast whether to validate the signature last
+   * @return this configurer
+   */
+  public Saml2AuthnRequestAuthenticationProviderConfigurer signatureValidationLast(
+      final boolean signatureValidationLast) {
+    this.signatureValidationLast = signatureValidationLast;
+    return this;
+  }
+
+  /**
+   * Assigns an executor that is used to run the replay check concurrently with the remaining checks of the request.
+   * See {@link Saml2AuthnRequestAuthenticationProvider#setValidationExecutor(Executor)}. By default, all checks are run
+   * in sequence.
+   *
+   * @param validationExecutor the executor
+   * @return this configurer
+   */
+  public Saml2AuthnRequestAuthenticationProviderConfigurer validationExecutor(final Executor validationExecutor) {
+    this.validationExecutor = validationExecutor;
+    return this;
+  }
+
+  /**
+   * Gives access to the validation chain, i.e., the ordered list of {@link AuthnRequestValidationStage}s that are
+   * applied to a received request. The customizer is handed the default chain, with the signature stage placed
+   * according to {@link #signatureValidationLast(boolean)}, and may add, remove or reorder stages. See
+   * {@link Saml2AuthnRequestAuthenticationProvider#setValidationChain(List)} for the ordering rules.
+   *
+   * @param customizer the customizer
+   * @return this configurer
+   */
+  public Saml2AuthnRequestAuthenticationProviderConfigurer validationChain(
+      final Consumer<List<AuthnRequestValidationStage>> customizer) {
+    this.validationChainCustomizer = Objects.requireNonNull(customizer, "customizer must not be null");
+    return this;
+  }
+
+  /**
+   * Assigns the {@link ObservationRegistry} that is used to observe each validation stage. If not assigned, the
+   * {@link ObservationRegistry} bean is used, if available. See
+   * {@link Saml2AuthnRequestAuthenticationProvider#setObservationRegistry(ObservationRegistry)}.
+   *
+   * @param observationRegistry the registry
+   * @return this configurer
+   */
+  public Saml2AuthnRequestAuthenticationProviderConfigurer observationRegistry(
+      final ObservationRegistry observationRegistry) {
+    this.observationRegistry = Objects.requireNonNull(observationRegistry, "observationRegistry must not be null");
+    return this;
+  }
+
+  /**
+   * Assigns whether the SP entityID should be a low cardinality key value of the validation observations. Only use
+   * this for a bounded set of SP:s. See
+   * {@link Saml2AuthnRequestAuthenticationProvider#setLowCardinalitySpTag(boolean)}. If not assigned, the
+   * {@link IdentityProviderSettings#LOW_CARDINALITY_SP_TAG} setting is used.
+   *
+   * @param lowCardinalitySpTag whether the SP entityID should be a low cardinality key value
+   * @return this configurer
+   */
+  public Saml2AuthnRequestAuthenticationProviderConfigurer lowCardinalitySpTag(final boolean lowCardinalitySpTag) {
+    this.lowCardinalitySpTag = lowCardinalitySpTag;
+    return this;
+  }
+
   /** {@inheritDoc} */
   @Override
   void init(final HttpSecurity httpSecurity) {
@@ -307,6 +395,13 @@ public class Saml2AuthnRequestAuthenticationProviderConfigurer
       this.requestedAttributeProcessorsCustomizer.accept(this.requestedAttributeProcessors);
     }
 
+    if (this.observationRegistry == null) {
+      this.observationRegistry = Saml2IdpConfigurerUtils.getOptionalBean(httpSecurity, ObservationRegistry.class);
+    }
+    if (this.lowCardinalitySpTag == null) {
+      this.lowCardinalitySpTag = Boolean.TRUE.equals(settings.getLowCardinalitySpTag());
+    }
+
     if (this.nameIDGeneratorFactory == null) {
       this.nameIDGeneratorFactory = new DefaultNameIDGeneratorFactory(settings.getEntityId());
     }
@@ -353,6 +448,15 @@ public class Saml2AuthnRequestAuthenticationProviderConfigurer
     if (this.userMessagePreprocessor != null) {
       object.setUserMessagePreprocessor(this.userMessagePreprocessor);
     }
+    object.setSignatureValidationLast(this.signatureValidationLast);
+    object.setValidationExecutor(this.validationExecutor);
+    if (this.validationChainCustomizer != null) {
+      final List<AuthnRequestValidationStage> validationChain = new ArrayList<>(object.getValidationChain());
+      this.validationChainCustomizer.accept(validationChain);
+      object.setValidationChain(validationChain);
+    }
+    object.setObservationRegistry(this.observationRegistry);
+    object.setLowCardinalitySpTag(Boolean.TRUE.equals(this.lowCardinalitySpTag));
 
     return object;
   }
@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
-import org.opensaml.saml.metadata.resolver.MetadataResolver;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.Customizer;
@@ -170,8 +169,8 @@ public class Saml2AuthnRequestProcessorConfigurer extends AbstractSaml2Configure
 
     final List<AuthenticationConverter> authnConverters = new ArrayList<>();
     final IdentityProviderSettings settings = Saml2IdpConfigurerUtils.getIdentityProviderSettings(httpSecurity);
-    final MetadataResolver resolver = httpSecurity.getSharedObject(MetadataResolver.class);
-    authnConverters.add(new Saml2AuthnRequestAuthenticationConverter(resolver, settings));
+    authnConverters.add(new Saml2AuthnRequestAuthenticationConverter(
+        Saml2IdpConfigurerUtils.getMetadataSnapshotCache(httpSecurity), settings));
 
     if (!this.authnRequestConverters.isEmpty()) {
       authnConverters.addAll(0, this.authnRequestConverters);
@@ -39,6 +39,7 @@ import se.swedenconnect.spring.saml.idp.settings.CredentialSettings;
 import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
 import se.swedenconnect.spring.saml.idp.settings.MetadataProviderSettings;
 import se.swedenconnect.spring.saml.idp.settings.MetadataProviderUtils;
+import se.swedenconnect.spring.saml.idp.utils.CachingMetadataCredentialResolver;
 import se.swedenconnect.spring.saml.idp.web.filters.Saml2ErrorResponseProcessingFilter;
 
 import java.util.ArrayList;
@@ -161,7 +162,9 @@ public class Saml2IdpConfigurer extends AbstractHttpConfigurer<Saml2IdpConfigure
         metadataCredentialResolver.setRoleDescriptorResolver(roleDescriptorResolver);
         metadataCredentialResolver.initialize();
 
-        signatureTrustEngine = new ExplicitKeySignatureTrustEngine(metadataCredentialResolver,
+        signatureTrustEngine = new ExplicitKeySignatureTrustEngine(
+            new CachingMetadataCredentialResolver(metadataCredentialResolver,
+                Saml2IdpConfigurerUtils.getMetadataSnapshotCache(httpSecurity)),
             DefaultSecurityConfigurationBootstrap.buildBasicInlineKeyInfoCredentialResolver());
 
         httpSecurity.setSharedObject(SignatureTrustEngine.class, signatureTrustEngine);
@@ -197,7 +200,8 @@ public class Saml2IdpConfigurer extends AbstractHttpConfigurer<Saml2IdpConfigure
 
     // Add context filter ...
     //
-    final Saml2IdpContextFilter contextFilter = new Saml2IdpContextFilter(identityProviderSettings);
+    final Saml2IdpContextFilter contextFilter = new Saml2IdpContextFilter(
+        identityProviderSettings, Saml2IdpConfigurerUtils.getMetadataSnapshotCache(httpSecurity));
     httpSecurity.addFilterAfter(this.postProcess(contextFilter), SecurityContextHolderFilter.class);
 
     // Add error response handling filter ...
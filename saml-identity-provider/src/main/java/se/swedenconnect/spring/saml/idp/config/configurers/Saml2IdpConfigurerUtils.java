@@ -17,6 +17,7 @@ package se.swedenconnect.spring.saml.idp.config.configurers;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
 import org.opensaml.storage.ReplayCache;
 import org.springframework.beans.factory.BeanFactoryUtils;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
@@ -42,9 +43,17 @@ import se.swedenconnect.security.credential.PkiCredential;
 import se.swedenconnect.security.credential.opensaml.OpenSamlCredential;
 import se.swedenconnect.spring.saml.idp.authentication.provider.UserAuthenticationProvider;
 import se.swedenconnect.spring.saml.idp.events.Saml2IdpEventPublisher;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshotCache;
+import se.swedenconnect.spring.saml.idp.response.DefaultSigningPolicyResolver;
 import se.swedenconnect.spring.saml.idp.response.Saml2ResponseBuilder;
 import se.swedenconnect.spring.saml.idp.response.Saml2ResponseSender;
+import se.swedenconnect.spring.saml.idp.response.SigningPolicyResolver;
+import se.swedenconnect.spring.saml.idp.settings.AssertionSettings;
 import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
+import se.swedenconnect.spring.saml.idp.utils.DefaultSaml2MessageIDGenerator;
+import se.swedenconnect.spring.saml.idp.utils.Saml2MessageIDGenerator;
+import se.swedenconnect.spring.saml.idp.utils.Saml2ObjectSigner;
+import se.swedenconnect.spring.saml.idp.utils.StripedSaml2MessageIDGenerator;
 
 import java.util.Collection;
 import java.util.Map;
@@ -106,6 +115,23 @@ class Saml2IdpConfigurerUtils {
     return publisher;
   }
 
+  /**
+   * Gets the {@link MetadataSnapshotCache} to use. If none has been set, a cache is created for the shared
+   * {@link MetadataResolver}.
+   *
+   * @param httpSecurity the HTTP security object
+   * @return a {@link MetadataSnapshotCache}
+   */
+  static MetadataSnapshotCache getMetadataSnapshotCache(final HttpSecurity httpSecurity) {
+    MetadataSnapshotCache cache = httpSecurity.getSharedObject(MetadataSnapshotCache.class);
+    if (cache != null) {
+      return cache;
+    }
+    cache = new MetadataSnapshotCache(httpSecurity.getSharedObject(MetadataResolver.class));
+    httpSecurity.setSharedObject(MetadataSnapshotCache.class, cache);
+    return cache;
+  }
+
   /**
    * Gets the {@link Saml2ResponseBuilder} to use. If none has been set, a {@link Saml2ResponseBuilder} is created
    * according to the current {@link IdentityProviderSettings}.
@@ -123,7 +149,10 @@ class Saml2IdpConfigurerUtils {
       final IdentityProviderSettings settings = getIdentityProviderSettings(httpSecurity);
       responseBuilder = new Saml2ResponseBuilder(
           settings.getEntityId(), getSignatureCredential(httpSecurity), getEventPublisher(httpSecurity));
+      responseBuilder.setObjectSigner(getObjectSigner(httpSecurity));
+      responseBuilder.setSigningPolicyResolver(getSigningPolicyResolver(httpSecurity));
       responseBuilder.setEncryptAssertions(settings.getAssertionSettings().getEncryptAssertions());
+      responseBuilder.setIdGenerator(getMessageIDGenerator(httpSecurity));
       final MessageSource messageSource = getOptionalBean(httpSecurity, MessageSource.class);
       if (messageSource != null) {
         responseBuilder.setMessageSource(messageSource);
@@ -133,6 +162,69 @@ class Saml2IdpConfigurerUtils {
     return responseBuilder;
   }
 
+  /**
+   * Gets the {@link Saml2MessageIDGenerator} that is used to generate the IDs of responses and assertions. If the
+   * {@link IdentityProviderSettings#STRIPED_MESSAGE_ID_GENERATOR} setting is set, a
+   * {@link StripedSaml2MessageIDGenerator} is used, otherwise a {@link DefaultSaml2MessageIDGenerator}.
+   *
+   * @param httpSecurity the HTTP security object
+   * @return a {@link Saml2MessageIDGenerator}
+   */
+  static Saml2MessageIDGenerator getMessageIDGenerator(final HttpSecurity httpSecurity) {
+    Saml2MessageIDGenerator idGenerator = httpSecurity.getSharedObject(Saml2MessageIDGenerator.class);
+    if (idGenerator != null) {
+      return idGenerator;
+    }
+    idGenerator = Boolean.TRUE.equals(getIdentityProviderSettings(httpSecurity).getStripedMessageIdGenerator())
+        ? new StripedSaml2MessageIDGenerator()
+        : new DefaultSaml2MessageIDGenerator();
+    httpSecurity.setSharedObject(Saml2MessageIDGenerator.class, idGenerator);
+    return idGenerator;
+  }
+
+  /**
+   * Gets the {@link Saml2ObjectSigner} that is used to sign responses and assertions. The signer is shared so that
+   * signing parameters are resolved once per peer.
+   *
+   * @param httpSecurity the HTTP security object
+   * @return a {@link Saml2ObjectSigner}
+   */
+  static Saml2ObjectSigner getObjectSigner(final HttpSecurity httpSecurity) {
+    Saml2ObjectSigner objectSigner = httpSecurity.getSharedObject(Saml2ObjectSigner.class);
+    if (objectSigner != null) {
+      return objectSigner;
+    }
+    objectSigner = new Saml2ObjectSigner(getSignatureCredential(httpSecurity));
+    Optional.ofNullable(getIdentityProviderSettings(httpSecurity).getCredentials().getMaxSigningSessions())
+        .ifPresent(objectSigner::setMaxHardwareSessions);
+    httpSecurity.setSharedObject(Saml2ObjectSigner.class, objectSigner);
+    return objectSigner;
+  }
+
+  /**
+   * Gets the {@link SigningPolicyResolver} to use. If none has been set, a {@link DefaultSigningPolicyResolver} is
+   * created according to the current {@link IdentityProviderSettings}.
+   *
+   * @param httpSecurity the HTTP security object
+   * @return a {@link SigningPolicyResolver}
+   */
+  static SigningPolicyResolver getSigningPolicyResolver(final HttpSecurity httpSecurity) {
+    SigningPolicyResolver resolver = httpSecurity.getSharedObject(SigningPolicyResolver.class);
+    if (resolver != null) {
+      return resolver;
+    }
+    resolver = getOptionalBean(httpSecurity, SigningPolicyResolver.class);
+    if (resolver == null) {
+      final AssertionSettings assertionSettings = getIdentityProviderSettings(httpSecurity).getAssertionSettings();
+      final DefaultSigningPolicyResolver defaultResolver = new DefaultSigningPolicyResolver(
+          assertionSettings.getSigningPolicy(), assertionSettings.getEntityCategorySigningPolicies());
+      defaultResolver.setServiceProviderPolicies(assertionSettings.getSpSigningPolicies());
+      resolver = defaultResolver;
+    }
+    httpSecurity.setSharedObject(SigningPolicyResolver.class, resolver);
+    return resolver;
+  }
+
   /**
    * Gets the {@link Saml2ResponseSender} to use. If none has been set, a {@link Saml2ResponseSender} with default
    * settings is created.
@@ -24,6 +24,7 @@ import org.springframework.web.filter.OncePerRequestFilter;
 import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
 import se.swedenconnect.spring.saml.idp.context.Saml2IdpContext;
 import se.swedenconnect.spring.saml.idp.context.Saml2IdpContextHolder;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshotCache;
 import se.swedenconnect.spring.saml.idp.response.Saml2ResponseAttributes;
 import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
 
@@ -40,13 +41,26 @@ class Saml2IdpContextFilter extends OncePerRequestFilter {
 
   private final IdentityProviderSettings settings;
 
+  private final MetadataSnapshotCache metadataSnapshotCache;
+
   /**
    * Constructor assigning the {@link IdentityProviderSettings}.
    *
    * @param settings the IdP settings
    */
   Saml2IdpContextFilter(final IdentityProviderSettings settings) {
+    this(settings, null);
+  }
+
+  /**
+   * Constructor assigning the {@link IdentityProviderSettings} and the {@link MetadataSnapshotCache}.
+   *
+   * @param settings the IdP settings
+   * @param metadataSnapshotCache the metadata snapshot cache (may be {@code null})
+   */
+  Saml2IdpContextFilter(final IdentityProviderSettings settings, final MetadataSnapshotCache metadataSnapshotCache) {
     this.settings = Objects.requireNonNull(settings, "settings must not be null");
+    this.metadataSnapshotCache = metadataSnapshotCache;
   }
 
   /** {@inheritDoc} */
@@ -56,7 +70,7 @@ class Saml2IdpContextFilter extends OncePerRequestFilter {
       final FilterChain filterChain) throws ServletException, IOException {
 
     try {
-      Saml2IdpContextHolder.setContext(new DefaultIdentityProviderContext(this.settings));
+      Saml2IdpContextHolder.setContext(new DefaultIdentityProviderContext(this.settings, this.metadataSnapshotCache));
       filterChain.doFilter(request, response);
     }
     finally {
@@ -76,14 +90,19 @@ class Saml2IdpContextFilter extends OncePerRequestFilter {
 
     private final Saml2ResponseAttributes responseAttributes;
 
+    private final transient MetadataSnapshotCache metadataSnapshotCache;
+
     /**
      * Constructor.
      *
      * @param settings the IdP settings
+     * @param metadataSnapshotCache the metadata snapshot cache (may be {@code null})
      */
-    private DefaultIdentityProviderContext(final IdentityProviderSettings settings) {
+    private DefaultIdentityProviderContext(
+        final IdentityProviderSettings settings, final MetadataSnapshotCache metadataSnapshotCache) {
       this.settings = settings;
       this.responseAttributes = new Saml2ResponseAttributes();
+      this.metadataSnapshotCache = metadataSnapshotCache;
     }
 
     /** {@inheritDoc} */
@@ -98,6 +117,12 @@ class Saml2IdpContextFilter extends OncePerRequestFilter {
       return this.responseAttributes;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public MetadataSnapshotCache getMetadataSnapshotCache() {
+      return this.metadataSnapshotCache;
+    }
+
   }
 
 }
@@ -472,6 +472,11 @@ public class Saml2IdpMetadataEndpointConfigurer extends AbstractSaml2Configurer
 
     final Saml2IdpMetadataEndpointFilter filter =
         new Saml2IdpMetadataEndpointFilter(container, this.requestMatcher);
+    if (settings.getMetadata().getRefreshInterval() != null) {
+      // The refresh task is started and stopped by the object post processor (filter init and destroy) ...
+      //
+      filter.setBackgroundRefreshInterval(settings.getMetadata().getRefreshInterval());
+    }
     httpSecurity.addFilterBefore(this.postProcess(filter), AbstractPreAuthenticatedProcessingFilter.class);
   }
 
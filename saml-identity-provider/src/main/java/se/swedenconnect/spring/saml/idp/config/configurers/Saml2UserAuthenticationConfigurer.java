@@ -32,6 +32,8 @@ import org.springframework.security.web.util.matcher.OrRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 
 import jakarta.servlet.http.HttpServletRequest;
+import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGeneratorFactory;
+import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDKeyResolver;
 import se.swedenconnect.spring.saml.idp.attributes.release.AttributeProducer;
 import se.swedenconnect.spring.saml.idp.attributes.release.AttributeReleaseManager;
 import se.swedenconnect.spring.saml.idp.attributes.release.AttributeReleaseVoter;
@@ -132,7 +134,9 @@ public class Saml2UserAuthenticationConfigurer extends AbstractSaml2Configurer {
   }
 
   /**
-   * Assigns a custom {@link Saml2MessageIDGenerator} to be used by the assertion builder.
+   * Assigns a custom {@link Saml2MessageIDGenerator} to be used by the assertion builder. If not assigned, the
+   * generator that is shared with the response builder is used (see
+   * {@link se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings#STRIPED_MESSAGE_ID_GENERATOR}).
    *
    * @param idGenerator the {@link Saml2MessageIDGenerator}
    * @return the {@link Saml2UserAuthenticationConfigurer} for further configuration
@@ -208,11 +212,16 @@ public class Saml2UserAuthenticationConfigurer extends AbstractSaml2Configurer {
 
     final Saml2AssertionBuilder assertionBuilder = new Saml2AssertionBuilder(settings.getEntityId(),
         Saml2IdpConfigurerUtils.getSignatureCredential(httpSecurity), attributeReleaseManager);
+    assertionBuilder.setObjectSigner(Saml2IdpConfigurerUtils.getObjectSigner(httpSecurity));
+    assertionBuilder.setSigningPolicyResolver(Saml2IdpConfigurerUtils.getSigningPolicyResolver(httpSecurity));
     assertionBuilder.setNotBeforeDuration(settings.getAssertionSettings().getNotBeforeDuration());
     assertionBuilder.setNotOnOrAfterDuration(settings.getAssertionSettings().getNotOnOrAfterDuration());
-    if (this.idGenerator != null) {
-      assertionBuilder.setIdGenerator(this.idGenerator);
+    if (httpSecurity.getSharedObject(NameIDGeneratorFactory.class) instanceof final NameIDKeyResolver keyResolver) {
+      assertionBuilder.setNameIDKeyResolver(keyResolver);
     }
+    assertionBuilder.setIdGenerator(this.idGenerator != null
+        ? this.idGenerator
+        : Saml2IdpConfigurerUtils.getMessageIDGenerator(httpSecurity));
     if (this.assertionCustomizer != null) {
       assertionBuilder.setAssertionCustomizer(this.assertionCustomizer);
     }
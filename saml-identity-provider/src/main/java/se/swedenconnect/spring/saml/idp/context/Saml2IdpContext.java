@@ -15,6 +15,7 @@
  */
 package se.swedenconnect.spring.saml.idp.context;
 
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshotCache;
 import se.swedenconnect.spring.saml.idp.response.Saml2ResponseAttributes;
 import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
 
@@ -41,4 +42,13 @@ public interface Saml2IdpContext extends Serializable {
    */
   Saml2ResponseAttributes getResponseAttributes();
 
+  /**
+   * Gets the {@link MetadataSnapshotCache} that is used to resolve peer metadata.
+   *
+   * @return the metadata snapshot cache, or {@code null} if not available
+   */
+  default MetadataSnapshotCache getMetadataSnapshotCache() {
+    return null;
+  }
+
 }
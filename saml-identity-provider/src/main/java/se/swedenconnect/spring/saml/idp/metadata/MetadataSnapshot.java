@@ -0,0 +1,163 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.metadata;
+
+import jakarta.annotation.Nonnull;
+import net.shibboleth.shared.xml.SerializeSupport;
+import net.shibboleth.shared.xml.XMLParserException;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * A read-only snapshot of a peer's {@link EntityDescriptor} as it was resolved from the metadata resolver.
+ * <p>
+ * The snapshot holds one private, read-only, instance of the descriptor that is shared by all threads processing
+ * requests from the peer. The instance is parsed once, when the snapshot is created, from the serialized resolver
+ * descriptor, and it is rooted in its own, fully expanded, DOM document. Callers must never modify the descriptor
+ * obtained from {@link #getEntityDescriptor()}, or its DOM.
+ * </p>
+ * <p>
+ * The {@link #getVersion() version} is a digest over the serialized descriptor, which means that it is stable across
+ * restarts and cluster nodes and changes only when the metadata for the peer changes.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public final class MetadataSnapshot {
+
+  /** The entityID of the peer. */
+  private final String entityId;
+
+  /** The read-only instance of the peer metadata. */
+  private final EntityDescriptor entityDescriptor;
+
+  /** The metadata version. */
+  private final String version;
+
+  /** The descriptor instance, as held by the metadata resolver, that this snapshot was created from. */
+  private final EntityDescriptor source;
+
+  /** When the snapshot was created. */
+  private final Instant created;
+
+  /**
+   * Constructor.
+   *
+   * @param source the resolved entity descriptor
+   * @throws MarshallingException if the descriptor can not be marshalled, or the copy can not be parsed
+   */
+  MetadataSnapshot(@Nonnull final EntityDescriptor source) throws MarshallingException {
+    this.source = Objects.requireNonNull(source, "source must not be null");
+    this.entityId = Objects.requireNonNull(source.getEntityID(), "Missing entityID in EntityDescriptor");
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SerializeSupport.writeNode(XMLObjectSupport.marshall(source), out);
+    final byte[] encoding = out.toByteArray();
+    this.version = calculateVersion(encoding);
+    try {
+      this.entityDescriptor = (EntityDescriptor) XMLObjectSupport.unmarshallFromInputStream(
+          XMLObjectProviderRegistrySupport.getParserPool(), new ByteArrayInputStream(encoding));
+    }
+    catch (final XMLParserException | UnmarshallingException e) {
+      throw new MarshallingException("Failed to parse metadata for " + this.entityId, e);
+    }
+    this.created = Instant.now();
+  }
+
+  /**
+   * Gets the entityID of the peer.
+   *
+   * @return the entityID
+   */
+  @Nonnull
+  public String getEntityId() {
+    return this.entityId;
+  }
+
+  /**
+   * Gets the read-only peer metadata. The returned object is shared between threads and must not be modified.
+   *
+   * @return the {@link EntityDescriptor}
+   */
+  @Nonnull
+  public EntityDescriptor getEntityDescriptor() {
+    return this.entityDescriptor;
+  }
+
+  /**
+   * Gets the metadata version, i.e., a digest over the peer metadata contents.
+   *
+   * @return the metadata version
+   */
+  @Nonnull
+  public String getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Gets the time when this snapshot was created.
+   *
+   * @return the creation time
+   */
+  @Nonnull
+  public Instant getCreated() {
+    return this.created;
+  }
+
+  /**
+   * Predicate telling whether this snapshot was created from the supplied {@link EntityDescriptor} instance.
+   *
+   * @param entityDescriptor the descriptor as held by the metadata resolver
+   * @return {@code true} if the snapshot was created from the given descriptor and {@code false} otherwise
+   */
+  boolean isSnapshotOf(@Nonnull final EntityDescriptor entityDescriptor) {
+    return this.source == entityDescriptor;
+  }
+
+  /**
+   * Calculates the version of the supplied serialized descriptor.
+   *
+   * @param encoding the serialized descriptor
+   * @return the version string
+   * @throws MarshallingException if the version can not be calculated
+   */
+  private static String calculateVersion(final byte[] encoding) throws MarshallingException {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(digest.digest(encoding));
+    }
+    catch (final NoSuchAlgorithmException e) {
+      throw new MarshallingException("Failed to calculate metadata version", e);
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String toString() {
+    return "entity-id: '%s', version: '%s'".formatted(this.entityId, this.version);
+  }
+
+}
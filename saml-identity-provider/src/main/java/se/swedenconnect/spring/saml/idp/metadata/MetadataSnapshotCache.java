@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.metadata;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.criterion.ProtocolCriterion;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe cache of {@link MetadataSnapshot} objects, one per peer entityID.
+ * <p>
+ * Serializing a resolved {@link EntityDescriptor} and calculating its version is expensive for large SP metadata
+ * entries. This cache makes sure that this is done once per metadata version instead of once per request.
+ * </p>
+ * <p>
+ * A snapshot is valid as long as the metadata resolver returns the same descriptor instance that the snapshot was
+ * created from. Furthermore, if the resolver is a {@link RefreshableMetadataResolver}, the whole cache is invalidated
+ * each time the resolver reports a new update time.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class MetadataSnapshotCache {
+
+  /** The metadata resolver. */
+  private final MetadataResolver metadataResolver;
+
+  /** The snapshots, indexed by entityID. */
+  private final ConcurrentMap<String, MetadataSnapshot> snapshots = new ConcurrentHashMap<>();
+
+  /** The resolver update time for which the current snapshots were created. */
+  private volatile Instant generation;
+
+  /**
+   * Constructor.
+   *
+   * @param metadataResolver the metadata resolver from which peer metadata is resolved
+   */
+  public MetadataSnapshotCache(@Nonnull final MetadataResolver metadataResolver) {
+    this.metadataResolver = Objects.requireNonNull(metadataResolver, "metadataResolver must not be null");
+    this.generation = this.getResolverGeneration();
+  }
+
+  /**
+   * Gets the metadata resolver that backs this cache.
+   *
+   * @return the {@link MetadataResolver}
+   */
+  @Nonnull
+  public MetadataResolver getMetadataResolver() {
+    return this.metadataResolver;
+  }
+
+  /**
+   * Resolves the SP metadata for the given entityID and returns a snapshot for it.
+   *
+   * @param entityId the SP entityID
+   * @return a {@link MetadataSnapshot}, or {@code null} if no valid metadata is found
+   * @throws ResolverException for resolver errors, or if a snapshot could not be created
+   */
+  @Nullable
+  public MetadataSnapshot resolve(@Nonnull final String entityId) throws ResolverException {
+    final CriteriaSet criteria = new CriteriaSet(new EntityIdCriterion(entityId),
+        new EntityRoleCriterion(SPSSODescriptor.DEFAULT_ELEMENT_NAME),
+        new ProtocolCriterion(SAMLConstants.SAML20P_NS));
+    final EntityDescriptor entityDescriptor = this.metadataResolver.resolveSingle(criteria);
+    if (entityDescriptor == null) {
+      return null;
+    }
+    try {
+      return this.getSnapshot(entityDescriptor);
+    }
+    catch (final MarshallingException e) {
+      throw new ResolverException("Failed to create metadata snapshot for " + entityId, e);
+    }
+  }
+
+  /**
+   * Gets the snapshot for the supplied descriptor, i.e., an object that has been resolved from the metadata resolver.
+   * If there is no snapshot for the given descriptor, or the cached one is stale, a new snapshot is created.
+   *
+   * @param entityDescriptor the descriptor as resolved from the metadata resolver
+   * @return a {@link MetadataSnapshot}
+   * @throws MarshallingException if the descriptor can not be serialized
+   */
+  @Nonnull
+  public MetadataSnapshot getSnapshot(@Nonnull final EntityDescriptor entityDescriptor)
+      throws MarshallingException {
+
+    this.checkGeneration();
+
+    final MetadataSnapshot cached = this.snapshots.get(entityDescriptor.getEntityID());
+    if (cached != null && cached.isSnapshotOf(entityDescriptor)) {
+      return cached;
+    }
+    final MetadataSnapshot snapshot = new MetadataSnapshot(entityDescriptor);
+    this.snapshots.put(snapshot.getEntityId(), snapshot);
+    log.debug("Created metadata snapshot [{}]", snapshot);
+
+    return snapshot;
+  }
+
+  /**
+   * Invalidates all cached snapshots.
+   */
+  public void clear() {
+    this.snapshots.clear();
+  }
+
+  /**
+   * Clears the cache if the metadata resolver has been updated since the cached snapshots were created.
+   */
+  private void checkGeneration() {
+    final Instant current = this.getResolverGeneration();
+    if (!Objects.equals(current, this.generation)) {
+      synchronized (this) {
+        if (!Objects.equals(current, this.generation)) {
+          log.debug("Metadata resolver has been updated ({}), clearing metadata snapshot cache", current);
+          this.snapshots.clear();
+          this.generation = current;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the last update time of the metadata resolver.
+   *
+   * @return the last update time, or {@code null} if not available
+   */
+  private Instant getResolverGeneration() {
+    return this.metadataResolver instanceof final RefreshableMetadataResolver refreshable
+        ? refreshable.getLastUpdate()
+        : null;
+  }
+
+}
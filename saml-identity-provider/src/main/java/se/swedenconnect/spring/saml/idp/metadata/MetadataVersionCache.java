@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.metadata;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe cache for objects that are derived from peer metadata, for example resolved signing or encryption
+ * parameters.
+ * <p>
+ * An entry is stored under a key, normally the peer entityID, together with the version of the metadata it was derived
+ * from (see {@link MetadataSnapshot#getVersion()}), and it is only returned for that version. When the metadata for
+ * the peer changes, the entry is replaced. Objects derived from metadata of an unknown version are never cached.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the type of the cached objects
+ * @author Martin Lindström
+ */
+public class MetadataVersionCache<K, V> {
+
+  /** The cached entries. */
+  private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Gets the object cached for the given key and metadata version.
+   *
+   * @param key the key
+   * @param version the metadata version (may be {@code null})
+   * @return the cached object, or {@code null} if there is no object for the given version
+   */
+  @Nullable
+  public V get(@Nonnull final K key, @Nullable final String version) {
+    if (version == null) {
+      return null;
+    }
+    final Entry<V> entry = this.entries.get(Objects.requireNonNull(key, "key must not be null"));
+    return entry != null && version.equals(entry.version()) ? entry.value() : null;
+  }
+
+  /**
+   * Caches an object for the given key and metadata version. Any object cached for another version is replaced. If the
+   * version is {@code null}, nothing is cached.
+   *
+   * @param key the key
+   * @param version the metadata version (may be {@code null})
+   * @param value the object to cache
+   */
+  public void put(@Nonnull final K key, @Nullable final String version, @Nonnull final V value) {
+    if (version == null) {
+      return;
+    }
+    this.entries.put(Objects.requireNonNull(key, "key must not be null"),
+        new Entry<>(version, Objects.requireNonNull(value, "value must not be null")));
+  }
+
+  /**
+   * Removes all cached objects.
+   */
+  public void clear() {
+    this.entries.clear();
+  }
+
+  /**
+   * A cached object.
+   *
+   * @param version the metadata version
+   * @param value the object
+   * @param <V> the type of the object
+   */
+  private record Entry<V>(String version, V value) {
+  }
+
+}
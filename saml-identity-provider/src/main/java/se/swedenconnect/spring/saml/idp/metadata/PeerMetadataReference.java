@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.metadata;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.resolver.ResolverException;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import se.swedenconnect.opensaml.common.utils.SerializableOpenSamlObject;
+import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
+import se.swedenconnect.spring.saml.idp.context.Saml2IdpContext;
+import se.swedenconnect.spring.saml.idp.context.Saml2IdpContextHolder;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+
+import java.io.InvalidObjectException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A serializable reference to the metadata of a peer (SP).
+ * <p>
+ * In its default form, the reference holds the complete {@link EntityDescriptor} and serializes it as XML. In its
+ * compact form, only the entityID and the metadata version are serialized. After deserialization, a compact reference
+ * re-resolves the descriptor lazily using the {@link MetadataSnapshotCache} of the current {@link Saml2IdpContext}.
+ * This keeps session payloads small when sessions are stored in an external store, such as Redis.
+ * </p>
+ * <p>
+ * If the SP metadata has been updated between the point where a compact reference was created and the point where it
+ * is resolved, the current metadata is used. This is by design. The metadata provider has validated the new metadata,
+ * and an update (for example, a key rollover) should not break the SP's ongoing authentications. The version that was
+ * resolved is available via {@link #getVersion()}.
+ * </p>
+ * <p>
+ * Objects that were serialized before this class was introduced stored the peer metadata as a
+ * {@link SerializableOpenSamlObject}. See {@link #fromSerialized(Object)} for how such objects are migrated.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class PeerMetadataReference implements Serializable {
+
+  @Serial
+  private static final long serialVersionUID = Saml2IdentityProviderVersion.SERIAL_VERSION_UID;
+
+  /** The peer entityID. */
+  private final String entityId;
+
+  /** The metadata version (may be {@code null}). */
+  private String version;
+
+  /** The serialized metadata - {@code null} for compact references. */
+  private final SerializableOpenSamlObject<EntityDescriptor> metadata;
+
+  /** The resolved metadata. */
+  private transient EntityDescriptor entityDescriptor;
+
+  /**
+   * Constructor.
+   *
+   * @param entityDescriptor the metadata
+   * @param version the metadata version (may be {@code null})
+   * @param compact whether this is a compact reference
+   */
+  private PeerMetadataReference(
+      final EntityDescriptor entityDescriptor, final String version, final boolean compact) {
+    this.entityDescriptor = Objects.requireNonNull(entityDescriptor, "entityDescriptor must not be null");
+    this.entityId = entityDescriptor.getEntityID();
+    this.version = version;
+    this.metadata = compact ? null : new SerializableOpenSamlObject<>(entityDescriptor);
+  }
+
+  /**
+   * Creates a reference that holds, and serializes, the complete peer metadata.
+   *
+   * @param entityDescriptor the peer metadata
+   * @return a {@link PeerMetadataReference}
+   */
+  @Nonnull
+  public static PeerMetadataReference of(@Nonnull final EntityDescriptor entityDescriptor) {
+    return new PeerMetadataReference(entityDescriptor, null, false);
+  }
+
+  /**
+   * Creates a reference for the given {@link MetadataSnapshot}. The reference holds the shared, read-only, instance of
+   * the peer metadata that the snapshot holds.
+   *
+   * @param snapshot the metadata snapshot
+   * @param compact if {@code true}, only the entityID and metadata version will be serialized
+   * @return a {@link PeerMetadataReference}
+   */
+  @Nonnull
+  public static PeerMetadataReference of(@Nonnull final MetadataSnapshot snapshot, final boolean compact) {
+    Objects.requireNonNull(snapshot, "snapshot must not be null");
+    return new PeerMetadataReference(snapshot.getEntityDescriptor(), snapshot.getVersion(), compact);
+  }
+
+  /**
+   * Support for deserializing objects that were serialized before this class was introduced. Such objects stored the
+   * peer metadata as a {@link SerializableOpenSamlObject}, and this method turns that value into a (full)
+   * {@link PeerMetadataReference}.
+   *
+   * @param value the deserialized field value
+   * @return a {@link PeerMetadataReference}, or {@code null} if the value is {@code null}
+   * @throws InvalidObjectException if the value is of an unexpected type
+   */
+  @Nullable
+  public static PeerMetadataReference fromSerialized(@Nullable final Object value) throws InvalidObjectException {
+    if (value == null || value instanceof PeerMetadataReference) {
+      return (PeerMetadataReference) value;
+    }
+    if (value instanceof final SerializableOpenSamlObject<?> legacy
+        && legacy.get() instanceof final EntityDescriptor entityDescriptor) {
+      log.debug("Migrating serialized SAML metadata for SP {} to a metadata reference",
+          entityDescriptor.getEntityID());
+      return of(entityDescriptor);
+    }
+    throw new InvalidObjectException("Unexpected type for peer metadata: " + value.getClass().getName());
+  }
+
+  /**
+   * Gets the peer entityID.
+   *
+   * @return the entityID
+   */
+  @Nonnull
+  public String getEntityId() {
+    return this.entityId;
+  }
+
+  /**
+   * Gets the metadata version (see {@link MetadataSnapshot#getVersion()}).
+   *
+   * @return the metadata version, or {@code null} if the reference was not created from a snapshot
+   */
+  @Nullable
+  public String getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Predicate telling whether this is a compact reference.
+   *
+   * @return {@code true} if only the entityID and version are serialized and {@code false} otherwise
+   */
+  public boolean isCompact() {
+    return this.metadata == null;
+  }
+
+  /**
+   * Gets the peer metadata. For compact references that have been deserialized, the metadata is resolved using the
+   * {@link MetadataSnapshotCache} of the current {@link Saml2IdpContext}. If the metadata has been updated since the
+   * reference was created, the current metadata is used (see class description).
+   *
+   * @return the peer metadata
+   * @throws UnrecoverableSaml2IdpException if the metadata for a compact reference can not be resolved
+   */
+  @Nonnull
+  public EntityDescriptor get() throws UnrecoverableSaml2IdpException {
+    EntityDescriptor ed = this.entityDescriptor;
+    if (ed == null) {
+      ed = this.metadata != null ? this.metadata.get() : this.resolve();
+      this.entityDescriptor = ed;
+    }
+    return ed;
+  }
+
+  /**
+   * Resolves the metadata for a compact reference.
+   *
+   * @return the peer metadata
+   * @throws UnrecoverableSaml2IdpException if the metadata can not be resolved
+   */
+  private EntityDescriptor resolve() throws UnrecoverableSaml2IdpException {
+    final MetadataSnapshotCache cache = Optional.ofNullable(Saml2IdpContextHolder.getContext())
+        .map(Saml2IdpContext::getMetadataSnapshotCache)
+        .orElseThrow(() -> new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL,
+            "No metadata snapshot cache available - can not resolve metadata for " + this.entityId, null));
+    try {
+      final MetadataSnapshot snapshot = cache.resolve(this.entityId);
+      if (snapshot == null) {
+        final String msg = "Failed to lookup valid SAML metadata for SP %s".formatted(this.entityId);
+        log.info("{}", msg);
+        throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.UNKNOWN_PEER, msg, null);
+      }
+      // A metadata update is not an error. The current (valid) metadata is always used, see class description ...
+      //
+      if (this.version != null && !this.version.equals(snapshot.getVersion())) {
+        log.info("SAML metadata for SP {} has been updated since the request was received (version {} -> {}), "
+            + "using current version", this.entityId, this.version, snapshot.getVersion());
+      }
+      this.version = snapshot.getVersion();
+      return snapshot.getEntityDescriptor();
+    }
+    catch (final ResolverException e) {
+      final String msg = "Error during metadata lookup: " + e.getMessage();
+      log.info("{}", msg, e);
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.UNKNOWN_PEER, msg, e, null);
+    }
+  }
+
+}
@@ -16,9 +16,11 @@
 package se.swedenconnect.spring.saml.idp.response;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 
 import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
 import org.springframework.util.StringUtils;
 
 import jakarta.servlet.http.HttpServletRequest;
@@ -26,27 +28,93 @@ import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * A helper for creating the HTML page that posts the response back to the Service Provider.
+ * <p>
+ * The static parts of the page are encoded once, so when the page is used as a {@link StreamingResponsePage}, the
+ * page is written as the pre-encoded parts around the streamed SAML response.
+ * </p>
  *
  * @author Martin Lindström
  */
-public class DefaultResponsePage implements ResponsePage {
+public class DefaultResponsePage implements StreamingResponsePage {
 
   private static final MediaType TEXT_HTML_UTF8 = new MediaType("text", "html", StandardCharsets.UTF_8);
   private static final String NEWLINE = System.lineSeparator();
 
+  /** The start of the page - followed by the destination. */
+  private static final String PAGE_START = NEWLINE
+      + "<!DOCTYPE html>" + NEWLINE
+      + "<html lang=\"en\">" + NEWLINE
+      + "<head>" + NEWLINE
+      + "  <meta charset=\"utf-8\">" + NEWLINE
+      + "  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1, shrink-to-fit=no\">" + NEWLINE
+      + "  <title>SAML Response</title>" + NEWLINE
+      + "</head>" + NEWLINE
+      + "<body onload=\"document.forms[0].submit()\">" + NEWLINE
+      + "  <form action=\"";
+
+  /** Follows the destination - followed by the SAML response. */
+  private static final String RESPONSE_START = "\" method=\"POST\">" + NEWLINE
+      + "    <input type=\"hidden\" name=\"SAMLResponse\" value=\"";
+
+  /** Ends an input element. */
+  private static final String INPUT_END = "\" />" + NEWLINE;
+
+  /** Starts the relay state input element - followed by the relay state. */
+  private static final String RELAY_STATE_START = "    <input type=\"hidden\" name=\"RelayState\" value=\"";
+
+  /** The end of the page. */
+  private static final String PAGE_END = "    <noscript>" + NEWLINE
+      + "      <p>Your web browser does not have JavaScript enabled. "
+      + "Click the \"Continue\" button below to proceed.</p>" + NEWLINE
+      + "      <p><input type=\"submit\" value=\"Continue\" /></p>" + NEWLINE
+      + "    </noscript>" + NEWLINE
+      + "  </form>" + NEWLINE
+      + "</body>" + NEWLINE
+      + "</html>" + NEWLINE;
+
+  private static final byte[] PAGE_START_BYTES = PAGE_START.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] RESPONSE_START_BYTES = RESPONSE_START.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] INPUT_END_BYTES = INPUT_END.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] RELAY_STATE_START_BYTES = RELAY_STATE_START.getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PAGE_END_BYTES = PAGE_END.getBytes(StandardCharsets.UTF_8);
+
   /** {@inheritDoc} */
   @Override
   public void sendResponse(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
       final String destination, final String samlResponse, final String relayState) throws IOException {
     final String responsePage = generateResponsePage(destination, samlResponse, relayState);
 
-    httpServletResponse.setContentType(TEXT_HTML_UTF8.toString());
+    setHeaders(httpServletResponse);
     httpServletResponse.setContentLength(responsePage.getBytes(StandardCharsets.UTF_8).length);
-    httpServletResponse.setHeader("Cache-control", "no-cache, no-store");
-    httpServletResponse.setHeader("Pragma", "no-cache");
     httpServletResponse.getWriter().write(responsePage);
   }
 
+  /**
+   * Sends the response page, where the SAML response is streamed directly into the servlet output stream. Since the
+   * size of the encoded response is not known in advance, no {@code Content-Length} header is set.
+   */
+  @Override
+  public void sendResponse(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
+      final String destination, final EncodedResponseWriter responseWriter, final String relayState)
+      throws IOException {
+
+    setHeaders(httpServletResponse);
+    final OutputStream out = httpServletResponse.getOutputStream();
+
+    out.write(PAGE_START_BYTES);
+    out.write(destination.getBytes(StandardCharsets.UTF_8));
+    out.write(RESPONSE_START_BYTES);
+    responseWriter.writeTo(StreamUtils.nonClosing(out));
+    out.write(INPUT_END_BYTES);
+    if (StringUtils.hasText(relayState)) {
+      out.write(RELAY_STATE_START_BYTES);
+      out.write(relayState.getBytes(StandardCharsets.UTF_8));
+      out.write(INPUT_END_BYTES);
+    }
+    out.write(PAGE_END_BYTES);
+    out.flush();
+  }
+
   /**
    * Generates an HTML page for posting the SAML response message.
    *
@@ -58,36 +126,27 @@ public class DefaultResponsePage implements ResponsePage {
   public static String generateResponsePage(
       final String destination, final String samlResponse, final String relayState) {
 
-    final StringBuilder builder = new StringBuilder().append(NEWLINE);
-
-    builder.append("<!DOCTYPE html>").append(NEWLINE);
-    builder.append("<html lang=\"en\">").append(NEWLINE);
-    builder.append("<head>").append(NEWLINE);
-    builder.append("  <meta charset=\"utf-8\">").append(NEWLINE);
-    builder.append("  <meta name=\"viewport\" content=\"width=device-width, initial-scale=1, shrink-to-fit=no\">")
-        .append(NEWLINE);
-    builder.append("  <title>SAML Response</title>").append(NEWLINE);
-    builder.append("</head>").append(NEWLINE);
-    builder.append("<body onload=\"document.forms[0].submit()\">").append(NEWLINE);
-    builder.append("  <form action=\"").append(destination).append("\" method=\"POST\">").append(NEWLINE);
-    builder.append("    <input type=\"hidden\" name=\"SAMLResponse\" value=\"").append(samlResponse).append("\" />")
-        .append(NEWLINE);
+    final StringBuilder builder = new StringBuilder(PAGE_START.length() + PAGE_END.length() + samlResponse.length()
+        + 256);
+
+    builder.append(PAGE_START).append(destination).append(RESPONSE_START).append(samlResponse).append(INPUT_END);
     if (StringUtils.hasText(relayState)) {
-      builder.append("    <input type=\"hidden\" name=\"RelayState\" value=\"").append(relayState).append("\" />")
-          .append(NEWLINE);
+      builder.append(RELAY_STATE_START).append(relayState).append(INPUT_END);
     }
-    builder.append("    <noscript>").append(NEWLINE);
-    builder.append(
-            "      <p>Your web browser does not have JavaScript enabled. Click the \"Continue\" button below to proceed.</p>")
-        .append(NEWLINE);
-    builder.append("      <p><input type=\"submit\" value=\"Continue\" /></p>").append(NEWLINE);
-    builder.append("    </noscript>").append(NEWLINE);
-
-    builder.append("  </form>").append(NEWLINE);
-    builder.append("</body>").append(NEWLINE);
-    builder.append("</html>").append(NEWLINE);
+    builder.append(PAGE_END);
 
     return builder.toString();
   }
 
+  /**
+   * Assigns the content type and cache headers.
+   *
+   * @param httpServletResponse the HTTP servlet response
+   */
+  private static void setHeaders(final HttpServletResponse httpServletResponse) {
+    httpServletResponse.setContentType(TEXT_HTML_UTF8.toString());
+    httpServletResponse.setHeader("Cache-control", "no-cache, no-store");
+    httpServletResponse.setHeader("Pragma", "no-cache");
+  }
+
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import se.swedenconnect.opensaml.saml2.metadata.EntityDescriptorUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Default implementation of the {@link SigningPolicyResolver} interface.
+ * <p>
+ * The policy for a Service Provider is resolved as follows:
+ * </p>
+ * <ol>
+ * <li>If a policy has been configured for the SP entityID, this policy is used.</li>
+ * <li>Otherwise, the entity categories declared in the SP metadata are checked, in the order they appear in the
+ * metadata, and the policy for the first category for which a policy has been configured is used.</li>
+ * <li>Otherwise, the default policy is used.</li>
+ * </ol>
+ *
+ * @author Martin Lindström
+ */
+public class DefaultSigningPolicyResolver implements SigningPolicyResolver {
+
+  /** The default policy. */
+  private final SigningPolicy defaultPolicy;
+
+  /** Policies indexed by entity category URI. */
+  private final Map<String, SigningPolicy> entityCategoryPolicies;
+
+  /** Policies indexed by SP entityID. */
+  private Map<String, SigningPolicy> serviceProviderPolicies = Collections.emptyMap();
+
+  /**
+   * Constructor setting up a resolver that always resolves {@link SigningPolicy#RESPONSE_ONLY}.
+   */
+  public DefaultSigningPolicyResolver() {
+    this(SigningPolicy.RESPONSE_ONLY, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param defaultPolicy the policy to use if no specific policy applies for an SP
+   * @param entityCategoryPolicies policies indexed by entity category URI (may be {@code null})
+   */
+  public DefaultSigningPolicyResolver(@Nonnull final SigningPolicy defaultPolicy,
+      @Nullable final Map<String, SigningPolicy> entityCategoryPolicies) {
+    this.defaultPolicy = Objects.requireNonNull(defaultPolicy, "defaultPolicy must not be null");
+    this.entityCategoryPolicies = Optional.ofNullable(entityCategoryPolicies)
+        .map(Map::copyOf)
+        .orElseGet(Collections::emptyMap);
+  }
+
+  /** {@inheritDoc} */
+  @Nonnull
+  @Override
+  public SigningPolicy resolve(@Nullable final EntityDescriptor peerMetadata) {
+    if (peerMetadata == null) {
+      return this.defaultPolicy;
+    }
+    final SigningPolicy policy = this.serviceProviderPolicies.get(peerMetadata.getEntityID());
+    if (policy != null) {
+      return policy;
+    }
+    if (!this.entityCategoryPolicies.isEmpty()) {
+      for (final String category : EntityDescriptorUtils.getEntityCategories(peerMetadata)) {
+        final SigningPolicy categoryPolicy = this.entityCategoryPolicies.get(category);
+        if (categoryPolicy != null) {
+          return categoryPolicy;
+        }
+      }
+    }
+    return this.defaultPolicy;
+  }
+
+  /**
+   * Assigns policies for specific Service Providers. These policies have precedence over the policies configured for
+   * entity categories.
+   *
+   * @param serviceProviderPolicies policies indexed by SP entityID
+   */
+  public void setServiceProviderPolicies(@Nullable final Map<String, SigningPolicy> serviceProviderPolicies) {
+    this.serviceProviderPolicies = Optional.ofNullable(serviceProviderPolicies)
+        .map(Map::copyOf)
+        .orElseGet(Collections::emptyMap);
+  }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.springframework.http.MediaType;
+import org.springframework.util.StreamUtils;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+import org.unbescape.html.HtmlEscape;
+import org.unbescape.html.HtmlEscapeLevel;
+import org.unbescape.html.HtmlEscapeType;
+
+import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A {@link ResponsePage} that uses a Thymeleaf template, but that only runs the template engine once for each variant
+ * of the page.
+ * <p>
+ * The template is processed with unique placeholder values for the {@code action}, {@code SAMLResponse} and
+ * {@code RelayState} variables, and the result is split into pre-encoded byte segments around these placeholders.
+ * Each response is then written as the sequence of segments with the actual values, HTML-escaped in the same way as
+ * Thymeleaf escapes attribute values, written in between. The template variables are the same as for
+ * {@link ThymeleafResponsePage}, so the same template may be used.
+ * </p>
+ * <p>
+ * Since a template may use messages and context-relative links, a page is compiled for each combination of locale,
+ * context path and whether a {@code RelayState} is present. The first request for each such combination is processed
+ * by the template engine, and following requests are served from the compiled page.
+ * </p>
+ * <p>
+ * Note that the template must not use the variables in any other way than as values to be written, for example in
+ * conditional expressions (except for the {@code RelayState != null} check), since the template is only evaluated
+ * using placeholder values.
+ * </p>
+ * <p>
+ * A compiled page is served to all users, so the template output must not contain any other per-request data, such as
+ * a CSRF token (added by Thymeleaf-Spring to a form using {@code th:action}), a CSP nonce, or data from the session.
+ * Since this can not be decided from the template output alone, pages are only cached if the template author has
+ * asserted that the template is free from per-request output, see {@link #setCacheable(boolean)}. Otherwise, the
+ * template is processed for each request. To be cacheable, a template should use a plain {@code action} attribute,
+ * for example {@code th:attr="action=${action}"}.
+ * </p>
+ * <p>
+ * As a safeguard, a compiled page is only cached after the template has been processed for a second request with the
+ * same result. If the results differ, caching is turned off and a warning is logged.
+ * </p>
+ * <p>
+ * The compiled pages are kept in a least recently used cache, see {@link #setMaxCompiledPages(int)}.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class PrecompiledThymeleafResponsePage implements StreamingResponsePage {
+
+  /** The default maximum number of compiled pages to keep. */
+  public static final int DEFAULT_MAX_COMPILED_PAGES = 64;
+
+  private static final MediaType TEXT_HTML_UTF8 = new MediaType("text", "html", StandardCharsets.UTF_8);
+
+  /** The template engine. */
+  private final SpringTemplateEngine templateEngine;
+
+  /** The template id, for example "post.html". */
+  private final String templateId;
+
+  /** The placeholders used when compiling. Indexed by {@link Slot#ordinal()}. */
+  private final String[] placeholders;
+
+  /** The compiled pages, least recently used first. */
+  private final Map<PageKey, CompiledPage> compiledPages = Collections.synchronizedMap(
+      new LinkedHashMap<>(16, 0.75f, true) {
+
+        @Serial
+        private static final long serialVersionUID = Saml2IdentityProviderVersion.SERIAL_VERSION_UID;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<PageKey, CompiledPage> eldest) {
+          return this.size() > PrecompiledThymeleafResponsePage.this.maxCompiledPages;
+        }
+      });
+
+  /** The maximum number of compiled pages to keep. */
+  private volatile int maxCompiledPages = DEFAULT_MAX_COMPILED_PAGES;
+
+  /** Whether the template author has asserted that the template output contains no per-request data. */
+  private volatile boolean cacheable = false;
+
+  /** Set if the template output has been found to contain per-request data, and pages can not be cached. */
+  private volatile boolean perRequestOutput = false;
+
+  /**
+   * Constructor.
+   *
+   * @param templateEngine the template engine
+   * @param templateId the template id, for example "post.html"
+   */
+  public PrecompiledThymeleafResponsePage(final SpringTemplateEngine templateEngine, final String templateId) {
+    this.templateEngine = Objects.requireNonNull(templateEngine, "templateEngine must not be null");
+    this.templateId = templateId;
+
+    final String prefix = "SAMLIDP" + UUID.randomUUID().toString().replace("-", "");
+    this.placeholders = new String[Slot.values().length];
+    for (final Slot slot : Slot.values()) {
+      this.placeholders[slot.ordinal()] = prefix + slot.name().replace("_", "");
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void sendResponse(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
+      final String destination, final String samlResponse, final String relayState) throws IOException {
+    this.sendResponse(httpServletRequest, httpServletResponse, destination,
+        out -> out.write(samlResponse.getBytes(StandardCharsets.UTF_8)), relayState);
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public void sendResponse(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
+      final String destination, final EncodedResponseWriter responseWriter, final String relayState)
+      throws IOException {
+
+    final CompiledPage page = this.getCompiledPage(httpServletRequest, httpServletResponse, relayState != null);
+
+    httpServletResponse.setContentType(TEXT_HTML_UTF8.toString());
+    httpServletResponse.setHeader("Cache-control", "no-cache, no-store");
+    httpServletResponse.setHeader("Pragma", "no-cache");
+
+    final OutputStream out = httpServletResponse.getOutputStream();
+    for (int i = 0; i < page.slots().length; i++) {
+      out.write(page.segments()[i]);
+      switch (page.slots()[i]) {
+        case ACTION -> out.write(escape(destination));
+        case SAML_RESPONSE -> responseWriter.writeTo(StreamUtils.nonClosing(out));
+        case RELAY_STATE -> out.write(escape(relayState));
+      }
+    }
+    out.write(page.segments()[page.slots().length]);
+    out.flush();
+  }
+
+  /**
+   * Assigns the maximum number of compiled pages to keep. When this number has been reached, the least recently used
+   * page is evicted when a page for a new combination of locale and context path is compiled. Since the locale is
+   * taken from the request, the cache may be filled with pages for locales that are not used again. The default is
+   * {@link #DEFAULT_MAX_COMPILED_PAGES}.
+   *
+   * @param maxCompiledPages the maximum number of compiled pages
+   */
+  public void setMaxCompiledPages(final int maxCompiledPages) {
+    if (maxCompiledPages < 0) {
+      throw new IllegalArgumentException("maxCompiledPages must not be negative");
+    }
+    this.maxCompiledPages = maxCompiledPages;
+  }
+
+  /**
+   * Tells whether compiled pages may be cached. By setting this, the template author asserts that the template output,
+   * apart from the {@code action}, {@code SAMLResponse} and {@code RelayState} variables, is the same for all requests
+   * with the same locale and context path, i.e., that it contains no CSRF tokens, nonces or user data. The default is
+   * {@code false}, which means that the template is processed for each request.
+   *
+   * @param cacheable whether compiled pages may be cached
+   */
+  public void setCacheable(final boolean cacheable) {
+    this.cacheable = cacheable;
+    if (!cacheable) {
+      this.compiledPages.clear();
+    }
+  }
+
+  /**
+   * Clears all compiled pages, for example after the template has been updated.
+   */
+  public void clear() {
+    this.compiledPages.clear();
+    this.perRequestOutput = false;
+  }
+
+  /**
+   * Gets the compiled page for the current request, and compiles it if needed.
+   *
+   * @param httpServletRequest the HTTP servlet request
+   * @param httpServletResponse the HTTP servlet response
+   * @param relayState whether the page should include the {@code RelayState}
+   * @return a compiled page
+   */
+  private CompiledPage getCompiledPage(final HttpServletRequest httpServletRequest,
+      final HttpServletResponse httpServletResponse, final boolean relayState) {
+
+    if (!this.cacheable || this.perRequestOutput) {
+      return this.compile(httpServletRequest, httpServletResponse, relayState);
+    }
+    final PageKey key = new PageKey(httpServletRequest.getLocale(), httpServletRequest.getContextPath(), relayState);
+    final CompiledPage page = this.compiledPages.get(key);
+    if (page != null && page.verified()) {
+      return page;
+    }
+    final CompiledPage compiledPage = this.compile(httpServletRequest, httpServletResponse, relayState);
+    if (page == null) {
+      this.compiledPages.putIfAbsent(key, compiledPage);
+    }
+    else if (page.hasSameOutput(compiledPage)) {
+      this.compiledPages.replace(key, page, compiledPage.verify());
+    }
+    else {
+      log.warn("Template '{}' gives different output for different requests, for example due to a CSRF token "
+          + "- the template will be processed for each request", this.templateId);
+      this.perRequestOutput = true;
+      this.compiledPages.clear();
+    }
+    return compiledPage;
+  }
+
+  /**
+   * Processes the template using placeholder values and splits the result into segments.
+   *
+   * @param httpServletRequest the HTTP servlet request
+   * @param httpServletResponse the HTTP servlet response
+   * @param relayState whether the page should include the {@code RelayState}
+   * @return a compiled page
+   */
+  private CompiledPage compile(final HttpServletRequest httpServletRequest,
+      final HttpServletResponse httpServletResponse, final boolean relayState) {
+
+    log.debug("Compiling template '{}' [locale: '{}', relay-state: {}]",
+        this.templateId, httpServletRequest.getLocale(), relayState);
+
+    final JakartaServletWebApplication webApplication = JakartaServletWebApplication.buildApplication(
+        httpServletRequest.getServletContext());
+    final WebContext thymeleafContext =
+        new WebContext(webApplication.buildExchange(httpServletRequest, httpServletResponse));
+
+    thymeleafContext.setVariable("action", this.placeholders[Slot.ACTION.ordinal()]);
+    thymeleafContext.setVariable("SAMLResponse", this.placeholders[Slot.SAML_RESPONSE.ordinal()]);
+    if (relayState) {
+      thymeleafContext.setVariable("RelayState", this.placeholders[Slot.RELAY_STATE.ordinal()]);
+    }
+    final StringWriter writer = new StringWriter();
+    this.templateEngine.process(this.templateId, thymeleafContext, writer);
+    final String html = writer.toString();
+
+    final List<byte[]> segments = new ArrayList<>();
+    final List<Slot> slots = new ArrayList<>();
+    int pos = 0;
+    while (true) {
+      Slot next = null;
+      int nextPos = -1;
+      for (final Slot slot : Slot.values()) {
+        final int i = html.indexOf(this.placeholders[slot.ordinal()], pos);
+        if (i >= 0 && (nextPos < 0 || i < nextPos)) {
+          next = slot;
+          nextPos = i;
+        }
+      }
+      if (next == null) {
+        break;
+      }
+      segments.add(html.substring(pos, nextPos).getBytes(StandardCharsets.UTF_8));
+      slots.add(next);
+      pos = nextPos + this.placeholders[next.ordinal()].length();
+    }
+    segments.add(html.substring(pos).getBytes(StandardCharsets.UTF_8));
+
+    if (!slots.contains(Slot.SAML_RESPONSE)) {
+      log.warn("Template '{}' does not write the SAMLResponse variable", this.templateId);
+    }
+    return new CompiledPage(segments.toArray(byte[][]::new), slots.toArray(Slot[]::new), false);
+  }
+
+  /**
+   * Escapes the supplied value for inclusion in an HTML attribute, in the same way as Thymeleaf does.
+   *
+   * @param value the value to escape
+   * @return the UTF-8 encoding of the escaped value
+   */
+  private static byte[] escape(final String value) {
+    if (value == null) {
+      return new byte[0];
+    }
+    return HtmlEscape.escapeHtml(value, HtmlEscapeType.HTML4_NAMED_REFERENCES_DEFAULT_TO_DECIMAL,
+        HtmlEscapeLevel.LEVEL_1_ONLY_MARKUP_SIGNIFICANT).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The variables that are written into a compiled page.
+   */
+  private enum Slot {
+    ACTION, SAML_RESPONSE, RELAY_STATE
+  }
+
+  /**
+   * The key for a compiled page.
+   *
+   * @param locale the locale of the request
+   * @param contextPath the context path of the request
+   * @param relayState whether the page includes the {@code RelayState}
+   */
+  private record PageKey(Locale locale, String contextPath, boolean relayState) {
+  }
+
+  /**
+   * A compiled page. There is always one more segment than there are slots.
+   *
+   * @param segments the static segments
+   * @param slots the slots that follow each segment
+   * @param verified whether a second processing of the template has given the same page
+   */
+  private record CompiledPage(byte[][] segments, Slot[] slots, boolean verified) {
+
+    /**
+     * Tells whether the supplied page has the same output as this page.
+     *
+     * @param other the other page
+     * @return {@code true} if the pages are equal and {@code false} otherwise
+     */
+    boolean hasSameOutput(final CompiledPage other) {
+      return Arrays.equals(this.slots, other.slots) && Arrays.deepEquals(this.segments, other.segments);
+    }
+
+    /**
+     * Gets a verified copy of this page.
+     *
+     * @return a verified page
+     */
+    CompiledPage verify() {
+      return new CompiledPage(this.segments, this.slots, true);
+    }
+  }
+
+}
@@ -15,6 +15,8 @@
  */
 package se.swedenconnect.spring.saml.idp.response;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.Optional;
@@ -23,8 +25,8 @@ import org.opensaml.saml.saml2.core.Response;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.springframework.util.Assert;
 
-import se.swedenconnect.opensaml.common.utils.SerializableOpenSamlObject;
 import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
+import se.swedenconnect.spring.saml.idp.metadata.PeerMetadataReference;
 
 /**
  * Attributes needed when creating a SAML {@link Response} message.
@@ -46,7 +48,7 @@ public class Saml2ResponseAttributes implements Serializable {
   private String destination;
 
   /** The peer (SP) metadata. */
-  private SerializableOpenSamlObject<EntityDescriptor> peerMetadata;
+  private PeerMetadataReference peerMetadata;
 
   /**
    * Constructor.
@@ -114,7 +116,7 @@ public class Saml2ResponseAttributes implements Serializable {
    * @return the peer SAML metadata
    */
   public EntityDescriptor getPeerMetadata() {
-    return Optional.ofNullable(this.peerMetadata).map(SerializableOpenSamlObject::get).orElse(null);
+    return Optional.ofNullable(this.peerMetadata).map(PeerMetadataReference::get).orElse(null);
   }
 
   /**
@@ -123,7 +125,25 @@ public class Saml2ResponseAttributes implements Serializable {
    * @param peerMetadata the peer SAML metadata
    */
   public void setPeerMetadata(final EntityDescriptor peerMetadata) {
-    this.peerMetadata = new SerializableOpenSamlObject<>(peerMetadata);
+    this.peerMetadata = PeerMetadataReference.of(peerMetadata);
+  }
+
+  /**
+   * Gets the peer SAML metadata reference.
+   *
+   * @return the peer SAML metadata reference, or {@code null} if not assigned
+   */
+  public PeerMetadataReference getPeerMetadataReference() {
+    return this.peerMetadata;
+  }
+
+  /**
+   * Assigns the peer SAML metadata reference.
+   *
+   * @param peerMetadata the peer SAML metadata reference
+   */
+  public void setPeerMetadataReference(final PeerMetadataReference peerMetadata) {
+    this.peerMetadata = peerMetadata;
   }
 
   /**
@@ -142,4 +162,22 @@ public class Saml2ResponseAttributes implements Serializable {
     this.peerMetadata = responseAttributes.peerMetadata;
   }
 
+  /**
+   * Custom deserialization. Objects serialized by earlier versions stored the peer metadata as a
+   * {@code SerializableOpenSamlObject}, and these are migrated using
+   * {@link PeerMetadataReference#fromSerialized(Object)}.
+   *
+   * @param in the object input stream
+   * @throws IOException for read errors
+   * @throws ClassNotFoundException if a class can not be found
+   */
+  @Serial
+  private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+    final ObjectInputStream.GetField fields = in.readFields();
+    this.relayState = (String) fields.get("relayState", null);
+    this.inResponseTo = (String) fields.get("inResponseTo", null);
+    this.destination = (String) fields.get("destination", null);
+    this.peerMetadata = PeerMetadataReference.fromSerialized(fields.get("peerMetadata", null));
+  }
+
 }
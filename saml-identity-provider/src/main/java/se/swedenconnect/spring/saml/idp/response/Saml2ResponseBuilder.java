@@ -27,24 +27,22 @@ import org.opensaml.saml.saml2.core.Response;
 import org.opensaml.saml.saml2.core.Status;
 import org.opensaml.saml.saml2.core.StatusCode;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
-import org.opensaml.xmlsec.SecurityConfigurationSupport;
-import org.opensaml.xmlsec.encryption.EncryptedData;
 import org.opensaml.xmlsec.encryption.support.EncryptionException;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.springframework.context.MessageSource;
 import org.springframework.security.config.Customizer;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
-import se.swedenconnect.opensaml.xmlsec.encryption.support.SAMLObjectEncrypter;
-import se.swedenconnect.opensaml.xmlsec.signature.support.SAMLObjectSigner;
 import se.swedenconnect.security.credential.PkiCredential;
-import se.swedenconnect.security.credential.opensaml.OpenSamlCredential;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
 import se.swedenconnect.spring.saml.idp.events.Saml2IdpEventPublisher;
+import se.swedenconnect.spring.saml.idp.metadata.PeerMetadataReference;
 import se.swedenconnect.spring.saml.idp.utils.DefaultSaml2MessageIDGenerator;
 import se.swedenconnect.spring.saml.idp.utils.Saml2MessageIDGenerator;
+import se.swedenconnect.spring.saml.idp.utils.Saml2ObjectEncrypter;
+import se.swedenconnect.spring.saml.idp.utils.Saml2ObjectSigner;
 
 import java.time.Instant;
 import java.util.Locale;
@@ -65,18 +63,21 @@ public class Saml2ResponseBuilder {
   /** The issuer entityID for the {@link Response} objects being created. */
   private final String responseIssuer;
 
-  /** The IdP signing credential. */
-  private final OpenSamlCredential signingCredential;
+  /** The signer for {@link Response} objects. */
+  private Saml2ObjectSigner objectSigner;
 
   /** Whether assertions should be encrypted. */
   private boolean encryptAssertions = false;
 
-  /** Encrypter for assertions. */
-  private SAMLObjectEncrypter samlObjectEncrypter;
+  /** Encrypter for assertions - created when needed, and then shared. */
+  private volatile Saml2ObjectEncrypter objectEncrypter;
 
   /** For customizing the {@link Response}. */
   private Customizer<Response> responseCustomizer = Customizer.withDefaults();
 
+  /** Resolves the signing policy for an SP - defaults to {@link DefaultSigningPolicyResolver}. */
+  private SigningPolicyResolver signingPolicyResolver = new DefaultSigningPolicyResolver();
+
   /** The ID generator - defaults to {@link DefaultSaml2MessageIDGenerator}. */
   private Saml2MessageIDGenerator idGenerator = new DefaultSaml2MessageIDGenerator();
 
@@ -95,7 +96,7 @@ public class Saml2ResponseBuilder {
     this.responseIssuer = Optional.ofNullable(idpEntityId).filter(StringUtils::hasText)
         .orElseThrow(() -> new IllegalArgumentException("idpEntityId must be set"));
     Assert.notNull(signingCredential, "signingCredential must not be null");
-    this.signingCredential = new OpenSamlCredential(signingCredential);
+    this.objectSigner = new Saml2ObjectSigner(signingCredential);
     this.eventPublisher = Objects.requireNonNull(eventPublisher, "eventPublisher must not be null");
   }
 
@@ -121,7 +122,7 @@ public class Saml2ResponseBuilder {
 
     final Response response = this.createResponse(responseAttributes, errorStatus);
     this.responseCustomizer.customize(response);
-    this.signResponse(response, responseAttributes.getPeerMetadata());
+    this.signResponse(response, responseAttributes.getPeerMetadata(), getMetadataVersion(responseAttributes));
 
     this.eventPublisher.publishSamlErrorResponse(response, responseAttributes.getPeerMetadata().getEntityID());
 
@@ -151,6 +152,10 @@ public class Saml2ResponseBuilder {
    * Given an {@link Assertion}, the method builds a {@link Response} object including the supplied {@link Assertion}.
    * If the Identity Provider is configured to encrypt assertions, the method encrypts the supplied {@link Assertion}
    * for the recipient given by {@link Saml2ResponseAttributes#getPeerMetadata()}.
+   * <p>
+   * The response is signed unless the {@link SigningPolicy} for the recipient is {@link SigningPolicy#ASSERTION_ONLY},
+   * and the supplied assertion is signed and encrypted.
+   * </p>
    *
    * @param responseAttributes the response attributes needed for building the {@link Response} object
    * @param assertion the SAML {@link Assertion}
@@ -169,15 +174,23 @@ public class Saml2ResponseBuilder {
 
     final Response response = this.createResponse(responseAttributes, status);
     if (this.isEncryptAssertions()) {
-      final EncryptedAssertion encryptedAssertion =
-          this.encryptAssertion(assertion, responseAttributes.getPeerMetadata());
+      final EncryptedAssertion encryptedAssertion = this.encryptAssertion(
+          assertion, responseAttributes.getPeerMetadata(), getMetadataVersion(responseAttributes));
       response.getEncryptedAssertions().add(encryptedAssertion);
     }
     else {
       response.getAssertions().add(assertion);
     }
     this.responseCustomizer.customize(response);
-    this.signResponse(response, responseAttributes.getPeerMetadata());
+
+    final SigningPolicy signingPolicy = this.signingPolicyResolver.resolve(responseAttributes.getPeerMetadata());
+    if (signingPolicy == SigningPolicy.ASSERTION_ONLY && this.isEncryptAssertions() && assertion.isSigned()) {
+      log.debug("Assertion is signed and encrypted - will not sign Response [destination: '{}', id: '{}']",
+          response.getDestination(), response.getID());
+    }
+    else {
+      this.signResponse(response, responseAttributes.getPeerMetadata(), getMetadataVersion(responseAttributes));
+    }
 
     this.eventPublisher.publishSamlSuccessResponse(
         response, assertion, responseAttributes.getPeerMetadata().getEntityID());
@@ -226,9 +239,21 @@ public class Saml2ResponseBuilder {
    */
   protected void signResponse(@Nonnull final Response samlResponse, @Nonnull final EntityDescriptor peerMetadata)
       throws UnrecoverableSaml2IdpException {
+    this.signResponse(samlResponse, peerMetadata, null);
+  }
+
+  /**
+   * Signs the {@link Response} message.
+   *
+   * @param samlResponse the object to sign
+   * @param peerMetadata the peer metadata (may be used to select signing algorithm)
+   * @param metadataVersion the version of the peer metadata (may be {@code null})
+   * @throws UnrecoverableSaml2IdpException for signing errors
+   */
+  protected void signResponse(@Nonnull final Response samlResponse, @Nonnull final EntityDescriptor peerMetadata,
+      @Nullable final String metadataVersion) throws UnrecoverableSaml2IdpException {
     try {
-      SAMLObjectSigner.sign(samlResponse, this.signingCredential,
-          SecurityConfigurationSupport.getGlobalSignatureSigningConfiguration(), peerMetadata);
+      this.objectSigner.sign(samlResponse, peerMetadata, metadataVersion);
 
       log.debug("Response message successfully signed [destination: '{}', id: '{}', in-response-to: {}]",
           samlResponse.getDestination(), samlResponse.getID(), samlResponse.getInResponseTo());
@@ -256,20 +281,29 @@ public class Saml2ResponseBuilder {
   protected EncryptedAssertion encryptAssertion(
       @Nonnull final Assertion assertion, @Nonnull final EntityDescriptor peerMetadata)
       throws UnrecoverableSaml2IdpException {
+    return this.encryptAssertion(assertion, peerMetadata, null);
+  }
+
+  /**
+   * Encrypts the supplied {@link Assertion}.
+   *
+   * @param assertion the assertion to encrypt
+   * @param peerMetadata the metadata for the peer to whom we encrypt for
+   * @param metadataVersion the version of the peer metadata (may be {@code null})
+   * @return an {@link EncryptedAssertion}
+   * @throws UnrecoverableSaml2IdpException for unrecoverable errors
+   */
+  @Nonnull
+  protected EncryptedAssertion encryptAssertion(@Nonnull final Assertion assertion,
+      @Nonnull final EntityDescriptor peerMetadata, @Nullable final String metadataVersion)
+      throws UnrecoverableSaml2IdpException {
 
     if (peerMetadata == null) {
       throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL, "No response data available", null);
     }
 
     try {
-      final EncryptedAssertion encryptedAssertion =
-          (EncryptedAssertion) XMLObjectSupport.buildXMLObject(EncryptedAssertion.DEFAULT_ELEMENT_NAME);
-
-      final EncryptedData encryptedData =
-          this.getSamlEncrypter().encrypt(assertion, new SAMLObjectEncrypter.Peer(peerMetadata));
-      encryptedAssertion.setEncryptedData(encryptedData);
-
-      return encryptedAssertion;
+      return this.getObjectEncrypter().encrypt(assertion, peerMetadata, metadataVersion);
     }
     catch (final EncryptionException e) {
       throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL, "Failed to encrypt assertion", e,
@@ -294,17 +328,48 @@ public class Saml2ResponseBuilder {
   public void setEncryptAssertions(final boolean encryptAssertions) {
     this.encryptAssertions = encryptAssertions;
     if (this.encryptAssertions) {
-      try {
-        this.samlObjectEncrypter = new SAMLObjectEncrypter();
-      }
-      catch (final ComponentInitializationException e) {
-        throw new SecurityException("Failed to initialize encrypter", e);
-      }
+      this.getObjectEncrypter();
     }
   }
 
   /**
-   * Assigns a custom ID generator. The default is {@link DefaultSaml2MessageIDGenerator}.
+   * Assigns the signer to use for signing {@link Response} objects. By default, a {@link Saml2ObjectSigner} for the
+   * signing credential given to the constructor is used.
+   *
+   * @param objectSigner the signer
+   */
+  public void setObjectSigner(@Nonnull final Saml2ObjectSigner objectSigner) {
+    this.objectSigner = Objects.requireNonNull(objectSigner, "objectSigner must not be null");
+  }
+
+  /**
+   * Assigns the resolver for the {@link SigningPolicy} to apply for an SP. The default is a
+   * {@link DefaultSigningPolicyResolver} that always resolves {@link SigningPolicy#RESPONSE_ONLY}, meaning that all
+   * responses are signed. Error responses are always signed, regardless of the policy.
+   *
+   * @param signingPolicyResolver the signing policy resolver
+   */
+  public void setSigningPolicyResolver(@Nonnull final SigningPolicyResolver signingPolicyResolver) {
+    this.signingPolicyResolver =
+        Objects.requireNonNull(signingPolicyResolver, "signingPolicyResolver must not be null");
+  }
+
+  /**
+   * Assigns the encrypter to use for encrypting assertions. By default, a {@link Saml2ObjectEncrypter} is created when
+   * it is first needed.
+   *
+   * @param objectEncrypter the encrypter
+   */
+  public void setObjectEncrypter(@Nonnull final Saml2ObjectEncrypter objectEncrypter) {
+    this.objectEncrypter = Objects.requireNonNull(objectEncrypter, "objectEncrypter must not be null");
+  }
+
+  /**
+   * Assigns a custom ID generator. The default is {@link DefaultSaml2MessageIDGenerator}. For IdP:s serving many
+   * concurrent requests, a {@link se.swedenconnect.spring.saml.idp.utils.StripedSaml2MessageIDGenerator} may be
+   * assigned to avoid contention on a single random generator. When the builder is created by the configurers, this
+   * is controlled by the
+   * {@link se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings#STRIPED_MESSAGE_ID_GENERATOR} setting.
    *
    * @param idGenerator the ID generator
    */
@@ -332,20 +397,39 @@ public class Saml2ResponseBuilder {
   }
 
   /**
-   * Gets the encrypter.
+   * Gets the encrypter. The encrypter is created the first time it is needed, and is then shared by all threads.
    *
    * @return the encrypter
    */
-  private SAMLObjectEncrypter getSamlEncrypter() {
-    if (this.samlObjectEncrypter != null) {
-      return this.samlObjectEncrypter;
-    }
-    try {
-      return new SAMLObjectEncrypter();
-    }
-    catch (final ComponentInitializationException e) {
-      throw new SecurityException("Failed to initialize encrypter", e);
+  private Saml2ObjectEncrypter getObjectEncrypter() {
+    Saml2ObjectEncrypter encrypter = this.objectEncrypter;
+    if (encrypter == null) {
+      synchronized (this) {
+        encrypter = this.objectEncrypter;
+        if (encrypter == null) {
+          try {
+            encrypter = new Saml2ObjectEncrypter();
+          }
+          catch (final ComponentInitializationException e) {
+            throw new SecurityException("Failed to initialize encrypter", e);
+          }
+          this.objectEncrypter = encrypter;
+        }
+      }
     }
+    return encrypter;
+  }
+
+  /**
+   * Gets the peer metadata version from the supplied response attributes.
+   *
+   * @param responseAttributes the response attributes
+   * @return the metadata version, or {@code null} if not known
+   */
+  private static String getMetadataVersion(final Saml2ResponseAttributes responseAttributes) {
+    return Optional.ofNullable(responseAttributes.getPeerMetadataReference())
+        .map(PeerMetadataReference::getVersion)
+        .orElse(null);
   }
 
 }
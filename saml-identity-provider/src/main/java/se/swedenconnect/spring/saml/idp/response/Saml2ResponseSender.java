@@ -18,17 +18,20 @@ package se.swedenconnect.spring.saml.idp.response;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
-import net.shibboleth.shared.codec.Base64Support;
-import net.shibboleth.shared.codec.EncodingException;
 import net.shibboleth.shared.xml.SerializeSupport;
 import org.opensaml.core.xml.io.MarshallingException;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.saml2.core.Response;
+import org.springframework.util.StreamUtils;
+import org.w3c.dom.Element;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Objects;
 
 /**
@@ -57,12 +60,21 @@ public class Saml2ResponseSender {
       final String destinationUrl, final Response response, final String relayState)
       throws UnrecoverableSaml2IdpException {
 
-    final String encodedResponse = this.encodeResponse(response);
-    // final String encodedRelayState = HTMLEncoder.encodeForHTMLAttribute(relayState);
-
     try {
-      this.responsePage.sendResponse(httpServletRequest, httpServletResponse,
-          destinationUrl, encodedResponse, relayState);
+      if (this.responsePage instanceof final StreamingResponsePage streamingResponsePage) {
+        // Marshall before anything is written, so that marshalling errors may still be reported to the user ...
+        //
+        final Element responseElement = this.marshallResponse(response);
+        streamingResponsePage.sendResponse(httpServletRequest, httpServletResponse,
+            destinationUrl, out -> writeEncoded(responseElement, out), relayState);
+      }
+      else {
+        final String encodedResponse = this.encodeResponse(response);
+        // final String encodedRelayState = HTMLEncoder.encodeForHTMLAttribute(relayState);
+
+        this.responsePage.sendResponse(httpServletRequest, httpServletResponse,
+            destinationUrl, encodedResponse, relayState);
+      }
     }
     catch (final IOException e) {
       log.error("Failed to send SAML Response to {} - {}", destinationUrl, e.getMessage(), e);
@@ -83,17 +95,43 @@ public class Saml2ResponseSender {
 
   /**
    * Encodes the supplied {@link Response} message for being included in na HTML form.
+   * <p>
+   * Note that this method is not invoked if the installed {@link ResponsePage} is a {@link StreamingResponsePage}.
+   * </p>
    *
    * @param samlResponse the response message
    * @return the Base64-encoding of the message
    * @throws UnrecoverableSaml2IdpException for encoding errors
    */
   protected String encodeResponse(final Response samlResponse) throws UnrecoverableSaml2IdpException {
+    final Element responseElement = this.marshallResponse(samlResponse);
+    try {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+      writeEncoded(responseElement, bos);
+      return bos.toString(StandardCharsets.US_ASCII);
+    }
+    catch (final IOException e) {
+      log.error("Failed to encode Response message - {} [destination: '{}', id: '{}', in-response-to: {}]",
+          e.getMessage(), samlResponse.getDestination(), samlResponse.getID(), samlResponse.getInResponseTo(), e);
+
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INTERNAL, "Failed to encode Response message",
+          e,
+          new UnrecoverableSaml2IdpException.TraceAuthentication(samlResponse.getInResponseTo(), null));
+    }
+  }
+
+  /**
+   * Marshalls the supplied {@link Response} message.
+   *
+   * @param samlResponse the response message
+   * @return the DOM element for the message
+   * @throws UnrecoverableSaml2IdpException for marshalling errors
+   */
+  protected Element marshallResponse(final Response samlResponse) throws UnrecoverableSaml2IdpException {
     try {
-      final String xml = SerializeSupport.nodeToString(XMLObjectSupport.marshall(samlResponse));
-      return Base64Support.encode(xml.getBytes(StandardCharsets.UTF_8), Base64Support.UNCHUNKED);
+      return XMLObjectSupport.marshall(samlResponse);
     }
-    catch (final MarshallingException | EncodingException e) {
+    catch (final MarshallingException e) {
       log.error("Failed to encode Response message - {} [destination: '{}', id: '{}', in-response-to: {}]",
           e.getMessage(), samlResponse.getDestination(), samlResponse.getID(), samlResponse.getInResponseTo(), e);
 
@@ -103,4 +141,19 @@ public class Saml2ResponseSender {
     }
   }
 
+  /**
+   * Serializes the supplied element and writes its Base64-encoding to the given stream. The stream is not closed.
+   *
+   * @param element the element to write
+   * @param outputStream the stream to write to
+   * @throws IOException for write errors
+   */
+  private static void writeEncoded(final Element element, final OutputStream outputStream) throws IOException {
+    // Closing the encoder stream writes the final padding, but leaves the underlying stream open ...
+    //
+    try (final OutputStream encoder = Base64.getEncoder().wrap(StreamUtils.nonClosing(outputStream))) {
+      SerializeSupport.writeNode(element, encoder);
+    }
+  }
+
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+/**
+ * Tells which parts of a successful SAML response that the Identity Provider signs.
+ * <p>
+ * Error responses are always signed, regardless of the signing policy.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public enum SigningPolicy {
+
+  /**
+   * Both the response and the assertion are always signed.
+   */
+  BOTH,
+
+  /**
+   * Only the response is signed, unless the Service Provider has set {@code WantAssertionsSigned} in its metadata. The
+   * requirements of the Service Provider are always honoured, so in that case the assertion is signed as well. This is
+   * the default.
+   */
+  RESPONSE_ONLY,
+
+  /**
+   * The assertion is always signed, and if the assertion is encrypted, the response is not signed. If the assertion is
+   * not encrypted, the response is signed as well.
+   */
+  ASSERTION_ONLY
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+
+/**
+ * Resolves the {@link SigningPolicy} to use for a Service Provider.
+ *
+ * @author Martin Lindström
+ */
+@FunctionalInterface
+public interface SigningPolicyResolver {
+
+  /**
+   * Resolves the {@link SigningPolicy} for the Service Provider given by the supplied metadata.
+   *
+   * @param peerMetadata the SP metadata (may be {@code null})
+   * @return the signing policy
+   */
+  @Nonnull
+  SigningPolicy resolve(@Nullable final EntityDescriptor peerMetadata);
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A {@link ResponsePage} that is capable of writing the encoded SAML response directly to the servlet output stream.
+ * <p>
+ * Instead of being handed the Base64-encoded SAML response as a string, the page is given an
+ * {@link EncodedResponseWriter} that writes the Base64-encoding of the marshalled response to a supplied stream. This
+ * saves the intermediate string copies of the response, which may be large for assertions with many attributes.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public interface StreamingResponsePage extends ResponsePage {
+
+  /**
+   * Sends a SAML Response message to the given destination by streaming the encoded response.
+   * <p>
+   * Note that the response is committed once the page starts writing, so any error reported by the
+   * {@code responseWriter} can not be turned into an error page.
+   * </p>
+   *
+   * @param httpServletRequest the HTTP servlet request (in case the implementation wants to redirect the user)
+   * @param httpServletResponse the HTTP servlet response
+   * @param destination the destination URL
+   * @param responseWriter writes the Base64-encoded SAML response message
+   * @param relayState the relay state (may be null)
+   * @throws IOException for errors writing to the servlet response
+   */
+  void sendResponse(final HttpServletRequest httpServletRequest, final HttpServletResponse httpServletResponse,
+      final String destination, final EncodedResponseWriter responseWriter, final String relayState)
+      throws IOException;
+
+  /**
+   * Writes the Base64-encoding of a SAML response message.
+   */
+  @FunctionalInterface
+  interface EncodedResponseWriter {
+
+    /**
+     * Writes the Base64-encoded SAML response message to the supplied stream. The stream is not closed.
+     *
+     * @param outputStream the stream to write to
+     * @throws IOException for write errors
+     */
+    void writeTo(final OutputStream outputStream) throws IOException;
+
+  }
+
+}
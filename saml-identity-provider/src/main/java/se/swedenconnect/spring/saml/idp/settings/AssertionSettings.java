@@ -17,6 +17,7 @@ package se.swedenconnect.spring.saml.idp.settings;
 
 import org.springframework.util.Assert;
 import se.swedenconnect.spring.saml.idp.Saml2IdentityProviderVersion;
+import se.swedenconnect.spring.saml.idp.response.SigningPolicy;
 
 import java.io.Serial;
 import java.time.Duration;
@@ -47,6 +48,11 @@ public class AssertionSettings extends AbstractSettings {
    */
   public static final Boolean ENCRYPT_ASSERTIONS_DEFAULT = Boolean.TRUE;
 
+  /**
+   * Default value for the {@link #SIGNING_POLICY} setting.
+   */
+  public static final SigningPolicy SIGNING_POLICY_DEFAULT = SigningPolicy.RESPONSE_ONLY;
+
   /**
    * Constructor.
    *
@@ -101,6 +107,50 @@ public class AssertionSettings extends AbstractSettings {
     return this.getSetting(NOT_BEFORE_DURATION);
   }
 
+  /**
+   * The default {@link SigningPolicy}, i.e., the policy for Service Providers that have no specific policy assigned.
+   */
+  public static final String SIGNING_POLICY = "signing-policy";
+
+  /**
+   * Gets the default {@link SigningPolicy}.
+   *
+   * @return the signing policy
+   */
+  public SigningPolicy getSigningPolicy() {
+    return this.getSetting(SIGNING_POLICY);
+  }
+
+  /**
+   * Signing policies for Service Providers declaring a given entity category in their metadata. A {@link Map} where
+   * the keys are entity category URIs and the values are {@link SigningPolicy} values.
+   */
+  public static final String ENTITY_CATEGORY_SIGNING_POLICIES = "entity-category-signing-policies";
+
+  /**
+   * Gets the signing policies for entity categories.
+   *
+   * @return a map of signing policies indexed by entity category URI, or {@code null}
+   */
+  public Map<String, SigningPolicy> getEntityCategorySigningPolicies() {
+    return this.getSetting(ENTITY_CATEGORY_SIGNING_POLICIES);
+  }
+
+  /**
+   * Signing policies for specific Service Providers. A {@link Map} where the keys are SP entityID:s and the values are
+   * {@link SigningPolicy} values.
+   */
+  public static final String SP_SIGNING_POLICIES = "sp-signing-policies";
+
+  /**
+   * Gets the signing policies for specific Service Providers.
+   *
+   * @return a map of signing policies indexed by SP entityID, or {@code null}
+   */
+  public Map<String, SigningPolicy> getSpSigningPolicies() {
+    return this.getSetting(SP_SIGNING_POLICIES);
+  }
+
   /**
    * Constructs a new {@link Builder} with no settings.
    *
@@ -161,6 +211,36 @@ public class AssertionSettings extends AbstractSettings {
       return this.setting(ENCRYPT_ASSERTIONS, encryptAssertions);
     }
 
+    /**
+     * Assigns the default {@link SigningPolicy}.
+     *
+     * @param signingPolicy the signing policy
+     * @return the builder
+     */
+    public Builder signingPolicy(final SigningPolicy signingPolicy) {
+      return this.setting(SIGNING_POLICY, signingPolicy);
+    }
+
+    /**
+     * Assigns signing policies for Service Providers declaring a given entity category in their metadata.
+     *
+     * @param entityCategorySigningPolicies a map of signing policies indexed by entity category URI
+     * @return the builder
+     */
+    public Builder entityCategorySigningPolicies(final Map<String, SigningPolicy> entityCategorySigningPolicies) {
+      return this.setting(ENTITY_CATEGORY_SIGNING_POLICIES, entityCategorySigningPolicies);
+    }
+
+    /**
+     * Assigns signing policies for specific Service Providers.
+     *
+     * @param spSigningPolicies a map of signing policies indexed by SP entityID
+     * @return the builder
+     */
+    public Builder spSigningPolicies(final Map<String, SigningPolicy> spSigningPolicies) {
+      return this.setting(SP_SIGNING_POLICIES, spSigningPolicies);
+    }
+
     /** {@inheritDoc} */
     @Override
     protected void applyDefaultSettings() {
@@ -173,6 +253,9 @@ public class AssertionSettings extends AbstractSettings {
       if (this.getSettings().get(ENCRYPT_ASSERTIONS) == null) {
         this.encryptAssertions(ENCRYPT_ASSERTIONS_DEFAULT);
       }
+      if (this.getSettings().get(SIGNING_POLICY) == null) {
+        this.signingPolicy(SIGNING_POLICY_DEFAULT);
+      }
     }
 
     /** {@inheritDoc} */
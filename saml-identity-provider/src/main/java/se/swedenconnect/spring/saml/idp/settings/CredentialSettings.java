@@ -128,6 +128,22 @@ public class CredentialSettings extends AbstractSettings {
     return this.getSetting(METADATA_SIGN_CREDENTIAL);
   }
 
+  /**
+   * The maximum number of concurrent signature operations using the signing credential. Only applies to credentials
+   * residing on a hardware device (PKCS#11), and should be set to the number of sessions the device allows. An
+   * {@link Integer}.
+   */
+  public static final String MAX_SIGNING_SESSIONS = "max-signing-sessions";
+
+  /**
+   * Gets the maximum number of concurrent signature operations for a hardware signing credential.
+   *
+   * @return the maximum number of concurrent signature operations, or {@code null} if there is no limit
+   */
+  public Integer getMaxSigningSessions() {
+    return this.getSetting(MAX_SIGNING_SESSIONS);
+  }
+
   /**
    * Constructs a new {@link Builder} with no settings.
    *
@@ -215,6 +231,16 @@ public class CredentialSettings extends AbstractSettings {
       return this.setting(METADATA_SIGN_CREDENTIAL, metadataSignCredential);
     }
 
+    /**
+     * Assigns the maximum number of concurrent signature operations for a hardware signing credential.
+     *
+     * @param maxSigningSessions the maximum number of concurrent signature operations
+     * @return the builder
+     */
+    public Builder maxSigningSessions(final Integer maxSigningSessions) {
+      return this.setting(MAX_SIGNING_SESSIONS, maxSigningSessions);
+    }
+
     /**
      * Builds the {@link CredentialSettings}.
      *
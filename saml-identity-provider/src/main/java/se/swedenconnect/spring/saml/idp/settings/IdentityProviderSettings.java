@@ -185,6 +185,93 @@ public class IdentityProviderSettings extends AbstractSettings {
     return this.getSetting(SUPPORTS_USER_MESSAGE);
   }
 
+  /**
+   * Whether received authentication requests should be decoded using the fast path, where the {@code SAMLRequest}
+   * parameter is decoded and inflated into a reusable buffer instead of using an OpenSAML message decoder. A
+   * {@link Boolean}.
+   */
+  public static final String FAST_REQUEST_DECODING = SETTINGS_PREFIX.concat("fast-request-decoding");
+
+  /**
+   * Tells whether received authentication requests should be decoded using the fast path.
+   *
+   * @return a {@link Boolean}
+   */
+  public Boolean getFastRequestDecoding() {
+    return this.getSetting(FAST_REQUEST_DECODING);
+  }
+
+  /**
+   * The default value for the {@link #MAX_INFLATED_REQUEST_SIZE} setting (1 MiB).
+   */
+  public static final Integer MAX_INFLATED_REQUEST_SIZE_DEFAULT = 1024 * 1024;
+
+  /**
+   * The maximum size (in bytes) of an inflated HTTP-Redirect authentication request when the fast path is used for
+   * decoding (see {@link #FAST_REQUEST_DECODING}). An {@link Integer}.
+   */
+  public static final String MAX_INFLATED_REQUEST_SIZE = SETTINGS_PREFIX.concat("max-inflated-request-size");
+
+  /**
+   * Gets the maximum size (in bytes) of an inflated HTTP-Redirect authentication request when the fast path is used
+   * for decoding.
+   *
+   * @return an {@link Integer}
+   */
+  public Integer getMaxInflatedRequestSize() {
+    return this.getSetting(MAX_INFLATED_REQUEST_SIZE);
+  }
+
+  /**
+   * Whether the peer (SP) metadata should be stored as a compact reference, i.e., only the entityID and metadata
+   * version, in objects that are saved in the HTTP session. After deserialization, the metadata is re-resolved from the
+   * metadata provider. A {@link Boolean}.
+   */
+  public static final String COMPACT_PEER_METADATA = SETTINGS_PREFIX.concat("compact-peer-metadata");
+
+  /**
+   * Tells whether the peer (SP) metadata should be stored as a compact reference in objects that are saved in the HTTP
+   * session.
+   *
+   * @return a {@link Boolean}
+   */
+  public Boolean getCompactPeerMetadata() {
+    return this.getSetting(COMPACT_PEER_METADATA);
+  }
+
+  /**
+   * Whether the IDs of responses and assertions should be generated by a
+   * {@link se.swedenconnect.spring.saml.idp.utils.StripedSaml2MessageIDGenerator}, which spreads the generation over a
+   * number of random generators, instead of a single one. A {@link Boolean}.
+   */
+  public static final String STRIPED_MESSAGE_ID_GENERATOR = SETTINGS_PREFIX.concat("striped-message-id-generator");
+
+  /**
+   * Tells whether the IDs of responses and assertions should be generated by a striped generator.
+   *
+   * @return a {@link Boolean}
+   */
+  public Boolean getStripedMessageIdGenerator() {
+    return this.getSetting(STRIPED_MESSAGE_ID_GENERATOR);
+  }
+
+  /**
+   * Whether the SP entityID should be a low cardinality key value of the {@code AuthnRequest} validation
+   * observations, giving one timer per SP. Should only be used for a bounded set of SP:s, for example the SP:s of a
+   * federation. A {@link Boolean}.
+   */
+  public static final String LOW_CARDINALITY_SP_TAG = SETTINGS_PREFIX.concat("low-cardinality-sp-tag");
+
+  /**
+   * Tells whether the SP entityID should be a low cardinality key value of the {@code AuthnRequest} validation
+   * observations.
+   *
+   * @return a {@link Boolean}
+   */
+  public Boolean getLowCardinalitySpTag() {
+    return this.getSetting(LOW_CARDINALITY_SP_TAG);
+  }
+
   /**
    * The {@link AuthnContextResolver} to use.
    */
@@ -409,6 +496,62 @@ public class IdentityProviderSettings extends AbstractSettings {
       return this.setting(SUPPORTS_USER_MESSAGE, supportsUserMessage);
     }
 
+    /**
+     * Assigns whether received authentication requests should be decoded using the fast path, where the
+     * {@code SAMLRequest} parameter is decoded and inflated into a reusable buffer instead of using an OpenSAML message
+     * decoder.
+     *
+     * @param fastRequestDecoding whether fast request decoding should be used
+     * @return the builder
+     */
+    public Builder fastRequestDecoding(final Boolean fastRequestDecoding) {
+      return this.setting(FAST_REQUEST_DECODING, fastRequestDecoding);
+    }
+
+    /**
+     * Assigns the maximum size (in bytes) of an inflated HTTP-Redirect authentication request when the fast path is
+     * used for decoding.
+     *
+     * @param maxInflatedRequestSize the maximum size in bytes
+     * @return the builder
+     */
+    public Builder maxInflatedRequestSize(final Integer maxInflatedRequestSize) {
+      return this.setting(MAX_INFLATED_REQUEST_SIZE, maxInflatedRequestSize);
+    }
+
+    /**
+     * Assigns whether the peer (SP) metadata should be stored as a compact reference, i.e., only the entityID and
+     * metadata version, in objects that are saved in the HTTP session.
+     *
+     * @param compactPeerMetadata whether compact peer metadata references should be used
+     * @return the builder
+     */
+    public Builder compactPeerMetadata(final Boolean compactPeerMetadata) {
+      return this.setting(COMPACT_PEER_METADATA, compactPeerMetadata);
+    }
+
+    /**
+     * Assigns whether the IDs of responses and assertions should be generated by a striped generator, i.e., a
+     * {@link se.swedenconnect.spring.saml.idp.utils.StripedSaml2MessageIDGenerator}.
+     *
+     * @param stripedMessageIdGenerator whether a striped ID generator should be used
+     * @return the builder
+     */
+    public Builder stripedMessageIdGenerator(final Boolean stripedMessageIdGenerator) {
+      return this.setting(STRIPED_MESSAGE_ID_GENERATOR, stripedMessageIdGenerator);
+    }
+
+    /**
+     * Assigns whether the SP entityID should be a low cardinality key value of the {@code AuthnRequest} validation
+     * observations. Should only be used for a bounded set of SP:s.
+     *
+     * @param lowCardinalitySpTag whether the SP entityID should be a low cardinality key value
+     * @return the builder
+     */
+    public Builder lowCardinalitySpTag(final Boolean lowCardinalitySpTag) {
+      return this.setting(LOW_CARDINALITY_SP_TAG, lowCardinalitySpTag);
+    }
+
     /**
      * Assigns the {@link AuthnContextResolver} to use.
      *
@@ -523,6 +666,21 @@ public class IdentityProviderSettings extends AbstractSettings {
       if (this.getSettings().get(SUPPORTS_USER_MESSAGE) == null) {
         this.supportsUserMessage(Boolean.FALSE);
       }
+      if (this.getSettings().get(FAST_REQUEST_DECODING) == null) {
+        this.fastRequestDecoding(Boolean.FALSE);
+      }
+      if (this.getSettings().get(MAX_INFLATED_REQUEST_SIZE) == null) {
+        this.maxInflatedRequestSize(MAX_INFLATED_REQUEST_SIZE_DEFAULT);
+      }
+      if (this.getSettings().get(COMPACT_PEER_METADATA) == null) {
+        this.compactPeerMetadata(Boolean.FALSE);
+      }
+      if (this.getSettings().get(STRIPED_MESSAGE_ID_GENERATOR) == null) {
+        this.stripedMessageIdGenerator(Boolean.FALSE);
+      }
+      if (this.getSettings().get(LOW_CARDINALITY_SP_TAG) == null) {
+        this.lowCardinalitySpTag(Boolean.FALSE);
+      }
       if (!this.getSettings().containsKey(IDP_CREDENTIALS)) {
         this.credentials(CredentialSettings.builder().build());
       }
@@ -95,6 +95,23 @@ public class MetadataSettings extends AbstractSettings {
     return this.getSetting(SAML_METADATA_VALIDITY);
   }
 
+  /**
+   * If set, the published IdP metadata is updated (and re-signed) in the background, and this setting tells how often
+   * it should be checked whether an update is required. If not set, the metadata is updated when a request finds that
+   * an update is required. A {@link Duration}.
+   */
+  public static final String SAML_METADATA_REFRESH_INTERVAL = "refresh-interval";
+
+  /**
+   * Tells how often it should be checked whether the published metadata needs to be updated (and re-signed). If
+   * {@code null}, no background refresh is performed.
+   *
+   * @return a {@link Duration} or {@code null}
+   */
+  public Duration getRefreshInterval() {
+    return this.getSetting(SAML_METADATA_REFRESH_INTERVAL);
+  }
+
   /**
    * The {@code alg:DigestMethod} elements that should be included in the metadata. A {@link List} of strings.
    */
@@ -292,6 +309,17 @@ public class MetadataSettings extends AbstractSettings {
       return this.setting(SAML_METADATA_VALIDITY, validityPeriod);
     }
 
+    /**
+     * Assigns how often it should be checked whether the published metadata needs to be updated (and re-signed). If
+     * not assigned, no background refresh is performed.
+     *
+     * @param refreshInterval the refresh check interval
+     * @return the builder
+     */
+    public Builder refreshInterval(final Duration refreshInterval) {
+      return this.setting(SAML_METADATA_REFRESH_INTERVAL, refreshInterval);
+    }
+
     /**
      * Assigns the {@code alg:DigestMethod} elements that should be included in the metadata.
      *
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.Criterion;
+import net.shibboleth.shared.resolver.ResolverException;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.criterion.ProtocolCriterion;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialResolver;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.security.criteria.UsageCriterion;
+import org.opensaml.xmlsec.criterion.SignatureValidationParametersCriterion;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshot;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshotCache;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataVersionCache;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A {@link CredentialResolver} that caches the credentials resolved from peer metadata.
+ * <p>
+ * Resolving credentials from metadata means decoding and parsing the certificates of each {@code KeyInfo} element of
+ * the peer's role descriptor. This resolver caches the resolved credentials per entityID, role, protocol and usage, and
+ * the cached credentials are used for as long as the version of the peer metadata, as given by the
+ * {@link MetadataSnapshotCache}, is unchanged. When the metadata for the peer changes, the credentials are resolved
+ * again.
+ * </p>
+ * <p>
+ * Only lookups using entityID, role, protocol, usage and signature validation parameters criteria, for a peer whose
+ * metadata version is known by the {@link MetadataSnapshotCache}, are cached. Other lookups are passed to the
+ * underlying resolver.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class CachingMetadataCredentialResolver implements CredentialResolver {
+
+  /** The criteria that may be present for a lookup to be cached. */
+  private static final Set<Class<? extends Criterion>> CACHEABLE_CRITERIA = Set.of(EntityIdCriterion.class,
+      EntityRoleCriterion.class, ProtocolCriterion.class, UsageCriterion.class,
+      SignatureValidationParametersCriterion.class);
+
+  /** The underlying resolver. */
+  private final CredentialResolver credentialResolver;
+
+  /** Gives the version of the peer metadata. */
+  private final MetadataSnapshotCache metadataSnapshotCache;
+
+  /** The cached credentials. */
+  private final MetadataVersionCache<CacheKey, List<Credential>> cache = new MetadataVersionCache<>();
+
+  /**
+   * Constructor.
+   *
+   * @param credentialResolver the underlying resolver, normally a {@code MetadataCredentialResolver}
+   * @param metadataSnapshotCache the snapshot cache for the metadata resolver used by the underlying resolver
+   */
+  public CachingMetadataCredentialResolver(@Nonnull final CredentialResolver credentialResolver,
+      @Nonnull final MetadataSnapshotCache metadataSnapshotCache) {
+    this.credentialResolver = Objects.requireNonNull(credentialResolver, "credentialResolver must not be null");
+    this.metadataSnapshotCache =
+        Objects.requireNonNull(metadataSnapshotCache, "metadataSnapshotCache must not be null");
+  }
+
+  /** {@inheritDoc} */
+  @Nonnull
+  @Override
+  public Iterable<Credential> resolve(@Nullable final CriteriaSet criteria) throws ResolverException {
+    final CacheKey key = CacheKey.of(criteria);
+    if (key == null) {
+      return this.credentialResolver.resolve(criteria);
+    }
+    final String version = Optional.ofNullable(this.metadataSnapshotCache.resolve(key.entityId()))
+        .map(MetadataSnapshot::getVersion)
+        .orElse(null);
+
+    final List<Credential> cached = this.cache.get(key, version);
+    if (cached != null) {
+      return cached;
+    }
+    final List<Credential> credentials = new ArrayList<>();
+    this.credentialResolver.resolve(criteria).forEach(credentials::add);
+    this.cache.put(key, version, List.copyOf(credentials));
+    log.debug("Resolved {} credential(s) for '{}' [role: {}, usage: {}]",
+        credentials.size(), key.entityId(), key.role(), key.usage());
+    return credentials;
+  }
+
+  /** {@inheritDoc} */
+  @Nullable
+  @Override
+  public Credential resolveSingle(@Nullable final CriteriaSet criteria) throws ResolverException {
+    final Iterator<Credential> credentials = this.resolve(criteria).iterator();
+    return credentials.hasNext() ? credentials.next() : null;
+  }
+
+  /**
+   * Removes all cached credentials.
+   */
+  public void clearCache() {
+    this.cache.clear();
+  }
+
+  /**
+   * Cache key.
+   *
+   * @param entityId the entityID
+   * @param role the role
+   * @param protocol the protocol (may be {@code null})
+   * @param usage the usage (may be {@code null})
+   */
+  private record CacheKey(String entityId, QName role, String protocol, UsageType usage) {
+
+    /**
+     * Creates a cache key for the supplied criteria.
+     *
+     * @param criteria the criteria
+     * @return a cache key, or {@code null} if the lookup should not be cached
+     */
+    static CacheKey of(final CriteriaSet criteria) {
+      if (criteria == null) {
+        return null;
+      }
+      for (final Criterion criterion : criteria) {
+        if (!CACHEABLE_CRITERIA.contains(criterion.getClass())) {
+          return null;
+        }
+      }
+      final EntityIdCriterion entityId = criteria.get(EntityIdCriterion.class);
+      final EntityRoleCriterion role = criteria.get(EntityRoleCriterion.class);
+      if (entityId == null || role == null) {
+        return null;
+      }
+      final ProtocolCriterion protocol = criteria.get(ProtocolCriterion.class);
+      final UsageCriterion usage = criteria.get(UsageCriterion.class);
+      return new CacheKey(entityId.getEntityId(), role.getRole(),
+          protocol != null ? protocol.getProtocol() : null, usage != null ? usage.getUsage() : null);
+    }
+  }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.encryption.Encrypter;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml.security.impl.MetadataCredentialResolver;
+import org.opensaml.saml.security.impl.SAMLMetadataEncryptionParametersResolver;
+import org.opensaml.xmlsec.EncryptionConfiguration;
+import org.opensaml.xmlsec.EncryptionParameters;
+import org.opensaml.xmlsec.SecurityConfigurationSupport;
+import org.opensaml.xmlsec.agreement.KeyAgreementCredential;
+import org.opensaml.xmlsec.config.impl.DefaultSecurityConfigurationBootstrap;
+import org.opensaml.xmlsec.criterion.EncryptionConfigurationCriterion;
+import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
+import org.opensaml.xmlsec.encryption.support.EncryptionException;
+import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataVersionCache;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Encrypts SAML assertions for a peer (SP).
+ * <p>
+ * Resolving the {@link EncryptionParameters} for a peer means locating the encryption credential in the peer metadata,
+ * parsing its certificate, and negotiating the data and key transport algorithms against the {@code EncryptionMethod}
+ * elements of the metadata. The result only depends on the encryption configuration and the peer metadata, so the
+ * encrypter caches the resolved parameters per peer entityID and metadata version. The data encryption key is never
+ * cached; a new key is generated for each encryption.
+ * </p>
+ * <p>
+ * If the metadata version is not known, the parameters are resolved for each encryption. Parameters that hold a data
+ * encryption credential, or a key agreement credential (for example, ECDH using an ephemeral key pair), are also
+ * resolved for each encryption, and never cached.
+ * </p>
+ * <p>
+ * An instance of this class is thread-safe and may be shared.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class Saml2ObjectEncrypter {
+
+  /** The resolver for encryption parameters. */
+  private final SAMLMetadataEncryptionParametersResolver resolver;
+
+  /** The encryption configuration to use - if {@code null}, the global configuration is used. */
+  private EncryptionConfiguration encryptionConfiguration;
+
+  /** The resolved encryption parameters, indexed by peer entityID. */
+  private final MetadataVersionCache<String, EncryptionParameters> cache = new MetadataVersionCache<>();
+
+  /**
+   * Constructor.
+   *
+   * @throws ComponentInitializationException if the metadata credential resolver can not be initialized
+   */
+  public Saml2ObjectEncrypter() throws ComponentInitializationException {
+    final MetadataCredentialResolver credentialResolver = new MetadataCredentialResolver();
+    credentialResolver.setKeyInfoCredentialResolver(
+        DefaultSecurityConfigurationBootstrap.buildBasicInlineKeyInfoCredentialResolver());
+    credentialResolver.initialize();
+    this.resolver = new SAMLMetadataEncryptionParametersResolver(credentialResolver);
+  }
+
+  /**
+   * Encrypts the supplied assertion for the given peer.
+   *
+   * @param assertion the assertion to encrypt
+   * @param peerMetadata the metadata of the peer
+   * @param metadataVersion the version of the peer metadata (may be {@code null})
+   * @return an {@link EncryptedAssertion}
+   * @throws EncryptionException for encryption errors
+   */
+  @Nonnull
+  public EncryptedAssertion encrypt(@Nonnull final Assertion assertion, @Nonnull final EntityDescriptor peerMetadata,
+      @Nullable final String metadataVersion) throws EncryptionException {
+
+    final EncryptionParameters parameters = this.getEncryptionParameters(peerMetadata, metadataVersion);
+
+    final Encrypter encrypter = new Encrypter(new DataEncryptionParameters(parameters),
+        new KeyEncryptionParameters(parameters, peerMetadata.getEntityID()));
+    encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+
+    return encrypter.encrypt(assertion);
+  }
+
+  /**
+   * Assigns the encryption configuration to use. If not assigned, the global encryption configuration, as given by
+   * {@link SecurityConfigurationSupport#getGlobalEncryptionConfiguration()}, is used.
+   *
+   * @param encryptionConfiguration the encryption configuration
+   */
+  public void setEncryptionConfiguration(@Nonnull final EncryptionConfiguration encryptionConfiguration) {
+    this.encryptionConfiguration =
+        Objects.requireNonNull(encryptionConfiguration, "encryptionConfiguration must not be null");
+    this.cache.clear();
+  }
+
+  /**
+   * Removes all cached encryption parameters.
+   */
+  public void clearCache() {
+    this.cache.clear();
+  }
+
+  /**
+   * Gets the encryption parameters for the given peer, resolving them if they are not cached.
+   *
+   * @param peerMetadata the peer metadata
+   * @param metadataVersion the peer metadata version (may be {@code null})
+   * @return the encryption parameters
+   * @throws EncryptionException if no parameters can be resolved
+   */
+  EncryptionParameters getEncryptionParameters(
+      @Nonnull final EntityDescriptor peerMetadata, @Nullable final String metadataVersion)
+      throws EncryptionException {
+
+    final String entityId = peerMetadata.getEntityID();
+    final EncryptionParameters cached = this.cache.get(entityId, metadataVersion);
+    if (cached != null) {
+      return cached;
+    }
+    final EncryptionParameters parameters = this.resolve(peerMetadata);
+    if (parameters.getDataEncryptionCredential() != null
+        || parameters.getKeyTransportEncryptionCredential() instanceof KeyAgreementCredential) {
+      // Parameters holding a data encryption credential, or key agreement parameters that are bound to an ephemeral
+      // key, must never be re-used ...
+      return parameters;
+    }
+    this.cache.put(entityId, metadataVersion, parameters);
+    log.debug("Resolved encryption parameters for '{}' [data-algorithm: '{}', key-transport-algorithm: '{}']",
+        entityId, parameters.getDataEncryptionAlgorithm(), parameters.getKeyTransportEncryptionAlgorithm());
+    return parameters;
+  }
+
+  /**
+   * Resolves the encryption parameters for the given peer.
+   *
+   * @param peerMetadata the peer metadata
+   * @return the encryption parameters
+   * @throws EncryptionException if no parameters can be resolved
+   */
+  private EncryptionParameters resolve(@Nonnull final EntityDescriptor peerMetadata) throws EncryptionException {
+    final SPSSODescriptor ssoDescriptor = Optional.ofNullable(peerMetadata.getSPSSODescriptor(SAMLConstants.SAML20P_NS))
+        .orElseThrow(() -> new EncryptionException(
+            "No SPSSODescriptor found in metadata for '%s'".formatted(peerMetadata.getEntityID())));
+
+    final CriteriaSet criteria = new CriteriaSet(
+        new RoleDescriptorCriterion(ssoDescriptor),
+        new EncryptionConfigurationCriterion(Optional.ofNullable(this.encryptionConfiguration)
+            .orElseGet(SecurityConfigurationSupport::getGlobalEncryptionConfiguration)));
+    try {
+      return Optional.ofNullable(this.resolver.resolveSingle(criteria))
+          .orElseThrow(() -> new EncryptionException(
+              "No encryption credential or algorithms could be resolved for '%s'".formatted(
+                  peerMetadata.getEntityID())));
+    }
+    catch (final ResolverException e) {
+      throw new EncryptionException("Failed to resolve encryption parameters - " + e.getMessage(), e);
+    }
+  }
+
+}
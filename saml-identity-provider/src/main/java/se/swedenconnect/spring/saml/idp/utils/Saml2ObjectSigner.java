@@ -0,0 +1,233 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import net.shibboleth.shared.resolver.ResolverException;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.common.SignableSAMLObject;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.RoleDescriptorCriterion;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.security.impl.SAMLMetadataSignatureSigningParametersResolver;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.SecurityConfigurationSupport;
+import org.opensaml.xmlsec.SignatureSigningConfiguration;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.criterion.SignatureSigningConfigurationCriterion;
+import org.opensaml.xmlsec.impl.BasicSignatureSigningConfiguration;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
+import se.swedenconnect.security.credential.PkiCredential;
+import se.swedenconnect.security.credential.opensaml.OpenSamlCredential;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataVersionCache;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Signs SAML objects using the IdP signing credential.
+ * <p>
+ * Resolving the {@link SignatureSigningParameters} for a signature means negotiating the signature and digest
+ * algorithms against the {@code alg:SigningMethod} and {@code alg:DigestMethod} elements of the peer metadata, and
+ * matching them against the signing credential. The result only depends on the credential, the global signing
+ * configuration and the peer metadata, so the signer caches the resolved parameters per peer entityID and metadata
+ * version. When the peer metadata changes, the parameters are resolved again.
+ * </p>
+ * <p>
+ * If the metadata version is not known, the parameters are resolved for each signature. The parameters used when there
+ * is no peer metadata are always cached.
+ * </p>
+ * <p>
+ * For credentials residing on a hardware device (PKCS#11), the number of concurrent signature operations may be
+ * bounded, see {@link #setMaxHardwareSessions(int)}. The PKCS#11 provider hands out one device session for each
+ * ongoing signature operation, so the bound should be set to the number of sessions the device (slot) allows. Signing
+ * threads then wait for a free session instead of failing when the device runs out of sessions.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@Slf4j
+public class Saml2ObjectSigner {
+
+  /** The signing credential. */
+  private final Credential signingCredential;
+
+  /** Whether the signing credential resides on a hardware device. */
+  private final boolean hardwareCredential;
+
+  /** The signing configuration holding the signing credential. */
+  private final SignatureSigningConfiguration credentialConfiguration;
+
+  /** The signing configuration to use - if {@code null}, the global configuration is used. */
+  private SignatureSigningConfiguration signingConfiguration;
+
+  /** The resolver for signing parameters. */
+  private final SAMLMetadataSignatureSigningParametersResolver resolver =
+      new SAMLMetadataSignatureSigningParametersResolver();
+
+  /** The metadata version used when signing without peer metadata. */
+  private static final String NO_METADATA_VERSION = "";
+
+  /** The resolved signing parameters, indexed by peer entityID. */
+  private final MetadataVersionCache<String, SignatureSigningParameters> cache = new MetadataVersionCache<>();
+
+  /** Bounds the number of concurrent signature operations for hardware credentials ({@code null} if unbounded). */
+  private Semaphore hardwareSessions;
+
+  /**
+   * Constructor.
+   *
+   * @param signingCredential the signing credential
+   */
+  public Saml2ObjectSigner(@Nonnull final PkiCredential signingCredential) {
+    Objects.requireNonNull(signingCredential, "signingCredential must not be null");
+    this.signingCredential = new OpenSamlCredential(signingCredential);
+    this.hardwareCredential = signingCredential.isHardwareCredential();
+
+    final BasicSignatureSigningConfiguration config = new BasicSignatureSigningConfiguration();
+    config.setSigningCredentials(List.of(this.signingCredential));
+    this.credentialConfiguration = config;
+  }
+
+  /**
+   * Signs the supplied object.
+   *
+   * @param object the object to sign
+   * @param peerMetadata the metadata of the peer that will receive the object (used to select algorithms)
+   * @param metadataVersion the version of the peer metadata (may be {@code null})
+   * @param <T> the object type
+   * @throws SignatureException for signing errors
+   */
+  public <T extends SignableSAMLObject> void sign(@Nonnull final T object,
+      @Nullable final EntityDescriptor peerMetadata, @Nullable final String metadataVersion) throws SignatureException {
+
+    final SignatureSigningParameters parameters = this.getSigningParameters(peerMetadata, metadataVersion);
+
+    final Semaphore sessions = this.hardwareSessions;
+    if (sessions != null) {
+      try {
+        sessions.acquire();
+      }
+      catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SignatureException("Interrupted while waiting for signing session", e);
+      }
+    }
+    try {
+      object.setSignature(null);
+      SignatureSupport.signObject(object, parameters);
+    }
+    catch (final SecurityException | MarshallingException e) {
+      throw new SignatureException("Failed to sign object - " + e.getMessage(), e);
+    }
+    finally {
+      if (sessions != null) {
+        sessions.release();
+      }
+    }
+  }
+
+  /**
+   * Assigns the signing configuration to use. If not assigned, the global signing configuration, as given by
+   * {@link SecurityConfigurationSupport#getGlobalSignatureSigningConfiguration()}, is used.
+   *
+   * @param signingConfiguration the signing configuration
+   */
+  public void setSigningConfiguration(@Nonnull final SignatureSigningConfiguration signingConfiguration) {
+    this.signingConfiguration =
+        Objects.requireNonNull(signingConfiguration, "signingConfiguration must not be null");
+    this.cache.clear();
+  }
+
+  /**
+   * Assigns the maximum number of concurrent signature operations for a signing credential that resides on a hardware
+   * device. A value of zero (or less) means no limit, which is also the default. The setting has no effect for
+   * software credentials.
+   *
+   * @param maxHardwareSessions the maximum number of concurrent signature operations
+   */
+  public void setMaxHardwareSessions(final int maxHardwareSessions) {
+    this.hardwareSessions = this.hardwareCredential && maxHardwareSessions > 0
+        ? new Semaphore(maxHardwareSessions)
+        : null;
+  }
+
+  /**
+   * Removes all cached signing parameters.
+   */
+  public void clearCache() {
+    this.cache.clear();
+  }
+
+  /**
+   * Gets the signing parameters for the given peer, resolving them if they are not cached.
+   *
+   * @param peerMetadata the peer metadata (may be {@code null})
+   * @param metadataVersion the peer metadata version (may be {@code null})
+   * @return the signing parameters
+   * @throws SignatureException if no parameters can be resolved
+   */
+  SignatureSigningParameters getSigningParameters(
+      @Nullable final EntityDescriptor peerMetadata, @Nullable final String metadataVersion)
+      throws SignatureException {
+
+    final String entityId = Optional.ofNullable(peerMetadata).map(EntityDescriptor::getEntityID).orElse("");
+    final String version = peerMetadata != null ? metadataVersion : NO_METADATA_VERSION;
+    final SignatureSigningParameters cached = this.cache.get(entityId, version);
+    if (cached != null) {
+      return cached;
+    }
+    final SignatureSigningParameters parameters = this.resolve(peerMetadata);
+    this.cache.put(entityId, version, parameters);
+    log.debug("Resolved signing parameters for '{}' [signature-algorithm: '{}']",
+        entityId, parameters.getSignatureAlgorithm());
+    return parameters;
+  }
+
+  /**
+   * Resolves the signing parameters for the given peer.
+   *
+   * @param peerMetadata the peer metadata (may be {@code null})
+   * @return the signing parameters
+   * @throws SignatureException if no parameters can be resolved
+   */
+  private SignatureSigningParameters resolve(@Nullable final EntityDescriptor peerMetadata)
+      throws SignatureException {
+    final CriteriaSet criteria = new CriteriaSet(new SignatureSigningConfigurationCriterion(
+        this.credentialConfiguration,
+        Optional.ofNullable(this.signingConfiguration)
+            .orElseGet(SecurityConfigurationSupport::getGlobalSignatureSigningConfiguration)));
+    Optional.ofNullable(peerMetadata)
+        .map(p -> p.getSPSSODescriptor(SAMLConstants.SAML20P_NS))
+        .map(RoleDescriptorCriterion::new)
+        .ifPresent(criteria::add);
+    try {
+      return Optional.ofNullable(this.resolver.resolveSingle(criteria))
+          .orElseThrow(() -> new SignatureException("No signing parameters could be resolved"));
+    }
+    catch (final ResolverException e) {
+      throw new SignatureException("Failed to resolve signing parameters - " + e.getMessage(), e);
+    }
+  }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link Saml2MessageIDGenerator} that spreads the generation of random identifiers over a number of random
+ * generators (stripes), so that concurrent threads do not contend on one {@link SecureRandom}.
+ * <p>
+ * Each stripe is a DRBG that is seeded from the platform entropy source, and a thread always uses the same stripe. As
+ * for {@link DefaultSaml2MessageIDGenerator}, an identifier is the hex-encoding of the random bytes, prefixed with an
+ * underscore if needed to make the identifier XML-safe.
+ * </p>
+ * <p>
+ * Optionally, identifiers may be generated in batches, see {@link #setBatchSize(int)}. In this case one call to the
+ * random generator gives a number of identifiers that are put in a lock-free queue that following calls are served
+ * from.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+public class StripedSaml2MessageIDGenerator implements Saml2MessageIDGenerator {
+
+  /** The default number of bytes used for the identifier. */
+  public static final int DEFAULT_ID_SIZE = 16;
+
+  /** The hex encoder. */
+  private static final HexFormat HEX = HexFormat.of();
+
+  /** The random generators. */
+  private final SecureRandom[] stripes;
+
+  /** Mask used to select a stripe. */
+  private final int mask;
+
+  /** The number of bytes used for the identifier. */
+  private final int idSize;
+
+  /** Pre-generated identifiers. */
+  private final Queue<String> pregenerated = new ConcurrentLinkedQueue<>();
+
+  /** The number of identifiers to generate in each batch. */
+  private int batchSize = 1;
+
+  /**
+   * Default constructor. Uses 16 bytes identifiers and two stripes per available processor.
+   */
+  public StripedSaml2MessageIDGenerator() {
+    this(DEFAULT_ID_SIZE, Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param idSize the number of bytes used for the identifier
+   * @param stripes the number of stripes (will be rounded up to the nearest power of two)
+   */
+  public StripedSaml2MessageIDGenerator(final int idSize, final int stripes) {
+    if (idSize < 16) {
+      throw new IllegalArgumentException("idSize must be at least 16");
+    }
+    if (stripes <= 0) {
+      throw new IllegalArgumentException("stripes must be positive");
+    }
+    this.idSize = idSize;
+    final int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+    this.mask = size - 1;
+    this.stripes = new SecureRandom[size];
+    for (int i = 0; i < size; i++) {
+      this.stripes[i] = createRandom();
+    }
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public String generateIdentifier() {
+    if (this.batchSize == 1) {
+      final byte[] bytes = new byte[this.idSize];
+      this.getStripe().nextBytes(bytes);
+      return encode(bytes, 0, this.idSize);
+    }
+    final String id = this.pregenerated.poll();
+    if (id != null) {
+      return id;
+    }
+    final int size = this.batchSize;
+    final byte[] bytes = new byte[this.idSize * size];
+    this.getStripe().nextBytes(bytes);
+    for (int i = 1; i < size; i++) {
+      this.pregenerated.offer(encode(bytes, i * this.idSize, this.idSize));
+    }
+    return encode(bytes, 0, this.idSize);
+  }
+
+  /**
+   * Assigns the number of identifiers that are generated in each call to the random generator. The default is 1,
+   * meaning that no identifiers are pre-generated.
+   *
+   * @param batchSize the batch size
+   */
+  public void setBatchSize(final int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Gets the random generator for the current thread.
+   *
+   * @return a {@link SecureRandom}
+   */
+  private SecureRandom getStripe() {
+    final long id = Thread.currentThread().threadId();
+    final int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    return this.stripes[(h ^ (h >>> 16)) & this.mask];
+  }
+
+  /**
+   * Hex-encodes the given bytes into an XML-safe identifier.
+   *
+   * @param bytes the bytes
+   * @param offset the offset
+   * @param length the number of bytes to encode
+   * @return the identifier
+   */
+  private static String encode(final byte[] bytes, final int offset, final int length) {
+    final String id = HEX.formatHex(bytes, offset, offset + length);
+    return Character.isLetter(id.charAt(0)) ? id : "_" + id;
+  }
+
+  /**
+   * Creates a DRBG, or if not available, the default {@link SecureRandom}. Both are seeded from the platform entropy
+   * source.
+   *
+   * @return a {@link SecureRandom}
+   */
+  private static SecureRandom createRandom() {
+    try {
+      return SecureRandom.getInstance("DRBG");
+    }
+    catch (final NoSuchAlgorithmException e) {
+      return new SecureRandom();
+    }
+  }
+
+}
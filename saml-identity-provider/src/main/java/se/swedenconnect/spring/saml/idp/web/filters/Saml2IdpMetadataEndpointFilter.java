@@ -15,14 +15,28 @@
  */
 package se.swedenconnect.spring.saml.idp.web.filters;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
 import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
-import org.springframework.http.server.ServletServerHttpResponse;
 import org.springframework.lang.NonNull;
 import org.springframework.security.web.servlet.util.matcher.PathPatternRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
@@ -34,11 +48,29 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import net.shibboleth.shared.xml.SerializeSupport;
 import se.swedenconnect.opensaml.saml2.metadata.EntityDescriptorContainer;
-import se.swedenconnect.spring.saml.idp.metadata.Saml2MetadataHttpMessageConverter;
 
 /**
  * A {@code Filter} that processes requests to download the Identity Provider's metadata.
+ * <p>
+ * The signed metadata is serialized once, in plain and gzip:ed form, and the bytes are served until the metadata is
+ * updated. Responses carry {@code ETag}, {@code Last-Modified} and {@code Cache-Control} (based on the metadata
+ * {@code cacheDuration}) headers, and conditional requests ({@code If-None-Match} and {@code If-Modified-Since}) are
+ * answered with 304 (Not Modified) if the metadata has not changed.
+ * </p>
+ * <p>
+ * By default, the metadata is updated (and re-signed) by the first request that finds that an update is required. If
+ * background refresh is enabled, see {@link #setBackgroundRefreshInterval(Duration)}, the metadata is instead updated
+ * by a scheduled task, and requests are served the previous metadata until the updated metadata is ready. This way the
+ * request latency does not depend on how fast the signing credential is.
+ * </p>
+ * <p>
+ * The scheduled task follows the bean lifecycle of the filter. It is started when the filter is initialized, see
+ * {@link #afterPropertiesSet()}, and stopped when the filter is destroyed, see {@link #destroy()}. When the filter is
+ * created by the Spring Security configuration, both are invoked by the Spring {@code ObjectPostProcessor}, so the task
+ * is stopped when the application context is closed.
+ * </p>
  *
  * @author Martin Lindström
  */
@@ -57,8 +89,14 @@ public class Saml2IdpMetadataEndpointFilter extends OncePerRequestFilter {
   /** The container holding the IdP metadata. */
   final EntityDescriptorContainer entityDescriptorContainer;
 
-  /** Converter for writing metadata. */
-  private final Saml2MetadataHttpMessageConverter messageConverter = new Saml2MetadataHttpMessageConverter();
+  /** The serialized metadata. */
+  private volatile SerializedMetadata serializedMetadata;
+
+  /** The background refresh interval. If {@code null}, background refresh is not enabled. */
+  private Duration refreshInterval;
+
+  /** Scheduler for background refresh of the metadata (if started). */
+  private volatile ScheduledExecutorService refreshScheduler;
 
   /**
    * Constructor that uses the default endpoint to publish metadata ({@value #DEFAULT_METADATA_ENDPOINT_URI}).
@@ -95,6 +133,57 @@ public class Saml2IdpMetadataEndpointFilter extends OncePerRequestFilter {
     this.requestMatcher = requestMatcher;
   }
 
+  /**
+   * Enables background refresh of the metadata. A scheduled task checks, with the given interval, whether the metadata
+   * needs to be updated, and if so, updates and re-signs it. The task is started when the filter is initialized and the
+   * first check is made directly.
+   * <p>
+   * The interval should be well below the time before the metadata expiry at which the
+   * {@link EntityDescriptorContainer} considers an update to be required.
+   * </p>
+   *
+   * @param interval the check interval
+   */
+  public void setBackgroundRefreshInterval(final Duration interval) {
+    Objects.requireNonNull(interval, "interval must not be null");
+    if (!interval.isPositive()) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+    this.refreshInterval = interval;
+  }
+
+  /**
+   * Starts the background refresh task if background refresh has been enabled.
+   */
+  @Override
+  protected synchronized void initFilterBean() throws ServletException {
+    if (this.refreshInterval == null || this.refreshScheduler != null) {
+      return;
+    }
+    final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "idp-metadata-refresh");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(
+        this::backgroundRefresh, 0, this.refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+    this.refreshScheduler = scheduler;
+    log.debug("Started background refresh of IdP metadata with interval {}", this.refreshInterval);
+  }
+
+  /**
+   * Stops the background refresh task (if started).
+   */
+  @Override
+  public synchronized void destroy() {
+    final ScheduledExecutorService scheduler = this.refreshScheduler;
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      this.refreshScheduler = null;
+      log.debug("Stopped background refresh of IdP metadata");
+    }
+  }
+
   /** {@inheritDoc} */
   @Override
   protected void doFilterInternal(@NonNull final HttpServletRequest request,
@@ -107,31 +196,223 @@ public class Saml2IdpMetadataEndpointFilter extends OncePerRequestFilter {
     }
 
     log.debug("Request to download metadata from {}", request.getRemoteAddr());
+    final SerializedMetadata metadata;
+    try {
+      metadata = this.getSerializedMetadata();
+    }
+    catch (final SignatureException | MarshallingException e) {
+      log.error("Failed to return valid metadata", e);
+      throw new IOException("Failed to produce SAML metadata", e);
+    }
+
+    final boolean gzip = acceptsGzip(request);
+    final String etag = gzip ? metadata.gzipEtag() : metadata.etag();
+
+    response.setHeader(HttpHeaders.ETAG, etag);
+    response.setDateHeader(HttpHeaders.LAST_MODIFIED, metadata.lastModified().toEpochMilli());
+    response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+    if (metadata.cacheDuration() != null) {
+      response.setHeader(HttpHeaders.CACHE_CONTROL, "max-age=" + metadata.cacheDuration().toSeconds());
+    }
+
+    if (isNotModified(request, metadata)) {
+      log.debug("Metadata has not been modified, responding with 304");
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    final String acceptHeader = request.getHeader(HttpHeaders.ACCEPT);
+    final MediaType contentType =
+        (acceptHeader != null && acceptHeader.contains(APPLICATION_SAML_METADATA.toString()))
+            ? APPLICATION_SAML_METADATA
+            : MediaType.APPLICATION_XML;
+
+    final byte[] body = gzip ? metadata.gzip() : metadata.xml();
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setContentType(contentType.toString());
+    if (gzip) {
+      response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+    }
+    response.setContentLength(body.length);
+    response.getOutputStream().write(body);
+    response.flushBuffer();
+  }
+
+  /**
+   * Gets the serialized metadata. If the metadata needs to be updated according to how the container was configured,
+   * the metadata is updated and serialized again.
+   * <p>
+   * If background refresh is enabled, the current metadata is returned as long as it has not expired.
+   * </p>
+   *
+   * @return the serialized metadata
+   * @throws SignatureException for signing errors
+   * @throws MarshallingException for marshalling errors
+   */
+  private SerializedMetadata getSerializedMetadata() throws SignatureException, MarshallingException {
+    final SerializedMetadata metadata = this.serializedMetadata;
+    if (metadata != null) {
+      if (this.refreshScheduler != null) {
+        if (metadata.validUntil() == null || Instant.now().isBefore(metadata.validUntil())) {
+          return metadata;
+        }
+        log.warn("Published metadata has expired, background refresh has not updated it - updating metadata");
+      }
+      else if (!this.entityDescriptorContainer.updateRequired(true)
+          && metadata.isFor(this.entityDescriptorContainer.getDescriptor())) {
+        log.debug("Metadata is up-to-date, using cached metadata");
+        return metadata;
+      }
+    }
+    return this.refresh();
+  }
+
+  /**
+   * Invoked by the background refresh task.
+   */
+  private void backgroundRefresh() {
     try {
+      this.refresh();
+    }
+    catch (final SignatureException | MarshallingException | RuntimeException e) {
+      log.error("Background refresh of IdP metadata failed - current metadata will be served", e);
+    }
+  }
 
-      // Check if the metadata is up-to-date according to how the container was configured.
-      //
+  /**
+   * Updates the metadata if required and serializes it, if it has changed. The new serialized metadata is installed
+   * when it is complete.
+   *
+   * @return the serialized metadata
+   * @throws SignatureException for signing errors
+   * @throws MarshallingException for marshalling errors
+   */
+  private SerializedMetadata refresh() throws SignatureException, MarshallingException {
+    synchronized (this.entityDescriptorContainer) {
       if (this.entityDescriptorContainer.updateRequired(true)) {
         log.debug("Metadata needs to be updated ...");
         this.entityDescriptorContainer.update(true);
         log.debug("Metadata was updated");
       }
-      else {
-        log.debug("Metadata is up-to-date, using cached metadata");
+      final EntityDescriptor descriptor = this.entityDescriptorContainer.getDescriptor();
+      SerializedMetadata metadata = this.serializedMetadata;
+      if (metadata == null || !metadata.isFor(descriptor)) {
+        metadata = SerializedMetadata.serialize(descriptor);
+        this.serializedMetadata = metadata;
+        log.debug("Metadata was serialized, ETag: {}", metadata.etag());
       }
+      return metadata;
+    }
+  }
 
-      final String acceptHeader = request.getHeader("Accept");
-      final MediaType contentType =
-          (acceptHeader != null && acceptHeader.contains(APPLICATION_SAML_METADATA.toString()))
-              ? APPLICATION_SAML_METADATA
-              : MediaType.APPLICATION_XML;
+  /**
+   * Tells whether the client accepts gzip:ed content.
+   *
+   * @param request the HTTP request
+   * @return {@code true} if gzip is accepted and {@code false} otherwise
+   */
+  private static boolean acceptsGzip(final HttpServletRequest request) {
+    final String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (final String token : acceptEncoding.split(",")) {
+      final String[] parts = token.trim().split(";");
+      if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+        return parts.length < 2 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
 
-      final ServletServerHttpResponse httpResponse = new ServletServerHttpResponse(response);
-      this.messageConverter.write(this.entityDescriptorContainer.getDescriptor(), contentType, httpResponse);
+  /**
+   * Checks the conditional request headers against the current metadata.
+   *
+   * @param request the HTTP request
+   * @param metadata the current metadata
+   * @return {@code true} if the client has the current metadata, and {@code false} otherwise
+   */
+  private static boolean isNotModified(final HttpServletRequest request, final SerializedMetadata metadata) {
+    final String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      for (final String token : ifNoneMatch.split(",")) {
+        final String tag = token.trim();
+        if ("*".equals(tag)) {
+          return true;
+        }
+        // Weak comparison, see RFC 9110, section 13.1.2 ...
+        final String opaqueTag = tag.startsWith("W/") ? tag.substring(2) : tag;
+        if (opaqueTag.equals(metadata.etag()) || opaqueTag.equals(metadata.gzipEtag())) {
+          return true;
+        }
+      }
+      return false;
     }
-    catch (final SignatureException | MarshallingException e) {
-      log.error("Failed to return valid metadata", e);
-      throw new IOException("Failed to produce SAML metadata", e);
+    try {
+      final long ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+      return ifModifiedSince != -1 && metadata.lastModified().toEpochMilli() <= ifModifiedSince;
+    }
+    catch (final IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * The serialized metadata.
+   *
+   * @param id the ID of the serialized entity descriptor
+   * @param validUntil the validity of the serialized entity descriptor
+   * @param xml the UTF-8 encoded metadata
+   * @param gzip the gzip:ed metadata
+   * @param etag the ETag for the uncompressed metadata
+   * @param gzipEtag the ETag for the gzip:ed metadata
+   * @param lastModified when the metadata was serialized (truncated to seconds)
+   * @param cacheDuration the metadata cache duration (may be {@code null})
+   */
+  private record SerializedMetadata(String id, Instant validUntil, byte[] xml, byte[] gzip, String etag,
+      String gzipEtag, Instant lastModified, Duration cacheDuration) {
+
+    /**
+     * Serializes the supplied entity descriptor.
+     *
+     * @param descriptor the entity descriptor
+     * @return a {@link SerializedMetadata}
+     * @throws MarshallingException for marshalling errors
+     */
+    static SerializedMetadata serialize(final EntityDescriptor descriptor) throws MarshallingException {
+      final ByteArrayOutputStream xmlStream = new ByteArrayOutputStream(8192);
+      SerializeSupport.writeNode(XMLObjectSupport.marshall(descriptor), xmlStream);
+      final byte[] xml = xmlStream.toByteArray();
+
+      final ByteArrayOutputStream gzipStream = new ByteArrayOutputStream(xml.length / 4 + 64);
+      try (final GZIPOutputStream out = new GZIPOutputStream(gzipStream)) {
+        out.write(xml);
+      }
+      catch (final IOException e) {
+        throw new MarshallingException("Failed to compress metadata", e);
+      }
+
+      final String hash;
+      try {
+        hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(xml), 0, 16);
+      }
+      catch (final NoSuchAlgorithmException e) {
+        throw new SecurityException(e);
+      }
+
+      return new SerializedMetadata(descriptor.getID(), descriptor.getValidUntil(), xml, gzipStream.toByteArray(),
+          "\"%s\"".formatted(hash), "\"%s-gzip\"".formatted(hash), Instant.now().truncatedTo(ChronoUnit.SECONDS),
+          descriptor.getCacheDuration());
+    }
+
+    /**
+     * Tells whether this object was serialized from the supplied entity descriptor (in its current state).
+     *
+     * @param descriptor the entity descriptor
+     * @return {@code true} if the serialized metadata corresponds to the entity descriptor
+     */
+    boolean isFor(final EntityDescriptor descriptor) {
+      return Objects.equals(this.id, descriptor.getID()) && Objects.equals(this.validUntil, descriptor.getValidUntil());
     }
 
   }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.attributes.nameid;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.opensaml.saml.saml2.core.NameID;
+
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+import se.swedenconnect.spring.saml.idp.authentication.Saml2UserAuthentication;
+import se.swedenconnect.spring.saml.idp.authnrequest.Saml2AuthnRequestAuthenticationToken;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Base64;
+
+/**
+ * Test cases for CompactTransientNameIDGenerator.
+ *
+ * @author Martin Lindström
+ */
+public class CompactTransientNameIDGeneratorTest extends OpenSamlTestBase {
+
+  private static final String IDP = "https://idp.example.com";
+  private static final String SP = "https://sp.example.com";
+
+  @Test
+  public void test() {
+    final CompactTransientNameIDGenerator gen = new CompactTransientNameIDGenerator(IDP, SP);
+    Assertions.assertEquals(NameID.TRANSIENT, gen.getFormat());
+
+    final NameID nameId = gen.getNameID(mockAuthentication("username"));
+    Assertions.assertEquals(NameID.TRANSIENT, nameId.getFormat());
+    Assertions.assertEquals(22, nameId.getValue().length());
+    Assertions.assertEquals(16, Base64.getUrlDecoder().decode(nameId.getValue()).length);
+    Assertions.assertEquals(IDP, nameId.getNameQualifier());
+    Assertions.assertEquals(SP, nameId.getSPNameQualifier());
+
+    Assertions.assertNotEquals(nameId.getValue(), gen.getNameID(mockAuthentication("username")).getValue());
+  }
+
+  @Test
+  public void testEntropy() {
+    final CompactTransientNameIDGenerator gen = new CompactTransientNameIDGenerator(IDP);
+    gen.setEntropyBytes(32);
+    Assertions.assertEquals(32,
+        Base64.getUrlDecoder().decode(gen.getNameID(mockAuthentication("username")).getValue()).length);
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> gen.setEntropyBytes(8));
+  }
+
+  @Test
+  public void testEncrypted() {
+    final EncryptedTransientIdentifierCodec codec =
+        new EncryptedTransientIdentifierCodec(new SecretKeySpec(new byte[16], "AES"));
+
+    final CompactTransientNameIDGenerator gen = new CompactTransientNameIDGenerator(IDP, SP);
+    gen.setCodec(codec);
+
+    final String id1 = gen.getNameID(mockAuthentication("username")).getValue();
+    final String id2 = gen.getNameID(mockAuthentication("username")).getValue();
+    Assertions.assertNotEquals(id1, id2);
+    Assertions.assertEquals("username", codec.decode(id1, SP));
+    Assertions.assertEquals("username", codec.decode(id2, SP));
+
+    // Only valid for the SP it was issued to
+    Assertions.assertThrows(IllegalArgumentException.class, () -> codec.decode(id1, "https://other.example.com"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> codec.decode("AAAA", SP));
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new EncryptedTransientIdentifierCodec(new SecretKeySpec(new byte[16], "HmacSHA256")));
+  }
+
+  @Test
+  public void testSerializationWithCodec() throws Exception {
+    final EncryptedTransientIdentifierCodec codec =
+        new EncryptedTransientIdentifierCodec("serialization-test", new SecretKeySpec(new byte[32], "AES"));
+    final CompactTransientNameIDGenerator gen = new CompactTransientNameIDGenerator(IDP, SP);
+    gen.setCodec(codec);
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(gen);
+    }
+    try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      final CompactTransientNameIDGenerator gen2 = (CompactTransientNameIDGenerator) ois.readObject();
+
+      // The codec has not been resolved ...
+      Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+          () -> gen2.getNameID(mockAuthentication("username")));
+
+      final DefaultNameIDGeneratorFactory factory = new DefaultNameIDGeneratorFactory(IDP);
+      factory.setTransientIdCodec(codec);
+      gen2.resolveKeys(factory);
+      Assertions.assertEquals("username",
+          codec.decode(gen2.getNameID(mockAuthentication("username")).getValue(), SP));
+    }
+  }
+
+  private static Saml2UserAuthentication mockAuthentication(final String userId) {
+    final Saml2AuthnRequestAuthenticationToken token = Mockito.mock(Saml2AuthnRequestAuthenticationToken.class);
+    Mockito.when(token.getLogString()).thenReturn("logString");
+
+    final Saml2UserAuthentication auth = Mockito.mock(Saml2UserAuthentication.class);
+    Mockito.when(auth.getName()).thenReturn(userId);
+    Mockito.when(auth.getAuthnRequestToken()).thenReturn(token);
+    return auth;
+  }
+
+}
@@ -25,6 +25,16 @@ import se.swedenconnect.spring.saml.idp.authentication.Saml2UserAuthentication;
 import se.swedenconnect.spring.saml.idp.authnrequest.Saml2AuthnRequestAuthenticationToken;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+
 /**
  * Test cases for PersistentNameIDGenerator.
  *
@@ -128,4 +138,96 @@ public class PersistentNameIDGeneratorTest extends OpenSamlTestBase {
     });
   }
 
+  @Test
+  public void testIdentifierValue() throws Exception {
+    final PersistentNameIDGenerator gen = new PersistentNameIDGenerator(IDP, SP);
+
+    final String expected = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+        .digest((SP + "!" + IDP + "!anv\u00e4ndare").getBytes(StandardCharsets.UTF_8)));
+
+    // The second invocation uses the cached prefix state ...
+    Assertions.assertEquals(expected, gen.getNameID(mockAuthentication("anv\u00e4ndare")).getValue());
+    Assertions.assertEquals(expected, gen.getNameID(mockAuthentication("anv\u00e4ndare")).getValue());
+    Assertions.assertEquals(expected,
+        new PersistentNameIDGenerator(IDP, SP).getNameID(mockAuthentication("anv\u00e4ndare")).getValue());
+
+    Assertions.assertNotEquals(expected,
+        new PersistentNameIDGenerator(IDP, "https://other.example.com").getNameID(mockAuthentication("anv\u00e4ndare"))
+            .getValue());
+  }
+
+  @Test
+  public void testHmac() throws Exception {
+    final SecretKeySpec key = new SecretKeySpec("secret-secret-secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+    final PersistentNameIDGenerator gen = new PersistentNameIDGenerator(IDP, SP);
+    gen.setHmacKey(key);
+
+    final Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(key);
+    final String expected = Base64.getEncoder().encodeToString(
+        mac.doFinal((SP + "!" + IDP + "!username").getBytes(StandardCharsets.UTF_8)));
+
+    Assertions.assertEquals(expected, gen.getNameID(mockAuthentication("username")).getValue());
+    Assertions.assertEquals(expected, gen.getNameID(mockAuthentication("username")).getValue());
+
+    // Another key gives another identifier
+    final PersistentNameIDGenerator gen2 = new PersistentNameIDGenerator(IDP, SP);
+    gen2.setHmacKey(new SecretKeySpec("other-secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+    Assertions.assertNotEquals(expected, gen2.getNameID(mockAuthentication("username")).getValue());
+
+    final PersistentNameIDGenerator gen3 = new PersistentNameIDGenerator(IDP, SP);
+    gen3.setHmacKey(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "AES"));
+    Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+        () -> gen3.getNameID(mockAuthentication("username")));
+  }
+
+  @Test
+  public void testSerializationWithHmac() throws Exception {
+    final byte[] secret = "serialization-secret".getBytes(StandardCharsets.UTF_8);
+    final PersistentNameIDGenerator gen = new PersistentNameIDGenerator(IDP, SP);
+    gen.setHmacKey(new SecretKeySpec(secret, "HmacSHA256"));
+    final String expected = gen.getNameID(mockAuthentication("username")).getValue();
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+      oos.writeObject(gen);
+    }
+    final byte[] serialized = bos.toByteArray();
+
+    // The key must not be part of the serialized generator ...
+    Assertions.assertFalse(new String(serialized, StandardCharsets.ISO_8859_1)
+        .contains(new String(secret, StandardCharsets.ISO_8859_1)));
+
+    try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+      final PersistentNameIDGenerator gen2 = (PersistentNameIDGenerator) ois.readObject();
+
+      // The key has not been resolved ...
+      Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+          () -> gen2.getNameID(mockAuthentication("username")));
+
+      // A factory configured with another key does not resolve it ...
+      final DefaultNameIDGeneratorFactory otherFactory = new DefaultNameIDGeneratorFactory(IDP);
+      otherFactory.setPersistentIdHmacKey(
+          new SecretKeySpec("other-secret".getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+      gen2.resolveKeys(otherFactory);
+      Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+          () -> gen2.getNameID(mockAuthentication("username")));
+
+      final DefaultNameIDGeneratorFactory factory = new DefaultNameIDGeneratorFactory(IDP);
+      factory.setPersistentIdHmacKey(new SecretKeySpec(secret, "HmacSHA256"));
+      gen2.resolveKeys(factory);
+      Assertions.assertEquals(expected, gen2.getNameID(mockAuthentication("username")).getValue());
+    }
+  }
+
+  private static Saml2UserAuthentication mockAuthentication(final String userId) {
+    final Saml2AuthnRequestAuthenticationToken token = Mockito.mock(Saml2AuthnRequestAuthenticationToken.class);
+    Mockito.when(token.getLogString()).thenReturn("logString");
+
+    final Saml2UserAuthentication auth = Mockito.mock(Saml2UserAuthentication.class);
+    Mockito.when(auth.getName()).thenReturn(userId);
+    Mockito.when(auth.getAuthnRequestToken()).thenReturn(token);
+    return auth;
+  }
+
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.audit.AuditEvent;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test cases for AsyncAuditEventRepository.
+ *
+ * @author Martin Lindström
+ */
+class AsyncAuditEventRepositoryTest {
+
+  @Test
+  void testBatchedWrite() throws Exception {
+    final RecordingRepository underlying = new RecordingRepository(null);
+    try (final AsyncAuditEventRepository repository = new AsyncAuditEventRepository(underlying)) {
+      for (int i = 0; i < 250; i++) {
+        repository.add(event(i));
+      }
+    }
+    assertThat(underlying.getEvents()).hasSize(250);
+    assertThat(underlying.getEvents().get(0).getPrincipal()).isEqualTo("user0");
+    assertThat(underlying.getEvents().get(249).getPrincipal()).isEqualTo("user249");
+    assertThat(underlying.batches).allMatch(b -> b <= AsyncAuditEventRepository.DEFAULT_BATCH_SIZE);
+  }
+
+  @Test
+  void testDropNewest() throws Exception {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final RecordingRepository underlying = new RecordingRepository(gate);
+    final AsyncAuditEventRepository repository = new AsyncAuditEventRepository(underlying, 2,
+        AsyncAuditEventRepository.OverflowPolicy.DROP_NEWEST, 1, 1);
+
+    // The first event is taken by the drain thread that then blocks ...
+    repository.add(event(0));
+    underlying.awaitWriting();
+
+    repository.add(event(1));
+    repository.add(event(2));
+    repository.add(event(3));
+    assertThat(repository.getDropped()).isEqualTo(1);
+    assertThat(repository.getBuffered()).isEqualTo(2);
+
+    gate.countDown();
+    repository.close();
+    assertThat(underlying.getEvents()).extracting(AuditEvent::getPrincipal)
+        .containsExactly("user0", "user1", "user2");
+  }
+
+  @Test
+  void testDroppedEventsAreLoggedAsSummary() throws Exception {
+    final MemoryAppender memoryAppender = new MemoryAppender();
+    memoryAppender.setContext((LoggerContext) LoggerFactory.getILoggerFactory());
+    final Logger logger = (Logger) LoggerFactory.getLogger(AsyncAuditEventRepository.class);
+    logger.addAppender(memoryAppender);
+    memoryAppender.start();
+    try {
+      final CountDownLatch gate = new CountDownLatch(1);
+      final RecordingRepository underlying = new RecordingRepository(gate);
+      final AsyncAuditEventRepository repository = new AsyncAuditEventRepository(underlying, 2,
+          AsyncAuditEventRepository.OverflowPolicy.DROP_NEWEST, 1, 1);
+
+      repository.add(event(0));
+      underlying.awaitWriting();
+      for (int i = 1; i <= 10; i++) {
+        repository.add(event(i));
+      }
+      assertThat(repository.getDropped()).isEqualTo(8);
+
+      gate.countDown();
+      repository.close();
+
+      // The first drop is logged directly, and the remaining ones in a summary when closing ...
+      assertThat(memoryAppender.search(Level.WARN))
+          .extracting(ILoggingEvent::getFormattedMessage)
+          .hasSize(2)
+          .anySatisfy(m -> assertThat(m).contains("1 event(s) dropped"))
+          .anySatisfy(m -> assertThat(m).contains("7 event(s) dropped"));
+    }
+    finally {
+      logger.detachAppender(memoryAppender);
+      memoryAppender.stop();
+    }
+  }
+
+  @Test
+  void testDropOldest() throws Exception {
+    final CountDownLatch gate = new CountDownLatch(1);
+    final RecordingRepository underlying = new RecordingRepository(gate);
+    final AsyncAuditEventRepository repository = new AsyncAuditEventRepository(underlying, 2,
+        AsyncAuditEventRepository.OverflowPolicy.DROP_OLDEST, 1, 1);
+
+    repository.add(event(0));
+    underlying.awaitWriting();
+
+    repository.add(event(1));
+    repository.add(event(2));
+    repository.add(event(3));
+    assertThat(repository.getDropped()).isEqualTo(1);
+
+    gate.countDown();
+    repository.close();
+    assertThat(underlying.getEvents()).extracting(AuditEvent::getPrincipal)
+        .containsExactly("user0", "user2", "user3");
+  }
+
+  @Test
+  void testAddAfterClose() {
+    final RecordingRepository underlying = new RecordingRepository(null);
+    final AsyncAuditEventRepository repository = new AsyncAuditEventRepository(underlying);
+    repository.close();
+    repository.add(event(0));
+    assertThat(underlying.getEvents()).hasSize(1);
+  }
+
+  @Test
+  void testDelegatingRepository() {
+    final MemoryBasedAuditEventRepository memory = new MemoryBasedAuditEventRepository();
+    final AsyncAuditEventRepository repository = new AsyncAuditEventRepository(new DelegatingAuditEventRepository(
+        List.of(memory)));
+    repository.add(event(0));
+    repository.add(event(1));
+    repository.close();
+    assertThat(repository.find(null, null, null)).hasSize(2);
+  }
+
+  private static AuditEvent event(final int n) {
+    return new AuditEvent(Instant.now(), "user" + n, "TYPE", Map.of("n", n));
+  }
+
+  private static class RecordingRepository extends FilteringAuditEventRepository {
+
+    private final List<AuditEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+
+    private final CountDownLatch gate;
+
+    private final CountDownLatch writing = new CountDownLatch(1);
+
+    RecordingRepository(final CountDownLatch gate) {
+      super(null);
+      this.gate = gate;
+    }
+
+    @Override
+    protected void addEvents(final List<AuditEvent> events) {
+      this.writing.countDown();
+      if (this.gate != null) {
+        try {
+          this.gate.await(10, TimeUnit.SECONDS);
+        }
+        catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      this.batches.add(events.size());
+      this.events.addAll(events);
+    }
+
+    @Override
+    protected void addEvent(final AuditEvent event) {
+      this.addEvents(List.of(event));
+    }
+
+    @Override
+    public List<AuditEvent> find(final String principal, final Instant after, final String type) {
+      return List.copyOf(this.events);
+    }
+
+    void awaitWriting() throws InterruptedException {
+      assertThat(this.writing.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    List<AuditEvent> getEvents() {
+      return List.copyOf(this.events);
+    }
+
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Test cases for AuditFileWriter.
+ *
+ * @author Martin Lindström
+ */
+class AuditFileWriterTest {
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void testConcurrentWrites() throws Exception {
+    final Path logFile = this.dir.resolve("logs/audit.log");
+    final AuditFileWriter writer = new AuditFileWriter(logFile.toString());
+
+    final int threads = 8;
+    final int linesPerThread = 500;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      executor.execute(() -> {
+        for (int i = 0; i < linesPerThread; i++) {
+          writer.write("event-" + thread + "-" + i);
+        }
+        done.countDown();
+      });
+    }
+    assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+    executor.shutdown();
+    writer.close();
+
+    final List<String> lines = Files.readAllLines(logFile, StandardCharsets.UTF_8);
+    assertThat(lines).hasSize(threads * linesPerThread);
+    assertThat(lines).contains("event-0-0", "event-7-499");
+
+    assertThrows(IllegalStateException.class, () -> writer.write("too late"));
+  }
+
+  @Test
+  void testFsyncPolicies() throws Exception {
+    for (final AuditFileWriter.FsyncPolicy policy : AuditFileWriter.FsyncPolicy.values()) {
+      final Path logFile = this.dir.resolve(policy.name().toLowerCase() + ".log");
+      final AuditFileWriter writer = new AuditFileWriter(logFile.toString(), policy, Duration.ofMillis(10), 100, 64);
+      final List<String> expected = new ArrayList<>();
+      for (int i = 0; i < 50; i++) {
+        // Some lines are larger than the buffer ...
+        final String line = "line-" + i + "-" + "x".repeat(i * 3);
+        expected.add(line);
+        writer.write(line);
+      }
+      writer.close();
+      assertThat(Files.readAllLines(logFile, StandardCharsets.UTF_8)).containsExactlyElementsOf(expected);
+    }
+  }
+
+  @Test
+  void testSync() throws Exception {
+    final Path logFile = this.dir.resolve("sync.log");
+    final AuditFileWriter writer = new AuditFileWriter(logFile.toString(), AuditFileWriter.FsyncPolicy.INTERVAL,
+        Duration.ofHours(1), 100, 1024);
+    writer.write("event-1");
+    writer.write("event-2");
+
+    // The lines should be written when sync returns, and not only when the writer is closed ...
+    assertThat(writer.sync(Duration.ofSeconds(10))).isTrue();
+    assertThat(Files.readAllLines(logFile, StandardCharsets.UTF_8)).containsExactly("event-1", "event-2");
+
+    writer.close();
+    assertThrows(IllegalStateException.class, () -> writer.sync(Duration.ofSeconds(1)));
+  }
+
+  @Test
+  void testRollOldFileOnStartup() throws Exception {
+    final Path logFile = this.dir.resolve("audit.log");
+    Files.writeString(logFile, "old-event" + System.lineSeparator());
+    final Instant yesterday = Instant.now().minus(1, ChronoUnit.DAYS);
+    Files.setLastModifiedTime(logFile, FileTime.from(yesterday));
+
+    final AuditFileWriter writer = new AuditFileWriter(logFile.toString());
+    writer.write("new-event");
+    writer.close();
+
+    final String date = DateTimeFormatter.ofPattern("yyyyMMdd").format(LocalDate.ofInstant(yesterday, ZoneOffset.UTC));
+    final Path backup = this.dir.resolve("audit-" + date + ".log");
+    assertThat(Files.readAllLines(backup)).containsExactly("old-event");
+    assertThat(Files.readAllLines(logFile)).containsExactly("new-event");
+  }
+
+  @Test
+  void testRollSameDay() throws Exception {
+    final Path logFile = this.dir.resolve("audit");
+    final AuditFileWriter writer = new AuditFileWriter(logFile.toString());
+    writer.write("event-1");
+    writer.requestRoll();
+    writer.write("event-2");
+    writer.close();
+
+    // The date has not changed, so the file should not be rolled ...
+    try (final Stream<Path> files = Files.list(this.dir)) {
+      assertThat(files.toList()).containsExactly(logFile);
+    }
+    assertThat(Files.readAllLines(logFile)).containsExactly("event-1", "event-2");
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test cases for RedisListAuditEventRepository.
+ *
+ * @author Martin Lindström
+ */
+class RedisListAuditEventRepositoryTest {
+
+  private final AuditEventMapper mapper = new JsonAuditEventMapper(new ObjectMapper());
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testBatchWrite() {
+    final ListOperations<String, String> listOps = Mockito.mock(ListOperations.class);
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    Mockito.when(template.opsForList()).thenReturn(listOps);
+
+    final RedisListAuditEventRepository repository = new RedisListAuditEventRepository(template, "audit", this.mapper);
+    repository.addAll(List.of(event("user1"), event("user2"), event("user3")));
+
+    final ArgumentCaptor<String[]> values = ArgumentCaptor.forClass(String[].class);
+    Mockito.verify(listOps).rightPushAll(Mockito.eq("audit:list"), values.capture());
+    assertThat(values.getValue()).hasSize(3);
+    assertThat(this.mapper.read(values.getValue()[2]).getPrincipal()).isEqualTo("user3");
+    Mockito.verify(listOps, Mockito.never()).rightPush(Mockito.anyString(), Mockito.anyString());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testBatchWriteWithMaxLength() {
+    final ListOperations<String, String> listOps = Mockito.mock(ListOperations.class);
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    Mockito.when(template.opsForList()).thenReturn(listOps);
+
+    final StringRedisConnection connection = Mockito.mock(StringRedisConnection.class);
+    Mockito.when(template.executePipelined(Mockito.any(RedisCallback.class))).thenAnswer(a -> {
+      a.getArgument(0, RedisCallback.class).doInRedis(connection);
+      return List.of();
+    });
+
+    final RedisListAuditEventRepository repository = new RedisListAuditEventRepository(template, "audit", this.mapper);
+    repository.setMaxLength(1000L);
+    repository.addAll(List.of(event("user1"), event("user2")));
+    repository.add(event("user3"));
+
+    Mockito.verify(connection).rPush(Mockito.eq("audit:list"), Mockito.any(String.class), Mockito.any(String.class));
+    Mockito.verify(connection).rPush(Mockito.eq("audit:list"), Mockito.any(String.class));
+    Mockito.verify(connection, Mockito.times(2)).lTrim("audit:list", -1000L, -1L);
+    Mockito.verifyNoInteractions(listOps);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testIndexedWrite() {
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    final StringRedisConnection connection = Mockito.mock(StringRedisConnection.class);
+    Mockito.when(template.executePipelined(Mockito.any(RedisCallback.class))).thenAnswer(a -> {
+      a.getArgument(0, RedisCallback.class).doInRedis(connection);
+      return List.of();
+    });
+
+    final RedisListAuditEventRepository repository = new RedisListAuditEventRepository(template, "audit", this.mapper);
+    repository.setIndexRetention(Duration.ofHours(1));
+    repository.addAll(List.of(event("user1"), event("user2")));
+
+    Mockito.verify(connection).rPush(Mockito.eq("audit:list"), Mockito.any(String.class), Mockito.any(String.class));
+    Mockito.verify(connection, Mockito.never()).lTrim(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong());
+    Mockito.verify(connection, Mockito.times(2))
+        .setEx(Mockito.startsWith("audit:event:"), Mockito.eq(3600L), Mockito.anyString());
+    Mockito.verify(connection, Mockito.times(2)).zAdd(Mockito.eq("audit:idx:all"), Mockito.anyDouble(),
+        Mockito.anyString());
+    Mockito.verify(connection, Mockito.times(2)).zAdd(Mockito.eq("audit:idx:type:TYPE"), Mockito.anyDouble(),
+        Mockito.anyString());
+    Mockito.verify(connection).zAdd(Mockito.eq("audit:idx:principal:user1"), Mockito.anyDouble(), Mockito.anyString());
+    Mockito.verify(connection).zAdd(Mockito.eq("audit:idx:principal:user2"), Mockito.anyDouble(), Mockito.anyString());
+    Mockito.verify(connection, Mockito.times(4)).expire(Mockito.startsWith("audit:idx:"), Mockito.eq(3600L));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testIndexedFind() {
+    final ZSetOperations<String, String> zSetOps = Mockito.mock(ZSetOperations.class);
+    final ValueOperations<String, String> valueOps = Mockito.mock(ValueOperations.class);
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    Mockito.when(template.opsForZSet()).thenReturn(zSetOps);
+    Mockito.when(template.opsForValue()).thenReturn(valueOps);
+
+    final Set<ZSetOperations.TypedTuple<String>> firstPage = new LinkedHashSet<>();
+    firstPage.add(ZSetOperations.TypedTuple.of("id1", 1000.0));
+    firstPage.add(ZSetOperations.TypedTuple.of("id2", 2000.0));
+    Mockito.when(zSetOps.rangeByScoreWithScores("audit:idx:principal:user1", 0, Double.POSITIVE_INFINITY, 0, 2))
+        .thenReturn(firstPage);
+    Mockito.when(valueOps.multiGet(List.of("audit:event:id1", "audit:event:id2")))
+        .thenReturn(List.of(this.mapper.write(event("user1", 1000)), this.mapper.write(event("user1", 2000))));
+
+    final Set<ZSetOperations.TypedTuple<String>> secondPage = new LinkedHashSet<>();
+    secondPage.add(ZSetOperations.TypedTuple.of("id3", 3000.0));
+    Mockito.when(zSetOps.rangeByScoreWithScores("audit:idx:principal:user1", 2000, Double.POSITIVE_INFINITY, 1, 2))
+        .thenReturn(secondPage);
+    final List<String> secondValues = new ArrayList<>();
+    secondValues.add(null);
+    Mockito.when(valueOps.multiGet(List.of("audit:event:id3"))).thenReturn(secondValues);
+
+    final RedisListAuditEventRepository repository = new RedisListAuditEventRepository(template, "audit", this.mapper);
+    repository.setIndexRetention(Duration.ofHours(1));
+
+    final AuditEventPage page1 = repository.find("user1", null, null, null, 2);
+    assertThat(page1.events()).hasSize(2);
+    assertThat(page1.nextCursor()).isEqualTo("2000:1");
+
+    // The event has expired, but the index entry has not yet been removed ...
+    final AuditEventPage page2 = repository.find("user1", null, null, page1.nextCursor(), 2);
+    assertThat(page2.events()).isEmpty();
+    assertThat(page2.hasNext()).isFalse();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testFindAllReadsIndexInPages() {
+    final ZSetOperations<String, String> zSetOps = Mockito.mock(ZSetOperations.class);
+    final ValueOperations<String, String> valueOps = Mockito.mock(ValueOperations.class);
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    Mockito.when(template.opsForZSet()).thenReturn(zSetOps);
+    Mockito.when(template.opsForValue()).thenReturn(valueOps);
+
+    final Set<ZSetOperations.TypedTuple<String>> firstPage = new LinkedHashSet<>();
+    for (int i = 0; i < RedisListAuditEventRepository.FIND_PAGE_SIZE; i++) {
+      firstPage.add(ZSetOperations.TypedTuple.of("id" + i, 1000.0 + i));
+    }
+    final long last = 1000 + RedisListAuditEventRepository.FIND_PAGE_SIZE - 1;
+    Mockito.when(zSetOps.rangeByScoreWithScores(
+            "audit:idx:all", 0, Double.POSITIVE_INFINITY, 0, RedisListAuditEventRepository.FIND_PAGE_SIZE))
+        .thenReturn(firstPage);
+    Mockito.when(zSetOps.rangeByScoreWithScores(
+            "audit:idx:all", last, Double.POSITIVE_INFINITY, 1, RedisListAuditEventRepository.FIND_PAGE_SIZE))
+        .thenReturn(new LinkedHashSet<>(List.of(ZSetOperations.TypedTuple.of("idx", last + 1.0))));
+    Mockito.when(valueOps.multiGet(Mockito.anyCollection())).thenAnswer(
+        a -> ((List<String>) a.getArgument(0)).stream().map(k -> this.mapper.write(event("user1"))).toList());
+
+    final RedisListAuditEventRepository repository = new RedisListAuditEventRepository(template, "audit", this.mapper);
+    repository.setIndexRetention(Duration.ofHours(1));
+
+    assertThat(repository.find(null, null, null)).hasSize(RedisListAuditEventRepository.FIND_PAGE_SIZE + 1);
+    Mockito.verify(zSetOps, Mockito.never())
+        .rangeByScoreWithScores(Mockito.anyString(), Mockito.anyDouble(), Mockito.anyDouble());
+  }
+
+  @Test
+  void testPagedFindRequiresIndex() {
+    final RedisListAuditEventRepository repository =
+        new RedisListAuditEventRepository(Mockito.mock(StringRedisTemplate.class), "audit", this.mapper);
+    assertThatThrownBy(() -> repository.find("user1", null, null, null, 2))
+        .isInstanceOf(UnsupportedOperationException.class);
+  }
+
+  private static AuditEvent event(final String principal) {
+    return new AuditEvent(Instant.now(), principal, "TYPE", Map.of("key", "value"));
+  }
+
+  private static AuditEvent event(final String principal, final long timestamp) {
+    return new AuditEvent(Instant.ofEpochMilli(timestamp), principal, "TYPE", Map.of("key", "value"));
+  }
+
+}
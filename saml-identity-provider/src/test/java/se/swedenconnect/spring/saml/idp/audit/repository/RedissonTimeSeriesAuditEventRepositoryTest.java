@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.audit.repository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RTimeSeries;
+import org.redisson.api.RedissonClient;
+import org.redisson.api.TimeSeriesEntry;
+import org.springframework.boot.actuate.audit.AuditEvent;
+import tools.jackson.databind.ObjectMapper;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test cases for RedissonTimeSeriesAuditEventRepository.
+ *
+ * @author Martin Lindström
+ */
+class RedissonTimeSeriesAuditEventRepositoryTest {
+
+  private final AuditEventMapper mapper = new JsonAuditEventMapper(new ObjectMapper());
+
+  @Test
+  void testIndexedWrite() {
+    final RedissonClient client = Mockito.mock(RedissonClient.class);
+    final RTimeSeries<Object, Object> ts = mockTimeSeries(client, "audit:timeseries");
+    final RTimeSeries<Object, Object> principalTs = mockTimeSeries(client, "audit:timeseries:principal:user1");
+    final RTimeSeries<Object, Object> typeTs = mockTimeSeries(client, "audit:timeseries:type:TYPE");
+
+    final RedissonTimeSeriesAuditEventRepository repository =
+        new RedissonTimeSeriesAuditEventRepository(client, "audit", this.mapper);
+    repository.add(event("user1", 1000));
+    Mockito.verify(ts).add(Mockito.eq(1000L), Mockito.anyString());
+    Mockito.verifyNoInteractions(principalTs, typeTs);
+
+    repository.setIndexRetention(Duration.ofHours(1));
+    repository.add(event("user1", 2000));
+    Mockito.verify(ts).add(Mockito.eq(2000L), Mockito.anyString());
+    Mockito.verify(principalTs).add(Mockito.eq(2000L), Mockito.anyString(), Mockito.eq(Duration.ofHours(1)));
+    Mockito.verify(typeTs).add(Mockito.eq(2000L), Mockito.anyString(), Mockito.eq(Duration.ofHours(1)));
+  }
+
+  @Test
+  void testIndexedFind() {
+    final RedissonClient client = Mockito.mock(RedissonClient.class);
+    final RTimeSeries<Object, Object> ts = mockTimeSeries(client, "audit:timeseries");
+    final RTimeSeries<Object, Object> principalTs = mockTimeSeries(client, "audit:timeseries:principal:user1");
+    final TimeSeriesEntry<Object, Object> entry =
+        new TimeSeriesEntry<>(1000L, this.mapper.write(event("user1", 1000)));
+    Mockito.when(principalTs.entryRange(Mockito.anyLong(), Mockito.anyLong())).thenReturn(List.of(entry));
+    Mockito.when(principalTs.entryRange(Mockito.anyLong(), Mockito.anyLong(), Mockito.anyInt()))
+        .thenReturn(List.of(entry));
+
+    final RedissonTimeSeriesAuditEventRepository repository =
+        new RedissonTimeSeriesAuditEventRepository(client, "audit", this.mapper);
+    repository.setIndexRetention(Duration.ofHours(1));
+
+    assertThat(repository.find("user1", null, null)).hasSize(1);
+    assertThat(repository.find("user1", null, null, null, 2).events()).hasSize(1);
+    Mockito.verifyNoInteractions(ts);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static RTimeSeries<Object, Object> mockTimeSeries(final RedissonClient client, final String name) {
+    final RTimeSeries<Object, Object> ts = Mockito.mock(RTimeSeries.class);
+    Mockito.doReturn(ts).when(client).getTimeSeries(name);
+    return ts;
+  }
+
+  private static AuditEvent event(final String principal, final long timestamp) {
+    return new AuditEvent(Instant.ofEpochMilli(timestamp), principal, "TYPE", Map.of("key", "value"));
+  }
+
+}
@@ -23,10 +23,15 @@ import org.mockito.Mockito;
 import org.opensaml.core.xml.util.XMLObjectSupport;
 import org.opensaml.saml.saml2.core.Assertion;
 import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Response;
 import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.credential.UsageType;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.security.config.Customizer;
+import se.swedenconnect.opensaml.saml2.metadata.build.EntityDescriptorBuilder;
+import se.swedenconnect.opensaml.saml2.metadata.build.KeyDescriptorBuilder;
 import se.swedenconnect.opensaml.saml2.metadata.build.SPSSODescriptorBuilder;
 import se.swedenconnect.opensaml.sweid.saml2.attribute.AttributeConstants;
 import se.swedenconnect.opensaml.sweid.saml2.authn.LevelOfAssuranceUris;
@@ -41,13 +46,20 @@ import se.swedenconnect.spring.saml.idp.attributes.release.DefaultAttributeRelea
 import se.swedenconnect.spring.saml.idp.attributes.release.ReleaseAllAttributeProducer;
 import se.swedenconnect.spring.saml.idp.authnrequest.Saml2AuthnRequestAuthenticationToken;
 import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+import se.swedenconnect.spring.saml.idp.events.Saml2IdpEventPublisher;
+import se.swedenconnect.spring.saml.idp.response.Saml2ResponseAttributes;
+import se.swedenconnect.spring.saml.idp.response.Saml2ResponseBuilder;
+import se.swedenconnect.spring.saml.idp.response.SigningPolicy;
 import se.swedenconnect.spring.saml.idp.settings.AssertionSettings;
 import se.swedenconnect.spring.saml.idp.utils.DefaultSaml2MessageIDGenerator;
 
 import java.io.InputStream;
 import java.security.KeyStore;
 import java.time.Instant;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Test cases for Saml2AssertionBuilder.
@@ -200,6 +212,110 @@ public class Saml2AssertionBuilderTest extends OpenSamlTestBase {
     Assertions.assertTrue(assertion.getAttributeStatements().get(0).getAttributes().size() == 2);
   }
 
+  @Test
+  public void testSigningPolicy() {
+    final AttributeReleaseManager releaseManager =
+        new DefaultAttributeReleaseManager(List.of(new ReleaseAllAttributeProducer()), null);
+    final Saml2AssertionBuilder builder = new Saml2AssertionBuilder(IDP, credential, releaseManager);
+
+    // The policy says response only, but the SP requirement that assertions are signed is honoured ...
+    builder.setSigningPolicyResolver(p -> SigningPolicy.RESPONSE_ONLY);
+    Assertions.assertTrue(builder.buildAssertion(createToken(true)).isSigned());
+    Assertions.assertFalse(builder.buildAssertion(createToken(false)).isSigned());
+
+    // The SP does not want assertions signed, but the policy says assertion only ...
+    builder.setSigningPolicyResolver(p -> SigningPolicy.ASSERTION_ONLY);
+    Assertions.assertTrue(builder.buildAssertion(createToken(false)).isSigned());
+
+    builder.setSigningPolicyResolver(p -> SigningPolicy.BOTH);
+    Assertions.assertTrue(builder.buildAssertion(createToken(true)).isSigned());
+    Assertions.assertTrue(builder.buildAssertion(createToken(false)).isSigned());
+  }
+
+  @Test
+  public void testSigningPolicyOutcomes() throws Exception {
+    final PkiCredential encryptCredential;
+    try (final InputStream is = new ClassPathResource("test-sp.jks").getInputStream()) {
+      final KeyStore keyStore = KeyStoreFactory.loadKeyStore(is, "secret".toCharArray(), null, null);
+      encryptCredential = new KeyStoreCredential(keyStore, "encrypt", "secret".toCharArray());
+    }
+    final EntityDescriptor metadata = EntityDescriptorBuilder.builder()
+        .entityID(SP)
+        .roleDescriptors(
+            SPSSODescriptorBuilder.builder()
+                .wantAssertionsSigned(false)
+                .keyDescriptors(
+                    KeyDescriptorBuilder.builder()
+                        .use(UsageType.ENCRYPTION)
+                        .certificate(encryptCredential.getCertificate())
+                        .build())
+                .build())
+        .build();
+
+    final Saml2AssertionBuilder assertionBuilder = new Saml2AssertionBuilder(IDP, credential,
+        new DefaultAttributeReleaseManager(List.of(new ReleaseAllAttributeProducer()), null));
+    final Saml2ResponseBuilder responseBuilder = new Saml2ResponseBuilder(IDP, credential,
+        new Saml2IdpEventPublisher(Mockito.mock(ApplicationEventPublisher.class)));
+    responseBuilder.setEncryptAssertions(true);
+
+    // Pairs of (response signed, assertion signed) ...
+    //
+    final Map<SigningPolicy, List<Boolean>> outcomes = new EnumMap<>(SigningPolicy.class);
+    for (final SigningPolicy policy : SigningPolicy.values()) {
+      assertionBuilder.setSigningPolicyResolver(p -> policy);
+      responseBuilder.setSigningPolicyResolver(p -> policy);
+
+      final Assertion assertion = assertionBuilder.buildAssertion(createToken(metadata));
+      final Saml2ResponseAttributes responseAttributes = new Saml2ResponseAttributes();
+      responseAttributes.setDestination(ASSERTION_CONSUMER_SERVICE_URL);
+      responseAttributes.setInResponseTo(AUTHNREQUEST_ID);
+      responseAttributes.setPeerMetadata(metadata);
+      final Response response = responseBuilder.buildResponse(responseAttributes, assertion);
+
+      outcomes.put(policy, List.of(response.isSigned(), assertion.isSigned()));
+    }
+
+    Assertions.assertEquals(List.of(true, true), outcomes.get(SigningPolicy.BOTH));
+    Assertions.assertEquals(List.of(true, false), outcomes.get(SigningPolicy.RESPONSE_ONLY));
+    Assertions.assertEquals(List.of(false, true), outcomes.get(SigningPolicy.ASSERTION_ONLY));
+    Assertions.assertEquals(3, new HashSet<>(outcomes.values()).size());
+  }
+
+  private static Saml2UserAuthentication createToken(final boolean wantAssertionsSigned) {
+    final EntityDescriptor entityDescriptor =
+        (EntityDescriptor) XMLObjectSupport.buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+    entityDescriptor.setEntityID(SP);
+    entityDescriptor.getRoleDescriptors().add(
+        SPSSODescriptorBuilder.builder().wantAssertionsSigned(wantAssertionsSigned).build());
+    return createToken(entityDescriptor);
+  }
+
+  private static Saml2UserAuthentication createToken(final EntityDescriptor entityDescriptor) {
+    final Saml2AuthnRequestAuthenticationToken authnRequestToken =
+        Mockito.mock(Saml2AuthnRequestAuthenticationToken.class);
+    Mockito.when(authnRequestToken.getLogString()).thenReturn("logstring");
+    Mockito.when(authnRequestToken.getNameIDGenerator()).thenReturn(new PersistentNameIDGenerator(IDP, SP));
+    Mockito.when(authnRequestToken.getEntityId()).thenReturn(SP);
+
+    final AuthnRequest authnRequest = (AuthnRequest) XMLObjectSupport.buildXMLObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+    authnRequest.setID(AUTHNREQUEST_ID);
+    Mockito.when(authnRequestToken.getAuthnRequest()).thenReturn(authnRequest);
+
+    Mockito.when(authnRequestToken.getPeerMetadata()).thenReturn(entityDescriptor);
+    Mockito.when(authnRequestToken.getAssertionConsumerServiceUrl()).thenReturn(ASSERTION_CONSUMER_SERVICE_URL);
+
+    final Saml2UserDetails userDetails = new Saml2UserDetails(List.of(
+        new UserAttribute(AttributeConstants.ATTRIBUTE_NAME_PERSONAL_IDENTITY_NUMBER,
+            AttributeConstants.ATTRIBUTE_FRIENDLY_NAME_PERSONAL_IDENTITY_NUMBER,
+            "197705232382")),
+        AttributeConstants.ATTRIBUTE_NAME_PERSONAL_IDENTITY_NUMBER, LevelOfAssuranceUris.AUTHN_CONTEXT_URI_LOA3,
+        Instant.now().minusSeconds(10), "235.87.12.4");
+
+    final Saml2UserAuthentication token = new Saml2UserAuthentication(userDetails);
+    token.setAuthnRequestToken(authnRequestToken);
+    return token;
+  }
+
   @Test
   public void testMissingAuthnRequestToken() {
     final AttributeReleaseManager releaseManager =
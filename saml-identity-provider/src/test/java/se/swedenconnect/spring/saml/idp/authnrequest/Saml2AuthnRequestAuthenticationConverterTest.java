@@ -193,6 +193,144 @@ public class Saml2AuthnRequestAuthenticationConverterTest extends OpenSamlTestBa
     Assertions.assertEquals(SAMLConstants.SAML2_POST_BINDING_URI, token.getBindingUri());
   }
 
+  @Test
+  public void testRedirectFastDecoding() throws Exception {
+
+    final RequestHttpObject<AuthnRequest> authnRequest =
+        this.getSamlRequest(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
+
+    final UriComponents uriComponents = UriComponentsBuilder.fromUriString(authnRequest.getSendUrl()).build();
+    final MultiValueMap<String, String> parameters = uriComponents.getQueryParams();
+
+    final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getMethod()).thenReturn("GET");
+    Mockito.when(request.getContentType()).thenReturn("application/xml");
+
+    Mockito.when(request.getRequestURL()).thenReturn(new StringBuffer(REDIRECT_RECEIVE_URL));
+
+    for (final String p : parameters.keySet()) {
+      String value = parameters.getFirst(p);
+      if (value != null) {
+        value = URLDecoder.decode(value, StandardCharsets.UTF_8);
+      }
+      Mockito.when(request.getParameter(Mockito.matches(p))).thenReturn(value);
+    }
+
+    final ServletRequestAttributes servletRequestAttributes = Mockito.mock(ServletRequestAttributes.class);
+    Mockito.when(servletRequestAttributes.getRequest()).thenReturn(request);
+
+    this.rcHolder.when(RequestContextHolder::getRequestAttributes).thenReturn(servletRequestAttributes);
+
+    final MetadataResolver metadataResolver = Mockito.mock(MetadataResolver.class);
+    Mockito.when(metadataResolver.resolveSingle(Mockito.any())).thenReturn(spMetadata);
+
+    final IdentityProviderSettings settings = IdentityProviderSettings.builder()
+        .fastRequestDecoding(true)
+        .build();
+
+    final Saml2AuthnRequestAuthenticationConverter converter =
+        new Saml2AuthnRequestAuthenticationConverter(metadataResolver, settings);
+
+    final Authentication a = converter.convert(request);
+
+    Assertions.assertTrue(a instanceof Saml2AuthnRequestAuthenticationToken);
+    final Saml2AuthnRequestAuthenticationToken token = (Saml2AuthnRequestAuthenticationToken) a;
+    Assertions.assertEquals(authnRequest.getRequest().getID(), token.getAuthnRequest().getID());
+    Assertions.assertNotNull(token.getPeerMetadata());
+    Assertions.assertEquals(RELAY_STATE, token.getRelayState());
+    Assertions.assertEquals(SAMLConstants.SAML2_REDIRECT_BINDING_URI, token.getBindingUri());
+
+    // Decode once more to make sure that the reused buffers are handled correctly ...
+    final Saml2AuthnRequestAuthenticationToken token2 =
+        (Saml2AuthnRequestAuthenticationToken) converter.convert(request);
+    Assertions.assertEquals(authnRequest.getRequest().getID(), token2.getAuthnRequest().getID());
+  }
+
+  @Test
+  public void testPostFastDecoding() throws Exception {
+
+    final RequestHttpObject<AuthnRequest> authnRequest =
+        this.getSamlRequest(SAMLConstants.SAML2_POST_BINDING_URI);
+
+    final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getMethod()).thenReturn("POST");
+    Mockito.when(request.getContentType()).thenReturn("application/xml");
+
+    Mockito.when(request.getRequestURL()).thenReturn(new StringBuffer(POST_RECEIVE_URL));
+
+    for (final Map.Entry<String, String> e : authnRequest.getRequestParameters().entrySet()) {
+      Mockito.when(request.getParameter(Mockito.matches(e.getKey()))).thenReturn(e.getValue());
+    }
+
+    final ServletRequestAttributes servletRequestAttributes = Mockito.mock(ServletRequestAttributes.class);
+    Mockito.when(servletRequestAttributes.getRequest()).thenReturn(request);
+
+    this.rcHolder.when(RequestContextHolder::getRequestAttributes).thenReturn(servletRequestAttributes);
+
+    final MetadataResolver metadataResolver = Mockito.mock(MetadataResolver.class);
+    Mockito.when(metadataResolver.resolveSingle(Mockito.any())).thenReturn(spMetadata);
+
+    final IdentityProviderSettings settings = IdentityProviderSettings.builder()
+        .fastRequestDecoding(true)
+        .build();
+
+    final Saml2AuthnRequestAuthenticationConverter converter =
+        new Saml2AuthnRequestAuthenticationConverter(metadataResolver, settings);
+
+    final Authentication a = converter.convert(request);
+
+    Assertions.assertTrue(a instanceof Saml2AuthnRequestAuthenticationToken);
+    final Saml2AuthnRequestAuthenticationToken token = (Saml2AuthnRequestAuthenticationToken) a;
+    Assertions.assertNotNull(token.getAuthnRequest());
+    Assertions.assertEquals(RELAY_STATE, token.getRelayState());
+    Assertions.assertEquals(SAMLConstants.SAML2_POST_BINDING_URI, token.getBindingUri());
+  }
+
+  @Test
+  public void testDecodeErrorFastDecoding() throws Exception {
+
+    final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getMethod()).thenReturn("GET");
+    Mockito.when(request.getParameter(Mockito.matches("SAMLRequest"))).thenReturn("HJHKDJKHSKJHDKS");
+
+    final IdentityProviderSettings settings = IdentityProviderSettings.builder()
+        .fastRequestDecoding(true)
+        .build();
+
+    final Saml2AuthnRequestAuthenticationConverter converter =
+        new Saml2AuthnRequestAuthenticationConverter(Mockito.mock(MetadataResolver.class), settings);
+
+    Assertions.assertEquals(UnrecoverableSaml2IdpError.FAILED_DECODE,
+        Assertions.assertThrows(UnrecoverableSaml2IdpException.class, () -> converter.convert(request))
+          .getError());
+  }
+
+  @Test
+  public void testMaxInflatedRequestSizeFastDecoding() throws Exception {
+
+    final RequestHttpObject<AuthnRequest> authnRequest =
+        this.getSamlRequest(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
+    final String samlRequest = UriComponentsBuilder.fromUriString(authnRequest.getSendUrl()).build()
+        .getQueryParams().getFirst("SAMLRequest");
+
+    final HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    Mockito.when(request.getMethod()).thenReturn("GET");
+    Mockito.when(request.getParameter(Mockito.matches("SAMLRequest")))
+        .thenReturn(URLDecoder.decode(samlRequest, StandardCharsets.UTF_8));
+
+    final IdentityProviderSettings settings = IdentityProviderSettings.builder()
+        .fastRequestDecoding(true)
+        .maxInflatedRequestSize(100)
+        .build();
+
+    final Saml2AuthnRequestAuthenticationConverter converter =
+        new Saml2AuthnRequestAuthenticationConverter(Mockito.mock(MetadataResolver.class), settings);
+
+    Assertions.assertEquals(UnrecoverableSaml2IdpError.FAILED_DECODE,
+        Assertions.assertThrows(UnrecoverableSaml2IdpException.class, () -> converter.convert(request))
+          .getError());
+  }
+
   @Test
   public void testBadMethod() throws Exception {
     final MetadataResolver metadataResolver = Mockito.mock(MetadataResolver.class);
@@ -15,6 +15,9 @@
  */
 package se.swedenconnect.spring.saml.idp.authnrequest;
 
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -33,18 +36,27 @@ import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGenerator;
 import se.swedenconnect.spring.saml.idp.attributes.nameid.NameIDGeneratorFactory;
 import se.swedenconnect.spring.saml.idp.authentication.Saml2UserAuthenticationInputToken;
 import se.swedenconnect.spring.saml.idp.authnrequest.authncontext.AuthnContextResolver;
+import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestValidationStage;
 import se.swedenconnect.spring.saml.idp.authnrequest.validation.AuthnRequestValidator;
 import se.swedenconnect.spring.saml.idp.context.Saml2IdpContext;
 import se.swedenconnect.spring.saml.idp.context.Saml2IdpContextHolder;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatus;
 import se.swedenconnect.spring.saml.idp.error.Saml2ErrorStatusException;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
 import se.swedenconnect.spring.saml.idp.events.Saml2IdpEventPublisher;
 import se.swedenconnect.spring.saml.idp.extensions.SignatureMessageExtensionExtractor;
 import se.swedenconnect.spring.saml.idp.response.Saml2ResponseAttributes;
 import se.swedenconnect.spring.saml.idp.settings.IdentityProviderSettings;
 
 import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test cases for Saml2AuthnRequestAuthenticationProvider.
@@ -229,4 +241,274 @@ public class Saml2AuthnRequestAuthenticationProviderTest {
 
   }
 
+  @Test
+  void testNotAuthorizedSignatureValidationLast() {
+
+    final AuthnRequestValidator signatureValidator = Mockito.mock(AuthnRequestValidator.class);
+
+    final AuthnRequestValidator assertionConsumerServiceValidator = Mockito.mock(AuthnRequestValidator.class);
+    Mockito.doAnswer(invocation -> {
+      final Saml2AuthnRequestAuthenticationToken t = invocation.getArgument(0);
+      t.setAssertionConsumerServiceUrl(ACS);
+      return null;
+    }).when(assertionConsumerServiceValidator).validate(Mockito.any());
+
+    final AuthnRequestValidator replayValidator = Mockito.mock(AuthnRequestValidator.class);
+    final AuthnRequestValidator encryptCapabilitiesValidator = Mockito.mock(AuthnRequestValidator.class);
+
+    final Saml2IdpEventPublisher publisher = new Saml2IdpEventPublisher(Mockito.mock(ApplicationEventPublisher.class));
+
+    final Saml2AuthnRequestAuthenticationProvider provider = new Saml2AuthnRequestAuthenticationProvider(
+        publisher, signatureValidator, assertionConsumerServiceValidator, replayValidator,
+        encryptCapabilitiesValidator, List.of(), Mockito.mock(NameIDGeneratorFactory.class),
+        entityDescriptor -> false, new AuthnContextResolver(), null, null);
+    provider.setSignatureValidationLast(true);
+
+    final AuthnRequest authnRequest = Mockito.mock(AuthnRequest.class);
+    Mockito.when(authnRequest.getID()).thenReturn("ID");
+    final Issuer issuer = Mockito.mock(Issuer.class);
+    Mockito.when(issuer.getValue()).thenReturn("issuer");
+    Mockito.when(authnRequest.getIssuer()).thenReturn(issuer);
+
+    final Saml2AuthnRequestAuthenticationToken token =
+        new Saml2AuthnRequestAuthenticationToken(authnRequest, "the-relay-state");
+
+    final EntityDescriptor entityDescriptor = Mockito.mock(EntityDescriptor.class);
+    Mockito.when(entityDescriptor.getEntityID()).thenReturn("ID");
+    token.setPeerMetadata(entityDescriptor);
+
+    final Saml2ErrorStatusException error =
+        Assertions.assertThrows(Saml2ErrorStatusException.class, () -> provider.authenticate(token));
+    Assertions.assertEquals(Saml2ErrorStatus.NOT_AUTHORIZED.getDefaultStatusMessage(), error.getMessage());
+
+    // The SP was rejected before its signature was checked ...
+    Mockito.verify(encryptCapabilitiesValidator).validate(token);
+    Mockito.verifyNoInteractions(signatureValidator);
+  }
+
+  @Test
+  void testConcurrentReplayCheckTakesPrecedence() {
+
+    // The replay check does not complete until the signature validation has failed ...
+    final CountDownLatch signatureChecked = new CountDownLatch(1);
+
+    final AuthnRequestValidator signatureValidator = Mockito.mock(AuthnRequestValidator.class);
+    Mockito.doAnswer(invocation -> {
+      signatureChecked.countDown();
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.INVALID_AUTHNREQUEST_SIGNATURE,
+          invocation.<Authentication>getArgument(0));
+    }).when(signatureValidator).validate(Mockito.any());
+
+    final AuthnRequestValidator replayValidator = Mockito.mock(AuthnRequestValidator.class);
+    Mockito.doAnswer(invocation -> {
+      Assertions.assertTrue(signatureChecked.await(10, TimeUnit.SECONDS));
+      throw new UnrecoverableSaml2IdpException(UnrecoverableSaml2IdpError.REPLAY_DETECTED,
+          invocation.<Authentication>getArgument(0));
+    }).when(replayValidator).validate(Mockito.any());
+
+    final AuthnRequestValidator assertionConsumerServiceValidator = Mockito.mock(AuthnRequestValidator.class);
+    Mockito.doAnswer(invocation -> {
+      final Saml2AuthnRequestAuthenticationToken t = invocation.getArgument(0);
+      t.setAssertionConsumerServiceUrl(ACS);
+      return null;
+    }).when(assertionConsumerServiceValidator).validate(Mockito.any());
+
+    final Saml2IdpEventPublisher publisher = new Saml2IdpEventPublisher(Mockito.mock(ApplicationEventPublisher.class));
+
+    final Saml2AuthnRequestAuthenticationProvider provider = new Saml2AuthnRequestAuthenticationProvider(
+        publisher, signatureValidator, assertionConsumerServiceValidator, replayValidator,
+        Mockito.mock(AuthnRequestValidator.class), List.of(Mockito.mock(RequestedAttributeProcessor.class)),
+        Mockito.mock(NameIDGeneratorFactory.class), entityDescriptor -> true, new AuthnContextResolver(), null, null);
+
+    final AuthnRequest authnRequest = Mockito.mock(AuthnRequest.class);
+    Mockito.when(authnRequest.getID()).thenReturn("ID");
+    final Issuer issuer = Mockito.mock(Issuer.class);
+    Mockito.when(issuer.getValue()).thenReturn("issuer");
+    Mockito.when(authnRequest.getIssuer()).thenReturn(issuer);
+
+    final Saml2AuthnRequestAuthenticationToken token =
+        new Saml2AuthnRequestAuthenticationToken(authnRequest, "the-relay-state");
+
+    try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      provider.setValidationExecutor(executor);
+
+      final UnrecoverableSaml2IdpException error =
+          Assertions.assertThrows(UnrecoverableSaml2IdpException.class, () -> provider.authenticate(token));
+      Assertions.assertEquals(UnrecoverableSaml2IdpError.REPLAY_DETECTED, error.getError());
+    }
+
+    // Response attributes are not set up for a replayed request ...
+    Assertions.assertNull(Saml2IdpContextHolder.getContext().getResponseAttributes().getDestination());
+  }
+
+  @Test
+  void testObservedValidationChain() {
+
+    final List<Observation.Context> observed = Collections.synchronizedList(new ArrayList<>());
+    final ObservationRegistry registry = ObservationRegistry.create();
+    registry.observationConfig().observationHandler(new ObservationHandler<>() {
+
+      @Override
+      public boolean supportsContext(final Observation.Context context) {
+        return true;
+      }
+
+      @Override
+      public void onStop(final Observation.Context context) {
+        observed.add(context);
+      }
+    });
+
+    final AuthnRequestValidator assertionConsumerServiceValidator = Mockito.mock(AuthnRequestValidator.class);
+    Mockito.doAnswer(invocation -> {
+      final Saml2AuthnRequestAuthenticationToken t = invocation.getArgument(0);
+      t.setAssertionConsumerServiceUrl(ACS);
+      return null;
+    }).when(assertionConsumerServiceValidator).validate(Mockito.any());
+
+    final AuthnRequestValidator passingValidator = Mockito.mock(AuthnRequestValidator.class);
+
+    final Saml2IdpEventPublisher publisher = new Saml2IdpEventPublisher(Mockito.mock(ApplicationEventPublisher.class));
+
+    final Saml2AuthnRequestAuthenticationProvider provider = new Saml2AuthnRequestAuthenticationProvider(
+        publisher, Mockito.mock(AuthnRequestValidator.class), assertionConsumerServiceValidator,
+        Mockito.mock(AuthnRequestValidator.class), Mockito.mock(AuthnRequestValidator.class),
+        List.of(Mockito.mock(RequestedAttributeProcessor.class)), Mockito.mock(NameIDGeneratorFactory.class),
+        entityDescriptor -> true, new AuthnContextResolver(), null, null);
+    final List<AuthnRequestValidationStage> chain = new ArrayList<>(provider.getValidationChain());
+    chain.add(new AuthnRequestValidationStage("passing", passingValidator));
+    chain.add(new AuthnRequestValidationStage("rejecting", new RejectingValidator()));
+    provider.setValidationChain(chain);
+    provider.setObservationRegistry(registry);
+
+    final AuthnRequest authnRequest = Mockito.mock(AuthnRequest.class);
+    Mockito.when(authnRequest.getID()).thenReturn("ID");
+    final Issuer issuer = Mockito.mock(Issuer.class);
+    Mockito.when(issuer.getValue()).thenReturn("issuer");
+    Mockito.when(authnRequest.getIssuer()).thenReturn(issuer);
+
+    final Saml2AuthnRequestAuthenticationToken token =
+        new Saml2AuthnRequestAuthenticationToken(authnRequest, "the-relay-state");
+
+    final Saml2ErrorStatusException error =
+        Assertions.assertThrows(Saml2ErrorStatusException.class, () -> provider.authenticate(token));
+    Assertions.assertEquals(Saml2ErrorStatus.NOT_AUTHORIZED.getDefaultStatusMessage(), error.getMessage());
+    Mockito.verify(passingValidator).validate(token);
+
+    Assertions.assertEquals(
+        List.of("replay", "assertion-consumer-service", "signature", "encrypt-capabilities", "sp-filter", "passing",
+            "rejecting"),
+        observed.stream()
+            .map(c -> c.getLowCardinalityKeyValue(Saml2AuthnRequestAuthenticationProvider.VALIDATOR_KEY).getValue())
+            .toList());
+    Assertions.assertTrue(observed.stream()
+        .allMatch(c -> Saml2AuthnRequestAuthenticationProvider.VALIDATION_OBSERVATION_NAME.equals(c.getName())));
+    Assertions.assertTrue(observed.stream()
+        .map(c -> c.getHighCardinalityKeyValue(Saml2AuthnRequestAuthenticationProvider.SP_KEY).getValue())
+        .allMatch("issuer"::equals));
+    Assertions.assertTrue(observed.stream()
+        .allMatch(c -> c.getLowCardinalityKeyValue(Saml2AuthnRequestAuthenticationProvider.SP_KEY) == null));
+    Assertions.assertTrue(observed.subList(0, observed.size() - 1).stream().allMatch(c -> c.getError() == null));
+    Assertions.assertSame(error, observed.get(observed.size() - 1).getError());
+  }
+
+  @Test
+  void testObservedValidationChainWithLowCardinalitySpTag() {
+
+    final List<Observation.Context> observed = Collections.synchronizedList(new ArrayList<>());
+    final ObservationRegistry registry = ObservationRegistry.create();
+    registry.observationConfig().observationHandler(new ObservationHandler<>() {
+
+      @Override
+      public boolean supportsContext(final Observation.Context context) {
+        return true;
+      }
+
+      @Override
+      public void onStop(final Observation.Context context) {
+        observed.add(context);
+      }
+    });
+
+    final AuthnRequestValidator assertionConsumerServiceValidator = Mockito.mock(AuthnRequestValidator.class);
+    Mockito.doAnswer(invocation -> {
+      final Saml2AuthnRequestAuthenticationToken t = invocation.getArgument(0);
+      t.setAssertionConsumerServiceUrl(ACS);
+      return null;
+    }).when(assertionConsumerServiceValidator).validate(Mockito.any());
+
+    final Saml2AuthnRequestAuthenticationProvider provider = new Saml2AuthnRequestAuthenticationProvider(
+        new Saml2IdpEventPublisher(Mockito.mock(ApplicationEventPublisher.class)),
+        Mockito.mock(AuthnRequestValidator.class), assertionConsumerServiceValidator,
+        Mockito.mock(AuthnRequestValidator.class), Mockito.mock(AuthnRequestValidator.class),
+        List.of(Mockito.mock(RequestedAttributeProcessor.class)), Mockito.mock(NameIDGeneratorFactory.class),
+        entityDescriptor -> true, new AuthnContextResolver(), null, null);
+    final List<AuthnRequestValidationStage> chain = new ArrayList<>(provider.getValidationChain());
+    chain.add(new AuthnRequestValidationStage("rejecting", new RejectingValidator()));
+    provider.setValidationChain(chain);
+    provider.setObservationRegistry(registry);
+    provider.setLowCardinalitySpTag(true);
+
+    final AuthnRequest authnRequest = Mockito.mock(AuthnRequest.class);
+    Mockito.when(authnRequest.getID()).thenReturn("ID");
+    final Issuer issuer = Mockito.mock(Issuer.class);
+    Mockito.when(issuer.getValue()).thenReturn("issuer");
+    Mockito.when(authnRequest.getIssuer()).thenReturn(issuer);
+
+    Assertions.assertThrows(Saml2ErrorStatusException.class,
+        () -> provider.authenticate(new Saml2AuthnRequestAuthenticationToken(authnRequest, "the-relay-state")));
+
+    Assertions.assertEquals(chain.size(), observed.size());
+    Assertions.assertTrue(observed.stream()
+        .map(c -> c.getLowCardinalityKeyValue(Saml2AuthnRequestAuthenticationProvider.SP_KEY).getValue())
+        .allMatch("issuer"::equals));
+    Assertions.assertTrue(observed.stream()
+        .allMatch(c -> c.getHighCardinalityKeyValue(Saml2AuthnRequestAuthenticationProvider.SP_KEY) == null));
+  }
+
+  @Test
+  void testValidationChainOrdering() {
+    final Saml2AuthnRequestAuthenticationProvider provider = new Saml2AuthnRequestAuthenticationProvider(
+        new Saml2IdpEventPublisher(Mockito.mock(ApplicationEventPublisher.class)),
+        Mockito.mock(AuthnRequestValidator.class), Mockito.mock(AuthnRequestValidator.class),
+        Mockito.mock(AuthnRequestValidator.class), Mockito.mock(AuthnRequestValidator.class),
+        List.of(Mockito.mock(RequestedAttributeProcessor.class)), Mockito.mock(NameIDGeneratorFactory.class),
+        entityDescriptor -> true, new AuthnContextResolver(), null, null);
+
+    provider.setSignatureValidationLast(true);
+    Assertions.assertEquals(
+        List.of("replay", "assertion-consumer-service", "encrypt-capabilities", "sp-filter", "signature"),
+        provider.getValidationChain().stream().map(AuthnRequestValidationStage::name).toList());
+
+    provider.setSignatureValidationLast(false);
+    Assertions.assertEquals(
+        List.of("replay", "assertion-consumer-service", "signature", "encrypt-capabilities", "sp-filter"),
+        provider.getValidationChain().stream().map(AuthnRequestValidationStage::name).toList());
+
+    final List<AuthnRequestValidationStage> chain = new ArrayList<>(provider.getValidationChain());
+    final AuthnRequestValidationStage replay = chain.removeFirst();
+
+    // Replay after the ACS check ...
+    chain.add(replay);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> provider.setValidationChain(chain));
+
+    // Duplicate stage names ...
+    chain.removeLast();
+    chain.add(new AuthnRequestValidationStage(AuthnRequestValidationStage.SIGNATURE,
+        Mockito.mock(AuthnRequestValidator.class)));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> provider.setValidationChain(chain));
+
+    // No ACS check ...
+    Assertions.assertThrows(IllegalArgumentException.class, () -> provider.setValidationChain(List.of(replay)));
+  }
+
+  private static class RejectingValidator implements AuthnRequestValidator {
+
+    @Override
+    public void validate(final Saml2AuthnRequestAuthenticationToken authnRequestToken) {
+      throw new Saml2ErrorStatusException(Saml2ErrorStatus.NOT_AUTHORIZED);
+    }
+
+  }
+
 }
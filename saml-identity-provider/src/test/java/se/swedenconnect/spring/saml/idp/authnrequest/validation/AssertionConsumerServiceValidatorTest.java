@@ -0,0 +1,111 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+import se.swedenconnect.spring.saml.idp.authnrequest.Saml2AuthnRequestAuthenticationToken;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+
+/**
+ * Test cases for AssertionConsumerServiceValidator.
+ *
+ * @author Martin Lindström
+ */
+public class AssertionConsumerServiceValidatorTest extends OpenSamlTestBase {
+
+  private static final String SP = "https://sp.example.com";
+
+  @Test
+  void testByIndexAndUrl() {
+    final AssertionConsumerServiceValidator validator = new AssertionConsumerServiceValidator();
+    final EntityDescriptor metadata = createMetadata();
+
+    Assertions.assertEquals("https://sp.example.com/acs2", this.validate(validator, metadata, null, 2));
+    Assertions.assertEquals("https://sp.example.com/acs1",
+        this.validate(validator, metadata, "https://SP.example.com:443/acs1", null));
+    Assertions.assertEquals("https://sp.example.com/acs3",
+        this.validate(validator, metadata, "https://sp.example.com/acs3", null));
+
+    // The first match, in metadata order, is used
+    Assertions.assertEquals("https://sp.example.com/acs1",
+        this.validate(validator, metadata, "https://sp.example.com/acs1", 2));
+    Assertions.assertEquals("https://sp.example.com/acs1",
+        this.validate(validator, metadata, "https://sp.example.com/acs2", 1));
+
+    // Default
+    Assertions.assertEquals("https://sp.example.com/acs1", this.validate(validator, metadata, null, null));
+
+    Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+        () -> this.validate(validator, metadata, "https://sp.example.com/other", null));
+    Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+        () -> this.validate(validator, metadata, "https://sp.example.com/ACS1", null));
+    Assertions.assertThrows(UnrecoverableSaml2IdpException.class,
+        () -> this.validate(validator, metadata, null, 5));
+  }
+
+  @Test
+  void testCanonicalize() {
+    Assertions.assertEquals("https://sp.example.com/acs?a=B",
+        AssertionConsumerServiceValidator.canonicalize("HTTPS://SP.Example.com:443/acs?a=B"));
+    Assertions.assertEquals("http://sp.example.com:8443/acs",
+        AssertionConsumerServiceValidator.canonicalize("http://sp.example.com:8443/acs"));
+    Assertions.assertNull(AssertionConsumerServiceValidator.canonicalize("/acs"));
+    Assertions.assertNull(AssertionConsumerServiceValidator.canonicalize("https://sp example"));
+  }
+
+  private String validate(final AssertionConsumerServiceValidator validator, final EntityDescriptor metadata,
+      final String url, final Integer index) {
+    final AuthnRequest authnRequest = (AuthnRequest) XMLObjectSupport.buildXMLObject(AuthnRequest.DEFAULT_ELEMENT_NAME);
+    authnRequest.setID("ID");
+    authnRequest.setAssertionConsumerServiceURL(url);
+    authnRequest.setAssertionConsumerServiceIndex(index);
+
+    final Saml2AuthnRequestAuthenticationToken token = new Saml2AuthnRequestAuthenticationToken(authnRequest, null);
+    token.setPeerMetadata(metadata);
+    validator.validate(token);
+    return token.getAssertionConsumerServiceUrl();
+  }
+
+  private static EntityDescriptor createMetadata() {
+    final EntityDescriptor ed = (EntityDescriptor) XMLObjectSupport.buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+    ed.setEntityID(SP);
+    final SPSSODescriptor ssoDescriptor =
+        (SPSSODescriptor) XMLObjectSupport.buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+    ssoDescriptor.addSupportedProtocol(SAMLConstants.SAML20P_NS);
+    for (int i = 1; i <= 3; i++) {
+      final AssertionConsumerService acs =
+          (AssertionConsumerService) XMLObjectSupport.buildXMLObject(AssertionConsumerService.DEFAULT_ELEMENT_NAME);
+      acs.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+      acs.setLocation("https://sp.example.com/acs" + i);
+      acs.setIndex(i);
+      if (i == 1) {
+        acs.setIsDefault(true);
+      }
+      ssoDescriptor.getAssertionConsumerServices().add(acs);
+    }
+    ed.getRoleDescriptors().add(ssoDescriptor);
+    return ed;
+  }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation.replay;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test cases for InMemoryReplayCache.
+ *
+ * @author Martin Lindström
+ */
+public class InMemoryReplayCacheTest {
+
+  private static final String CONTEXT = "ctx";
+
+  @Test
+  void testReplay() {
+    final TestClock clock = new TestClock();
+    try (final InMemoryReplayCache cache = new InMemoryReplayCache(10, Duration.ofSeconds(1), clock, false)) {
+      final Instant expires = clock.instant().plusSeconds(60);
+      Assertions.assertTrue(cache.check(CONTEXT, "ID1", expires));
+      Assertions.assertFalse(cache.check(CONTEXT, "ID1", expires));
+      Assertions.assertTrue(cache.check("other-context", "ID1", expires));
+      Assertions.assertTrue(cache.check(CONTEXT, "ID2", expires));
+
+      Assertions.assertEquals(1, cache.getHits());
+      Assertions.assertEquals(3, cache.getInserts());
+      Assertions.assertEquals(3, cache.getSize());
+    }
+  }
+
+  @Test
+  void testExpiry() {
+    final TestClock clock = new TestClock();
+    try (final InMemoryReplayCache cache = new InMemoryReplayCache(10, Duration.ofSeconds(1), clock, false)) {
+      Assertions.assertTrue(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(5)));
+      Assertions.assertTrue(cache.check(CONTEXT, "ID2", clock.instant().plusSeconds(60)));
+
+      cache.sweep();
+      Assertions.assertEquals(2, cache.getSize());
+
+      clock.advance(Duration.ofSeconds(10));
+      cache.sweep();
+      Assertions.assertEquals(1, cache.getSize());
+      Assertions.assertEquals(1, cache.getEvictions());
+
+      Assertions.assertTrue(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(5)));
+      Assertions.assertFalse(cache.check(CONTEXT, "ID2", clock.instant().plusSeconds(60)));
+    }
+  }
+
+  @Test
+  void testExpiredButNotSwept() {
+    final TestClock clock = new TestClock();
+    try (final InMemoryReplayCache cache = new InMemoryReplayCache(10, Duration.ofSeconds(1), clock, false)) {
+      Assertions.assertTrue(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(5)));
+      clock.advance(Duration.ofSeconds(10));
+      Assertions.assertTrue(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(5)));
+      Assertions.assertFalse(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(5)));
+
+      // The sweep of the old bucket must not remove the new entry ...
+      cache.sweep();
+      Assertions.assertFalse(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(5)));
+    }
+  }
+
+  @Test
+  void testMaxSize() {
+    final TestClock clock = new TestClock();
+    try (final InMemoryReplayCache cache = new InMemoryReplayCache(3, Duration.ofSeconds(1), clock, false)) {
+      Assertions.assertTrue(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(10)));
+      Assertions.assertTrue(cache.check(CONTEXT, "ID2", clock.instant().plusSeconds(20)));
+      Assertions.assertTrue(cache.check(CONTEXT, "ID3", clock.instant().plusSeconds(30)));
+
+      // The cache is full, and no entries have expired, so the new key is rejected ...
+      Assertions.assertFalse(cache.check(CONTEXT, "ID4", clock.instant().plusSeconds(40)));
+      Assertions.assertEquals(3, cache.getSize());
+      Assertions.assertEquals(0, cache.getEvictions());
+      Assertions.assertEquals(1, cache.getRejections());
+
+      // No entry that has not expired has been evicted ...
+      Assertions.assertFalse(cache.check(CONTEXT, "ID1", clock.instant().plusSeconds(10)));
+
+      // When the first entry has expired, there is room for a new key ...
+      clock.advance(Duration.ofSeconds(11));
+      Assertions.assertTrue(cache.check(CONTEXT, "ID4", clock.instant().plusSeconds(40)));
+      Assertions.assertEquals(1, cache.getEvictions());
+      Assertions.assertEquals(3, cache.getSize());
+    }
+  }
+
+  @Test
+  void testConcurrentCheck() throws Exception {
+    final int threads = 8;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (final InMemoryReplayCache cache = new InMemoryReplayCache(100)) {
+      final Instant expires = Instant.now().plusSeconds(60);
+      final CountDownLatch latch = new CountDownLatch(1);
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(() -> {
+          latch.await();
+          return cache.check(CONTEXT, "ID", expires);
+        }));
+      }
+      latch.countDown();
+      int passed = 0;
+      for (final Future<Boolean> f : results) {
+        if (f.get()) {
+          passed++;
+        }
+      }
+      Assertions.assertEquals(1, passed);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static class TestClock extends Clock {
+
+    private final AtomicReference<Instant> now = new AtomicReference<>(Instant.now());
+
+    void advance(final Duration duration) {
+      this.now.updateAndGet(i -> i.plus(duration));
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return this.now.get();
+    }
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation.replay;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Test cases for RedisKeyReplayCache.
+ *
+ * @author Martin Lindström
+ */
+public class RedisKeyReplayCacheTest {
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testCheck() {
+    final ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    Mockito.when(template.opsForValue()).thenReturn(ops);
+
+    Mockito.when(ops.setIfAbsent(Mockito.eq("ctx:ID1"), Mockito.anyString(), Mockito.any(Duration.class)))
+        .thenReturn(true, false);
+    Mockito.when(ops.setIfAbsent(Mockito.eq("ctx:ID2"), Mockito.anyString(), Mockito.any(Duration.class)))
+        .thenReturn(null);
+
+    final RedisKeyReplayCache cache = new RedisKeyReplayCache(template);
+    final Instant expires = Instant.now().plusSeconds(300);
+
+    Assertions.assertTrue(cache.check("ctx", "ID1", expires));
+    Assertions.assertFalse(cache.check("ctx", "ID1", expires));
+    Assertions.assertFalse(cache.check("ctx", "ID2", expires));
+
+    final ArgumentCaptor<Duration> ttl = ArgumentCaptor.forClass(Duration.class);
+    Mockito.verify(ops, Mockito.times(2)).setIfAbsent(Mockito.eq("ctx:ID1"), Mockito.anyString(), ttl.capture());
+    Assertions.assertTrue(ttl.getValue().compareTo(Duration.ofSeconds(290)) > 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testAlreadyExpired() {
+    final ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+    final StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+    Mockito.when(template.opsForValue()).thenReturn(ops);
+    Mockito.when(ops.setIfAbsent(Mockito.anyString(), Mockito.anyString(), Mockito.any(Duration.class)))
+        .thenReturn(true);
+
+    final RedisKeyReplayCache cache = new RedisKeyReplayCache(template);
+    Assertions.assertTrue(cache.check("ctx", "ID1", Instant.now().minusSeconds(10)));
+    Mockito.verify(ops).setIfAbsent(Mockito.anyString(), Mockito.anyString(), Mockito.eq(Duration.ofSeconds(1)));
+  }
+
+}
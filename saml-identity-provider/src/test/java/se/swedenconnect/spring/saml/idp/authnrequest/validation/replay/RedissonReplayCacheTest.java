@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.authnrequest.validation.replay;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.RedisTimeoutException;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Test cases for RedissonReplayCache.
+ *
+ * @author Martin Lindström
+ */
+public class RedissonReplayCacheTest {
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testCheck() {
+    final RBucket<Object> bucket = Mockito.mock(RBucket.class);
+    final RedissonClient client = Mockito.mock(RedissonClient.class);
+    Mockito.when(client.getBucket(Mockito.eq("ctx:ID1"), Mockito.eq(StringCodec.INSTANCE))).thenReturn(bucket);
+
+    Mockito.when(bucket.setIfAbsent(Mockito.any(), Mockito.any(Duration.class))).thenReturn(true, false);
+
+    final RedissonReplayCache cache = new RedissonReplayCache(client);
+    final Instant expires = Instant.now().plusSeconds(300);
+    Assertions.assertTrue(cache.check("ctx", "ID1", expires));
+    Assertions.assertFalse(cache.check("ctx", "ID1", expires));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testError() {
+    final RBucket<Object> bucket = Mockito.mock(RBucket.class);
+    final RedissonClient client = Mockito.mock(RedissonClient.class);
+    Mockito.when(client.getBucket(Mockito.anyString(), Mockito.eq(StringCodec.INSTANCE))).thenReturn(bucket);
+
+    Mockito.when(bucket.setIfAbsent(Mockito.any(), Mockito.any(Duration.class)))
+        .thenThrow(new RedisTimeoutException("timed out"));
+
+    final RedissonReplayCache cache = new RedissonReplayCache(client);
+    Assertions.assertThrows(IllegalStateException.class,
+        () -> cache.check("ctx", "ID1", Instant.now().plusSeconds(300)));
+  }
+
+}
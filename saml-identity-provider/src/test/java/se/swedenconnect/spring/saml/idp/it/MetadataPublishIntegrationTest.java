@@ -34,6 +34,7 @@ import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -64,6 +65,7 @@ import se.swedenconnect.spring.saml.idp.settings.MetadataSettings.ContactPersonT
 import se.swedenconnect.spring.saml.idp.settings.MetadataSettings.OrganizationSettings;
 
 import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -131,6 +133,48 @@ public class MetadataPublishIntegrationTest extends OpenSamlTestBase {
     Assertions.assertEquals(id, metadata2.getID());
   }
 
+  @Test
+  public void testConditionalDownload() throws Exception {
+
+    final MvcResult result = this.mvc.perform(
+            MockMvcRequestBuilders.get(EndpointSettings.SAML_METADATA_PUBLISH_ENDPOINT_DEFAULT))
+        .andExpect(status().isOk())
+        .andExpect(MockMvcResultMatchers.header().exists(HttpHeaders.LAST_MODIFIED))
+        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CACHE_CONTROL,
+            "max-age=" + MetadataSettings.SAML_METADATA_CACHE_DURATION_DEFAULT.toSeconds()))
+        .andReturn();
+
+    final String etag = result.getResponse().getHeader(HttpHeaders.ETAG);
+    Assertions.assertNotNull(etag);
+
+    this.mvc.perform(
+            MockMvcRequestBuilders.get(EndpointSettings.SAML_METADATA_PUBLISH_ENDPOINT_DEFAULT)
+                .header(HttpHeaders.IF_NONE_MATCH, etag))
+        .andExpect(status().isNotModified())
+        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, etag))
+        .andExpect(MockMvcResultMatchers.content().bytes(new byte[0]));
+
+    this.mvc.perform(
+            MockMvcRequestBuilders.get(EndpointSettings.SAML_METADATA_PUBLISH_ENDPOINT_DEFAULT)
+                .header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+        .andExpect(status().isOk());
+
+    // Gzip:ed variant ...
+    //
+    final MvcResult gzipResult = this.mvc.perform(
+            MockMvcRequestBuilders.get(EndpointSettings.SAML_METADATA_PUBLISH_ENDPOINT_DEFAULT)
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+        .andExpect(status().isOk())
+        .andExpect(MockMvcResultMatchers.header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+        .andReturn();
+    Assertions.assertNotEquals(etag, gzipResult.getResponse().getHeader(HttpHeaders.ETAG));
+
+    try (final GZIPInputStream in = new GZIPInputStream(
+        new ByteArrayInputStream(gzipResult.getResponse().getContentAsByteArray()))) {
+      Assertions.assertArrayEquals(result.getResponse().getContentAsByteArray(), in.readAllBytes());
+    }
+  }
+
   @Configuration
   @Import({CredentialConfiguration.class, Saml2IdpConfiguration.class})
   @EnableWebSecurity
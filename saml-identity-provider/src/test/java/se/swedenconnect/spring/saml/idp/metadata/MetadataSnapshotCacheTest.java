@@ -0,0 +1,99 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.metadata;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.RefreshableMetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.springframework.core.io.ClassPathResource;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+
+import java.time.Instant;
+
+/**
+ * Test cases for MetadataSnapshotCache.
+ *
+ * @author Martin Lindström
+ */
+public class MetadataSnapshotCacheTest extends OpenSamlTestBase {
+
+  @Test
+  void testSnapshotReused() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final MetadataResolver resolver = Mockito.mock(MetadataResolver.class);
+    Mockito.when(resolver.resolveSingle(Mockito.any())).thenReturn(ed);
+
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(resolver);
+    final MetadataSnapshot s1 = cache.resolve(ed.getEntityID());
+    final MetadataSnapshot s2 = cache.resolve(ed.getEntityID());
+
+    Assertions.assertNotNull(s1);
+    Assertions.assertSame(s1, s2);
+    Assertions.assertNotSame(ed, s1.getEntityDescriptor());
+    Assertions.assertEquals(ed.getEntityID(), s1.getEntityDescriptor().getEntityID());
+
+    // All callers share the one instance, rooted in its own DOM document ...
+    Assertions.assertSame(s1.getEntityDescriptor(), s2.getEntityDescriptor());
+    Assertions.assertNotSame(ed.getDOM().getOwnerDocument(), s1.getEntityDescriptor().getDOM().getOwnerDocument());
+    Assertions.assertEquals(ed.getEntityID(), s1.getEntityId());
+  }
+
+  @Test
+  void testNewDescriptorInstance() throws Exception {
+    final EntityDescriptor ed1 = this.loadMetadata();
+    final EntityDescriptor ed2 = this.loadMetadata();
+    final MetadataResolver resolver = Mockito.mock(MetadataResolver.class);
+
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(resolver);
+    final MetadataSnapshot s1 = cache.getSnapshot(ed1);
+    final MetadataSnapshot s2 = cache.getSnapshot(ed2);
+
+    Assertions.assertNotSame(s1, s2);
+    // Same contents should give the same version ...
+    Assertions.assertEquals(s1.getVersion(), s2.getVersion());
+  }
+
+  @Test
+  void testResolverRefresh() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final RefreshableMetadataResolver resolver = Mockito.mock(RefreshableMetadataResolver.class);
+    Mockito.when(resolver.getLastUpdate()).thenReturn(Instant.now().minusSeconds(60));
+
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(resolver);
+    final MetadataSnapshot s1 = cache.getSnapshot(ed);
+    Assertions.assertSame(s1, cache.getSnapshot(ed));
+
+    Mockito.when(resolver.getLastUpdate()).thenReturn(Instant.now());
+    Assertions.assertNotSame(s1, cache.getSnapshot(ed));
+  }
+
+  @Test
+  void testNotFound() throws Exception {
+    final MetadataResolver resolver = Mockito.mock(MetadataResolver.class);
+    Mockito.when(resolver.resolveSingle(Mockito.any())).thenReturn(null);
+
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(resolver);
+    Assertions.assertNull(cache.resolve("https://unknown.example.com"));
+  }
+
+  private EntityDescriptor loadMetadata() throws Exception {
+    return unmarshall(new ClassPathResource("sp-metadata.xml").getInputStream(), EntityDescriptor.class);
+  }
+
+}
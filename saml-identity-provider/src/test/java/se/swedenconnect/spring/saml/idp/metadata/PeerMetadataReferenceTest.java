@@ -0,0 +1,166 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.metadata;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.springframework.core.io.ClassPathResource;
+import se.swedenconnect.opensaml.common.utils.SerializableOpenSamlObject;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+import se.swedenconnect.spring.saml.idp.context.Saml2IdpContext;
+import se.swedenconnect.spring.saml.idp.context.Saml2IdpContextHolder;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpError;
+import se.swedenconnect.spring.saml.idp.error.UnrecoverableSaml2IdpException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Test cases for PeerMetadataReference.
+ *
+ * @author Martin Lindström
+ */
+public class PeerMetadataReferenceTest extends OpenSamlTestBase {
+
+  @AfterEach
+  void reset() {
+    Saml2IdpContextHolder.resetContext();
+  }
+
+  @Test
+  void testFull() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final PeerMetadataReference ref = PeerMetadataReference.of(ed);
+    Assertions.assertFalse(ref.isCompact());
+    Assertions.assertNull(ref.getVersion());
+
+    final PeerMetadataReference ref2 = serializeAndDeserialize(ref);
+    Assertions.assertEquals(ed.getEntityID(), ref2.getEntityId());
+    Assertions.assertEquals(ed.getEntityID(), ref2.get().getEntityID());
+  }
+
+  @Test
+  void testCompact() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final MetadataResolver resolver = Mockito.mock(MetadataResolver.class);
+    Mockito.when(resolver.resolveSingle(Mockito.any())).thenReturn(ed);
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(resolver);
+
+    final MetadataSnapshot snapshot = cache.getSnapshot(ed);
+    final PeerMetadataReference ref = PeerMetadataReference.of(snapshot, true);
+    Assertions.assertTrue(ref.isCompact());
+    Assertions.assertSame(snapshot.getEntityDescriptor(), ref.get());
+
+    final PeerMetadataReference ref2 = serializeAndDeserialize(ref);
+    Assertions.assertEquals(snapshot.getVersion(), ref2.getVersion());
+
+    final Saml2IdpContext context = Mockito.mock(Saml2IdpContext.class);
+    Mockito.when(context.getMetadataSnapshotCache()).thenReturn(cache);
+    Saml2IdpContextHolder.setContext(context);
+
+    Assertions.assertSame(snapshot.getEntityDescriptor(), ref2.get());
+    Assertions.assertEquals(snapshot.getVersion(), ref2.getVersion());
+  }
+
+  @Test
+  void testCompactMetadataUpdated() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(Mockito.mock(MetadataResolver.class));
+    final MetadataSnapshot snapshot = cache.getSnapshot(ed);
+    final PeerMetadataReference ref = serializeAndDeserialize(PeerMetadataReference.of(snapshot, true));
+
+    final EntityDescriptor updated = this.loadMetadata();
+    updated.setID("_updated");
+    final MetadataResolver resolver = Mockito.mock(MetadataResolver.class);
+    Mockito.when(resolver.resolveSingle(Mockito.any())).thenReturn(updated);
+    final MetadataSnapshotCache updatedCache = new MetadataSnapshotCache(resolver);
+
+    final Saml2IdpContext context = Mockito.mock(Saml2IdpContext.class);
+    Mockito.when(context.getMetadataSnapshotCache()).thenReturn(updatedCache);
+    Saml2IdpContextHolder.setContext(context);
+
+    // The current metadata is used ...
+    Assertions.assertEquals("_updated", ref.get().getID());
+    Assertions.assertNotEquals(snapshot.getVersion(), ref.getVersion());
+    Assertions.assertEquals(updatedCache.getSnapshot(updated).getVersion(), ref.getVersion());
+  }
+
+  @Test
+  void testFromSerialized() throws Exception {
+    Assertions.assertNull(PeerMetadataReference.fromSerialized(null));
+
+    final EntityDescriptor ed = this.loadMetadata();
+    final PeerMetadataReference ref = PeerMetadataReference.of(ed);
+    Assertions.assertSame(ref, PeerMetadataReference.fromSerialized(ref));
+
+    // The format used before PeerMetadataReference was introduced ...
+    final PeerMetadataReference migrated =
+        PeerMetadataReference.fromSerialized(new SerializableOpenSamlObject<>(ed));
+    Assertions.assertNotNull(migrated);
+    Assertions.assertFalse(migrated.isCompact());
+    Assertions.assertEquals(ed.getEntityID(), migrated.getEntityId());
+    Assertions.assertEquals(ed.getEntityID(), migrated.get().getEntityID());
+
+    Assertions.assertThrows(InvalidObjectException.class, () -> PeerMetadataReference.fromSerialized("invalid"));
+  }
+
+  @Test
+  void testCompactNoContext() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(Mockito.mock(MetadataResolver.class));
+    final PeerMetadataReference ref = serializeAndDeserialize(PeerMetadataReference.of(cache.getSnapshot(ed), true));
+
+    final UnrecoverableSaml2IdpException ex = Assertions.assertThrows(UnrecoverableSaml2IdpException.class, ref::get);
+    Assertions.assertEquals(UnrecoverableSaml2IdpError.INTERNAL, ex.getError());
+  }
+
+  @Test
+  void testCompactUnknownPeer() throws Exception {
+    final EntityDescriptor ed = this.loadMetadata();
+    final MetadataResolver resolver = Mockito.mock(MetadataResolver.class);
+    final MetadataSnapshotCache cache = new MetadataSnapshotCache(resolver);
+    final PeerMetadataReference ref = serializeAndDeserialize(PeerMetadataReference.of(cache.getSnapshot(ed), true));
+
+    final Saml2IdpContext context = Mockito.mock(Saml2IdpContext.class);
+    Mockito.when(context.getMetadataSnapshotCache()).thenReturn(cache);
+    Saml2IdpContextHolder.setContext(context);
+
+    final UnrecoverableSaml2IdpException ex = Assertions.assertThrows(UnrecoverableSaml2IdpException.class, ref::get);
+    Assertions.assertEquals(UnrecoverableSaml2IdpError.UNKNOWN_PEER, ex.getError());
+  }
+
+  private static PeerMetadataReference serializeAndDeserialize(final PeerMetadataReference ref) throws Exception {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (final ObjectOutputStream out = new ObjectOutputStream(bos)) {
+      out.writeObject(ref);
+    }
+    try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()))) {
+      return (PeerMetadataReference) in.readObject();
+    }
+  }
+
+  private EntityDescriptor loadMetadata() throws Exception {
+    return unmarshall(new ClassPathResource("sp-metadata.xml").getInputStream(), EntityDescriptor.class);
+  }
+
+}
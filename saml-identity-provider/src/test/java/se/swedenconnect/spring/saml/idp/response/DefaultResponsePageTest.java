@@ -20,6 +20,10 @@ import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
 
 /**
  * Test cases for DefaultResponsePage.
@@ -61,4 +65,30 @@ public class DefaultResponsePageTest {
     Assertions.assertEquals("RELAY-STATE", receivedRelayState);
   }
 
+  @Test
+  public void testStreamingResponse() throws Exception {
+    final DefaultResponsePage responsePage = new DefaultResponsePage();
+
+    final MockHttpServletResponse streamed = new MockHttpServletResponse();
+    responsePage.sendResponse(new MockHttpServletRequest(), streamed, "https://www.example.com/sso",
+        out -> out.write("RESPONSE".getBytes(StandardCharsets.US_ASCII)), "RELAY-STATE");
+
+    Assertions.assertEquals(
+        DefaultResponsePage.generateResponsePage("https://www.example.com/sso", "RESPONSE", "RELAY-STATE"),
+        streamed.getContentAsString(StandardCharsets.UTF_8));
+    Assertions.assertEquals("no-cache, no-store", streamed.getHeader("Cache-control"));
+
+    final MockHttpServletResponse streamedNoRelayState = new MockHttpServletResponse();
+    responsePage.sendResponse(new MockHttpServletRequest(), streamedNoRelayState, "https://www.example.com/sso",
+        out -> out.write("RESPONSE".getBytes(StandardCharsets.US_ASCII)), null);
+
+    final MockHttpServletResponse buffered = new MockHttpServletResponse();
+    responsePage.sendResponse(new MockHttpServletRequest(), buffered, "https://www.example.com/sso",
+        "RESPONSE", null);
+
+    Assertions.assertEquals(buffered.getContentAsString(StandardCharsets.UTF_8),
+        streamedNoRelayState.getContentAsString(StandardCharsets.UTF_8));
+    Assertions.assertEquals(buffered.getContentAsByteArray().length, buffered.getContentLength());
+  }
+
 }
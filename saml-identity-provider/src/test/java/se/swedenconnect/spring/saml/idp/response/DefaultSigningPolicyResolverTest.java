@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.ext.saml2mdattr.EntityAttributes;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import se.swedenconnect.opensaml.sweid.saml2.metadata.entitycategory.EntityCategoryConstants;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+
+import java.util.Map;
+
+/**
+ * Test cases for DefaultSigningPolicyResolver.
+ *
+ * @author Martin Lindström
+ */
+public class DefaultSigningPolicyResolverTest extends OpenSamlTestBase {
+
+  private static final String SIGSERVICE = EntityCategoryConstants.SERVICE_TYPE_CATEGORY_SIGSERVICE.getUri();
+
+  @Test
+  void testDefault() {
+    final DefaultSigningPolicyResolver resolver = new DefaultSigningPolicyResolver();
+    Assertions.assertEquals(SigningPolicy.RESPONSE_ONLY, resolver.resolve(createMetadata("https://sp.example.com")));
+    Assertions.assertEquals(SigningPolicy.RESPONSE_ONLY, resolver.resolve(null));
+  }
+
+  @Test
+  void testEntityCategory() {
+    final DefaultSigningPolicyResolver resolver = new DefaultSigningPolicyResolver(
+        SigningPolicy.BOTH, Map.of(SIGSERVICE, SigningPolicy.ASSERTION_ONLY));
+
+    Assertions.assertEquals(SigningPolicy.ASSERTION_ONLY,
+        resolver.resolve(createMetadata("https://sp.example.com", SIGSERVICE)));
+    Assertions.assertEquals(SigningPolicy.BOTH,
+        resolver.resolve(createMetadata("https://sp.example.com", "http://id.example.com/ec/other")));
+  }
+
+  @Test
+  void testServiceProviderPrecedence() {
+    final DefaultSigningPolicyResolver resolver = new DefaultSigningPolicyResolver(
+        SigningPolicy.ASSERTION_ONLY, Map.of(SIGSERVICE, SigningPolicy.ASSERTION_ONLY));
+    resolver.setServiceProviderPolicies(Map.of("https://sp.example.com", SigningPolicy.RESPONSE_ONLY));
+
+    Assertions.assertEquals(SigningPolicy.RESPONSE_ONLY,
+        resolver.resolve(createMetadata("https://sp.example.com", SIGSERVICE)));
+    Assertions.assertEquals(SigningPolicy.ASSERTION_ONLY,
+        resolver.resolve(createMetadata("https://other.example.com")));
+  }
+
+  private static EntityDescriptor createMetadata(final String entityId, final String... entityCategories) {
+    final EntityDescriptor entityDescriptor =
+        (EntityDescriptor) XMLObjectSupport.buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+    entityDescriptor.setEntityID(entityId);
+    if (entityCategories.length > 0) {
+      final Attribute attribute = (Attribute) XMLObjectSupport.buildXMLObject(Attribute.DEFAULT_ELEMENT_NAME);
+      attribute.setName("http://macedir.org/entity-category");
+      attribute.setNameFormat(Attribute.URI_REFERENCE);
+      for (final String category : entityCategories) {
+        final XSString value = (XSString) XMLObjectProviderRegistrySupport.getBuilderFactory()
+            .<XSString> ensureBuilder(XSString.TYPE_NAME)
+            .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+        value.setValue(category);
+        attribute.getAttributeValues().add(value);
+      }
+      final EntityAttributes entityAttributes =
+          (EntityAttributes) XMLObjectSupport.buildXMLObject(EntityAttributes.DEFAULT_ELEMENT_NAME);
+      entityAttributes.getAttributes().add(attribute);
+      final Extensions extensions = (Extensions) XMLObjectSupport.buildXMLObject(Extensions.DEFAULT_ELEMENT_NAME);
+      extensions.getUnknownXMLObjects().add(entityAttributes);
+      entityDescriptor.setExtensions(extensions);
+    }
+    return entityDescriptor;
+  }
+
+}
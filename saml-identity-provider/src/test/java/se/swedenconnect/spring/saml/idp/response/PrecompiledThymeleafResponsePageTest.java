@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.response;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.thymeleaf.IEngineConfiguration;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.StringTemplateResolver;
+import org.thymeleaf.templateresource.ITemplateResource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test cases for PrecompiledThymeleafResponsePage.
+ *
+ * @author Martin Lindström
+ */
+public class PrecompiledThymeleafResponsePageTest {
+
+  private static final String TEMPLATE = """
+      <!DOCTYPE html>
+      <html xmlns:th="http://www.thymeleaf.org">
+      <body onload="document.forms[0].submit()">
+      <form method="POST" action="#" th:action="${action}">
+        <input type="hidden" name="SAMLResponse" th:value="${SAMLResponse}"/>
+        <input th:if="${RelayState != null}" type="hidden" name="RelayState" th:value="${RelayState}"/>
+        <noscript><button type="submit">Continue</button></noscript>
+      </form>
+      </body>
+      </html>
+      """;
+
+  @Test
+  void testSameAsThymeleaf() throws Exception {
+    final CountingTemplateEngine templateEngine = new CountingTemplateEngine();
+    final ThymeleafResponsePage thymeleafPage = new ThymeleafResponsePage(templateEngine, TEMPLATE);
+    final PrecompiledThymeleafResponsePage page = new PrecompiledThymeleafResponsePage(templateEngine, TEMPLATE);
+    page.setCacheable(true);
+
+    for (final String relayState : new String[] { "relay<\"&'>state", null, "other" }) {
+      final MockHttpServletResponse expected = new MockHttpServletResponse();
+      thymeleafPage.sendResponse(new MockHttpServletRequest(), expected,
+          "https://sp.example.com/acs?a=1&b=2", "UkVTUE9OU0U=", relayState);
+
+      final MockHttpServletResponse response = new MockHttpServletResponse();
+      page.sendResponse(new MockHttpServletRequest(), response,
+          "https://sp.example.com/acs?a=1&b=2", "UkVTUE9OU0U=", relayState);
+
+      Assertions.assertEquals(expected.getContentAsString(StandardCharsets.UTF_8),
+          response.getContentAsString(StandardCharsets.UTF_8));
+      Assertions.assertEquals("no-cache, no-store", response.getHeader("Cache-control"));
+    }
+
+    // 3 invocations by the Thymeleaf page, and 3 compilations, since the page with RelayState is compiled twice
+    // before it is cached ...
+    Assertions.assertEquals(6, templateEngine.invocations.get());
+  }
+
+  @Test
+  void testStreamingAndLocales() throws Exception {
+    final CountingTemplateEngine templateEngine = new CountingTemplateEngine();
+    final PrecompiledThymeleafResponsePage page = new PrecompiledThymeleafResponsePage(templateEngine, TEMPLATE);
+    page.setCacheable(true);
+    page.setMaxCompiledPages(1);
+
+    final MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addPreferredLocale(Locale.ENGLISH);
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    page.sendResponse(request, response, "https://sp.example.com/acs",
+        out -> out.write("UkVTUE9OU0U=".getBytes(StandardCharsets.US_ASCII)), null);
+    Assertions.assertTrue(response.getContentAsString(StandardCharsets.UTF_8)
+        .contains("name=\"SAMLResponse\" value=\"UkVTUE9OU0U=\""));
+
+    // The second request verifies the compiled page, and the third is served from the cache ...
+    page.sendResponse(request, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    page.sendResponse(request, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    Assertions.assertEquals(2, templateEngine.invocations.get());
+
+    // The maximum number of compiled pages has been reached, so the page for the other locale evicts the first page
+    final MockHttpServletRequest request2 = new MockHttpServletRequest();
+    request2.addPreferredLocale(Locale.GERMAN);
+    page.sendResponse(request2, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    page.sendResponse(request2, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    page.sendResponse(request2, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    Assertions.assertEquals(4, templateEngine.invocations.get());
+
+    page.sendResponse(request, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    Assertions.assertEquals(5, templateEngine.invocations.get());
+
+    page.clear();
+    page.sendResponse(request, new MockHttpServletResponse(), "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+    Assertions.assertEquals(6, templateEngine.invocations.get());
+  }
+
+  @Test
+  void testNotCachedByDefault() throws Exception {
+    final CountingTemplateEngine templateEngine = new CountingTemplateEngine();
+    final PrecompiledThymeleafResponsePage page = new PrecompiledThymeleafResponsePage(templateEngine, TEMPLATE);
+
+    for (int i = 0; i < 3; i++) {
+      page.sendResponse(new MockHttpServletRequest(), new MockHttpServletResponse(), "https://sp.example.com/acs",
+          "UkVTUE9OU0U=", null);
+    }
+    Assertions.assertEquals(3, templateEngine.invocations.get());
+  }
+
+  @Test
+  void testPerRequestOutputIsNotCached() throws Exception {
+    final String template = TEMPLATE.replace("<body ",
+        "<head><meta name=\"_csrf\" th:content=\"${#strings.randomAlphanumeric(16)}\"/></head>\n<body ");
+
+    final CountingTemplateEngine templateEngine = new CountingTemplateEngine();
+    final PrecompiledThymeleafResponsePage page = new PrecompiledThymeleafResponsePage(templateEngine, template);
+    page.setCacheable(true);
+
+    for (int i = 0; i < 4; i++) {
+      final MockHttpServletResponse response = new MockHttpServletResponse();
+      page.sendResponse(new MockHttpServletRequest(), response, "https://sp.example.com/acs", "UkVTUE9OU0U=", null);
+      Assertions.assertTrue(response.getContentAsString(StandardCharsets.UTF_8)
+          .contains("name=\"SAMLResponse\" value=\"UkVTUE9OU0U=\""));
+    }
+    // The second request reveals the per-request output, and from then on the template is processed for each
+    // request ...
+    Assertions.assertEquals(4, templateEngine.invocations.get());
+  }
+
+  private static class CountingTemplateEngine extends SpringTemplateEngine {
+
+    private final AtomicInteger invocations = new AtomicInteger();
+
+    CountingTemplateEngine() {
+      final StringTemplateResolver resolver = new StringTemplateResolver() {
+
+        @Override
+        protected ITemplateResource computeTemplateResource(final IEngineConfiguration configuration,
+            final String ownerTemplate, final String template, final Map<String, Object> templateResolutionAttributes) {
+          CountingTemplateEngine.this.invocations.incrementAndGet();
+          return super.computeTemplateResource(configuration, ownerTemplate, template, templateResolutionAttributes);
+        }
+      };
+      resolver.setTemplateMode(TemplateMode.HTML);
+      resolver.setCacheable(false);
+      this.setTemplateResolver(resolver);
+    }
+
+  }
+
+}
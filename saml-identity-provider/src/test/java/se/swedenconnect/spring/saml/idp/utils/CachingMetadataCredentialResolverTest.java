@@ -0,0 +1,114 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import net.shibboleth.shared.resolver.CriteriaSet;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.criterion.EntityRoleCriterion;
+import org.opensaml.saml.criterion.ProtocolCriterion;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialResolver;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.security.criteria.KeyNameCriterion;
+import org.opensaml.security.criteria.UsageCriterion;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshot;
+import se.swedenconnect.spring.saml.idp.metadata.MetadataSnapshotCache;
+
+import java.util.List;
+
+/**
+ * Test cases for CachingMetadataCredentialResolver.
+ *
+ * @author Martin Lindström
+ */
+public class CachingMetadataCredentialResolverTest {
+
+  private static final String SP = "https://sp.example.com";
+
+  @Test
+  void testCache() throws Exception {
+    final Credential credential = Mockito.mock(Credential.class);
+    final CredentialResolver credentialResolver = Mockito.mock(CredentialResolver.class);
+    Mockito.when(credentialResolver.resolve(Mockito.any())).thenReturn(List.of(credential));
+
+    final MetadataSnapshot snapshot1 = snapshot("v1");
+    final MetadataSnapshot snapshot2 = snapshot("v2");
+    final MetadataSnapshotCache snapshotCache = Mockito.mock(MetadataSnapshotCache.class);
+    Mockito.when(snapshotCache.resolve(SP)).thenReturn(snapshot1, snapshot1, snapshot2);
+
+    final CachingMetadataCredentialResolver resolver =
+        new CachingMetadataCredentialResolver(credentialResolver, snapshotCache);
+
+    Assertions.assertSame(credential, resolver.resolveSingle(criteria()));
+    Assertions.assertSame(credential, resolver.resolveSingle(criteria()));
+    Mockito.verify(credentialResolver, Mockito.times(1)).resolve(Mockito.any());
+
+    // The metadata has been refreshed ...
+    Assertions.assertSame(credential, resolver.resolveSingle(criteria()));
+    Mockito.verify(credentialResolver, Mockito.times(2)).resolve(Mockito.any());
+  }
+
+  @Test
+  void testNotCached() throws Exception {
+    final Credential credential = Mockito.mock(Credential.class);
+    final CredentialResolver credentialResolver = Mockito.mock(CredentialResolver.class);
+    Mockito.when(credentialResolver.resolve(Mockito.any())).thenReturn(List.of(credential));
+    final MetadataSnapshotCache snapshotCache = Mockito.mock(MetadataSnapshotCache.class);
+
+    final CachingMetadataCredentialResolver resolver =
+        new CachingMetadataCredentialResolver(credentialResolver, snapshotCache);
+
+    final CriteriaSet criteria = criteria();
+    criteria.add(new KeyNameCriterion("key"));
+    resolver.resolve(criteria);
+    resolver.resolve(criteria);
+    resolver.resolve(new CriteriaSet(new EntityIdCriterion(SP)));
+
+    Mockito.verify(credentialResolver, Mockito.times(3)).resolve(Mockito.any());
+    Mockito.verifyNoInteractions(snapshotCache);
+  }
+
+  @Test
+  void testUnknownVersionNotCached() throws Exception {
+    final Credential credential = Mockito.mock(Credential.class);
+    final CredentialResolver credentialResolver = Mockito.mock(CredentialResolver.class);
+    Mockito.when(credentialResolver.resolve(Mockito.any())).thenReturn(List.of(credential));
+
+    final CachingMetadataCredentialResolver resolver =
+        new CachingMetadataCredentialResolver(credentialResolver, Mockito.mock(MetadataSnapshotCache.class));
+
+    Assertions.assertSame(credential, resolver.resolveSingle(criteria()));
+    Assertions.assertSame(credential, resolver.resolveSingle(criteria()));
+    Mockito.verify(credentialResolver, Mockito.times(2)).resolve(Mockito.any());
+  }
+
+  private static MetadataSnapshot snapshot(final String version) {
+    final MetadataSnapshot snapshot = Mockito.mock(MetadataSnapshot.class);
+    Mockito.when(snapshot.getVersion()).thenReturn(version);
+    return snapshot;
+  }
+
+  private static CriteriaSet criteria() {
+    return new CriteriaSet(new EntityIdCriterion(SP), new EntityRoleCriterion(SPSSODescriptor.DEFAULT_ELEMENT_NAME),
+        new ProtocolCriterion(SAMLConstants.SAML20P_NS), new UsageCriterion(UsageType.SIGNING));
+  }
+
+}
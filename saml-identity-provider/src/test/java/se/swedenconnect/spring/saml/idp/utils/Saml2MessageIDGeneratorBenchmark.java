@@ -0,0 +1,113 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing the throughput of {@link DefaultSaml2MessageIDGenerator} and
+ * {@link StripedSaml2MessageIDGenerator} when many threads generate identifiers concurrently.
+ * <p>
+ * The benchmark is not run as part of the unit tests. Run it using the {@link #main(String[])} method from the test
+ * classpath, for example:
+ * </p>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=se.swedenconnect.spring.saml.idp.utils.Saml2MessageIDGeneratorBenchmark
+ * </pre>
+ * <p>
+ * The benchmark is run with 1, 64 and 128 threads. With a single thread the generators perform roughly the same,
+ * but with 64 threads or more the default generator's throughput is limited by the contention on its single
+ * {@link java.security.SecureRandom}.
+ * </p>
+ *
+ * @author Martin Lindström
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Saml2MessageIDGeneratorBenchmark {
+
+  /** The generator under test. */
+  @Param({ "default", "striped", "striped-batched" })
+  private String generatorType;
+
+  /** The generator. */
+  private Saml2MessageIDGenerator generator;
+
+  /**
+   * Creates the generator.
+   */
+  @Setup
+  public void setup() {
+    this.generator = switch (this.generatorType) {
+      case "default" -> new DefaultSaml2MessageIDGenerator();
+      case "striped" -> new StripedSaml2MessageIDGenerator();
+      case "striped-batched" -> {
+        final StripedSaml2MessageIDGenerator striped = new StripedSaml2MessageIDGenerator();
+        striped.setBatchSize(64);
+        yield striped;
+      }
+      default -> throw new IllegalArgumentException("Unknown generator type: " + this.generatorType);
+    };
+  }
+
+  /**
+   * Generates one identifier.
+   *
+   * @return the identifier
+   */
+  @Benchmark
+  public String generateIdentifier() {
+    return this.generator.generateIdentifier();
+  }
+
+  /**
+   * Runs the benchmark with 1, 64 and 128 threads.
+   *
+   * @param args not used
+   * @throws Exception for benchmark errors
+   */
+  public static void main(final String[] args) throws Exception {
+    for (final int threads : new int[] { 1, 64, 128 }) {
+      final Options options = new OptionsBuilder()
+          .include(Saml2MessageIDGeneratorBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build();
+      new Runner(options).run();
+    }
+  }
+
+}
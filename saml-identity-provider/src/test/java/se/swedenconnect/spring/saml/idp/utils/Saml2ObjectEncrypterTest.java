@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.xmlsec.EncryptionParameters;
+import org.opensaml.xmlsec.impl.BasicEncryptionConfiguration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import se.swedenconnect.opensaml.saml2.metadata.build.EntityDescriptorBuilder;
+import se.swedenconnect.opensaml.saml2.metadata.build.KeyDescriptorBuilder;
+import se.swedenconnect.opensaml.saml2.metadata.build.SPSSODescriptorBuilder;
+import se.swedenconnect.opensaml.xmlsec.encryption.support.SAMLObjectDecrypter;
+import se.swedenconnect.security.credential.KeyStoreCredential;
+import se.swedenconnect.security.credential.PkiCredential;
+import se.swedenconnect.security.credential.factory.KeyStoreFactory;
+import se.swedenconnect.security.credential.opensaml.OpenSamlCredential;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+
+import javax.crypto.KeyGenerator;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Test cases for Saml2ObjectEncrypter.
+ *
+ * @author Martin Lindström
+ */
+public class Saml2ObjectEncrypterTest extends OpenSamlTestBase {
+
+  private static final String SP = "https://sp.example.com";
+
+  private static PkiCredential encryptCredential;
+
+  @BeforeAll
+  public static void init() throws Exception {
+    final Resource keyStoreResource = new ClassPathResource("test-sp.jks");
+    try (final InputStream is = keyStoreResource.getInputStream()) {
+      final KeyStore keyStore = KeyStoreFactory.loadKeyStore(is, "secret".toCharArray(), null, null);
+      encryptCredential = new KeyStoreCredential(keyStore, "encrypt", "secret".toCharArray());
+    }
+  }
+
+  @Test
+  void testEncrypt() throws Exception {
+    final Saml2ObjectEncrypter encrypter = new Saml2ObjectEncrypter();
+    final EntityDescriptor metadata = createMetadata();
+
+    final SAMLObjectDecrypter decrypter = new SAMLObjectDecrypter(new OpenSamlCredential(encryptCredential));
+    for (int i = 0; i < 2; i++) {
+      final EncryptedAssertion encryptedAssertion = encrypter.encrypt(createAssertion("_id" + i), metadata, "v1");
+      final Assertion assertion = decrypter.decrypt(encryptedAssertion.getEncryptedData(), Assertion.class);
+      Assertions.assertEquals("_id" + i, assertion.getID());
+    }
+  }
+
+  @Test
+  void testCached() throws Exception {
+    final Saml2ObjectEncrypter encrypter = new Saml2ObjectEncrypter();
+    final EntityDescriptor metadata = createMetadata();
+
+    final EncryptionParameters parameters = encrypter.getEncryptionParameters(metadata, null);
+    Assertions.assertNotNull(parameters.getKeyTransportEncryptionCredential());
+    Assertions.assertEquals("http://www.w3.org/2009/xmlenc11#aes256-gcm", parameters.getDataEncryptionAlgorithm());
+    // No version means that the parameters are resolved each time ...
+    Assertions.assertNotSame(parameters, encrypter.getEncryptionParameters(metadata, null));
+
+    final EncryptionParameters versioned = encrypter.getEncryptionParameters(metadata, "v1");
+    Assertions.assertSame(versioned, encrypter.getEncryptionParameters(createMetadata(), "v1"));
+    Assertions.assertNotSame(versioned, encrypter.getEncryptionParameters(createMetadata(), "v2"));
+  }
+
+  @Test
+  void testDataEncryptionCredentialNotCached() throws Exception {
+    final KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+    keyGenerator.init(256);
+    final BasicEncryptionConfiguration configuration = new BasicEncryptionConfiguration();
+    configuration.setDataEncryptionCredentials(
+        List.of(CredentialSupport.getSimpleCredential(keyGenerator.generateKey())));
+    configuration.setDataEncryptionAlgorithms(List.of("http://www.w3.org/2009/xmlenc11#aes256-gcm"));
+    configuration.setKeyTransportEncryptionAlgorithms(List.of("http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p"));
+
+    final Saml2ObjectEncrypter encrypter = new Saml2ObjectEncrypter();
+    encrypter.setEncryptionConfiguration(configuration);
+    final EntityDescriptor metadata = createMetadata();
+
+    final EncryptionParameters parameters = encrypter.getEncryptionParameters(metadata, "v1");
+    Assertions.assertNotNull(parameters.getDataEncryptionCredential());
+    Assertions.assertNotSame(parameters, encrypter.getEncryptionParameters(metadata, "v1"));
+  }
+
+  @Test
+  void testNoEncryptionCredential() throws Exception {
+    final Saml2ObjectEncrypter encrypter = new Saml2ObjectEncrypter();
+    final EntityDescriptor metadata = EntityDescriptorBuilder.builder()
+        .entityID(SP)
+        .roleDescriptors(SPSSODescriptorBuilder.builder().build())
+        .build();
+    Assertions.assertThrows(Exception.class, () -> encrypter.encrypt(createAssertion("_id"), metadata, null));
+  }
+
+  private static Assertion createAssertion(final String id) {
+    final Assertion assertion = (Assertion) XMLObjectSupport.buildXMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+    assertion.setID(id);
+    assertion.setIssueInstant(Instant.now());
+    final Issuer issuer = (Issuer) XMLObjectSupport.buildXMLObject(Issuer.DEFAULT_ELEMENT_NAME);
+    issuer.setValue("https://idp.example.com");
+    assertion.setIssuer(issuer);
+    return assertion;
+  }
+
+  private static EntityDescriptor createMetadata() {
+    return EntityDescriptorBuilder.builder()
+        .entityID(SP)
+        .roleDescriptors(
+            SPSSODescriptorBuilder.builder()
+                .keyDescriptors(
+                    KeyDescriptorBuilder.builder()
+                        .use(UsageType.ENCRYPTION)
+                        .certificate(encryptCredential.getCertificate())
+                        .encryptionMethods("http://www.w3.org/2001/04/xmlenc#rsa-oaep-mgf1p",
+                            "http://www.w3.org/2009/xmlenc11#aes256-gcm")
+                        .build())
+                .build())
+        .build();
+  }
+
+}
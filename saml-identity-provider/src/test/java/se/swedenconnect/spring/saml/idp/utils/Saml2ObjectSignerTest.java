@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.ext.saml2alg.SigningMethod;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.Extensions;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import se.swedenconnect.security.credential.KeyStoreCredential;
+import se.swedenconnect.security.credential.PkiCredential;
+import se.swedenconnect.security.credential.factory.KeyStoreFactory;
+import se.swedenconnect.security.credential.opensaml.OpenSamlCredential;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.time.Instant;
+
+/**
+ * Test cases for Saml2ObjectSigner.
+ *
+ * @author Martin Lindström
+ */
+public class Saml2ObjectSignerTest extends OpenSamlTestBase {
+
+  private static final String SP = "https://sp.example.com";
+
+  private static PkiCredential credential;
+
+  @BeforeAll
+  public static void init() throws Exception {
+    final Resource keyStoreResource = new ClassPathResource("idp-credentials.jks");
+    try (final InputStream is = keyStoreResource.getInputStream()) {
+      final KeyStore keyStore = KeyStoreFactory.loadKeyStore(is, "secret".toCharArray(), null, null);
+      credential = new KeyStoreCredential(keyStore, "sign", "secret".toCharArray());
+    }
+  }
+
+  @Test
+  void testUnknownVersionNotCached() throws Exception {
+    final Saml2ObjectSigner signer = new Saml2ObjectSigner(credential);
+    final EntityDescriptor metadata = createMetadata(null);
+
+    // No version means that the parameters are resolved each time ...
+    final SignatureSigningParameters parameters = signer.getSigningParameters(metadata, null);
+    Assertions.assertNotSame(parameters, signer.getSigningParameters(metadata, null));
+
+    // Without peer metadata, the parameters are cached ...
+    final SignatureSigningParameters noPeer = signer.getSigningParameters(null, null);
+    Assertions.assertSame(noPeer, signer.getSigningParameters(null, null));
+  }
+
+  @Test
+  void testCachedPerVersion() throws Exception {
+    final Saml2ObjectSigner signer = new Saml2ObjectSigner(credential);
+
+    final SignatureSigningParameters parameters = signer.getSigningParameters(createMetadata(null), "v1");
+    Assertions.assertSame(parameters, signer.getSigningParameters(createMetadata(null), "v1"));
+    Assertions.assertNotSame(parameters, signer.getSigningParameters(createMetadata(null), "v2"));
+  }
+
+  @Test
+  void testPeerSigningMethod() throws Exception {
+    final Saml2ObjectSigner signer = new Saml2ObjectSigner(credential);
+
+    final SignatureSigningParameters parameters = signer.getSigningParameters(
+        createMetadata(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512), "v1");
+    Assertions.assertEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512, parameters.getSignatureAlgorithm());
+
+    // Metadata changed - the SP no longer states any preferences ...
+    Assertions.assertNotEquals(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512,
+        signer.getSigningParameters(createMetadata(null), "v2").getSignatureAlgorithm());
+  }
+
+  @Test
+  void testSign() throws Exception {
+    final Saml2ObjectSigner signer = new Saml2ObjectSigner(credential);
+    signer.setMaxHardwareSessions(2);
+    final EntityDescriptor metadata = createMetadata(null);
+
+    for (int i = 0; i < 2; i++) {
+      final Assertion assertion = (Assertion) XMLObjectSupport.buildXMLObject(Assertion.DEFAULT_ELEMENT_NAME);
+      assertion.setID("_id" + i);
+      assertion.setIssueInstant(Instant.now());
+      signer.sign(assertion, metadata, "v1");
+
+      Assertions.assertNotNull(assertion.getSignature());
+      SignatureValidator.validate(assertion.getSignature(), new OpenSamlCredential(credential));
+    }
+  }
+
+  private static EntityDescriptor createMetadata(final String signingMethod) {
+    final EntityDescriptor entityDescriptor =
+        (EntityDescriptor) XMLObjectSupport.buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+    entityDescriptor.setEntityID(SP);
+    final SPSSODescriptor ssoDescriptor =
+        (SPSSODescriptor) XMLObjectSupport.buildXMLObject(SPSSODescriptor.DEFAULT_ELEMENT_NAME);
+    ssoDescriptor.addSupportedProtocol(SAMLConstants.SAML20P_NS);
+    if (signingMethod != null) {
+      final Extensions extensions = (Extensions) XMLObjectSupport.buildXMLObject(Extensions.DEFAULT_ELEMENT_NAME);
+      final SigningMethod method = (SigningMethod) XMLObjectSupport.buildXMLObject(SigningMethod.DEFAULT_ELEMENT_NAME);
+      method.setAlgorithm(signingMethod);
+      extensions.getUnknownXMLObjects().add(method);
+      ssoDescriptor.setExtensions(extensions);
+    }
+    entityDescriptor.getRoleDescriptors().add(ssoDescriptor);
+    return entityDescriptor;
+  }
+
+}
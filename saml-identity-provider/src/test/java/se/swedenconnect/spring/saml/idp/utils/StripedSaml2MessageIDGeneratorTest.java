@@ -0,0 +1,74 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Test cases for StripedSaml2MessageIDGenerator.
+ *
+ * @author Martin Lindström
+ */
+public class StripedSaml2MessageIDGeneratorTest {
+
+  @Test
+  void testGenerate() {
+    final StripedSaml2MessageIDGenerator generator = new StripedSaml2MessageIDGenerator();
+    final String id = generator.generateIdentifier();
+    Assertions.assertTrue(id.matches("_?[0-9a-f]{32}"), id);
+    Assertions.assertTrue(Character.isLetter(id.charAt(0)) || id.charAt(0) == '_');
+    Assertions.assertNotEquals(id, generator.generateIdentifier());
+
+    Assertions.assertEquals(40, new StripedSaml2MessageIDGenerator(20, 3).generateIdentifier().replace("_", "")
+        .length());
+
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new StripedSaml2MessageIDGenerator(8, 1));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new StripedSaml2MessageIDGenerator(16, 0));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> generator.setBatchSize(0));
+  }
+
+  @Test
+  void testConcurrentBatches() throws Exception {
+    final StripedSaml2MessageIDGenerator generator = new StripedSaml2MessageIDGenerator(16, 4);
+    generator.setBatchSize(32);
+
+    final Set<String> ids = ConcurrentHashMap.newKeySet();
+    try (final ExecutorService executor = Executors.newFixedThreadPool(8)) {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < 1000; i++) {
+            ids.add(generator.generateIdentifier());
+          }
+        }));
+      }
+      for (final Future<?> f : futures) {
+        f.get();
+      }
+    }
+    Assertions.assertEquals(8000, ids.size());
+  }
+
+}
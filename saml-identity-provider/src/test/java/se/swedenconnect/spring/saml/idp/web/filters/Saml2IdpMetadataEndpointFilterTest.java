@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023-2026 Sweden Connect
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package se.swedenconnect.spring.saml.idp.web.filters;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.swedenconnect.opensaml.saml2.metadata.EntityDescriptorContainer;
+import se.swedenconnect.spring.saml.idp.OpenSamlTestBase;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for Saml2IdpMetadataEndpointFilter.
+ *
+ * @author Martin Lindström
+ */
+public class Saml2IdpMetadataEndpointFilterTest extends OpenSamlTestBase {
+
+  @Test
+  void testBackgroundRefresh() throws Exception {
+    final EntityDescriptor descriptor =
+        (EntityDescriptor) XMLObjectSupport.buildXMLObject(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+    descriptor.setEntityID("https://idp.example.com");
+    descriptor.setID("ID1");
+    descriptor.setValidUntil(Instant.now().plus(Duration.ofDays(7)));
+
+    final EntityDescriptorContainer container = Mockito.mock(EntityDescriptorContainer.class);
+    Mockito.when(container.getDescriptor()).thenReturn(descriptor);
+    Mockito.when(container.updateRequired(true)).thenReturn(true, false);
+    Mockito.doAnswer(a -> {
+      descriptor.setID("ID2");
+      return descriptor;
+    }).when(container).update(true);
+
+    final Saml2IdpMetadataEndpointFilter filter = new Saml2IdpMetadataEndpointFilter(container);
+    filter.setBackgroundRefreshInterval(Duration.ofMillis(50));
+    filter.afterPropertiesSet();
+    try {
+      Mockito.verify(container, Mockito.timeout(5000)).update(true);
+      Assertions.assertEquals("ID2", this.download(filter).getID());
+
+      // Simulate a slow re-signing and make sure that the previous metadata is served in the meantime ...
+      //
+      final CountDownLatch signing = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      Mockito.when(container.updateRequired(true)).thenReturn(true);
+      Mockito.doAnswer(a -> {
+        signing.countDown();
+        release.await(10, TimeUnit.SECONDS);
+        descriptor.setID("ID3");
+        return descriptor;
+      }).when(container).update(true);
+
+      Assertions.assertTrue(signing.await(5, TimeUnit.SECONDS));
+      Assertions.assertEquals("ID2", this.download(filter).getID());
+
+      Mockito.when(container.updateRequired(true)).thenReturn(false);
+      release.countDown();
+      for (int i = 0; i < 100 && !"ID3".equals(this.download(filter).getID()); i++) {
+        Thread.sleep(50);
+      }
+      Assertions.assertEquals("ID3", this.download(filter).getID());
+    }
+    finally {
+      filter.destroy();
+    }
+  }
+
+  @Test
+  void testBackgroundRefreshStoppedOnDestroy() throws Exception {
+    final EntityDescriptorContainer container = Mockito.mock(EntityDescriptorContainer.class);
+    final Saml2IdpMetadataEndpointFilter filter = new Saml2IdpMetadataEndpointFilter(container);
+    filter.setBackgroundRefreshInterval(Duration.ofMillis(50));
+
+    // Nothing is scheduled until the filter is initialized ...
+    //
+    Thread.sleep(100);
+    Mockito.verifyNoInteractions(container);
+
+    filter.afterPropertiesSet();
+    Mockito.verify(container, Mockito.timeout(5000)).updateRequired(true);
+    Assertions.assertTrue(isRefreshThreadRunning());
+
+    filter.destroy();
+    for (int i = 0; i < 100 && isRefreshThreadRunning(); i++) {
+      Thread.sleep(50);
+    }
+    Assertions.assertFalse(isRefreshThreadRunning());
+  }
+
+  private static boolean isRefreshThreadRunning() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .anyMatch(t -> "idp-metadata-refresh".equals(t.getName()) && t.isAlive());
+  }
+
+  private EntityDescriptor download(final Saml2IdpMetadataEndpointFilter filter) throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/metadata");
+    request.setServletPath("/metadata");
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, new MockFilterChain());
+    Assertions.assertEquals(200, response.getStatus());
+    return unmarshall(new ByteArrayInputStream(response.getContentAsByteArray()), EntityDescriptor.class);
+  }
+
+}